@@ -2,9 +2,12 @@ package de.oliver_heger.mediastore.service.utils;
 
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.commons.beanutils.BeanUtils;
 import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.beanutils.converters.BigIntegerConverter;
 import org.apache.commons.beanutils.converters.DateConverter;
@@ -24,6 +27,12 @@ import org.apache.commons.beanutils.converters.LongConverter;
  * It copies properties with matching names from the source object to the
  * destination object.
  * </p>
+ * <p>
+ * The properties to be copied are determined once for each combination of
+ * source and destination class; the resulting {@link PropertyMapping} objects
+ * are cached. So bulk transformations only have to invoke the accessor
+ * methods of the objects involved.
+ * </p>
  *
  * @author Oliver Heger
  * @version $Id: $
@@ -33,6 +42,10 @@ public final class DTOTransformer
     /** Constant for a default numeric value with the meaning "undefined". */
     public static final int UNDEFINED = 0;
 
+    /** The cache for the mappings between source and destination classes. */
+    private static final ConcurrentMap<List<Class<?>>, PropertyMapping> CACHE =
+            new ConcurrentHashMap<List<Class<?>>, PropertyMapping>();
+
     /**
      * Private constructor so that no instances can be created.
      */
@@ -51,9 +64,16 @@ public final class DTOTransformer
      */
     public static void transform(Object source, Object dest)
     {
+        if (source == null || dest == null)
+        {
+            throw new IllegalArgumentException(
+                    "Source and destination must not be null!");
+        }
+
         try
         {
-            BeanUtils.copyProperties(dest, source);
+            fetchMapping(source.getClass(), dest.getClass()).copy(source,
+                    dest);
         }
         catch (IllegalAccessException e)
         {
@@ -117,6 +137,31 @@ public final class DTOTransformer
         return (v != UNDEFINED) ? Long.valueOf(v) : null;
     }
 
+    /**
+     * Returns the {@code PropertyMapping} for the specified source and
+     * destination classes. Mappings are created on first access and cached.
+     *
+     * @param sourceClass the source class
+     * @param destClass the destination class
+     * @return the mapping for these classes
+     */
+    static PropertyMapping fetchMapping(Class<?> sourceClass,
+            Class<?> destClass)
+    {
+        List<Class<?>> key = Arrays.<Class<?>> asList(sourceClass, destClass);
+        PropertyMapping mapping = CACHE.get(key);
+        if (mapping == null)
+        {
+            mapping = PropertyMapping.create(sourceClass, destClass);
+            PropertyMapping other = CACHE.putIfAbsent(key, mapping);
+            if (other != null)
+            {
+                mapping = other;
+            }
+        }
+        return mapping;
+    }
+
     /**
      * Handles the initialization of default converters. For instance, a
      * specialized date converter has to be installed that can deal with
@@ -0,0 +1,284 @@
+package de.oliver_heger.mediastore.service.utils;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.beanutils.BeanUtilsBean;
+import org.apache.commons.beanutils.ConvertUtils;
+import org.apache.commons.beanutils.Converter;
+import org.apache.commons.beanutils.MethodUtils;
+
+/**
+ * <p>
+ * A class describing how the properties of a source class are copied to a
+ * destination class.
+ * </p>
+ * <p>
+ * An instance is created once for a combination of source and destination
+ * class. It determines the properties which are readable in the source class
+ * and writable in the destination class, and stores their accessor methods.
+ * So the expensive introspection is not repeated for each object to be
+ * copied.
+ * </p>
+ * <p>
+ * The copy operation produces the same results as
+ * {@code BeanUtils.copyProperties()}: If a value has exactly the type of the
+ * destination property, it is passed to the setter directly; the standard
+ * converters of <em>BeanUtils</em> return such values unchanged. Otherwise,
+ * the converter registered for the destination type is invoked in the same
+ * way as <em>BeanUtils</em> does it. Array properties are handled by
+ * <em>BeanUtils</em> itself. Instances are immutable and can be shared
+ * between multiple threads.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+class PropertyMapping
+{
+    /** Constant for the name of the class property. */
+    private static final String PROP_CLASS = "class";
+
+    /** A map with the wrapper classes for primitive types. */
+    private static final Map<Class<?>, Class<?>> WRAPPERS =
+            createWrapperMap();
+
+    /** The properties to be copied. */
+    private final List<MappedProperty> properties;
+
+    /**
+     * Creates a new instance of {@code PropertyMapping} and initializes it
+     * with the properties to be copied.
+     *
+     * @param props the list of properties
+     */
+    private PropertyMapping(List<MappedProperty> props)
+    {
+        properties = props;
+    }
+
+    /**
+     * Creates a new {@code PropertyMapping} instance for the specified source
+     * and destination classes.
+     *
+     * @param sourceClass the source class
+     * @param destClass the destination class
+     * @return the mapping for these classes
+     * @throws IllegalArgumentException if introspection fails
+     */
+    public static PropertyMapping create(Class<?> sourceClass,
+            Class<?> destClass)
+    {
+        Map<String, PropertyDescriptor> destProperties =
+                new HashMap<String, PropertyDescriptor>();
+        for (PropertyDescriptor pd : fetchPropertyDescriptors(destClass))
+        {
+            destProperties.put(pd.getName(), pd);
+        }
+
+        List<MappedProperty> props = new ArrayList<MappedProperty>();
+        for (PropertyDescriptor pd : fetchPropertyDescriptors(sourceClass))
+        {
+            PropertyDescriptor destPd = destProperties.get(pd.getName());
+            if (!PROP_CLASS.equals(pd.getName()) && destPd != null)
+            {
+                Method readMethod =
+                        MethodUtils.getAccessibleMethod(sourceClass,
+                                pd.getReadMethod());
+                Method writeMethod =
+                        MethodUtils.getAccessibleMethod(destClass,
+                                destPd.getWriteMethod());
+                if (readMethod != null && writeMethod != null
+                        && destPd.getPropertyType() != null)
+                {
+                    props.add(new MappedProperty(pd.getName(), readMethod,
+                            writeMethod, destPd.getPropertyType()));
+                }
+            }
+        }
+
+        return new PropertyMapping(Collections.unmodifiableList(props));
+    }
+
+    /**
+     * Returns a list with the names of the properties copied by this mapping.
+     *
+     * @return a list with the names of the mapped properties
+     */
+    public List<String> getPropertyNames()
+    {
+        List<String> names = new ArrayList<String>(properties.size());
+        for (MappedProperty prop : properties)
+        {
+            names.add(prop.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Copies all mapped properties from the source object to the destination
+     * object. The objects must be compatible with the classes this mapping was
+     * created for.
+     *
+     * @param source the source object
+     * @param dest the destination object
+     * @throws IllegalAccessException if an accessor method cannot be invoked
+     * @throws InvocationTargetException if an accessor method throws an
+     *         exception
+     */
+    public void copy(Object source, Object dest) throws IllegalAccessException,
+            InvocationTargetException
+    {
+        for (MappedProperty prop : properties)
+        {
+            prop.copy(source, dest);
+        }
+    }
+
+    /**
+     * Obtains the property descriptors of the specified class.
+     *
+     * @param cls the class
+     * @return the property descriptors of this class
+     * @throws IllegalArgumentException if introspection fails
+     */
+    private static PropertyDescriptor[] fetchPropertyDescriptors(Class<?> cls)
+    {
+        try
+        {
+            return Introspector.getBeanInfo(cls).getPropertyDescriptors();
+        }
+        catch (IntrospectionException iex)
+        {
+            throw new IllegalArgumentException(iex);
+        }
+    }
+
+    /**
+     * Creates the map with the wrapper classes of primitive types.
+     *
+     * @return the map with wrapper classes
+     */
+    private static Map<Class<?>, Class<?>> createWrapperMap()
+    {
+        Map<Class<?>, Class<?>> map = new HashMap<Class<?>, Class<?>>();
+        map.put(Boolean.TYPE, Boolean.class);
+        map.put(Byte.TYPE, Byte.class);
+        map.put(Character.TYPE, Character.class);
+        map.put(Short.TYPE, Short.class);
+        map.put(Integer.TYPE, Integer.class);
+        map.put(Long.TYPE, Long.class);
+        map.put(Float.TYPE, Float.class);
+        map.put(Double.TYPE, Double.class);
+        return map;
+    }
+
+    /**
+     * A class representing a single property to be copied.
+     */
+    private static class MappedProperty
+    {
+        /** The name of the property. */
+        private final String name;
+
+        /** The read method in the source class. */
+        private final Method readMethod;
+
+        /** The write method in the destination class. */
+        private final Method writeMethod;
+
+        /** The type of the destination property. */
+        private final Class<?> type;
+
+        /** The type of values which can be passed directly to the setter. */
+        private final Class<?> directType;
+
+        /**
+         * Creates a new instance of {@code MappedProperty}.
+         *
+         * @param n the property name
+         * @param rm the read method
+         * @param wm the write method
+         * @param t the type of the destination property
+         */
+        public MappedProperty(String n, Method rm, Method wm, Class<?> t)
+        {
+            name = n;
+            readMethod = rm;
+            writeMethod = wm;
+            type = t;
+            directType = t.isPrimitive() ? WRAPPERS.get(t) : t;
+        }
+
+        /**
+         * Returns the name of this property.
+         *
+         * @return the property name
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Copies the value of this property from the source object to the
+         * destination object.
+         *
+         * @param source the source object
+         * @param dest the destination object
+         * @throws IllegalAccessException if an accessor method cannot be
+         *         invoked
+         * @throws InvocationTargetException if an accessor method throws an
+         *         exception
+         */
+        public void copy(Object source, Object dest)
+                throws IllegalAccessException, InvocationTargetException
+        {
+            Object value = readMethod.invoke(source);
+            if (type.isArray())
+            {
+                BeanUtilsBean.getInstance().copyProperty(dest, name, value);
+            }
+            else
+            {
+                writeMethod.invoke(dest, convert(value));
+            }
+        }
+
+        /**
+         * Converts the specified value to the type of the destination
+         * property. This is analogous to the conversion performed by
+         * {@code BeanUtilsBean.copyProperty()}.
+         *
+         * @param value the value to be converted
+         * @return the converted value
+         */
+        private Object convert(Object value)
+        {
+            if (value != null && value.getClass() == directType)
+            {
+                return value;
+            }
+
+            if (value instanceof String)
+            {
+                return ConvertUtils.convert((String) value, type);
+            }
+            if (value instanceof String[])
+            {
+                return ConvertUtils.convert(((String[]) value)[0], type);
+            }
+            Converter converter = ConvertUtils.lookup(type);
+            return (converter != null) ? converter.convert(type, value)
+                    : value;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package de.oliver_heger.mediastore.service.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * An output stream which compresses the data written to it only if its size
+ * exceeds a threshold.
+ * </p>
+ * <p>
+ * This class is used for the gzip content encoding of HTTP entities. Small
+ * entities are sent uncompressed because for them the compression overhead
+ * outweighs the savings. As the size of an entity is typically not known
+ * before it has been serialized, the data is buffered in memory until either
+ * the threshold is exceeded or the stream is closed. Only then the target
+ * stream is obtained: In the first case {@link #openCompressedStream()} is
+ * called, and all data is written to the target stream in compressed form.
+ * Otherwise, {@link #openUncompressedStream(int)} is called with the size of
+ * the data, and the data is written unchanged. Concrete subclasses implement
+ * these methods; they can set headers correspondingly (e.g. the content
+ * encoding or the content length) before they obtain the target stream.
+ * </p>
+ * <p>
+ * Implementation note: This class is not thread-safe. An instance is intended
+ * to be used for writing a single entity.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public abstract class ThresholdOutputStream extends OutputStream
+{
+    /** The compression threshold. */
+    private final int threshold;
+
+    /** The buffer for the data written before the threshold is reached. */
+    private ByteArrayOutputStream buffer;
+
+    /** The stream for compressed data. */
+    private OutputStream compressedStream;
+
+    /** A flag whether this stream has been closed. */
+    private boolean closed;
+
+    /**
+     * Creates a new instance of {@code ThresholdOutputStream} and sets the
+     * compression threshold.
+     *
+     * @param t the size in bytes the data must exceed to be compressed
+     */
+    protected ThresholdOutputStream(int t)
+    {
+        threshold = t;
+        buffer = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Returns the compression threshold.
+     *
+     * @return the threshold
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Returns a flag whether the data written to this stream is compressed.
+     *
+     * @return the compression flag
+     */
+    public boolean isCompressed()
+    {
+        return compressedStream != null;
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param b the byte
+     * @throws IOException if an IO error occurs
+     */
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] {
+            (byte) b
+        }, 0, 1);
+    }
+
+    /**
+     * Writes a portion of a byte array. The data is either buffered or
+     * compressed.
+     *
+     * @param b the array
+     * @param off the start offset
+     * @param len the number of bytes to write
+     * @throws IOException if an IO error occurs
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (isCompressed())
+        {
+            compressedStream.write(b, off, len);
+        }
+        else
+        {
+            buffer.write(b, off, len);
+            if (buffer.size() > threshold)
+            {
+                startCompression();
+            }
+        }
+    }
+
+    /**
+     * Flushes this stream. Data is only flushed if it is already compressed;
+     * otherwise it stays in the buffer.
+     *
+     * @throws IOException if an IO error occurs
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (isCompressed())
+        {
+            compressedStream.flush();
+        }
+    }
+
+    /**
+     * Closes this stream. If the threshold has not been exceeded, the target
+     * stream is obtained now, and the buffered data is written uncompressed.
+     * Further invocations have no effect.
+     *
+     * @throws IOException if an IO error occurs
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (!closed)
+        {
+            closed = true;
+            if (isCompressed())
+            {
+                compressedStream.close();
+            }
+            else
+            {
+                OutputStream out = openUncompressedStream(buffer.size());
+                buffer.writeTo(out);
+                buffer = null;
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Obtains the target stream for uncompressed data. This method is called
+     * when the stream is closed before the threshold has been exceeded.
+     *
+     * @param size the size of the data in bytes
+     * @return the target stream
+     * @throws IOException if an IO error occurs
+     */
+    protected abstract OutputStream openUncompressedStream(int size)
+            throws IOException;
+
+    /**
+     * Obtains the target stream for compressed data. This method is called
+     * when the threshold is exceeded. The stream returned by this method
+     * receives the compressed data.
+     *
+     * @return the target stream
+     * @throws IOException if an IO error occurs
+     */
+    protected abstract OutputStream openCompressedStream() throws IOException;
+
+    /**
+     * Switches to compression mode. The target stream is obtained, and the
+     * buffered data is written to the compressed stream.
+     *
+     * @throws IOException if an IO error occurs
+     */
+    private void startCompression() throws IOException
+    {
+        compressedStream = new GZIPOutputStream(openCompressedStream());
+        buffer.writeTo(compressedStream);
+        buffer = null;
+    }
+}
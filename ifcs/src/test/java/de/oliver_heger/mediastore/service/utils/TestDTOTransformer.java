@@ -2,7 +2,9 @@ package de.oliver_heger.mediastore.service.utils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.math.BigInteger;
 import java.util.Date;
@@ -158,6 +160,61 @@ public class TestDTOTransformer
         assertNull("Got a big long", bb.getPropertyLong());
     }
 
+    /**
+     * Tests that undefined wrapper values are transformed to default values of
+     * primitive properties.
+     */
+    @Test
+    public void testTransformWrappersUndefinedToPrimitives()
+    {
+        BeanWrappers bw = new BeanWrappers();
+        BeanB b = new BeanB();
+        b.setPropertyInt(INT_VALUE);
+        b.setPropertyLong(LONG_VALUE);
+        DTOTransformer.transform(bw, b);
+        assertEquals("Wrong int", 0, b.getPropertyInt());
+        assertEquals("Wrong long", 0, b.getPropertyLong());
+    }
+
+    /**
+     * Tests that values of matching types are copied without changes.
+     */
+    @Test
+    public void testTransformSameValueInstances()
+    {
+        BeanA a = new BeanA();
+        a.setPropertyDate(DATE_VALUE);
+        a.setPropertyString(STR_VALUE);
+        BeanB b = new BeanB();
+        DTOTransformer.transform(a, b);
+        assertSame("Wrong date", DATE_VALUE, b.getPropertyDate());
+        assertSame("Wrong string", STR_VALUE, b.getPropertyString());
+    }
+
+    /**
+     * Tests whether the mappings between classes are cached.
+     */
+    @Test
+    public void testFetchMappingCached()
+    {
+        PropertyMapping mapping =
+                DTOTransformer.fetchMapping(BeanA.class, BeanB.class);
+        assertSame("Not cached", mapping,
+                DTOTransformer.fetchMapping(BeanA.class, BeanB.class));
+    }
+
+    /**
+     * Tests that the mappings for different classes are distinguished.
+     */
+    @Test
+    public void testFetchMappingDifferentClasses()
+    {
+        PropertyMapping mapping =
+                DTOTransformer.fetchMapping(BeanA.class, BeanB.class);
+        assertNotSame("Same mapping", mapping,
+                DTOTransformer.fetchMapping(BeanB.class, BeanA.class));
+    }
+
     /**
      * Tests whether an invocation target exception is handled correctly during
      * a transform operation.
@@ -0,0 +1,104 @@
+package de.oliver_heger.mediastore.service.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.oliver_heger.mediastore.service.utils.TestDTOTransformer.BeanA;
+import de.oliver_heger.mediastore.service.utils.TestDTOTransformer.BeanB;
+import de.oliver_heger.mediastore.service.utils.TestDTOTransformer.BeanBigProperties;
+import de.oliver_heger.mediastore.service.utils.TestDTOTransformer.BeanWrappers;
+
+/**
+ * Test class for {@code PropertyMapping}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestPropertyMapping
+{
+    /** Constant for a test int value. */
+    private static final int INT_VALUE = 20121104;
+
+    /**
+     * Tests whether the correct properties are mapped.
+     */
+    @Test
+    public void testGetPropertyNames()
+    {
+        PropertyMapping mapping =
+                PropertyMapping.create(BeanA.class, BeanB.class);
+        Set<String> expected =
+                new HashSet<String>(Arrays.asList("propertyDate",
+                        "propertyInt", "propertyLong", "propertyString"));
+        assertEquals("Wrong properties", expected, new HashSet<String>(
+                mapping.getPropertyNames()));
+    }
+
+    /**
+     * Tests that properties without a setter in the destination class are not
+     * mapped.
+     */
+    @Test
+    public void testGetPropertyNamesReadOnly()
+    {
+        PropertyMapping mapping =
+                PropertyMapping.create(BeanB.class, ReadOnlyBean.class);
+        assertTrue("Got properties", mapping.getPropertyNames().isEmpty());
+    }
+
+    /**
+     * Tests a copy operation which requires type conversions.
+     */
+    @Test
+    public void testCopyConversion() throws Exception
+    {
+        PropertyMapping mapping =
+                PropertyMapping.create(BeanB.class, BeanBigProperties.class);
+        BeanB b = new BeanB();
+        b.setPropertyInt(INT_VALUE);
+        BeanBigProperties bb = new BeanBigProperties();
+        mapping.copy(b, bb);
+        assertEquals("Wrong int", BigInteger.valueOf(INT_VALUE),
+                bb.getPropertyInt());
+        assertEquals("Wrong long", BigInteger.ZERO, bb.getPropertyLong());
+    }
+
+    /**
+     * Tests that a mapping can be used for multiple objects.
+     */
+    @Test
+    public void testCopyMultipleObjects() throws Exception
+    {
+        PropertyMapping mapping =
+                PropertyMapping.create(BeanWrappers.class, BeanB.class);
+        for (int i = 1; i <= 10; i++)
+        {
+            BeanWrappers bw = new BeanWrappers();
+            bw.setPropertyInt(i);
+            BeanB b = new BeanB();
+            mapping.copy(bw, b);
+            assertEquals("Wrong int", i, b.getPropertyInt());
+            assertEquals("Wrong long", 0, b.getPropertyLong());
+            assertNull("Got a string", b.getPropertyString());
+        }
+    }
+
+    /**
+     * A test bean class with a read-only property.
+     */
+    public static class ReadOnlyBean
+    {
+        public int getPropertyInt()
+        {
+            return INT_VALUE;
+        }
+    }
+}
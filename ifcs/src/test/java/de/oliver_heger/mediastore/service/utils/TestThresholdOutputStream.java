@@ -0,0 +1,150 @@
+package de.oliver_heger.mediastore.service.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@code ThresholdOutputStream}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestThresholdOutputStream
+{
+    /** Constant for the threshold. */
+    private static final int THRESHOLD = 16;
+
+    /** Constant for the encoding of test data. */
+    private static final String ENCODING = "UTF-8";
+
+    /** Constant for test data. */
+    private static final String DATA = "Some test data which is compressed.";
+
+    /** The target stream. */
+    private ByteArrayOutputStream target;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        target = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Reads the content of the given stream.
+     *
+     * @param in the stream
+     * @return the content of the stream
+     * @throws IOException if an error occurs
+     */
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        int c;
+        while ((c = in.read(buf)) != -1)
+        {
+            bos.write(buf, 0, c);
+        }
+        in.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Tests that data below the threshold is not compressed.
+     */
+    @Test
+    public void testBelowThreshold() throws IOException
+    {
+        byte[] data = DATA.getBytes(ENCODING);
+        ThresholdOutputStreamTestImpl out =
+                new ThresholdOutputStreamTestImpl(data.length);
+        out.write(data[0]);
+        out.write(data, 1, data.length - 1);
+        out.flush();
+        assertEquals("Data already written", 0, target.size());
+        assertEquals("Target stream already opened", 0, out.openCount);
+        out.close();
+        assertFalse("Compressed", out.isCompressed());
+        assertEquals("Wrong size", data.length, out.uncompressedSize);
+        assertArrayEquals("Wrong data", data, target.toByteArray());
+    }
+
+    /**
+     * Tests that data exceeding the threshold is compressed.
+     */
+    @Test
+    public void testCompressed() throws IOException
+    {
+        byte[] data = DATA.getBytes(ENCODING);
+        ThresholdOutputStreamTestImpl out =
+                new ThresholdOutputStreamTestImpl(THRESHOLD);
+        out.write(data, 0, THRESHOLD);
+        assertFalse("Already compressed", out.isCompressed());
+        out.write(data, THRESHOLD, data.length - THRESHOLD);
+        assertTrue("Not compressed", out.isCompressed());
+        assertEquals("Wrong size", -1, out.uncompressedSize);
+        out.close();
+        assertArrayEquals("Wrong data", data, read(new GZIPInputStream(
+                new ByteArrayInputStream(target.toByteArray()))));
+    }
+
+    /**
+     * Tests that closing the stream multiple times has no effect.
+     */
+    @Test
+    public void testCloseMultipleTimes() throws IOException
+    {
+        ThresholdOutputStreamTestImpl out =
+                new ThresholdOutputStreamTestImpl(THRESHOLD);
+        out.write(1);
+        out.close();
+        out.close();
+        assertEquals("Wrong number of target streams", 1, out.openCount);
+        assertEquals("Wrong number of bytes", 1, target.size());
+    }
+
+    /**
+     * A test implementation which writes into the target stream of the test
+     * class and records the invocations of the methods for obtaining it.
+     */
+    private class ThresholdOutputStreamTestImpl extends ThresholdOutputStream
+    {
+        /** The number of times a target stream was requested. */
+        private int openCount;
+
+        /** The size passed for uncompressed data. */
+        private int uncompressedSize = -1;
+
+        public ThresholdOutputStreamTestImpl(int t)
+        {
+            super(t);
+        }
+
+        @Override
+        protected OutputStream openUncompressedStream(int size)
+        {
+            openCount++;
+            uncompressedSize = size;
+            return target;
+        }
+
+        @Override
+        protected OutputStream openCompressedStream()
+        {
+            openCount++;
+            return target;
+        }
+    }
+}
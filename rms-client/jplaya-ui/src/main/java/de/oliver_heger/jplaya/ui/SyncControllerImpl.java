@@ -1,7 +1,5 @@
 package de.oliver_heger.jplaya.ui;
 
-import java.util.List;
-
 import net.sf.jguiraffe.gui.app.ApplicationContext;
 import net.sf.jguiraffe.gui.builder.action.FormAction;
 import net.sf.jguiraffe.gui.builder.components.ComponentBuilderData;
@@ -22,7 +20,6 @@ import org.slf4j.LoggerFactory;
 import de.oliver_heger.mediastore.localstore.CommandObserver;
 import de.oliver_heger.mediastore.localstore.MediaStore;
 import de.oliver_heger.mediastore.localstore.SyncController;
-import de.oliver_heger.mediastore.localstore.model.SongEntity;
 import de.oliver_heger.mediastore.oauth.OAuthCallback;
 import de.oliver_heger.mediastore.service.SongData;
 
@@ -41,7 +38,7 @@ import de.oliver_heger.mediastore.service.SongData;
  * @version $Id: $
  */
 public class SyncControllerImpl implements WindowListener, SyncController,
-        CommandObserver<List<SongEntity>>, FormActionListener
+        CommandObserver<Integer>, FormActionListener
 {
     /** The resource ID for the format pattern for errors. */
     static final String RES_FMT_ERRORS = "sync_fmt_errors";
@@ -335,10 +332,10 @@ public class SyncControllerImpl implements WindowListener, SyncController,
      * The command for retrieving the data to be synchronized finished its
      * background execution. This implementation does nothing.
      *
-     * @param songs a list with the song entities to be synchronized
+     * @param songCount the number of songs to be synchronized
      */
     @Override
-    public void commandCompletedBackground(List<SongEntity> songs)
+    public void commandCompletedBackground(Integer songCount)
     {
     }
 
@@ -347,12 +344,12 @@ public class SyncControllerImpl implements WindowListener, SyncController,
      * processing. This implementation checks whether an error occurred. If this
      * is the case, the UI is adapted accordingly.
      *
-     * @param songs the song entities to be synchronized
+     * @param songCount the number of songs to be synchronized
      * @param ex an exception that might have occurred during background
      *        execution
      */
     @Override
-    public void commandCompletedUI(List<SongEntity> songs, Throwable ex)
+    public void commandCompletedUI(Integer songCount, Throwable ex)
     {
         if (ex != null)
         {
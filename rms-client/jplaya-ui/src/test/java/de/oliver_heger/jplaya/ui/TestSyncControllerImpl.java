@@ -30,7 +30,6 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import de.oliver_heger.mediastore.localstore.MediaStore;
-import de.oliver_heger.mediastore.localstore.model.SongEntity;
 import de.oliver_heger.mediastore.oauth.OAuthCallback;
 import de.oliver_heger.mediastore.service.ObjectFactory;
 import de.oliver_heger.mediastore.service.SongData;
@@ -73,6 +72,9 @@ public class TestSyncControllerImpl
     /** Constant for the step size for the progress bar. */
     private static final int STEP = 2;
 
+    /** Constant for the number of songs to be synchronized. */
+    private static final Integer SONG_COUNT = 42;
+
     /** A factory for creating data objects. */
     private static ObjectFactory factory;
 
@@ -449,19 +451,6 @@ public class TestSyncControllerImpl
         EasyMock.verify(handler, store, callback);
     }
 
-    /**
-     * Creates a mock object for the list of song entities.
-     *
-     * @return the mock list
-     */
-    private static List<SongEntity> createListMock()
-    {
-        @SuppressWarnings("unchecked")
-        List<SongEntity> list = EasyMock.createMock(List.class);
-        EasyMock.replay(list);
-        return list;
-    }
-
     /**
      * Tests whether an error of the execution of the sync command is correctly
      * handled.
@@ -499,7 +488,7 @@ public class TestSyncControllerImpl
         SyncControllerImpl ctrl =
                 new SyncControllerImpl(store, callback, MAX_SONGS);
         ctrl.setComponentBuilderData(cbd);
-        ctrl.commandCompletedUI(createListMock(), new RuntimeException(
+        ctrl.commandCompletedUI(SONG_COUNT, new RuntimeException(
                 "Test exception"));
         EasyMock.verify(chCancel, chClose, labStatus, appCtx, bc, store,
                 callback);
@@ -515,7 +504,7 @@ public class TestSyncControllerImpl
         EasyMock.replay(store, callback);
         SyncControllerImpl ctrl =
                 new SyncControllerImpl(store, callback, MAX_SONGS);
-        ctrl.commandCompletedUI(createListMock(), null);
+        ctrl.commandCompletedUI(SONG_COUNT, null);
     }
 
     /**
@@ -527,7 +516,7 @@ public class TestSyncControllerImpl
         EasyMock.replay(store, callback);
         SyncControllerImpl ctrl =
                 new SyncControllerImpl(store, callback, MAX_SONGS);
-        ctrl.commandCompletedBackground(createListMock());
+        ctrl.commandCompletedBackground(SONG_COUNT);
     }
 
     /**
@@ -1,8 +1,7 @@
 package de.oliver_heger.mediastore.localstore;
 
-import java.util.List;
+import java.util.Map;
 
-import de.oliver_heger.mediastore.localstore.model.SongEntity;
 import de.oliver_heger.mediastore.service.SongData;
 
 /**
@@ -32,11 +31,23 @@ public interface MediaStore
      */
     void updateSongData(SongData songData, int playCount);
 
+    /**
+     * Updates the local store with information about multiple songs. This
+     * method works like {@link #updateSongData(SongData, int)}, but all songs
+     * contained in the map are processed in a single step. The map assigns
+     * each song the number of times it has been played.
+     *
+     * @param playCounts a map with the songs to be updated and their play
+     *        counts
+     */
+    void updateSongData(Map<SongData, Integer> playCounts);
+
     /**
      * Synchronizes the local database with the server. Synchronization happens
      * in the background thread and is monitored by the {@link SyncController}
      * object. A limit for the number of songs to synchronize can be specified;
-     * a value of <b>null</b> means that there is no restriction.
+     * a value of <b>null</b> means that there is no restriction. The result
+     * passed to the observer is the number of songs to be synchronized.
      *
      * @param observer the observer for the command (must not be <b>null</b>)
      * @param syncController the controller for the sync operation (must not be
@@ -44,6 +55,6 @@ public interface MediaStore
      * @param maxSongs the maximum number of songs to synchronize (can be
      *        <b>null</b> for no limit)
      */
-    void syncWithServer(CommandObserver<List<SongEntity>> observer,
+    void syncWithServer(CommandObserver<Integer> observer,
             SyncController syncController, Integer maxSongs);
 }
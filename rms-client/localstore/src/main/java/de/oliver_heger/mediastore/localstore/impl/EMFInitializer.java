@@ -22,6 +22,11 @@ import org.eclipse.persistence.config.PersistenceUnitProperties;
  * database is generated dynamically because the database should reside in the
  * user's home directory.
  * </p>
+ * <p>
+ * After the {@code EntityManagerFactory} has been created, the schema of the
+ * database is updated if necessary. So databases created by older versions
+ * can still be used.
+ * </p>
  *
  * @author Oliver Heger
  * @version $Id: $
@@ -71,7 +76,8 @@ public class EMFInitializer extends BackgroundInitializer<EntityManagerFactory>
     }
 
     /**
-     * Sets up the {@code EntityManagerFactory}.
+     * Sets up the {@code EntityManagerFactory}. The schema of the database is
+     * migrated to the current version.
      *
      * @return the {@code EntityManagerFactory}
      * @throws Exception if an error occurs
@@ -85,7 +91,10 @@ public class EMFInitializer extends BackgroundInitializer<EntityManagerFactory>
         props.put(PROP_CONNECTION_URL, createDBURL(dbSubPath));
         props.put(PersistenceUnitProperties.CLASSLOADER, getClass()
                 .getClassLoader());
-        return p.createEntityManagerFactory(UNIT_NAME, props);
+        EntityManagerFactory emf =
+                p.createEntityManagerFactory(UNIT_NAME, props);
+        SchemaMigration.migrate(emf);
+        return emf;
     }
 
     /**
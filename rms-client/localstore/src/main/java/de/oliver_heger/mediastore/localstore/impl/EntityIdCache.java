@@ -0,0 +1,214 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
+import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
+import de.oliver_heger.mediastore.localstore.model.SongEntity;
+import de.oliver_heger.mediastore.localstore.model.SongOwner;
+import de.oliver_heger.mediastore.service.SongData;
+
+/**
+ * <p>
+ * A helper class for caching the IDs of entities identified by their names.
+ * </p>
+ * <p>
+ * Songs, artists, and albums are identified by their names (and some further
+ * properties) when the local database is updated. Looking them up requires
+ * queries on the names which are more expensive than a lookup by primary key,
+ * especially if a song is resolved together with its artist and album. This
+ * class maps the properties used for such
+ * lookups to the IDs of the corresponding entities. With an ID at hand, an
+ * entity can be loaded by its primary key.
+ * </p>
+ * <p>
+ * The keys used by this class are created by the static factory methods for
+ * the different entity types. Names are converted to search names in the same
+ * way as by the {@link Finders} class, so a key matches exactly the entities
+ * which would be found by the corresponding find method.
+ * </p>
+ * <p>
+ * The cache is populated lazily by the commands updating the database. It is
+ * the responsibility of these commands to add only IDs of entities which have
+ * been committed and to remove entries which turn out to be invalid.
+ * </p>
+ * <p>
+ * Entries are not invalidated when entities are changed or removed. Instead,
+ * an entity loaded by a cached ID has to be validated: the key obtained from
+ * its current properties by {@link #entityKey(Object)} must be equal to the
+ * key used for the lookup. If an entity has been removed or if one of its key
+ * properties (e.g. the name or the artist of a song) has been changed, the
+ * lookup fails, and the entry has to be removed. So a stale entry can never
+ * cause a wrong entity to be used, no matter which component changed the
+ * database. This class is thread-safe.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+class EntityIdCache
+{
+    /** The map with the IDs of the cached entities. */
+    private final ConcurrentMap<List<Object>, Long> ids;
+
+    /**
+     * Creates a new, empty instance of {@code EntityIdCache}.
+     */
+    public EntityIdCache()
+    {
+        ids = new ConcurrentHashMap<List<Object>, Long>();
+    }
+
+    /**
+     * Returns the ID of the entity associated with the given key. Result is
+     * <b>null</b> if the key is unknown.
+     *
+     * @param key the key
+     * @return the ID of the associated entity or <b>null</b>
+     */
+    public Long getID(List<Object> key)
+    {
+        return ids.get(key);
+    }
+
+    /**
+     * Associates the given key with the ID of an entity. <b>null</b> IDs are
+     * ignored.
+     *
+     * @param key the key
+     * @param id the ID of the entity
+     */
+    public void putID(List<Object> key, Long id)
+    {
+        if (id != null)
+        {
+            ids.put(key, id);
+        }
+    }
+
+    /**
+     * Removes the entry for the given key from this cache. This method is
+     * called if an entity cannot be resolved using its cached ID.
+     *
+     * @param key the key
+     */
+    public void remove(List<Object> key)
+    {
+        ids.remove(key);
+    }
+
+    /**
+     * Removes all entries from this cache.
+     */
+    public void clear()
+    {
+        ids.clear();
+    }
+
+    /**
+     * Returns the number of entries contained in this cache.
+     *
+     * @return the size of this cache
+     */
+    public int size()
+    {
+        return ids.size();
+    }
+
+    /**
+     * Creates a key for a song entity.
+     *
+     * @param name the name of the song
+     * @param duration the duration of the song (in seconds)
+     * @param artName the name of the associated artist (can be <b>null</b>)
+     * @return the key for this song
+     */
+    public static List<Object> songKey(String name, Integer duration,
+            String artName)
+    {
+        return Arrays.<Object> asList(SongEntity.class, normalize(name),
+                duration, normalize(artName));
+    }
+
+    /**
+     * Creates a key for the song entity described by the given data object.
+     *
+     * @param data the song data object
+     * @return the key for this song
+     */
+    public static List<Object> songKey(SongData data)
+    {
+        return songKey(data.getName(), (data.getDuration() != null) ? Integer
+                .valueOf(data.getDuration().intValue()) : null, data
+                .getArtistName());
+    }
+
+    /**
+     * Creates a key for an artist entity.
+     *
+     * @param name the name of the artist
+     * @return the key for this artist
+     */
+    public static List<Object> artistKey(String name)
+    {
+        return Arrays.<Object> asList(ArtistEntity.class, normalize(name));
+    }
+
+    /**
+     * Creates a key for an album entity.
+     *
+     * @param name the name of the album
+     * @param inceptionYear the inception year of the album
+     * @return the key for this album
+     */
+    public static List<Object> albumKey(String name, Integer inceptionYear)
+    {
+        return Arrays.<Object> asList(AlbumEntity.class, normalize(name),
+                inceptionYear);
+    }
+
+    /**
+     * Creates a key for the specified entity based on its current properties.
+     * Supported are songs, artists, and albums. The key is equal to the one
+     * produced by the factory method for the corresponding entity type.
+     *
+     * @param entity the entity
+     * @return the key for this entity
+     * @throws IllegalArgumentException if the entity type is not supported
+     */
+    public static List<Object> entityKey(Object entity)
+    {
+        if (entity instanceof SongEntity)
+        {
+            SongEntity song = (SongEntity) entity;
+            return songKey(song.getName(), song.getDuration(),
+                    (song.getArtist() != null) ? song.getArtist().getName()
+                            : null);
+        }
+        if (entity instanceof ArtistEntity)
+        {
+            return artistKey(((ArtistEntity) entity).getName());
+        }
+        if (entity instanceof AlbumEntity)
+        {
+            AlbumEntity album = (AlbumEntity) entity;
+            return albumKey(album.getName(), album.getInceptionYear());
+        }
+        throw new IllegalArgumentException("Unsupported entity: " + entity);
+    }
+
+    /**
+     * Normalizes a name which is part of a key. Names are case insensitive;
+     * they are transformed to search names.
+     *
+     * @param name the name
+     * @return the normalized name
+     */
+    private static String normalize(String name)
+    {
+        return SongOwner.toSearchName(name);
+    }
+}
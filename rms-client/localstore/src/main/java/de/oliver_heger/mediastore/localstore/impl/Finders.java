@@ -1,16 +1,14 @@
 package de.oliver_heger.mediastore.localstore.impl;
 
 import java.util.List;
-import java.util.Locale;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
-import org.apache.commons.lang3.StringUtils;
-
 import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
 import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
 import de.oliver_heger.mediastore.localstore.model.SongEntity;
+import de.oliver_heger.mediastore.localstore.model.SongOwner;
 
 /**
  * <p>
@@ -27,6 +25,9 @@ import de.oliver_heger.mediastore.localstore.model.SongEntity;
  */
 final class Finders
 {
+    /** The number of songs to sync which are loaded in a single query. */
+    static final int SYNC_PAGE_SIZE = 250;
+
     /**
      * Private constructor so that no instances can be created.
      */
@@ -103,29 +104,52 @@ final class Finders
     }
 
     /**
-     * Searches for songs to be synchronized with the server. This method
-     * executes a query which selects songs with a current play count greater
-     * than 0. These are the songs that have been played since the last sync
-     * operation.
+     * Determines the number of songs to be synchronized with the server. These
+     * are the songs with a current play count greater than 0.
      *
      * @param em the {@code EntityManager} (must not be <b>null</b>)
-     * @param limit the limit of the results to be returned (<b>null</b> means
-     *        that there is no restriction)
+     * @return the number of songs that should be synchronized
+     * @throws NullPointerException if the {@code EntityManager} is <b>null</b>
+     */
+    public static long countSongsToSync(EntityManager em)
+    {
+        Number count =
+                (Number) em.createNamedQuery(
+                        SongEntity.QUERY_COUNT_SONGS_TO_SYNC).getSingleResult();
+        return count.longValue();
+    }
+
+    /**
+     * Searches for a page of songs to be synchronized with the server. This
+     * method executes a query which selects songs with a current play count
+     * greater than 0. These are the songs that have been played since the last
+     * sync operation. The artists and albums of the songs are fetched by the
+     * same query. The songs are ordered by their IDs; only songs with an ID
+     * greater than the passed in ID are returned. So all songs can be loaded
+     * by passing the ID of the last song of the previous page. After the query
+     * the persistence context of the {@code EntityManager} is cleared, so the
+     * entities returned are detached.
+     *
+     * @param em the {@code EntityManager} (must not be <b>null</b>)
+     * @param lastID the ID of the last song of the previous page (<b>null</b>
+     *        for the first page)
+     * @param maxResults the maximum number of songs to be returned
      * @return a list with the song entities that should be synchronized
      * @throws NullPointerException if the {@code EntityManager} is <b>null</b>
      */
     public static List<SongEntity> findSongsToSync(EntityManager em,
-            Integer limit)
+            Long lastID, int maxResults)
     {
-        Query query = em.createNamedQuery(SongEntity.QUERY_FIND_SONGS_TO_SYNC);
-        if (limit != null)
-        {
-            query.setMaxResults(limit.intValue());
-        }
-
+        Query query =
+                em.createNamedQuery(SongEntity.QUERY_FIND_SONGS_TO_SYNC)
+                        .setParameter(SongEntity.PARAM_ID,
+                                (lastID != null) ? lastID
+                                        : Long.valueOf(Long.MIN_VALUE))
+                        .setMaxResults(maxResults);
         @SuppressWarnings("unchecked")
-        List<SongEntity> result = query.getResultList();
-        return result;
+        List<SongEntity> page = query.getResultList();
+        em.clear();
+        return page;
     }
 
     /**
@@ -146,8 +170,9 @@ final class Finders
 
     /**
      * Helper method for adding a parameter to the specified query which
-     * represents an entity name. Names are case insensitive, therefore these
-     * parameters are treated specially in queries.
+     * represents an entity name. Names are case insensitive, therefore queries
+     * compare them with the search names of entities which are stored in upper
+     * case. So the parameter value has to be converted to a search name, too.
      *
      * @param query the query
      * @param param the parameter name
@@ -157,7 +182,6 @@ final class Finders
     private static Query addNameParameter(Query query, String param,
             String value)
     {
-        return query.setParameter(param,
-                StringUtils.upperCase(value, Locale.ENGLISH));
+        return query.setParameter(param, SongOwner.toSearchName(value));
     }
 }
@@ -1,18 +1,28 @@
 package de.oliver_heger.mediastore.localstore.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManagerFactory;
 
 import net.sf.jguiraffe.gui.cmd.Command;
 import net.sf.jguiraffe.gui.cmd.CommandQueue;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import de.oliver_heger.mediastore.localstore.CommandObserver;
 import de.oliver_heger.mediastore.localstore.MediaStore;
 import de.oliver_heger.mediastore.localstore.SyncController;
-import de.oliver_heger.mediastore.localstore.model.SongEntity;
 import de.oliver_heger.mediastore.service.SongData;
 
 /**
@@ -35,12 +45,49 @@ import de.oliver_heger.mediastore.service.SongData;
  * {@code BackgroundInitializer} for this purpose; so the connection to the
  * database can be established in a background thread.
  * </p>
+ * <p>
+ * The commands updating the local database with songs that have been played
+ * share an {@link EntityIdCache}. So songs which have already been resolved
+ * can be accessed directly by their primary key.
+ * </p>
+ * <p>
+ * Optionally, updates of play counts can be written in a <em>write-behind</em>
+ * mode. This mode is enabled if a path to a journal file and a maximum delay
+ * are passed to the constructor. Then updates are not written immediately, but
+ * collected in memory; multiple plays of the same song are merged. The first
+ * pending update schedules a flush operation after the maximum delay which
+ * writes all pending updates in a single transaction. In order to prevent that
+ * play counts get lost if the application crashes, each update is recorded in
+ * a {@link PlayCountJournal}. Updates remaining in the journal from a former
+ * run are written by {@link #recoverJournal()}. When the application shuts
+ * down, {@link #shutdown()} has to be called to write pending updates. It
+ * writes them directly on the calling thread because the command queue may
+ * already be shutting down at this time. Updates passed to the command queue
+ * before which are not executed any more remain in the journal; they are
+ * written by {@link #recoverJournal()} on the next start.
+ * </p>
+ * <p>
+ * Per default, a sync operation with the server sends separate requests for
+ * each song. By setting the {@code syncBatchSize} property to a value greater
+ * than 1, songs are synchronized in batches of this size. In addition, the
+ * {@code syncParallelism} property can be set to synchronize multiple songs or
+ * batches concurrently.
+ * </p>
  *
  * @author Oliver Heger
  * @version $Id: $
  */
 public class MediaStoreImpl implements MediaStore
 {
+    /** Constant for the system property with the user's home directory. */
+    private static final String PROP_USER_HOME = "user.home";
+
+    /** Constant for the naming pattern of the flush thread. */
+    private static final String FLUSH_THREAD_NAME = "MediaStoreFlush-%d";
+
+    /** The logger. */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
     /** The initializer for the entity manager factory. */
     private final ConcurrentInitializer<EntityManagerFactory> factoryInitializer;
 
@@ -53,6 +100,30 @@ public class MediaStoreImpl implements MediaStore
     /** The base URI for performing server requests. */
     private final String serviceURI;
 
+    /** The cache for the IDs of entities resolved by update commands. */
+    private final EntityIdCache idCache;
+
+    /** The journal for pending updates; null if write-behind is disabled. */
+    private final PlayCountJournal journal;
+
+    /** The maximum delay of pending updates in milliseconds. */
+    private final long maxDelay;
+
+    /** A map with the songs of pending updates and their play counts. */
+    private final Map<SongData, Integer> pendingCounts;
+
+    /** A map for finding the data objects of songs with pending updates. */
+    private final Map<List<Object>, SongData> pendingSongs;
+
+    /** The executor for scheduling flush operations. */
+    private final ScheduledExecutorService flushExecutor;
+
+    /** The number of songs to be synchronized in a single request. */
+    private volatile int syncBatchSize;
+
+    /** The number of concurrent requests of a sync operation. */
+    private volatile int syncParallelism;
+
     /**
      * Creates a new instance of {@code MediaStoreImpl} and initializes it.
      *
@@ -67,6 +138,57 @@ public class MediaStoreImpl implements MediaStore
     public MediaStoreImpl(
             ConcurrentInitializer<EntityManagerFactory> factoryInit,
             CommandQueue cmdQueue, String oauthURI, String svcURI)
+    {
+        this(factoryInit, cmdQueue, oauthURI, svcURI, null, 0);
+    }
+
+    /**
+     * Creates a new instance of {@code MediaStoreImpl} which writes updates of
+     * play counts in write-behind mode. The path to the journal file is
+     * interpreted relative to the user's home directory.
+     *
+     * @param factoryInit the initializer for the {@code EntityManagerFactory}
+     *        (must not be <b>null</b>)
+     * @param cmdQueue the command queue (must not be <b>null</b>)
+     * @param oauthURI the URI for OAuth requests (must not be <b>null</b>)
+     * @param svcURI the base URI for resource services (must not be
+     *        <b>null</b>)
+     * @param journalPath the path to the journal file for pending updates
+     *        (must not be <b>null</b>)
+     * @param delay the maximum delay of pending updates in milliseconds (must
+     *        be &gt; 0)
+     * @throws NullPointerException if a required parameter is missing
+     * @throws IllegalArgumentException if the delay is invalid
+     */
+    public MediaStoreImpl(
+            ConcurrentInitializer<EntityManagerFactory> factoryInit,
+            CommandQueue cmdQueue, String oauthURI, String svcURI,
+            String journalPath, long delay)
+    {
+        this(factoryInit, cmdQueue, oauthURI, svcURI, new PlayCountJournal(
+                journalFile(journalPath)), delay);
+    }
+
+    /**
+     * Creates a new instance of {@code MediaStoreImpl} and initializes all
+     * properties. If a journal is provided, write-behind mode is enabled.
+     *
+     * @param factoryInit the initializer for the {@code EntityManagerFactory}
+     *        (must not be <b>null</b>)
+     * @param cmdQueue the command queue (must not be <b>null</b>)
+     * @param oauthURI the URI for OAuth requests (must not be <b>null</b>)
+     * @param svcURI the base URI for resource services (must not be
+     *        <b>null</b>)
+     * @param playCountJournal the journal for pending updates (can be
+     *        <b>null</b>, then write-behind mode is disabled)
+     * @param delay the maximum delay of pending updates in milliseconds (must
+     *        be &gt; 0 if a journal is provided)
+     * @throws NullPointerException if a required parameter is missing
+     * @throws IllegalArgumentException if the delay is invalid
+     */
+    MediaStoreImpl(ConcurrentInitializer<EntityManagerFactory> factoryInit,
+            CommandQueue cmdQueue, String oauthURI, String svcURI,
+            PlayCountJournal playCountJournal, long delay)
     {
         if (factoryInit == null)
         {
@@ -85,11 +207,81 @@ public class MediaStoreImpl implements MediaStore
         {
             throw new NullPointerException("Service URI must not be null!");
         }
+        if (playCountJournal != null && delay <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "Delay must be greater than 0!");
+        }
 
         factoryInitializer = factoryInit;
         commandQueue = cmdQueue;
         oauthEndpointURI = oauthURI;
         serviceURI = svcURI;
+        idCache = new EntityIdCache();
+        journal = playCountJournal;
+        maxDelay = delay;
+        pendingCounts = new LinkedHashMap<SongData, Integer>();
+        pendingSongs = new HashMap<List<Object>, SongData>();
+        flushExecutor =
+                (playCountJournal != null) ? createFlushExecutor() : null;
+    }
+
+    /**
+     * Returns a flag whether updates of play counts are written in
+     * write-behind mode.
+     *
+     * @return a flag whether write-behind mode is enabled
+     */
+    public boolean isWriteBehind()
+    {
+        return journal != null;
+    }
+
+    /**
+     * Returns the number of songs to be synchronized in a single request.
+     *
+     * @return the batch size for sync operations
+     */
+    public int getSyncBatchSize()
+    {
+        return syncBatchSize;
+    }
+
+    /**
+     * Sets the number of songs to be synchronized in a single request. A value
+     * greater than 1 enables batch sync operations which require
+     * significantly fewer server requests. Per default, songs are synchronized
+     * separately.
+     *
+     * @param syncBatchSize the batch size for sync operations
+     */
+    public void setSyncBatchSize(int syncBatchSize)
+    {
+        this.syncBatchSize = syncBatchSize;
+    }
+
+    /**
+     * Returns the number of concurrent requests of a sync operation.
+     *
+     * @return the parallelism of sync operations
+     */
+    public int getSyncParallelism()
+    {
+        return syncParallelism;
+    }
+
+    /**
+     * Sets the number of concurrent requests of a sync operation. A value
+     * greater than 1 causes multiple songs to be synchronized at the same time
+     * which reduces the impact of network latency. If a batch size is set,
+     * multiple batches are sent at the same time. Per default, songs are
+     * synchronized sequentially.
+     *
+     * @param syncParallelism the parallelism of sync operations
+     */
+    public void setSyncParallelism(int syncParallelism)
+    {
+        this.syncParallelism = syncParallelism;
     }
 
     /**
@@ -105,20 +297,138 @@ public class MediaStoreImpl implements MediaStore
     @Override
     public void updateSongData(SongData songData, int playCount)
     {
-        execute(createUpdateSongDataCommand(songData, playCount));
+        if (isWriteBehind())
+        {
+            checkUpdate(songData, playCount);
+            Map<SongData, Integer> playCounts =
+                    new HashMap<SongData, Integer>();
+            playCounts.put(songData, playCount);
+            addPendingUpdates(playCounts);
+        }
+        else
+        {
+            execute(createUpdateSongDataCommand(songData, playCount));
+        }
+    }
+
+    /**
+     * Performs an update operation for multiple songs. This implementation is
+     * non-blocking. All songs are processed by a single command object in the
+     * command queue worker thread; so there is only a single transaction.
+     *
+     * @param playCounts the map with the songs and their play counts
+     * @throws NullPointerException if the map or a song data object is
+     *         <b>null</b>
+     * @throws IllegalArgumentException if a play count is invalid
+     */
+    @Override
+    public void updateSongData(Map<SongData, Integer> playCounts)
+    {
+        if (isWriteBehind())
+        {
+            if (playCounts == null)
+            {
+                throw new NullPointerException(
+                        "Map with songs must not be null!");
+            }
+            for (Map.Entry<SongData, Integer> e : playCounts.entrySet())
+            {
+                checkUpdate(e.getKey(), e.getValue().intValue());
+            }
+            addPendingUpdates(playCounts);
+        }
+        else
+        {
+            execute(createUpdateSongDataCommand(playCounts));
+        }
     }
 
     /**
      * {@inheritDoc} This implementation creates a specialized command object
-     * which handles the complete synchronization in a background thread.
+     * which handles the complete synchronization in a background thread. In
+     * write-behind mode, pending updates are flushed before, so that they are
+     * included in the synchronization.
      */
     @Override
-    public void syncWithServer(CommandObserver<List<SongEntity>> observer,
+    public void syncWithServer(CommandObserver<Integer> observer,
             SyncController syncController, Integer maxSongs)
     {
+        flush();
         execute(createSyncCommand(observer, syncController, maxSongs));
     }
 
+    /**
+     * Writes all pending updates of play counts into the local database. The
+     * updates are processed by a single command in the command queue worker
+     * thread. This method has no effect if write-behind mode is disabled or if
+     * there are no pending updates.
+     */
+    public void flush()
+    {
+        Command command = createFlushCommand();
+        if (command != null)
+        {
+            execute(command);
+        }
+    }
+
+    /**
+     * Writes updates of play counts which are still contained in the journal
+     * into the local database. Such updates remain from a former run of the
+     * application which did not terminate normally. This method should be
+     * called once after the creation of this object before updates are
+     * performed. It has no effect if write-behind mode is disabled.
+     */
+    public void recoverJournal()
+    {
+        if (!isWriteBehind())
+        {
+            return;
+        }
+
+        try
+        {
+            for (File segment : journal.pendingSegments())
+            {
+                Map<SongData, Integer> playCounts = journal.read(segment);
+                if (playCounts.isEmpty())
+                {
+                    journal.remove(segment);
+                }
+                else
+                {
+                    log.info("Recovering {} play counts from journal {}.",
+                            playCounts.size(), segment);
+                    execute(createWriteBehindCommand(playCounts, segment));
+                }
+            }
+        }
+        catch (IOException ioex)
+        {
+            log.error("Could not recover play count journal.", ioex);
+        }
+    }
+
+    /**
+     * Shuts down this object. In write-behind mode, all pending updates are
+     * written. This is done synchronously on the calling thread, so that the
+     * updates are committed when this method returns, even if the command
+     * queue is already shutting down. This method should be called when the
+     * application terminates.
+     */
+    public void shutdown()
+    {
+        if (isWriteBehind())
+        {
+            flushExecutor.shutdownNow();
+            Command command = createFlushCommand();
+            if (command != null)
+            {
+                executeSynchronously(command);
+            }
+        }
+    }
+
     /**
      * Executes the specified command. This implementation passes the command to
      * the command queue.
@@ -130,6 +440,30 @@ public class MediaStoreImpl implements MediaStore
         commandQueue.execute(command);
     }
 
+    /**
+     * Executes the specified command directly on the calling thread. This
+     * method is used if the command queue cannot be relied on. Exceptions
+     * are logged and passed to the command; the GUI is not updated.
+     *
+     * @param command the command to be executed
+     */
+    void executeSynchronously(Command command)
+    {
+        try
+        {
+            command.execute();
+        }
+        catch (Exception ex)
+        {
+            log.error("Synchronous execution of command failed.", ex);
+            command.onException(ex);
+        }
+        finally
+        {
+            command.onFinally();
+        }
+    }
+
     /**
      * Creates a command for updating a song data object.
      *
@@ -142,12 +476,56 @@ public class MediaStoreImpl implements MediaStore
     Command createUpdateSongDataCommand(SongData songData, int playCount)
     {
         return new UpdateLocalStoreCommand(factoryInitializer, songData,
-                playCount);
+                playCount, idCache);
+    }
+
+    /**
+     * Creates a command for updating multiple song data objects.
+     *
+     * @param playCounts the map with the songs and their play counts
+     * @return the command for performing the update
+     * @throws NullPointerException if the map or a song data object is
+     *         <b>null</b>
+     * @throws IllegalArgumentException if a play count is invalid
+     */
+    Command createUpdateSongDataCommand(Map<SongData, Integer> playCounts)
+    {
+        return new UpdateLocalStoreBatchCommand(factoryInitializer,
+                playCounts, idCache);
+    }
+
+    /**
+     * Creates a command for writing pending updates in write-behind mode. After
+     * the updates have been committed, the journal segment containing them is
+     * removed.
+     *
+     * @param playCounts the map with the songs and their play counts
+     * @param segment the journal segment with these updates (may be
+     *        <b>null</b>)
+     * @return the command for performing the update
+     */
+    Command createWriteBehindCommand(Map<SongData, Integer> playCounts,
+            final File segment)
+    {
+        return new UpdateLocalStoreBatchCommand(factoryInitializer,
+                playCounts, idCache)
+        {
+            @Override
+            public void execute() throws Exception
+            {
+                super.execute();
+                if (segment != null)
+                {
+                    journal.remove(segment);
+                }
+            }
+        };
     }
 
     /**
      * Creates a command object for performing the sync operation. This
-     * implementation creates a {@link SyncCommand} object.
+     * implementation creates a {@link SyncCommand} object which is
+     * initialized with the current batch size and parallelism.
      *
      * @param observer the observer for the command
      * @param syncController the sync controller
@@ -155,10 +533,174 @@ public class MediaStoreImpl implements MediaStore
      * @return the command handling the sync operation
      * @throws NullPointerException if a required parameter is missing
      */
-    Command createSyncCommand(CommandObserver<List<SongEntity>> observer,
+    Command createSyncCommand(CommandObserver<Integer> observer,
             SyncController syncController, Integer maxSongs)
     {
         return new SyncCommand(factoryInitializer, observer, syncController,
-                commandQueue, oauthEndpointURI, serviceURI, maxSongs);
+                commandQueue, oauthEndpointURI, serviceURI, maxSongs,
+                getSyncBatchSize(), getSyncParallelism());
+    }
+
+    /**
+     * Creates a command for writing all pending updates of play counts. The
+     * current journal segment is sealed, so that it can be removed when the
+     * command has committed the updates. If write-behind mode is disabled or
+     * there are no pending updates, result is <b>null</b>. If the journal
+     * cannot be sealed, a flush operation is scheduled again, and result is
+     * <b>null</b>.
+     *
+     * @return the command for writing pending updates or <b>null</b>
+     */
+    private Command createFlushCommand()
+    {
+        if (!isWriteBehind())
+        {
+            return null;
+        }
+
+        Map<SongData, Integer> playCounts;
+        File segment;
+        synchronized (pendingCounts)
+        {
+            if (pendingCounts.isEmpty())
+            {
+                return null;
+            }
+
+            try
+            {
+                segment = journal.seal();
+            }
+            catch (IOException ioex)
+            {
+                log.error("Could not seal play count journal.", ioex);
+                scheduleFlush();
+                return null;
+            }
+
+            playCounts = new LinkedHashMap<SongData, Integer>(pendingCounts);
+            pendingCounts.clear();
+            pendingSongs.clear();
+        }
+
+        return createWriteBehindCommand(playCounts, segment);
+    }
+
+    /**
+     * Adds the given updates to the pending updates. Each update is recorded
+     * in the journal. If the journal cannot be written, the update is executed
+     * directly. If there have been no pending updates before, a flush
+     * operation is scheduled.
+     *
+     * @param playCounts the map with the songs and their play counts
+     */
+    private void addPendingUpdates(Map<SongData, Integer> playCounts)
+    {
+        synchronized (pendingCounts)
+        {
+            boolean wasEmpty = pendingCounts.isEmpty();
+            for (Map.Entry<SongData, Integer> e : playCounts.entrySet())
+            {
+                try
+                {
+                    journal.append(e.getKey(), e.getValue().intValue());
+                }
+                catch (IOException ioex)
+                {
+                    log.error("Could not write play count journal.", ioex);
+                    execute(createUpdateSongDataCommand(e.getKey(), e
+                            .getValue().intValue()));
+                    continue;
+                }
+
+                List<Object> key = EntityIdCache.songKey(e.getKey());
+                SongData data = pendingSongs.get(key);
+                if (data == null)
+                {
+                    pendingSongs.put(key, e.getKey());
+                    pendingCounts.put(e.getKey(), e.getValue());
+                }
+                else
+                {
+                    pendingCounts.put(data, pendingCounts.get(data)
+                            + e.getValue());
+                }
+            }
+
+            if (wasEmpty && !pendingCounts.isEmpty())
+            {
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * Schedules a flush operation after the maximum delay.
+     */
+    private void scheduleFlush()
+    {
+        if (!flushExecutor.isShutdown())
+        {
+            flushExecutor.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flush();
+                }
+            }, maxDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Checks the parameters of an update of a song.
+     *
+     * @param songData the song data object
+     * @param playCount the number of times the song has been played
+     * @throws NullPointerException if the song data object is <b>null</b>
+     * @throws IllegalArgumentException if the play count is invalid
+     */
+    private static void checkUpdate(SongData songData, int playCount)
+    {
+        if (songData == null)
+        {
+            throw new NullPointerException("SongData must not be null!");
+        }
+        if (playCount <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "Play count must be greater than 0!");
+        }
+    }
+
+    /**
+     * Creates the executor service for scheduling flush operations. It uses a
+     * daemon thread, so it does not prevent the application from exiting.
+     *
+     * @return the executor service
+     */
+    private static ScheduledExecutorService createFlushExecutor()
+    {
+        BasicThreadFactory threadFactory =
+                new BasicThreadFactory.Builder()
+                        .namingPattern(FLUSH_THREAD_NAME).daemon(true).build();
+        return Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * Determines the journal file from the given path relative to the user's
+     * home directory.
+     *
+     * @param path the relative path (must not be <b>null</b>)
+     * @return the journal file
+     * @throws NullPointerException if the path is <b>null</b>
+     */
+    private static File journalFile(String path)
+    {
+        if (path == null)
+        {
+            throw new NullPointerException("Journal path must not be null!");
+        }
+        return new File(System.getProperty(PROP_USER_HOME), path);
     }
 }
@@ -0,0 +1,514 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.oliver_heger.mediastore.service.ObjectFactory;
+import de.oliver_heger.mediastore.service.SongData;
+
+/**
+ * <p>
+ * A class which records play counts of songs in a journal file before they
+ * are written into the local database.
+ * </p>
+ * <p>
+ * {@link MediaStoreImpl} collects updates of play counts in memory and writes
+ * them in batches. In order to prevent that play counts get lost if the
+ * application crashes before a batch has been written, each update is appended
+ * to a journal file first. The file is synchronized with the storage device
+ * after each update.
+ * </p>
+ * <p>
+ * When a batch of updates is to be written into the database the current
+ * journal file is <em>sealed</em>: it is renamed to a segment file, and new
+ * updates are written into a new journal file. After the batch has been
+ * committed, the segment file can be removed. So at any time the existing
+ * journal and segment files contain all updates which have not yet been
+ * written into the database. On startup, these updates can be recovered.
+ * </p>
+ * <p>
+ * Each record is stored in a frame consisting of the length of the record, a
+ * checksum, and the record data. When a file is read, processing stops at the
+ * first frame which is incomplete or whose checksum does not match (e.g.
+ * because of a crash during a write operation); such a frame and all data
+ * after it are ignored. Before the first record is appended to an existing
+ * journal file, the file is truncated to the end of its last valid frame, so
+ * that new records are not hidden behind a damaged frame. This class is
+ * thread-safe.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+class PlayCountJournal
+{
+    /** Constant for the size of the header of a frame. */
+    private static final int FRAME_HEADER_SIZE = 12;
+
+    /** Constant for the maximum size of a record. */
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    /** The logger. */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /** The current journal file. */
+    private final File journalFile;
+
+    /** The object factory for creating data objects. */
+    private final ObjectFactory factory;
+
+    /** The index of the next segment file. */
+    private int segmentIndex;
+
+    /** A flag whether the journal file contains only valid frames. */
+    private boolean journalValid;
+
+    /**
+     * Creates a new instance of {@code PlayCountJournal} and sets the journal
+     * file. Segment files are created in the same directory; their names are
+     * derived from the name of the journal file.
+     *
+     * @param file the journal file (must not be <b>null</b>)
+     * @throws NullPointerException if the file is <b>null</b>
+     */
+    public PlayCountJournal(File file)
+    {
+        if (file == null)
+        {
+            throw new NullPointerException("Journal file must not be null!");
+        }
+
+        journalFile = file.getAbsoluteFile();
+        factory = new ObjectFactory();
+        segmentIndex = 1;
+        for (File seg : findSegments())
+        {
+            segmentIndex = Math.max(segmentIndex, segmentIndex(seg) + 1);
+        }
+    }
+
+    /**
+     * Returns the current journal file.
+     *
+     * @return the journal file
+     */
+    public File getJournalFile()
+    {
+        return journalFile;
+    }
+
+    /**
+     * Appends an update of a play count to the journal file. When this method
+     * returns, the data has been written to the storage device.
+     *
+     * @param data the data object for the song
+     * @param playCount the number of times the song has been played
+     * @throws IOException if an error occurs
+     */
+    public synchronized void append(SongData data, int playCount)
+            throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(bos);
+        writeString(dout, data.getName());
+        writeString(dout, data.getArtistName());
+        writeString(dout, data.getAlbumName());
+        writeNumber(dout, data.getDuration());
+        writeNumber(dout, data.getInceptionYear());
+        writeNumber(dout, data.getTrackNo());
+        dout.writeInt(playCount);
+        dout.close();
+        byte[] frame = createFrame(bos.toByteArray());
+
+        createParentDirectory();
+        if (!journalValid)
+        {
+            truncateJournal();
+        }
+        FileOutputStream out = new FileOutputStream(journalFile, true);
+        boolean success = false;
+        try
+        {
+            out.write(frame);
+            out.flush();
+            out.getFD().sync();
+            success = true;
+        }
+        finally
+        {
+            out.close();
+            journalValid = success;
+        }
+    }
+
+    /**
+     * Seals the current journal file. The file is renamed to a new segment
+     * file, so that further updates are written into a new journal file. If
+     * the journal file does not exist, result is <b>null</b>.
+     *
+     * @return the segment file or <b>null</b>
+     * @throws IOException if the journal file cannot be renamed
+     */
+    public synchronized File seal() throws IOException
+    {
+        if (!journalFile.exists())
+        {
+            return null;
+        }
+
+        File segment =
+                new File(journalFile.getParentFile(), journalFile.getName()
+                        + "." + segmentIndex);
+        if (!journalFile.renameTo(segment))
+        {
+            throw new IOException("Cannot rename journal file to " + segment);
+        }
+        segmentIndex++;
+        journalValid = true;
+        return segment;
+    }
+
+    /**
+     * Removes the given segment file. This method is called when the updates
+     * stored in this segment have been written into the database.
+     *
+     * @param segment the segment file to be removed
+     */
+    public void remove(File segment)
+    {
+        if (!segment.delete())
+        {
+            log.warn("Could not remove journal segment {}.", segment);
+        }
+    }
+
+    /**
+     * Returns a list with all segment files containing updates which have not
+     * been written into the database yet. An existing journal file is sealed
+     * first, so that it is contained in the list, too. The segments are
+     * ordered by their creation.
+     *
+     * @return a list with the pending segment files
+     * @throws IOException if an error occurs
+     */
+    public synchronized List<File> pendingSegments() throws IOException
+    {
+        seal();
+        return findSegments();
+    }
+
+    /**
+     * Reads the updates stored in the given segment file. The resulting map
+     * contains the data objects of the songs and their play counts. Reading
+     * stops at the first incomplete or corrupt frame.
+     *
+     * @param segment the segment file
+     * @return a map with the songs and their play counts
+     * @throws IOException if an error occurs
+     */
+    public Map<SongData, Integer> read(File segment) throws IOException
+    {
+        List<byte[]> records = new ArrayList<byte[]>();
+        long validLength = readRecords(segment, records);
+        if (validLength < segment.length())
+        {
+            log.warn("Ignoring {} bytes of corrupt data in journal segment {}.",
+                    segment.length() - validLength, segment);
+        }
+
+        Map<SongData, Integer> result = new LinkedHashMap<SongData, Integer>();
+        for (byte[] record : records)
+        {
+            DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(record));
+            SongData data = factory.createSongData();
+            data.setName(readString(in));
+            data.setArtistName(readString(in));
+            data.setAlbumName(readString(in));
+            data.setDuration(readNumber(in));
+            data.setInceptionYear(readNumber(in));
+            data.setTrackNo(readNumber(in));
+            result.put(data, in.readInt());
+        }
+
+        return result;
+    }
+
+    /**
+     * Determines all segment files which belong to this journal. The files are
+     * sorted by their index.
+     *
+     * @return a list with the existing segment files
+     */
+    private List<File> findSegments()
+    {
+        List<File> segments = new ArrayList<File>();
+        File[] files = journalFile.getParentFile().listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                if (segmentIndex(f) > 0)
+                {
+                    segments.add(f);
+                }
+            }
+        }
+
+        Collections.sort(segments, new Comparator<File>()
+        {
+            @Override
+            public int compare(File f1, File f2)
+            {
+                return segmentIndex(f1) - segmentIndex(f2);
+            }
+        });
+        return segments;
+    }
+
+    /**
+     * Returns the index of the given segment file. If the file is not a
+     * segment of this journal, result is 0.
+     *
+     * @param f the file
+     * @return the segment index
+     */
+    private int segmentIndex(File f)
+    {
+        String prefix = journalFile.getName() + ".";
+        if (f.getName().startsWith(prefix))
+        {
+            try
+            {
+                return Integer.parseInt(f.getName().substring(prefix.length()));
+            }
+            catch (NumberFormatException nfex)
+            {
+                // not a segment file
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Truncates the journal file to the end of its last valid frame. This
+     * method is called before data is appended to a journal file which may
+     * end with an incomplete frame.
+     *
+     * @throws IOException if an error occurs
+     */
+    private void truncateJournal() throws IOException
+    {
+        if (journalFile.exists())
+        {
+            long validLength =
+                    readRecords(journalFile, new ArrayList<byte[]>());
+            if (validLength < journalFile.length())
+            {
+                log.warn("Truncating journal file {} to {} bytes.",
+                        journalFile, validLength);
+                RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+                try
+                {
+                    raf.setLength(validLength);
+                    raf.getFD().sync();
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the directory containing the journal file if necessary.
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    private void createParentDirectory() throws IOException
+    {
+        File dir = journalFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+        {
+            throw new IOException("Cannot create journal directory " + dir);
+        }
+    }
+
+    /**
+     * Creates the frame for the given record. The frame consists of the length
+     * of the record, its checksum, and the record data.
+     *
+     * @param record the record data
+     * @return the frame for this record
+     * @throws IOException if an error occurs
+     */
+    private static byte[] createFrame(byte[] record) throws IOException
+    {
+        ByteArrayOutputStream bos =
+                new ByteArrayOutputStream(FRAME_HEADER_SIZE + record.length);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(record.length);
+        out.writeLong(checksum(record));
+        out.write(record);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads all valid records from the given file. The records are added to
+     * the specified list. Reading stops at the first frame which is
+     * incomplete or corrupt.
+     *
+     * @param file the file to be read
+     * @param records the list for the records
+     * @return the length of the valid part of the file
+     * @throws IOException if an error occurs
+     */
+    private static long readRecords(File file, List<byte[]> records)
+            throws IOException
+    {
+        long validLength = 0;
+        DataInputStream in =
+                new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file)));
+
+        try
+        {
+            byte[] record;
+            while ((record = readRecord(in)) != null)
+            {
+                records.add(record);
+                validLength += FRAME_HEADER_SIZE + record.length;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return validLength;
+    }
+
+    /**
+     * Reads the next record from the given input stream. Result is
+     * <b>null</b> if the end of the stream is reached or if the frame is
+     * incomplete or has an invalid checksum.
+     *
+     * @param in the input stream
+     * @return the data of the next record or <b>null</b>
+     * @throws IOException if an error occurs
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException
+    {
+        try
+        {
+            int length = in.readInt();
+            long checksum = in.readLong();
+            if (length < 0 || length > MAX_RECORD_SIZE)
+            {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully(record);
+            return (checksum(record) == checksum) ? record : null;
+        }
+        catch (EOFException eofex)
+        {
+            // end of file or incomplete frame
+            return null;
+        }
+    }
+
+    /**
+     * Calculates the checksum of the given record.
+     *
+     * @param record the record data
+     * @return the checksum
+     */
+    private static long checksum(byte[] record)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return crc.getValue();
+    }
+
+    /**
+     * Writes an optional string into the given output stream.
+     *
+     * @param out the output stream
+     * @param s the string (may be <b>null</b>)
+     * @throws IOException if an error occurs
+     */
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null)
+        {
+            out.writeUTF(s);
+        }
+    }
+
+    /**
+     * Writes an optional number into the given output stream.
+     *
+     * @param out the output stream
+     * @param num the number (may be <b>null</b>)
+     * @throws IOException if an error occurs
+     */
+    private static void writeNumber(DataOutputStream out, BigInteger num)
+            throws IOException
+    {
+        out.writeBoolean(num != null);
+        if (num != null)
+        {
+            out.writeLong(num.longValue());
+        }
+    }
+
+    /**
+     * Reads an optional string from the given input stream.
+     *
+     * @param in the input stream
+     * @return the string (may be <b>null</b>)
+     * @throws IOException if an error occurs
+     */
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Reads an optional number from the given input stream.
+     *
+     * @param in the input stream
+     * @return the number (may be <b>null</b>)
+     * @throws IOException if an error occurs
+     */
+    private static BigInteger readNumber(DataInputStream in)
+            throws IOException
+    {
+        return in.readBoolean() ? BigInteger.valueOf(in.readLong()) : null;
+    }
+}
@@ -0,0 +1,204 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.oliver_heger.mediastore.localstore.model.SongOwner;
+
+/**
+ * <p>
+ * A helper class for updating the schema of an existing local database.
+ * </p>
+ * <p>
+ * The tables of the local database are created automatically by the
+ * persistence provider, but only if they do not exist yet. Columns added to
+ * the entity classes later are missing in databases created by older versions.
+ * This class adds such columns and initializes them for existing data.
+ * </p>
+ * <p>
+ * Currently, this affects the search name columns of songs, artists, and
+ * albums. These columns contain the names in upper case and are used by the
+ * find queries. Undefined search names are computed by
+ * {@link SongOwner#toSearchName(String)} rather than by an SQL function; so
+ * they are exactly the same as the search names of new entities. This class
+ * also creates indices on these columns. All operations are idempotent; so the
+ * migration can be performed every time the database is opened.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+final class SchemaMigration
+{
+    /**
+     * An array with the definitions of the search name columns. Each entry
+     * contains the table name, the ID column, the name column, and the search
+     * name column.
+     */
+    private static final String[][] SEARCH_NAME_COLUMNS = {
+            {
+                    "SONG", "SONG_ID", "SONG_NAME", "SONG_SEARCH_NAME"
+            }, {
+                    "ARTIST", "ARTIST_ID", "ARTIST_NAME", "ARTIST_SEARCH_NAME"
+            }, {
+                    "ALBUM", "ALBUM_ID", "ALBUM_NAME", "ALBUM_SEARCH_NAME"
+            }
+    };
+
+    /** Constant for the prefix of index names. */
+    private static final String INDEX_PREFIX = "IDX_";
+
+    /** Constant for the query which checks whether a column exists. */
+    private static final String QUERY_COLUMN_EXISTS =
+            "select count(*) from INFORMATION_SCHEMA.COLUMNS "
+                    + "where TABLE_NAME = ?1 and COLUMN_NAME = ?2";
+
+    /** Constant for the query which checks whether an index exists. */
+    private static final String QUERY_INDEX_EXISTS =
+            "select count(*) from INFORMATION_SCHEMA.SYSTEM_INDEXINFO "
+                    + "where INDEX_NAME = ?1";
+
+    /** The logger. */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SchemaMigration.class);
+
+    /**
+     * Private constructor so that no instances can be created.
+     */
+    private SchemaMigration()
+    {
+    }
+
+    /**
+     * Updates the schema of the database managed by the given
+     * {@code EntityManagerFactory}. Missing columns and indices are created,
+     * and undefined search names are initialized.
+     *
+     * @param emf the {@code EntityManagerFactory} (must not be <b>null</b>)
+     * @throws NullPointerException if the {@code EntityManagerFactory} is
+     *         <b>null</b>
+     */
+    public static void migrate(EntityManagerFactory emf)
+    {
+        EntityManager em = emf.createEntityManager();
+        try
+        {
+            em.getTransaction().begin();
+            for (String[] def : SEARCH_NAME_COLUMNS)
+            {
+                migrateSearchName(em, def[0], def[1], def[2], def[3]);
+            }
+            em.getTransaction().commit();
+        }
+        finally
+        {
+            if (em.getTransaction().isActive())
+            {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /**
+     * Makes sure that a search name column exists, is initialized, and has an
+     * index.
+     *
+     * @param em the {@code EntityManager}
+     * @param table the name of the table
+     * @param idColumn the name of the column with the ID
+     * @param nameColumn the name of the column with the name
+     * @param searchColumn the name of the column with the search name
+     */
+    private static void migrateSearchName(EntityManager em, String table,
+            String idColumn, String nameColumn, String searchColumn)
+    {
+        if (!exists(em, QUERY_COLUMN_EXISTS, table, searchColumn))
+        {
+            LOG.info("Adding column {} to table {}.", searchColumn, table);
+            em.createNativeQuery(
+                    "alter table " + table + " add column " + searchColumn
+                            + " varchar(255)").executeUpdate();
+        }
+
+        int count =
+                initSearchNames(em, table, idColumn, nameColumn, searchColumn);
+        if (count > 0)
+        {
+            LOG.info("Initialized {} search names in table {}.", count, table);
+        }
+
+        String index = INDEX_PREFIX + searchColumn;
+        if (!exists(em, QUERY_INDEX_EXISTS, index))
+        {
+            LOG.info("Creating index {}.", index);
+            em.createNativeQuery(
+                    "create index " + index + " on " + table + " ("
+                            + searchColumn + ")").executeUpdate();
+        }
+    }
+
+    /**
+     * Initializes undefined search names. The names of the affected rows are
+     * loaded, and the search names are computed using the same function as
+     * for entities.
+     *
+     * @param em the {@code EntityManager}
+     * @param table the name of the table
+     * @param idColumn the name of the column with the ID
+     * @param nameColumn the name of the column with the name
+     * @param searchColumn the name of the column with the search name
+     * @return the number of initialized search names
+     */
+    private static int initSearchNames(EntityManager em, String table,
+            String idColumn, String nameColumn, String searchColumn)
+    {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows =
+                em.createNativeQuery(
+                        "select " + idColumn + ", " + nameColumn + " from "
+                                + table + " where " + searchColumn
+                                + " is null").getResultList();
+        if (rows.isEmpty())
+        {
+            return 0;
+        }
+
+        Query update =
+                em.createNativeQuery("update " + table + " set "
+                        + searchColumn + " = ?1 where " + idColumn + " = ?2");
+        for (Object[] row : rows)
+        {
+            update.setParameter(1, SongOwner.toSearchName((String) row[1]));
+            update.setParameter(2, row[0]);
+            update.executeUpdate();
+        }
+        return rows.size();
+    }
+
+    /**
+     * Executes a query which counts database objects and checks whether the
+     * result is greater than 0.
+     *
+     * @param em the {@code EntityManager}
+     * @param query the query to be executed
+     * @param params the parameters of the query
+     * @return a flag whether the database object exists
+     */
+    private static boolean exists(EntityManager em, String query,
+            Object... params)
+    {
+        Query q = em.createNativeQuery(query);
+        for (int i = 0; i < params.length; i++)
+        {
+            q.setParameter(i + 1, params[i]);
+        }
+        return ((Number) q.getSingleResult()).longValue() > 0;
+    }
+}
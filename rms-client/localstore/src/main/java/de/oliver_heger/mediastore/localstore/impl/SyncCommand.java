@@ -1,5 +1,6 @@
 package de.oliver_heger.mediastore.localstore.impl;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -24,12 +25,23 @@ import de.oliver_heger.mediastore.oauth.OAuthTemplate;
  * <p>
  * This command class performs the following steps:
  * <ul>
- * <li>A list of songs is fetched from the local database which have been played
- * since the latest synchronization (this includes all new songs).</li>
- * <li>For each song found in the previous step an instance of
+ * <li>The songs in the local database which have been played since the latest
+ * synchronization (this includes all new songs) are counted.</li>
+ * <li>These songs are loaded in pages. Each page is loaded by a separate
+ * command which is executed by the command queue after the commands for the
+ * songs of the previous page. So only a single page of song entities is held
+ * in memory at any time, even if a large number of songs has to be
+ * synchronized.</li>
+ * <li>For each song of a page an instance of
  * {@link SyncSongCommand} is created and scheduled. These commands are
  * responsible for the synchronization of single songs and their artists and
- * albums.</li>
+ * albums. If a parallelism greater than 1 is set, a single
+ * {@link SyncPipelineCommand} is scheduled instead which synchronizes the songs
+ * using multiple concurrent requests; it is passed the batch size, so that
+ * each of these requests may contain a group of songs. Otherwise, if a batch
+ * size greater than 1 is set, the songs are grouped, and a
+ * {@link SyncSongBatchCommand} is scheduled for each group. Then all songs of a
+ * group are synchronized in a single server request.</li>
  * <li>The observer of the command is notified correspondingly. So it is
  * possible for instance to open a UI which informs the user about the progress
  * of the operation.</li>
@@ -39,7 +51,7 @@ import de.oliver_heger.mediastore.oauth.OAuthTemplate;
  * @author Oliver Heger
  * @version $Id: $
  */
-class SyncCommand extends ObservableCommand<List<SongEntity>>
+class SyncCommand extends ObservableCommand<Integer>
 {
     /** The controller for the sync operation. */
     private final SyncController syncController;
@@ -56,6 +68,15 @@ class SyncCommand extends ObservableCommand<List<SongEntity>>
     /** The maximum number of songs to be synchronized. */
     private final Integer maxSongs;
 
+    /** The number of songs to be synchronized in a single request. */
+    private final int batchSize;
+
+    /** The number of concurrent requests. */
+    private final int parallelism;
+
+    /** The session shared by the commands synchronizing songs. */
+    private final SyncSession syncSession;
+
     /**
      * Creates a new instance of {@code SyncCommand} and initializes it.
      *
@@ -71,8 +92,64 @@ class SyncCommand extends ObservableCommand<List<SongEntity>>
      * @throws NullPointerException if a required parameter is missing
      */
     public SyncCommand(ConcurrentInitializer<EntityManagerFactory> emfInit,
-            CommandObserver<List<SongEntity>> obs, SyncController ctrl,
+            CommandObserver<Integer> obs, SyncController ctrl,
             CommandQueue q, String oauthURI, String svcURI, Integer songLimit)
+    {
+        this(emfInit, obs, ctrl, q, oauthURI, svcURI, songLimit, 0);
+    }
+
+    /**
+     * Creates a new instance of {@code SyncCommand} and initializes it with a
+     * batch size. Songs are synchronized sequentially.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory}
+     * @param obs the command observer
+     * @param ctrl the controller for the sync operation (must not be
+     *        <b>null</b>)
+     * @param q the command queue
+     * @param oauthURI the URI for OAuth calls
+     * @param svcURI the URI for service calls
+     * @param songLimit the maximum number of songs to be synchronized (can be
+     *        <b>null</b>, then there is no limit)
+     * @param songsPerBatch the number of songs to be synchronized in a single
+     *        request
+     * @throws NullPointerException if a required parameter is missing
+     */
+    public SyncCommand(ConcurrentInitializer<EntityManagerFactory> emfInit,
+            CommandObserver<Integer> obs, SyncController ctrl,
+            CommandQueue q, String oauthURI, String svcURI, Integer songLimit,
+            int songsPerBatch)
+    {
+        this(emfInit, obs, ctrl, q, oauthURI, svcURI, songLimit,
+                songsPerBatch, 1);
+    }
+
+    /**
+     * Creates a new instance of {@code SyncCommand} and initializes it with a
+     * batch size and the number of concurrent requests. If the batch size is
+     * greater than 1, songs are synchronized in groups of this size;
+     * otherwise, each song is synchronized separately. If the parallelism is
+     * greater than 1, multiple songs or groups of songs are synchronized
+     * concurrently.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory}
+     * @param obs the command observer
+     * @param ctrl the controller for the sync operation (must not be
+     *        <b>null</b>)
+     * @param q the command queue
+     * @param oauthURI the URI for OAuth calls
+     * @param svcURI the URI for service calls
+     * @param songLimit the maximum number of songs to be synchronized (can be
+     *        <b>null</b>, then there is no limit)
+     * @param songsPerBatch the number of songs to be synchronized in a single
+     *        request
+     * @param concurrentRequests the number of concurrent requests
+     * @throws NullPointerException if a required parameter is missing
+     */
+    public SyncCommand(ConcurrentInitializer<EntityManagerFactory> emfInit,
+            CommandObserver<Integer> obs, SyncController ctrl,
+            CommandQueue q, String oauthURI, String svcURI, Integer songLimit,
+            int songsPerBatch, int concurrentRequests)
     {
         super(emfInit, obs);
         if (ctrl == null)
@@ -85,6 +162,9 @@ class SyncCommand extends ObservableCommand<List<SongEntity>>
         oauthEndpointURI = oauthURI;
         serviceURI = svcURI;
         maxSongs = songLimit;
+        batchSize = songsPerBatch;
+        parallelism = concurrentRequests;
+        syncSession = new SyncSession();
     }
 
     /**
@@ -108,6 +188,42 @@ class SyncCommand extends ObservableCommand<List<SongEntity>>
         return maxSongs;
     }
 
+    /**
+     * Returns the number of songs to be synchronized in a single request. A
+     * value less than or equal to 1 means that songs are synchronized
+     * separately.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Returns the number of concurrent requests used for synchronizing songs.
+     * A value less than or equal to 1 means that songs are synchronized
+     * sequentially.
+     *
+     * @return the parallelism
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Returns the {@link SyncSession} of this sync operation. The session is
+     * passed to all commands synchronizing songs, so that artists and albums
+     * are sent to the server only once.
+     *
+     * @return the {@link SyncSession}
+     */
+    public SyncSession getSyncSession()
+    {
+        return syncSession;
+    }
+
     /**
      * Returns the command queue for issuing new commands.
      *
@@ -119,41 +235,101 @@ class SyncCommand extends ObservableCommand<List<SongEntity>>
     }
 
     /**
-     * Contains the actual logic of this command. This implementation retrieves
-     * the song entities that qualify for a sync operation. For each song entity
-     * a corresponding {@link SyncSongCommand} object is created and passed to
-     * the command queue. The controller and the observer are notified
-     * correspondingly.
+     * Returns the number of songs loaded by a single page command. This is
+     * the default page size of {@link Finders}; if a batch size is set, it is
+     * rounded up to a multiple of the batch size, so that pages are split
+     * into full batches.
+     *
+     * @return the page size
+     */
+    int getPageSize()
+    {
+        if (getBatchSize() <= 1)
+        {
+            return Finders.SYNC_PAGE_SIZE;
+        }
+        return ((Finders.SYNC_PAGE_SIZE + getBatchSize() - 1) / getBatchSize())
+                * getBatchSize();
+    }
+
+    /**
+     * Contains the actual logic of this command. This implementation counts
+     * the song entities that qualify for a sync operation and notifies the
+     * controller. Then a command for loading the first page of songs is passed
+     * to the command queue. This command schedules the commands for
+     * synchronizing the songs of the page and the command for the next page.
      *
      * @param em the {@code EntityManager}
-     * @return the result of this command; this is the list with the songs that
-     *         are synchronized
+     * @return the result of this command; this is the number of songs to be
+     *         synchronized
      */
     @Override
-    protected List<SongEntity> produceResults(EntityManager em)
+    protected Integer produceResults(EntityManager em)
     {
-        List<SongEntity> songs = fetchSongsToSync(em);
-        getSyncController().startSynchronization(songs.size());
+        int count = countSongsToSync(em);
+        getSyncController().startSynchronization(count);
 
-        if (!songs.isEmpty())
+        if (count > 0)
+        {
+            getQueue().execute(
+                    createSyncPageCommand(null, count, createOAuthTemplate()));
+        }
+        else
         {
-            scheduleSyncSongCommands(songs);
+            getQueue().execute(createEndSyncCommand());
         }
+        return count;
+    }
 
-        getQueue().execute(createEndSyncCommand());
-        return songs;
+    /**
+     * Determines the number of songs to be synchronized. This method executes
+     * a query which counts the songs that need to be synchronized. The
+     * maximum number of songs is taken into account.
+     *
+     * @param em the {@code EntityManager}
+     * @return the number of songs to be synchronized
+     */
+    int countSongsToSync(EntityManager em)
+    {
+        long count = Finders.countSongsToSync(em);
+        if (getMaxSongs() != null)
+        {
+            count = Math.min(count, getMaxSongs().longValue());
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
     }
 
     /**
-     * Fetches the songs to be synchronized. This method executes a query which
-     * selects the songs that need to be synchronized.
+     * Fetches a page of songs to be synchronized. This method executes a query
+     * which selects the songs that need to be synchronized starting after the
+     * song with the given ID.
      *
      * @param em the {@code EntityManager}
-     * @return a list with the songs to be synchronized
+     * @param lastID the ID of the last song of the previous page (<b>null</b>
+     *        for the first page)
+     * @param maxResults the maximum number of songs to be loaded
+     * @return a list with the songs of this page
      */
-    List<SongEntity> fetchSongsToSync(EntityManager em)
+    List<SongEntity> fetchSongsToSync(EntityManager em, Long lastID,
+            int maxResults)
     {
-        return Finders.findSongsToSync(em, getMaxSongs());
+        return Finders.findSongsToSync(em, lastID, maxResults);
+    }
+
+    /**
+     * Creates a command object which loads a page of songs and schedules the
+     * commands for synchronizing them.
+     *
+     * @param lastID the ID of the last song of the previous page (<b>null</b>
+     *        for the first page)
+     * @param remaining the number of songs which still have to be loaded
+     * @param templ the OAuth template
+     * @return the command for this page
+     */
+    Command createSyncPageCommand(Long lastID, int remaining,
+            OAuthTemplate templ)
+    {
+        return new SyncPageCommand(lastID, remaining, templ);
     }
 
     /**
@@ -187,7 +363,41 @@ class SyncCommand extends ObservableCommand<List<SongEntity>>
     Command createSyncSongCommand(SongEntity song, OAuthTemplate templ)
     {
         return new SyncSongCommand(getFactoryInitializer(), song,
-                getSyncController(), templ);
+                getSyncController(), templ, getSyncSession());
+    }
+
+    /**
+     * Creates a command object for synchronizing the specified song entities
+     * in a single batch. This method is called for each group of songs if a
+     * batch size is set.
+     *
+     * @param songs the list with the song entities of this batch
+     * @param templ the OAuth template
+     * @return the command for synchronizing this batch
+     */
+    Command createSyncSongBatchCommand(List<SongEntity> songs,
+            OAuthTemplate templ)
+    {
+        return new SyncSongBatchCommand(getFactoryInitializer(), songs,
+                getSyncController(), templ, getSyncSession());
+    }
+
+    /**
+     * Creates a command object for synchronizing the specified song entities
+     * concurrently. This method is called if a parallelism is set. The
+     * template specified is shared by all threads of the command. It also
+     * uses the batch size and the sync session of this command.
+     *
+     * @param songs the list with the song entities to be synchronized
+     * @param templ the OAuth template
+     * @return the command for synchronizing these songs
+     */
+    Command createSyncPipelineCommand(List<SongEntity> songs,
+            OAuthTemplate templ)
+    {
+        return new SyncPipelineCommand(getFactoryInitializer(), songs,
+                getSyncController(), templ, getParallelism(), getBatchSize(),
+                getSyncSession());
     }
 
     /**
@@ -202,17 +412,129 @@ class SyncCommand extends ObservableCommand<List<SongEntity>>
 
     /**
      * Creates command objects for the songs to synchronize and passes them to
-     * the command queue.
+     * the command queue. Depending on the parallelism and the batch size,
+     * there is a single command for all songs, a command for each group of
+     * songs, or a command for each song.
      *
      * @param songs the list with the songs to synchronize
+     * @param templ the OAuth template
+     */
+    private void scheduleSyncSongCommands(List<SongEntity> songs,
+            OAuthTemplate templ)
+    {
+        if (getParallelism() > 1)
+        {
+            getQueue().execute(createSyncPipelineCommand(songs, templ));
+        }
+        else if (getBatchSize() > 1)
+        {
+            for (int from = 0; from < songs.size(); from += getBatchSize())
+            {
+                List<SongEntity> batch =
+                        new ArrayList<SongEntity>(songs.subList(from,
+                                Math.min(from + getBatchSize(), songs.size())));
+                getQueue().execute(createSyncSongBatchCommand(batch, templ));
+            }
+        }
+        else
+        {
+            for (SongEntity s : songs)
+            {
+                Command songCommand = createSyncSongCommand(s, templ);
+                getQueue().execute(songCommand);
+            }
+        }
+    }
+
+    /**
+     * A command class for loading a page of songs to be synchronized. The
+     * command schedules the commands for synchronizing the songs of its page.
+     * Then it schedules the command for the next page or - if all songs have
+     * been loaded - the command announcing the end of the sync operation.
      */
-    private void scheduleSyncSongCommands(List<SongEntity> songs)
+    class SyncPageCommand extends JPACommand
     {
-        OAuthTemplate templ = createOAuthTemplate();
-        for (SongEntity s : songs)
+        /** The ID of the last song of the previous page. */
+        private final Long lastSongID;
+
+        /** The number of songs which still have to be loaded. */
+        private final int remainingSongs;
+
+        /** The OAuth template. */
+        private final OAuthTemplate template;
+
+        /**
+         * Creates a new instance of {@code SyncPageCommand}.
+         *
+         * @param lastID the ID of the last song of the previous page
+         * @param remaining the number of songs which still have to be loaded
+         * @param templ the OAuth template
+         */
+        public SyncPageCommand(Long lastID, int remaining, OAuthTemplate templ)
+        {
+            super(SyncCommand.this.getFactoryInitializer(), false);
+            lastSongID = lastID;
+            remainingSongs = remaining;
+            template = templ;
+        }
+
+        /**
+         * Returns the ID of the last song of the previous page.
+         *
+         * @return the ID of the last song loaded so far
+         */
+        public Long getLastSongID()
         {
-            Command songCommand = createSyncSongCommand(s, templ);
-            getQueue().execute(songCommand);
+            return lastSongID;
+        }
+
+        /**
+         * Returns the number of songs which still have to be loaded.
+         *
+         * @return the number of remaining songs
+         */
+        public int getRemainingSongs()
+        {
+            return remainingSongs;
+        }
+
+        /**
+         * {@inheritDoc} This implementation schedules the end command, so that
+         * the sync controller is notified even if the page cannot be loaded.
+         */
+        @Override
+        public void onException(Throwable t)
+        {
+            super.onException(t);
+            getQueue().execute(createEndSyncCommand());
+        }
+
+        /**
+         * {@inheritDoc} This implementation loads the songs of this page and
+         * schedules the commands for synchronizing them followed by the
+         * command for the next page.
+         */
+        @Override
+        protected void executeJPAOperation(EntityManager em)
+        {
+            int count = Math.min(getPageSize(), remainingSongs);
+            List<SongEntity> songs = fetchSongsToSync(em, lastSongID, count);
+            if (!songs.isEmpty())
+            {
+                scheduleSyncSongCommands(songs, template);
+            }
+
+            int remaining = remainingSongs - songs.size();
+            if (remaining > 0 && songs.size() == count)
+            {
+                getQueue().execute(
+                        createSyncPageCommand(songs.get(songs.size() - 1)
+                                .getId(), remaining, template));
+            }
+            else
+            {
+                getQueue().execute(createEndSyncCommand());
+            }
         }
     }
 }
@@ -0,0 +1,1044 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.ws.rs.core.MediaType;
+
+import net.sf.jguiraffe.gui.cmd.CommandBase;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
+import org.apache.commons.lang3.concurrent.ConcurrentUtils;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+
+import de.oliver_heger.mediastore.localstore.SyncController;
+import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
+import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
+import de.oliver_heger.mediastore.localstore.model.SongEntity;
+import de.oliver_heger.mediastore.oauth.NotAuthorizedException;
+import de.oliver_heger.mediastore.oauth.OAuthCallback;
+import de.oliver_heger.mediastore.oauth.OAuthTemplate;
+import de.oliver_heger.mediastore.oauth.ResourceProcessor;
+import de.oliver_heger.mediastore.service.ObjectFactory;
+import de.oliver_heger.mediastore.service.SongData;
+import de.oliver_heger.mediastore.service.SyncBatchData;
+import de.oliver_heger.mediastore.service.SyncBatchResultData;
+
+/**
+ * <p>
+ * A specialized command implementation which synchronizes a number of songs
+ * with the server using multiple concurrent requests.
+ * </p>
+ * <p>
+ * When songs are synchronized by {@link SyncSongCommand} objects, the requests
+ * are sent one after the other, so the latency of the network connection adds
+ * up. This command sends a configurable number of requests at the same time.
+ * It works in two phases: First the distinct artists and albums of all songs
+ * are synchronized; then the songs follow. So an artist or album is always
+ * known to the server before a song referencing it arrives. Songs whose artist
+ * or album could not be synchronized are reported as failed.
+ * </p>
+ * <p>
+ * If a sync operation is split into multiple commands, they share a
+ * {@link SyncSession}. Artists and albums which have already been synchronized
+ * by an earlier command of the same sync operation are not sent again. An
+ * artist or album is recorded in the session only after the server has
+ * confirmed it.
+ * </p>
+ * <p>
+ * If a batch size greater than 1 is set, the songs are not sent one by one in
+ * the second phase. Rather, they are grouped like in
+ * {@link SyncSongBatchCommand}, and each group is sent to the batch resource of
+ * the server in a single request. Because the artists and albums are already
+ * known to the server at this time, the batches only contain songs. Songs for
+ * which the server does not return a result are reported as failed, and their
+ * play counts are not reset.
+ * </p>
+ * <p>
+ * The requests are executed by a thread pool of the size passed to the
+ * constructor. All threads share the same {@code OAuthTemplate}; it is
+ * thread-safe, and so are the Jersey {@code Client} and the resource it
+ * creates. The number of requests in flight is limited to twice the number of
+ * threads. Until the first request has succeeded, requests are executed one by
+ * one in the thread of this command; so a required OAuth authorization is
+ * performed only once.
+ * </p>
+ * <p>
+ * All notifications of the {@link SyncController} take place in the thread
+ * executing this command. The current play counts of the songs synchronized
+ * successfully are reset in batches of {@link #RESET_BATCH_SIZE} songs, each
+ * in a single transaction. If such a transaction fails, the play counts are
+ * reset song by song; songs whose play count cannot be reset are reported to
+ * the controller as failed, and the operation continues with the next song.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+class SyncPipelineCommand extends CommandBase
+{
+    /** The number of songs whose play counts are reset in one transaction. */
+    static final int RESET_BATCH_SIZE = 50;
+
+    /** Constant for the naming pattern of the pipeline threads. */
+    private static final String THREAD_NAME = "SyncPipeline-%d";
+
+    /** The factor for the window of requests in flight. */
+    private static final int WINDOW_FACTOR = 2;
+
+    /** The initializer for the entity manager factory. */
+    private final ConcurrentInitializer<EntityManagerFactory> factoryInitializer;
+
+    /** The commands for the single songs. */
+    private final List<SyncSongCommand> songCommands;
+
+    /** The controller object for the sync operation. */
+    private final SyncController controller;
+
+    /** The template for OAuth requests. */
+    private final OAuthTemplate template;
+
+    /** The number of threads. */
+    private final int parallelism;
+
+    /** The number of songs to be synchronized in a single request. */
+    private final int batchSize;
+
+    /** The session of the current sync operation. */
+    private final SyncSession syncSession;
+
+    /** The songs whose play counts have to be reset. */
+    private final List<SyncSongCommand> pendingResets;
+
+    /** The artist and album tasks which have already been reported. */
+    private final Set<SyncTask> reportedTasks;
+
+    /** The OAuth callback. */
+    private OAuthCallback oauthCallback;
+
+    /** A flag whether a request has already been executed successfully. */
+    private boolean authorized;
+
+    /**
+     * Creates a new instance of {@code SyncPipelineCommand} and initializes
+     * it. Each song is sent in a separate request.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory}
+     *        (must not be <b>null</b>)
+     * @param songs the song entities to be synchronized (must not be
+     *        <b>null</b>)
+     * @param ctrl the controller for the sync operation
+     * @param templ the template for OAuth calls (must not be <b>null</b>)
+     * @param threads the number of requests executed concurrently
+     * @throws NullPointerException if a required parameter is missing
+     * @throws IllegalArgumentException if the number of threads is less than
+     *         1
+     */
+    public SyncPipelineCommand(
+            ConcurrentInitializer<EntityManagerFactory> emfInit,
+            List<SongEntity> songs, SyncController ctrl, OAuthTemplate templ,
+            int threads)
+    {
+        this(emfInit, songs, ctrl, templ, threads, 1);
+    }
+
+    /**
+     * Creates a new instance of {@code SyncPipelineCommand} and initializes
+     * it with a batch size.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory}
+     *        (must not be <b>null</b>)
+     * @param songs the song entities to be synchronized (must not be
+     *        <b>null</b>)
+     * @param ctrl the controller for the sync operation
+     * @param templ the template for OAuth calls (must not be <b>null</b>)
+     * @param threads the number of requests executed concurrently
+     * @param songsPerBatch the number of songs to be synchronized in a single
+     *        request
+     * @throws NullPointerException if a required parameter is missing
+     * @throws IllegalArgumentException if the number of threads is less than
+     *         1
+     */
+    public SyncPipelineCommand(
+            ConcurrentInitializer<EntityManagerFactory> emfInit,
+            List<SongEntity> songs, SyncController ctrl, OAuthTemplate templ,
+            int threads, int songsPerBatch)
+    {
+        this(emfInit, songs, ctrl, templ, threads, songsPerBatch, null);
+    }
+
+    /**
+     * Creates a new instance of {@code SyncPipelineCommand} and initializes
+     * it with a batch size and the session of the current sync operation.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory}
+     *        (must not be <b>null</b>)
+     * @param songs the song entities to be synchronized (must not be
+     *        <b>null</b>)
+     * @param ctrl the controller for the sync operation
+     * @param templ the template for OAuth calls (must not be <b>null</b>)
+     * @param threads the number of requests executed concurrently
+     * @param songsPerBatch the number of songs to be synchronized in a single
+     *        request
+     * @param session the {@link SyncSession} (can be <b>null</b>, then a new
+     *        session is created)
+     * @throws NullPointerException if a required parameter is missing
+     * @throws IllegalArgumentException if the number of threads is less than
+     *         1
+     */
+    public SyncPipelineCommand(
+            ConcurrentInitializer<EntityManagerFactory> emfInit,
+            List<SongEntity> songs, SyncController ctrl, OAuthTemplate templ,
+            int threads, int songsPerBatch, SyncSession session)
+    {
+        super(false);
+        if (emfInit == null)
+        {
+            throw new NullPointerException(
+                    "Initializer for entity manager factory must not be null!");
+        }
+        if (songs == null)
+        {
+            throw new NullPointerException("List with songs must not be null!");
+        }
+        if (templ == null)
+        {
+            throw new NullPointerException("Template must not be null!");
+        }
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException(
+                    "At least one thread must be used!");
+        }
+
+        factoryInitializer = emfInit;
+        controller = ctrl;
+        template = templ;
+        parallelism = threads;
+        batchSize = songsPerBatch;
+        syncSession = (session != null) ? session : new SyncSession();
+
+        List<SyncSongCommand> commands =
+                new ArrayList<SyncSongCommand>(songs.size());
+        for (SongEntity song : songs)
+        {
+            commands.add(createSongCommand(song, templ));
+        }
+        songCommands = Collections.unmodifiableList(commands);
+        pendingResets = new ArrayList<SyncSongCommand>(RESET_BATCH_SIZE);
+        reportedTasks = new HashSet<SyncTask>();
+    }
+
+    /**
+     * Returns a list with the commands for the single songs to be
+     * synchronized.
+     *
+     * @return a list with the song commands
+     */
+    public List<SyncSongCommand> getSongCommands()
+    {
+        return songCommands;
+    }
+
+    /**
+     * Returns the controller of the sync operation used by this command.
+     *
+     * @return the sync controller
+     */
+    public SyncController getController()
+    {
+        return controller;
+    }
+
+    /**
+     * Returns the number of requests which are executed concurrently.
+     *
+     * @return the number of threads
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Returns the number of songs which are synchronized in a single request.
+     * A value less than or equal to 1 means that each song is sent in a
+     * separate request.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Returns the template for OAuth requests used by this command. It is
+     * shared by all threads.
+     *
+     * @return the OAuth template
+     */
+    public OAuthTemplate getOAuthTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * Returns the {@link SyncSession} used by this command.
+     *
+     * @return the {@link SyncSession}
+     */
+    public SyncSession getSyncSession()
+    {
+        return syncSession;
+    }
+
+    /**
+     * Returns the maximum number of requests in flight.
+     *
+     * @return the size of the window of pending requests
+     */
+    public int getWindowSize()
+    {
+        return WINDOW_FACTOR * getParallelism();
+    }
+
+    /**
+     * Returns the {@code EntityManagerFactory} used by this command.
+     *
+     * @return the {@code EntityManagerFactory}
+     */
+    public EntityManagerFactory getEntityManagerFactory()
+    {
+        return ConcurrentUtils.initializeUnchecked(factoryInitializer);
+    }
+
+    /**
+     * Executes this command. The songs accepted by the sync controller are
+     * synchronized in two phases as described in the class comment.
+     *
+     * @throws Exception if an error occurs
+     */
+    @Override
+    public void execute() throws Exception
+    {
+        List<SyncSongCommand> accepted = new ArrayList<SyncSongCommand>();
+        for (SyncSongCommand cmd : songCommands)
+        {
+            if (getController().beforeSongSync(cmd.fetchSongData()))
+            {
+                accepted.add(cmd);
+            }
+        }
+        if (accepted.isEmpty())
+        {
+            return;
+        }
+
+        oauthCallback = getController().getOAuthCallback();
+        ExecutorService executor = createExecutorService();
+        try
+        {
+            List<SyncTask> songTasks = createTasks(accepted);
+            List<SyncTask> dependencies = new ArrayList<SyncTask>();
+            for (SyncTask task : songTasks)
+            {
+                addDependency(dependencies, task.artistTask);
+                addDependency(dependencies, task.albumTask);
+            }
+
+            runTasks(executor, dependencies);
+            runTasks(executor, createSongRequests(songTasks));
+            writeResets();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates the command for synchronizing a single song. The command is used
+     * for creating the data objects sent to the server and for resetting the
+     * play count of the song. It uses the session of this command, so it
+     * records the artists and albums confirmed by the server.
+     *
+     * @param song the song entity
+     * @param templ the OAuth template
+     * @return the command for this song
+     */
+    SyncSongCommand createSongCommand(SongEntity song, OAuthTemplate templ)
+    {
+        return new SyncSongCommand(factoryInitializer, song, getController(),
+                templ, getSyncSession());
+    }
+
+    /**
+     * Sends the given songs to the batch resource of the server in a single
+     * request. This method is called by the pipeline threads if a batch size
+     * is set. The artists and albums of the songs have already been
+     * synchronized, so the batch only contains songs.
+     *
+     * @param resource the fully initialized resource object
+     * @param commands the commands for the songs of the batch
+     * @return a list with flags whether new songs were created on the server;
+     *         songs which could not be synchronized have a <b>null</b> flag or
+     *         are missing at the end of the list
+     * @throws NotAuthorizedException if the call was not authorized
+     */
+    List<Boolean> syncSongBatch(WebResource resource,
+            List<SyncSongCommand> commands) throws NotAuthorizedException
+    {
+        SyncBatchData batch = new ObjectFactory().createSyncBatchData();
+        for (SyncSongCommand cmd : commands)
+        {
+            batch.getSongs().add(cmd.fetchSongData());
+        }
+
+        ClientResponse resp =
+                resource.path(SyncSongBatchCommand.PATH_BATCH)
+                        .accept(MediaType.APPLICATION_XML)
+                        .type(MediaType.APPLICATION_XML_TYPE)
+                        .put(ClientResponse.class, batch);
+        try
+        {
+            SyncSongCommand.checkSuccessResponse(resp);
+            return resp.getEntity(SyncBatchResultData.class).getSongResults();
+        }
+        finally
+        {
+            resp.close();
+        }
+    }
+
+    /**
+     * Creates the executor service for executing requests concurrently.
+     *
+     * @return the executor service
+     */
+    ExecutorService createExecutorService()
+    {
+        return Executors.newFixedThreadPool(getParallelism(),
+                new BasicThreadFactory.Builder().namingPattern(THREAD_NAME)
+                        .daemon(true).build());
+    }
+
+    /**
+     * Creates the tasks for the given song commands. Tasks for artists and
+     * albums are shared by all songs referencing the same object. For artists
+     * and albums already synchronized in the current session no tasks are
+     * created.
+     *
+     * @param commands the song commands
+     * @return a list with the tasks for the songs
+     */
+    private List<SyncTask> createTasks(List<SyncSongCommand> commands)
+    {
+        Map<List<Object>, SyncTask> artistTasks =
+                new LinkedHashMap<List<Object>, SyncTask>();
+        Map<List<Object>, SyncTask> albumTasks =
+                new LinkedHashMap<List<Object>, SyncTask>();
+        List<SyncTask> songTasks = new ArrayList<SyncTask>(commands.size());
+
+        for (SyncSongCommand cmd : commands)
+        {
+            SyncTask artistTask = null;
+            ArtistEntity artist = cmd.getSong().getArtist();
+            if (artist != null
+                    && !getSyncSession().isArtistSynchronized(artist))
+            {
+                List<Object> key = EntityIdCache.artistKey(artist.getName());
+                artistTask = artistTasks.get(key);
+                if (artistTask == null)
+                {
+                    artistTask = new SyncTask(cmd, Step.ARTIST, null, null);
+                    artistTasks.put(key, artistTask);
+                }
+            }
+
+            SyncTask albumTask = null;
+            AlbumEntity album = cmd.getSong().getAlbum();
+            if (album != null && !getSyncSession().isAlbumSynchronized(album))
+            {
+                List<Object> key =
+                        EntityIdCache.albumKey(album.getName(),
+                                album.getInceptionYear());
+                albumTask = albumTasks.get(key);
+                if (albumTask == null)
+                {
+                    albumTask = new SyncTask(cmd, Step.ALBUM, null, null);
+                    albumTasks.put(key, albumTask);
+                }
+            }
+
+            songTasks.add(new SyncTask(cmd, Step.SONG, artistTask, albumTask));
+        }
+
+        return songTasks;
+    }
+
+    /**
+     * Creates the requests for the second phase. Without a batch size, there
+     * is a request for each song. Otherwise, the songs whose artist and album
+     * could be synchronized are grouped to batches. The other songs are not
+     * sent at all; their tasks are kept, so that they are reported as failed.
+     *
+     * @param songTasks the tasks for the songs
+     * @return a list with the requests for the songs
+     */
+    private List<Request> createSongRequests(List<SyncTask> songTasks)
+    {
+        List<Request> songRequests = new ArrayList<Request>(songTasks.size());
+        if (getBatchSize() <= 1)
+        {
+            songRequests.addAll(songTasks);
+            return songRequests;
+        }
+
+        List<SyncTask> batch = null;
+        for (SyncTask task : songTasks)
+        {
+            if (!task.isExecutable())
+            {
+                songRequests.add(task);
+            }
+            else
+            {
+                if (batch == null || batch.size() >= getBatchSize())
+                {
+                    batch = new ArrayList<SyncTask>(getBatchSize());
+                    songRequests.add(new BatchRequest(batch));
+                }
+                batch.add(task);
+            }
+        }
+        return songRequests;
+    }
+
+    /**
+     * Executes the given requests using the executor service. At most
+     * {@link #getWindowSize()} requests are pending at any time. The results
+     * of completed requests are processed in the current thread.
+     *
+     * @param executor the executor service
+     * @param requests the requests to be executed
+     * @throws Exception if an error occurs
+     */
+    private void runTasks(ExecutorService executor,
+            List<? extends Request> requests) throws Exception
+    {
+        CompletionService<Request> service =
+                new ExecutorCompletionService<Request>(executor);
+        int inFlight = 0;
+
+        for (Request request : requests)
+        {
+            if (!request.isExecutable())
+            {
+                requestCompleted(request);
+            }
+            else if (!authorized)
+            {
+                requestCompleted(request.call());
+            }
+            else
+            {
+                if (inFlight >= getWindowSize())
+                {
+                    requestCompleted(service.take().get());
+                    inFlight--;
+                }
+                service.submit(request);
+                inFlight++;
+            }
+        }
+
+        for (; inFlight > 0; inFlight--)
+        {
+            requestCompleted(service.take().get());
+        }
+    }
+
+    /**
+     * Processes a request which has been completed. The sync controller is
+     * notified for all songs affected by the request.
+     *
+     * @param request the request
+     */
+    private void requestCompleted(Request request)
+    {
+        if (request.isSuccessful())
+        {
+            authorized = true;
+        }
+        for (SyncTask task : request.getSongTasks())
+        {
+            taskCompleted(task);
+        }
+    }
+
+    /**
+     * Processes the task for a song which has been completed. The sync
+     * controller is notified about the result.
+     *
+     * @param task the task
+     */
+    private void taskCompleted(SyncTask task)
+    {
+        SyncTask failed = task.findFailedTask();
+        if (failed == null)
+        {
+            getController().afterSongSync(task.getSongData(),
+                    task.created, isFirstCreated(task.artistTask),
+                    isFirstCreated(task.albumTask));
+            pendingResets.add(task.command);
+            if (pendingResets.size() >= RESET_BATCH_SIZE)
+            {
+                writeResets();
+            }
+        }
+        else if (failed.getException() != null)
+        {
+            getController().failedSongSync(task.getSongData(),
+                    failed.getException());
+        }
+        else
+        {
+            getController().authorizationFailed(task.getSongData());
+        }
+    }
+
+    /**
+     * Checks whether the given artist or album task has created a new object
+     * which has not yet been reported to the sync controller. A new object is
+     * reported only for the first song referencing it.
+     *
+     * @param task the task (may be <b>null</b>)
+     * @return a flag whether a new object has to be reported
+     */
+    private boolean isFirstCreated(SyncTask task)
+    {
+        return task != null && task.created && reportedTasks.add(task);
+    }
+
+    /**
+     * Resets the play counts of the songs synchronized so far in a single
+     * transaction. If this fails, the songs are processed one by one, and
+     * failures are reported to the sync controller.
+     */
+    private void writeResets()
+    {
+        if (pendingResets.isEmpty())
+        {
+            return;
+        }
+
+        getLog().info(
+                "Resetting play counts of " + pendingResets.size() + " songs.");
+        try
+        {
+            resetPlayCounts(pendingResets);
+        }
+        catch (RuntimeException rex)
+        {
+            getLog().warn("Could not reset play counts in a single "
+                    + "transaction! Processing songs one by one.", rex);
+            for (SyncSongCommand cmd : pendingResets)
+            {
+                try
+                {
+                    resetPlayCounts(Collections.singletonList(cmd));
+                }
+                catch (RuntimeException ex)
+                {
+                    getController().failedSongSync(cmd.fetchSongData(), ex);
+                }
+            }
+        }
+        pendingResets.clear();
+    }
+
+    /**
+     * Resets the play counts of the given songs in a single transaction.
+     *
+     * @param commands the commands for the songs affected
+     * @throws RuntimeException if a database error occurs
+     */
+    private void resetPlayCounts(List<SyncSongCommand> commands)
+    {
+        EntityManager em = getEntityManagerFactory().createEntityManager();
+        try
+        {
+            em.getTransaction().begin();
+            for (SyncSongCommand cmd : commands)
+            {
+                cmd.executeJPAOperation(em);
+            }
+            em.getTransaction().commit();
+        }
+        finally
+        {
+            if (em.getTransaction().isActive())
+            {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /**
+     * Adds a task for an artist or album to the list of dependencies if it is
+     * not yet contained.
+     *
+     * @param dependencies the list with dependencies
+     * @param task the task (may be <b>null</b>)
+     */
+    private static void addDependency(List<SyncTask> dependencies,
+            SyncTask task)
+    {
+        if (task != null && !task.scheduled)
+        {
+            task.scheduled = true;
+            dependencies.add(task);
+        }
+    }
+
+    /**
+     * An enumeration for the different objects to be synchronized.
+     */
+    private static enum Step
+    {
+        ARTIST, ALBUM, SONG
+    }
+
+    /**
+     * An abstract base class for a request executed by the pipeline. The
+     * results are stored in member fields; they are read by the command thread
+     * after the request has been completed. The completion service guarantees
+     * that the results are visible to this thread.
+     */
+    private abstract class Request implements Callable<Request>,
+            ResourceProcessor
+    {
+        /** An exception thrown during the request. */
+        private Throwable exception;
+
+        /** A flag whether the request could be authorized. */
+        private boolean authorizedRequest;
+
+        /**
+         * Returns the tasks for the songs whose results are determined by
+         * this request.
+         *
+         * @return a list with the affected song tasks
+         */
+        public abstract List<SyncTask> getSongTasks();
+
+        /**
+         * Returns the exception thrown by the request. Result is <b>null</b>
+         * if there was no exception.
+         *
+         * @return the exception
+         */
+        public Throwable getException()
+        {
+            return exception;
+        }
+
+        /**
+         * Returns a flag whether this request was successful.
+         *
+         * @return the success flag
+         */
+        public boolean isSuccessful()
+        {
+            return authorizedRequest && exception == null;
+        }
+
+        /**
+         * Checks whether this request can be executed. This base
+         * implementation always returns <b>true</b>.
+         *
+         * @return a flag whether this request can be executed
+         */
+        public boolean isExecutable()
+        {
+            return true;
+        }
+
+        /**
+         * Executes this request using the shared template. Exceptions are
+         * caught and stored.
+         *
+         * @return this request
+         */
+        @Override
+        public Request call()
+        {
+            try
+            {
+                completed(template.execute(this, oauthCallback), null);
+            }
+            catch (Exception ex)
+            {
+                completed(false, ex);
+            }
+            return this;
+        }
+
+        /**
+         * {@inheritDoc} This is just a dummy implementation because no response
+         * processing is needed.
+         */
+        @Override
+        public void processResponse(ClientResponse resp)
+                throws NotAuthorizedException
+        {
+        }
+
+        /**
+         * Stores the results of this request.
+         *
+         * @param authorizedFlag a flag whether the request was authorized
+         * @param ex an exception thrown by the request (may be <b>null</b>)
+         */
+        protected void completed(boolean authorizedFlag, Throwable ex)
+        {
+            authorizedRequest = authorizedFlag;
+            exception = ex;
+        }
+    }
+
+    /**
+     * A task for synchronizing a single artist, album, or song.
+     */
+    private class SyncTask extends Request
+    {
+        /** The command for the song affected. */
+        private final SyncSongCommand command;
+
+        /** The object to be synchronized. */
+        private final Step step;
+
+        /** The task for the artist of a song. */
+        private final SyncTask artistTask;
+
+        /** The task for the album of a song. */
+        private final SyncTask albumTask;
+
+        /** A flag whether a new object was created on the server. */
+        private boolean created;
+
+        /** A flag whether this task has already been scheduled. */
+        private boolean scheduled;
+
+        /**
+         * Creates a new instance of {@code SyncTask}.
+         *
+         * @param cmd the song command
+         * @param s the step
+         * @param artTask the artist task
+         * @param albTask the album task
+         */
+        public SyncTask(SyncSongCommand cmd, Step s, SyncTask artTask,
+                SyncTask albTask)
+        {
+            command = cmd;
+            step = s;
+            artistTask = artTask;
+            albumTask = albTask;
+        }
+
+        /**
+         * Returns the data object of the song affected by this task.
+         *
+         * @return the song data object
+         */
+        public SongData getSongData()
+        {
+            return command.fetchSongData();
+        }
+
+        /**
+         * {@inheritDoc} A song task affects only its own song; artist and
+         * album tasks do not directly affect a song.
+         */
+        @Override
+        public List<SyncTask> getSongTasks()
+        {
+            if (step == Step.SONG)
+            {
+                return Collections.singletonList(this);
+            }
+            return Collections.emptyList();
+        }
+
+        /**
+         * Checks whether this task can be executed. This is the case if the
+         * artist and album tasks it depends on were successful.
+         *
+         * @return a flag whether this task can be executed
+         */
+        @Override
+        public boolean isExecutable()
+        {
+            return findFailedDependency() == null;
+        }
+
+        /**
+         * Returns the first task related to this task which failed. This may
+         * be this task or one of its dependencies. Result is <b>null</b> if
+         * all tasks were successful.
+         *
+         * @return the failed task or <b>null</b>
+         */
+        public SyncTask findFailedTask()
+        {
+            SyncTask failed = findFailedDependency();
+            if (failed == null && !isSuccessful())
+            {
+                failed = this;
+            }
+            return failed;
+        }
+
+        /**
+         * {@inheritDoc} This implementation delegates to the song command to
+         * synchronize the object this task is about.
+         */
+        @Override
+        public ClientResponse doWithResource(WebResource resource)
+                throws NotAuthorizedException
+        {
+            switch (step)
+            {
+            case ARTIST:
+                created = command.syncArtist(resource);
+                break;
+            case ALBUM:
+                created = command.syncAlbum(resource);
+                break;
+            default:
+                created = command.syncSong(resource, command.fetchSongData());
+                break;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the first dependency of this task which failed.
+         *
+         * @return the failed dependency or <b>null</b>
+         */
+        private SyncTask findFailedDependency()
+        {
+            if (artistTask != null && !artistTask.isSuccessful())
+            {
+                return artistTask;
+            }
+            if (albumTask != null && !albumTask.isSuccessful())
+            {
+                return albumTask;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A request which synchronizes the songs of multiple song tasks using the
+     * batch resource. The results of the request are passed to the single
+     * song tasks. Songs without a result in the response are marked as failed.
+     */
+    private class BatchRequest extends Request
+    {
+        /** The tasks for the songs contained in this batch. */
+        private final List<SyncTask> songTasks;
+
+        /** The exceptions for the songs not confirmed by the server. */
+        private final Throwable[] songFailures;
+
+        /**
+         * Creates a new instance of {@code BatchRequest}.
+         *
+         * @param tasks the list with the song tasks of this batch
+         */
+        public BatchRequest(List<SyncTask> tasks)
+        {
+            songTasks = tasks;
+            songFailures = new Throwable[getBatchSize()];
+        }
+
+        /**
+         * {@inheritDoc} This implementation returns the tasks of all songs
+         * contained in this batch.
+         */
+        @Override
+        public List<SyncTask> getSongTasks()
+        {
+            return songTasks;
+        }
+
+        /**
+         * {@inheritDoc} This implementation sends all songs of this batch in a
+         * single request and stores the results in the song tasks.
+         */
+        @Override
+        public ClientResponse doWithResource(WebResource resource)
+                throws NotAuthorizedException
+        {
+            List<SyncSongCommand> commands =
+                    new ArrayList<SyncSongCommand>(songTasks.size());
+            for (SyncTask task : songTasks)
+            {
+                commands.add(task.command);
+            }
+
+            List<Boolean> results = syncSongBatch(resource, commands);
+            for (int i = 0; i < songTasks.size(); i++)
+            {
+                SyncTask task = songTasks.get(i);
+                if (i < results.size() && results.get(i) != null)
+                {
+                    task.created = results.get(i).booleanValue();
+                }
+                else
+                {
+                    songFailures[i] =
+                            SyncSongBatchCommand.createSongFailure(task
+                                    .getSongData());
+                }
+            }
+            return null;
+        }
+
+        /**
+         * {@inheritDoc} The results are also stored in all song tasks of this
+         * batch. Songs not confirmed by the server get their own exception.
+         */
+        @Override
+        protected void completed(boolean authorizedFlag, Throwable ex)
+        {
+            super.completed(authorizedFlag, ex);
+            for (int i = 0; i < songTasks.size(); i++)
+            {
+                Throwable taskEx = (ex != null) ? ex : songFailures[i];
+                songTasks.get(i).completed(authorizedFlag, taskEx);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
+import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
+
+/**
+ * <p>
+ * A class storing information about the artists and albums which have already
+ * been synchronized with the server during a sync operation.
+ * </p>
+ * <p>
+ * Each song to be synchronized references an artist and an album. Typically,
+ * multiple songs share the same artist or album. The commands synchronizing
+ * songs use an instance of this class to find out whether the artist or album
+ * of their current song has already been sent to the server. In this case, no
+ * further request is necessary. Artists and albums are identified by the keys
+ * produced by {@link EntityIdCache}, so names are compared case insensitive.
+ * </p>
+ * <p>
+ * An instance is created for each sync operation and shared by all commands
+ * taking part in it. An artist or album must only be registered after the
+ * server has confirmed it. This class is thread-safe.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+class SyncSession
+{
+    /** The keys of the objects which have been synchronized. */
+    private final Set<List<Object>> synchronizedKeys;
+
+    /**
+     * Creates a new instance of {@code SyncSession}.
+     */
+    public SyncSession()
+    {
+        synchronizedKeys =
+                Collections.newSetFromMap(new ConcurrentHashMap<List<Object>,
+                        Boolean>());
+    }
+
+    /**
+     * Returns a flag whether the specified artist has already been
+     * synchronized in this session.
+     *
+     * @param artist the artist (must not be <b>null</b>)
+     * @return a flag whether this artist has already been synchronized
+     */
+    public boolean isArtistSynchronized(ArtistEntity artist)
+    {
+        return synchronizedKeys.contains(EntityIdCache.artistKey(artist
+                .getName()));
+    }
+
+    /**
+     * Records that the specified artist has been synchronized with the server.
+     *
+     * @param artist the artist (must not be <b>null</b>)
+     */
+    public void artistSynchronized(ArtistEntity artist)
+    {
+        synchronizedKeys.add(EntityIdCache.artistKey(artist.getName()));
+    }
+
+    /**
+     * Returns a flag whether the specified album has already been synchronized
+     * in this session.
+     *
+     * @param album the album (must not be <b>null</b>)
+     * @return a flag whether this album has already been synchronized
+     */
+    public boolean isAlbumSynchronized(AlbumEntity album)
+    {
+        return synchronizedKeys.contains(albumKey(album));
+    }
+
+    /**
+     * Records that the specified album has been synchronized with the server.
+     *
+     * @param album the album (must not be <b>null</b>)
+     */
+    public void albumSynchronized(AlbumEntity album)
+    {
+        synchronizedKeys.add(albumKey(album));
+    }
+
+    /**
+     * Returns the key for the specified album.
+     *
+     * @param album the album
+     * @return the key for this album
+     */
+    private static List<Object> albumKey(AlbumEntity album)
+    {
+        return EntityIdCache.albumKey(album.getName(),
+                album.getInceptionYear());
+    }
+}
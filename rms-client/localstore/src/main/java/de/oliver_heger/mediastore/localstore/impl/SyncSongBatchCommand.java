@@ -0,0 +1,535 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.UniformInterface;
+import com.sun.jersey.api.client.WebResource;
+
+import de.oliver_heger.mediastore.localstore.SyncController;
+import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
+import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
+import de.oliver_heger.mediastore.localstore.model.SongEntity;
+import de.oliver_heger.mediastore.oauth.NotAuthorizedException;
+import de.oliver_heger.mediastore.oauth.OAuthTemplate;
+import de.oliver_heger.mediastore.oauth.ResourceProcessor;
+import de.oliver_heger.mediastore.service.ObjectFactory;
+import de.oliver_heger.mediastore.service.SongData;
+import de.oliver_heger.mediastore.service.SyncBatchData;
+import de.oliver_heger.mediastore.service.SyncBatchResultData;
+
+/**
+ * <p>
+ * A specialized command implementation for synchronizing multiple songs in a
+ * single server request.
+ * </p>
+ * <p>
+ * {@link SyncSongCommand} sends separate requests for a song, its artist, and
+ * its album. This command collects a number of songs together with their
+ * distinct artists and albums in a batch which is sent to the batch resource
+ * of the server. For each song a {@link SyncSongCommand} is created which is
+ * used for creating the data objects and for updating the local database. The
+ * sync controller is notified for each single song as if the songs were
+ * synchronized one by one: an artist or album is reported as created only
+ * for the first song in the batch referencing it.
+ * </p>
+ * <p>
+ * Artists and albums which have already been synchronized by an earlier batch
+ * of the same sync operation are not sent again. This information is stored in
+ * a {@link SyncSession} object shared by the batches of a sync operation. Only
+ * the artists and albums for which the server has returned a result are
+ * recorded in the session.
+ * </p>
+ * <p>
+ * The server processes the objects of a batch independently. If a song could
+ * not be stored, the response contains no result for it. Such songs are
+ * reported to the sync controller as failed. After the sync operation the
+ * current play counts of all songs confirmed by the server are reset in a
+ * single transaction; the play counts of failed songs are kept, so that they
+ * are sent again by the next sync operation.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+class SyncSongBatchCommand extends JPACommand implements ResourceProcessor
+{
+    /** Constant for the path for the batch resource. */
+    static final String PATH_BATCH = "batch";
+
+    /** The commands for the single songs. */
+    private final List<SyncSongCommand> songCommands;
+
+    /** The controller object for the sync operation. */
+    private final SyncController controller;
+
+    /** The OAuth template. */
+    private final OAuthTemplate oauthTemplate;
+
+    /** The object factory. */
+    private final ObjectFactory factory;
+
+    /** The session of the current sync operation. */
+    private final SyncSession syncSession;
+
+    /** The commands for the songs accepted by the controller. */
+    private List<SyncSongCommand> acceptedCommands;
+
+    /** The commands for the songs confirmed by the server. */
+    private List<SyncSongCommand> confirmedCommands;
+
+    /** A flag whether the results of the server have been processed. */
+    private boolean resultsProcessed;
+
+    /**
+     * Creates a new instance of {@code SyncSongBatchCommand} and initializes
+     * it.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory}
+     * @param songs the song entities to be synchronized (must not be
+     *        <b>null</b>)
+     * @param ctrl the controller for the sync operation
+     * @param templ the template for OAuth calls
+     * @throws NullPointerException if the list with songs is <b>null</b>
+     */
+    public SyncSongBatchCommand(
+            ConcurrentInitializer<EntityManagerFactory> emfInit,
+            List<SongEntity> songs, SyncController ctrl, OAuthTemplate templ)
+    {
+        this(emfInit, songs, ctrl, templ, null);
+    }
+
+    /**
+     * Creates a new instance of {@code SyncSongBatchCommand} and initializes
+     * it with the session of the current sync operation.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory}
+     * @param songs the song entities to be synchronized (must not be
+     *        <b>null</b>)
+     * @param ctrl the controller for the sync operation
+     * @param templ the template for OAuth calls
+     * @param session the {@link SyncSession} (can be <b>null</b>, then a new
+     *        session is created)
+     * @throws NullPointerException if the list with songs is <b>null</b>
+     */
+    public SyncSongBatchCommand(
+            ConcurrentInitializer<EntityManagerFactory> emfInit,
+            List<SongEntity> songs, SyncController ctrl, OAuthTemplate templ,
+            SyncSession session)
+    {
+        super(emfInit, false);
+        if (songs == null)
+        {
+            throw new NullPointerException("List with songs must not be null!");
+        }
+
+        syncSession = (session != null) ? session : new SyncSession();
+        List<SyncSongCommand> commands =
+                new ArrayList<SyncSongCommand>(songs.size());
+        for (SongEntity song : songs)
+        {
+            commands.add(new SyncSongCommand(emfInit, song, ctrl, templ,
+                    syncSession));
+        }
+        songCommands = Collections.unmodifiableList(commands);
+        controller = ctrl;
+        oauthTemplate = templ;
+        factory = new ObjectFactory();
+        acceptedCommands = Collections.emptyList();
+        confirmedCommands = Collections.emptyList();
+    }
+
+    /**
+     * Returns a list with the commands for the single songs of this batch.
+     *
+     * @return a list with the song commands
+     */
+    public List<SyncSongCommand> getSongCommands()
+    {
+        return songCommands;
+    }
+
+    /**
+     * Returns the controller of the sync operation used by this command.
+     *
+     * @return the sync controller
+     */
+    public SyncController getController()
+    {
+        return controller;
+    }
+
+    /**
+     * Returns the template for OAuth requests used by this command.
+     *
+     * @return the OAuth template
+     */
+    public OAuthTemplate getOAuthTemplate()
+    {
+        return oauthTemplate;
+    }
+
+    /**
+     * Returns the {@link SyncSession} used by this command.
+     *
+     * @return the {@link SyncSession}
+     */
+    public SyncSession getSyncSession()
+    {
+        return syncSession;
+    }
+
+    /**
+     * {@inheritDoc} This implementation first handles the synchronization with
+     * the server. Then the features of the base class related to JPA processing
+     * are used in order to update the song entities.
+     */
+    @Override
+    public void execute() throws Exception
+    {
+        if (executeSyncOperation())
+        {
+            super.execute();
+        }
+    }
+
+    /**
+     * Creates an exception which reports that the server could not synchronize
+     * a specific song of a batch.
+     *
+     * @param data the data object of the song affected
+     * @return the exception
+     */
+    static IllegalStateException createSongFailure(SongData data)
+    {
+        return new IllegalStateException(
+                "Song could not be synchronized by the server: "
+                        + data.getName());
+    }
+
+    /**
+     * {@inheritDoc} This implementation notifies the sync controller about the
+     * exception for all songs taking part in the sync operation which have
+     * not yet been reported as failed. If the server has already returned
+     * its results, these are the songs confirmed by the server.
+     */
+    @Override
+    public void onException(Throwable t)
+    {
+        super.onException(t);
+        for (SyncSongCommand cmd : fetchUnreportedCommands())
+        {
+            getController().failedSongSync(cmd.fetchSongData(), t);
+        }
+    }
+
+    /**
+     * {@inheritDoc} This implementation sends the batch with all songs to the
+     * server and notifies the sync controller about the results for the single
+     * songs. Response codes indicating insufficient privileges are directly
+     * handled, so no response object is returned.
+     */
+    @Override
+    public ClientResponse doWithResource(WebResource resource)
+            throws NotAuthorizedException
+    {
+        BatchIndex index = new BatchIndex();
+        SyncBatchData batch = createBatchData(index);
+        ClientResponse resp =
+                prepareResource(resource).put(ClientResponse.class, batch);
+        try
+        {
+            SyncSongCommand.checkSuccessResponse(resp);
+            SyncBatchResultData result =
+                    resp.getEntity(SyncBatchResultData.class);
+            processResults(index, result);
+            registerSynchronizedObjects(index, result);
+        }
+        finally
+        {
+            resp.close();
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc} This is just a dummy implementation because no response
+     * processing is needed.
+     */
+    @Override
+    public void processResponse(ClientResponse resp)
+            throws NotAuthorizedException
+    {
+    }
+
+    /**
+     * {@inheritDoc} This implementation resets the current play counts of all
+     * songs which have been confirmed by the server.
+     */
+    @Override
+    protected void executeJPAOperation(EntityManager em)
+    {
+        for (SyncSongCommand cmd : confirmedCommands)
+        {
+            cmd.executeJPAOperation(em);
+        }
+    }
+
+    /**
+     * Performs the actual sync operation. The sync controller is asked for
+     * each song whether it should be synchronized. The accepted songs are
+     * then sent to the server using the OAuth template.
+     *
+     * @return a flag whether the sync operation was executed
+     */
+    boolean executeSyncOperation()
+    {
+        List<SyncSongCommand> accepted =
+                new ArrayList<SyncSongCommand>(songCommands.size());
+        for (SyncSongCommand cmd : songCommands)
+        {
+            if (getController().beforeSongSync(cmd.fetchSongData()))
+            {
+                accepted.add(cmd);
+            }
+        }
+        acceptedCommands = accepted;
+        if (accepted.isEmpty())
+        {
+            return false;
+        }
+
+        if (!getOAuthTemplate().execute(this,
+                getController().getOAuthCallback()))
+        {
+            for (SyncSongCommand cmd : accepted)
+            {
+                getController().authorizationFailed(cmd.fetchSongData());
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates the data object for the batch to be sent to the server. It
+     * contains the accepted songs and their distinct artists and albums which
+     * have not yet been synchronized in the current session. The
+     * given index object is filled with the positions of the artists and
+     * albums introduced by the single songs.
+     *
+     * @param index the index object to be populated
+     * @return the batch data object
+     */
+    SyncBatchData createBatchData(BatchIndex index)
+    {
+        SyncBatchData batch = factory.createSyncBatchData();
+        Set<List<Object>> artistKeys = new HashSet<List<Object>>();
+        Set<List<Object>> albumKeys = new HashSet<List<Object>>();
+
+        for (SyncSongCommand cmd : acceptedCommands)
+        {
+            int artistIdx = -1;
+            ArtistEntity artist = cmd.getSong().getArtist();
+            if (artist != null
+                    && !getSyncSession().isArtistSynchronized(artist)
+                    && artistKeys.add(EntityIdCache.artistKey(artist
+                            .getName())))
+            {
+                artistIdx = batch.getArtists().size();
+                batch.getArtists().add(cmd.createArtistData());
+            }
+
+            int albumIdx = -1;
+            AlbumEntity album = cmd.getSong().getAlbum();
+            if (album != null
+                    && !getSyncSession().isAlbumSynchronized(album)
+                    && albumKeys.add(EntityIdCache.albumKey(album.getName(),
+                            album.getInceptionYear())))
+            {
+                albumIdx = batch.getAlbums().size();
+                batch.getAlbums().add(cmd.createAlbumData());
+            }
+
+            batch.getSongs().add(cmd.fetchSongData());
+            index.add(artistIdx, albumIdx);
+        }
+
+        return batch;
+    }
+
+    /**
+     * Evaluates the results of a batch sync operation and notifies the sync
+     * controller for each song. Songs without a result are reported as
+     * failed; all other songs are recorded as confirmed, so that their play
+     * counts are reset.
+     *
+     * @param index the index object for the current batch
+     * @param result the result object returned by the server
+     */
+    void processResults(BatchIndex index, SyncBatchResultData result)
+    {
+        List<SyncSongCommand> confirmed =
+                new ArrayList<SyncSongCommand>(acceptedCommands.size());
+        for (int i = 0; i < acceptedCommands.size(); i++)
+        {
+            SyncSongCommand cmd = acceptedCommands.get(i);
+            if (!hasResult(result.getSongResults(), i))
+            {
+                getController().failedSongSync(cmd.fetchSongData(),
+                        createSongFailure(cmd.fetchSongData()));
+                continue;
+            }
+
+            boolean artistResult =
+                    isCreated(result.getArtistResults(),
+                            index.getArtistIndex(i));
+            boolean albumResult =
+                    isCreated(result.getAlbumResults(), index.getAlbumIndex(i));
+            boolean songResult = isCreated(result.getSongResults(), i);
+
+            getController().afterSongSync(cmd.fetchSongData(), songResult,
+                    artistResult, albumResult);
+            confirmed.add(cmd);
+        }
+        confirmedCommands = confirmed;
+        resultsProcessed = true;
+    }
+
+    /**
+     * Records the artists and albums of this batch in the sync session which
+     * have been confirmed by the server. An object is confirmed if the result
+     * object contains a flag for its position in the batch. Artists and albums
+     * which were not sent in this batch are not affected.
+     *
+     * @param index the index object for the current batch
+     * @param result the result object returned by the server
+     */
+    void registerSynchronizedObjects(BatchIndex index,
+            SyncBatchResultData result)
+    {
+        for (int i = 0; i < acceptedCommands.size(); i++)
+        {
+            SongEntity song = acceptedCommands.get(i).getSong();
+            if (hasResult(result.getArtistResults(), index.getArtistIndex(i)))
+            {
+                getSyncSession().artistSynchronized(song.getArtist());
+            }
+            if (hasResult(result.getAlbumResults(), index.getAlbumIndex(i)))
+            {
+                getSyncSession().albumSynchronized(song.getAlbum());
+            }
+        }
+    }
+
+    /**
+     * Prepares the specified resource for a call.
+     *
+     * @param resource the resource
+     * @return the builder for the request
+     */
+    UniformInterface prepareResource(WebResource resource)
+    {
+        return resource.path(PATH_BATCH).accept(MediaType.APPLICATION_XML)
+                .type(MediaType.APPLICATION_XML_TYPE);
+    }
+
+    /**
+     * Returns the commands for the songs which have not yet been reported to
+     * the sync controller as failed.
+     *
+     * @return the commands for the songs not yet reported as failed
+     */
+    private List<SyncSongCommand> fetchUnreportedCommands()
+    {
+        return resultsProcessed ? confirmedCommands : acceptedCommands;
+    }
+
+    /**
+     * Checks whether the result flag at the given position of a result list
+     * is set. Missing flags are interpreted as <b>false</b>.
+     *
+     * @param results the list with result flags
+     * @param idx the index
+     * @return the result flag
+     */
+    private static boolean isCreated(List<Boolean> results, int idx)
+    {
+        return hasResult(results, idx) && results.get(idx).booleanValue();
+    }
+
+    /**
+     * Checks whether a result list contains a flag at the given position.
+     *
+     * @param results the list with result flags
+     * @param idx the index
+     * @return a flag whether a result is available
+     */
+    private static boolean hasResult(List<Boolean> results, int idx)
+    {
+        return idx >= 0 && idx < results.size() && results.get(idx) != null;
+    }
+
+    /**
+     * A helper class storing the positions of the artists and albums
+     * introduced by the songs contained in a batch. An artist or album is
+     * associated only with the first song of the batch referencing it; for
+     * all other songs the index is -1.
+     */
+    static class BatchIndex
+    {
+        /** The indices of the artists. */
+        private final List<Integer> artistIndices = new ArrayList<Integer>();
+
+        /** The indices of the albums. */
+        private final List<Integer> albumIndices = new ArrayList<Integer>();
+
+        /**
+         * Adds the information about the next song in the batch.
+         *
+         * @param artistIdx the index of the artist added for this song
+         * @param albumIdx the index of the album added for this song
+         */
+        public void add(int artistIdx, int albumIdx)
+        {
+            artistIndices.add(artistIdx);
+            albumIndices.add(albumIdx);
+        }
+
+        /**
+         * Returns the index of the artist added for the song with the given
+         * index.
+         *
+         * @param songIdx the index of the song
+         * @return the index of the artist (-1 for none)
+         */
+        public int getArtistIndex(int songIdx)
+        {
+            return artistIndices.get(songIdx);
+        }
+
+        /**
+         * Returns the index of the album added for the song with the given
+         * index.
+         *
+         * @param songIdx the index of the song
+         * @return the index of the album (-1 for none)
+         */
+        public int getAlbumIndex(int songIdx)
+        {
+            return albumIndices.get(songIdx);
+        }
+    }
+}
@@ -10,6 +10,7 @@ import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
 
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterface;
+import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 
 import de.oliver_heger.mediastore.localstore.SyncController;
@@ -29,6 +30,15 @@ import de.oliver_heger.mediastore.service.utils.DTOTransformer;
  * <p>
  * A specialized command implementation for synchronizing a song.
  * </p>
+ * <p>
+ * Together with the song its artist and its album are sent to the server. If
+ * multiple songs are synchronized, they typically share artists and albums.
+ * Therefore, the commands taking part in a sync operation can share a
+ * {@link SyncSession} object. An artist or album which has already been
+ * confirmed by the server in this session is not sent again. A response with
+ * an error status causes an exception; so the objects affected are not
+ * recorded in the session.
+ * </p>
  *
  * @author Oliver Heger
  * @version $Id: $
@@ -59,11 +69,15 @@ class SyncSongCommand extends JPACommand implements ResourceProcessor
     /** The object factory. */
     private final ObjectFactory factory;
 
+    /** The session of the current sync operation. */
+    private final SyncSession syncSession;
+
     /** A cache for the current song data object. */
     private SongData songData;
 
     /**
      * Creates a new instance of {@code SyncSongCommand} and initializes it.
+     * The command uses its own {@link SyncSession}.
      *
      * @param emfInit the initializer for the {@code EntityManagerFactory}
      * @param songEntity the song entity to be synchronized
@@ -72,12 +86,31 @@ class SyncSongCommand extends JPACommand implements ResourceProcessor
      */
     public SyncSongCommand(ConcurrentInitializer<EntityManagerFactory> emfInit,
             SongEntity songEntity, SyncController ctrl, OAuthTemplate templ)
+    {
+        this(emfInit, songEntity, ctrl, templ, null);
+    }
+
+    /**
+     * Creates a new instance of {@code SyncSongCommand} and initializes it
+     * with the session of the current sync operation.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory}
+     * @param songEntity the song entity to be synchronized
+     * @param ctrl the controller for the sync operation
+     * @param templ the template for OAuth calls
+     * @param session the {@link SyncSession} (can be <b>null</b>, then a new
+     *        session is created)
+     */
+    public SyncSongCommand(ConcurrentInitializer<EntityManagerFactory> emfInit,
+            SongEntity songEntity, SyncController ctrl, OAuthTemplate templ,
+            SyncSession session)
     {
         super(emfInit, false);
         song = songEntity;
         controller = ctrl;
         oauthTemplate = templ;
         factory = new ObjectFactory();
+        syncSession = (session != null) ? session : new SyncSession();
     }
 
     /**
@@ -100,6 +133,16 @@ class SyncSongCommand extends JPACommand implements ResourceProcessor
         return oauthTemplate;
     }
 
+    /**
+     * Returns the {@link SyncSession} used by this command.
+     *
+     * @return the {@link SyncSession}
+     */
+    public SyncSession getSyncSession()
+    {
+        return syncSession;
+    }
+
     /**
      * Returns the entity for the song that is to be synchronized by this
      * command.
@@ -146,12 +189,13 @@ class SyncSongCommand extends JPACommand implements ResourceProcessor
     public ClientResponse doWithResource(WebResource resource)
             throws NotAuthorizedException
     {
+        SongData data = fetchSongData();
         boolean artistResult = syncArtist(resource);
         boolean albumResult = syncAlbum(resource);
-        boolean songResult = syncSong(resource, fetchSongData());
+        boolean songResult = syncSong(resource, data);
 
-        getController().afterSongSync(fetchSongData(), songResult,
-                artistResult, albumResult);
+        getController().afterSongSync(data, songResult, artistResult,
+                albumResult);
         return null;
     }
 
@@ -296,27 +340,51 @@ class SyncSongCommand extends JPACommand implements ResourceProcessor
     }
 
     /**
-     * Synchronizes data about the artist of the current song.
+     * Synchronizes data about the artist of the current song. If the artist
+     * has already been synchronized in the current session, no request is
+     * sent. The artist is recorded in the session only if the server has
+     * confirmed it.
      *
      * @param resource the fully initialized resource object
      * @return a flag whether a new artist was created on the server
      * @throws NotAuthorizedException if the call was not authorized
+     * @throws UniformInterfaceException if the server reports an error
      */
     boolean syncArtist(WebResource resource) throws NotAuthorizedException
     {
-        return syncRequest(resource, PATH_ARTIST, createArtistData());
+        ArtistEntity artist = getSong().getArtist();
+        if (artist == null || getSyncSession().isArtistSynchronized(artist))
+        {
+            return false;
+        }
+
+        boolean result = syncRequest(resource, PATH_ARTIST, createArtistData());
+        getSyncSession().artistSynchronized(artist);
+        return result;
     }
 
     /**
-     * Synchronizes data about the album of the current song.
+     * Synchronizes data about the album of the current song. If the album has
+     * already been synchronized in the current session, no request is sent.
+     * The album is recorded in the session only if the server has confirmed
+     * it.
      *
      * @param resource the fully initialized resource object
      * @return a flag whether a new album was created on the server
      * @throws NotAuthorizedException if the call was not authorized
+     * @throws UniformInterfaceException if the server reports an error
      */
     boolean syncAlbum(WebResource resource) throws NotAuthorizedException
     {
-        return syncRequest(resource, PATH_ALBUM, createAlbumData());
+        AlbumEntity album = getSong().getAlbum();
+        if (album == null || getSyncSession().isAlbumSynchronized(album))
+        {
+            return false;
+        }
+
+        boolean result = syncRequest(resource, PATH_ALBUM, createAlbumData());
+        getSyncSession().albumSynchronized(album);
+        return result;
     }
 
     /**
@@ -330,12 +398,13 @@ class SyncSongCommand extends JPACommand implements ResourceProcessor
     boolean syncSong(WebResource resource, SongData songData)
             throws NotAuthorizedException
     {
-        return syncRequest(resource, PATH_SONG, createSongData());
+        return syncRequest(resource, PATH_SONG, songData);
     }
 
     /**
      * Helper method for performing a request for a specific resource. This
-     * method executes the call and evaluates the response.
+     * method executes the call and evaluates the response. The response is
+     * closed, so that the connection can be reused.
      *
      * @param resource the fully initialized resource object
      * @param path the sub-path of the resource this request is about
@@ -343,6 +412,7 @@ class SyncSongCommand extends JPACommand implements ResourceProcessor
      *        action is performed)
      * @return a flag whether a new object was created on the server
      * @throws NotAuthorizedException if the call was not authorized
+     * @throws UniformInterfaceException if the server reports an error
      */
     boolean syncRequest(WebResource resource, String path, Object data)
             throws NotAuthorizedException
@@ -354,10 +424,43 @@ class SyncSongCommand extends JPACommand implements ResourceProcessor
 
         ClientResponse resp =
                 prepareResource(resource, path).put(ClientResponse.class, data);
-        OAuthTemplate.checkAuthorizedResponse(resp);
+        try
+        {
+            checkSuccessResponse(resp);
+            return resp.getStatus() == ClientResponse.Status.CREATED
+                    .getStatusCode();
+        }
+        finally
+        {
+            resp.close();
+        }
+    }
 
-        return resp.getStatus() == ClientResponse.Status.CREATED
-                .getStatusCode();
+    /**
+     * Checks whether the specified response confirms that the server has
+     * processed the objects sent. This is the case for the status codes
+     * <em>OK</em>, <em>CREATED</em>, and <em>NO_CONTENT</em>, and for
+     * <em>NOT_MODIFIED</em> which the server returns for objects that already
+     * exist. For all other status codes an exception is thrown.
+     *
+     * @param resp the response to be checked
+     * @throws NotAuthorizedException if the call was not authorized
+     * @throws UniformInterfaceException if the server reports an error
+     */
+    static void checkSuccessResponse(ClientResponse resp)
+            throws NotAuthorizedException
+    {
+        OAuthTemplate.checkAuthorizedResponse(resp);
+        int status = resp.getStatus();
+        if (status != ClientResponse.Status.OK.getStatusCode()
+                && status != ClientResponse.Status.CREATED.getStatusCode()
+                && status != ClientResponse.Status.NO_CONTENT.getStatusCode()
+                && status != ClientResponse.Status.NOT_MODIFIED
+                        .getStatusCode())
+        {
+            throw new UniformInterfaceException("Unexpected response status: "
+                    + status, resp, false);
+        }
     }
 
     /**
@@ -369,7 +472,8 @@ class SyncSongCommand extends JPACommand implements ResourceProcessor
      */
     UniformInterface prepareResource(WebResource resource, String path)
     {
-        return resource.path(path).accept(MediaType.APPLICATION_XML);
+        return resource.path(path).accept(MediaType.APPLICATION_XML)
+                .type(MediaType.APPLICATION_XML_TYPE);
     }
 
     /**
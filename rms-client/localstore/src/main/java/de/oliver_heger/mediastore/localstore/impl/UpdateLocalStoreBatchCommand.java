@@ -0,0 +1,139 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
+
+import de.oliver_heger.mediastore.service.SongData;
+
+/**
+ * <p>
+ * A specialized command implementation for updating the local data storage with
+ * information about multiple songs.
+ * </p>
+ * <p>
+ * This command is used when information about a number of songs has been
+ * collected, e.g. by a component which records the songs played by the audio
+ * player. For each song an {@link UpdateLocalStoreCommand} is created which
+ * contains the actual update logic. These commands are then executed using the
+ * {@code EntityManager} of this command. So all songs are processed in a single
+ * transaction. All commands share the same {@link EntityIdCache}; the IDs of
+ * newly created entities are added to the cache after the transaction has been
+ * committed.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+class UpdateLocalStoreBatchCommand extends JPACommand
+{
+    /** The commands for updating the single songs. */
+    private final List<UpdateLocalStoreCommand> updateCommands;
+
+    /**
+     * Creates a new instance of {@code UpdateLocalStoreBatchCommand} and
+     * initializes it with the {@code EntityManagerFactory} and a map with the
+     * songs to be updated.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory} (must
+     *        not be <b>null</b>)
+     * @param playCounts a map with the songs to be updated and the number of
+     *        times they have been played (must not be <b>null</b>)
+     * @throws NullPointerException if a required parameter is missing
+     * @throws IllegalArgumentException if a play count is invalid
+     */
+    public UpdateLocalStoreBatchCommand(
+            ConcurrentInitializer<EntityManagerFactory> emfInit,
+            Map<SongData, Integer> playCounts)
+    {
+        this(emfInit, playCounts, new EntityIdCache());
+    }
+
+    /**
+     * Creates a new instance of {@code UpdateLocalStoreBatchCommand} and
+     * initializes it with the {@code EntityManagerFactory}, a map with the
+     * songs to be updated, and the cache for entity IDs.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory} (must
+     *        not be <b>null</b>)
+     * @param playCounts a map with the songs to be updated and the number of
+     *        times they have been played (must not be <b>null</b>)
+     * @param cache the cache for entity IDs (must not be <b>null</b>)
+     * @throws NullPointerException if a required parameter is missing
+     * @throws IllegalArgumentException if a play count is invalid
+     */
+    public UpdateLocalStoreBatchCommand(
+            ConcurrentInitializer<EntityManagerFactory> emfInit,
+            Map<SongData, Integer> playCounts, EntityIdCache cache)
+    {
+        super(emfInit, false);
+        if (playCounts == null)
+        {
+            throw new NullPointerException("Map with songs must not be null!");
+        }
+
+        List<UpdateLocalStoreCommand> commands =
+                new ArrayList<UpdateLocalStoreCommand>(playCounts.size());
+        for (Map.Entry<SongData, Integer> e : playCounts.entrySet())
+        {
+            commands.add(new UpdateLocalStoreCommand(emfInit, e.getKey(), e
+                    .getValue().intValue(), cache));
+        }
+        updateCommands = Collections.unmodifiableList(commands);
+    }
+
+    /**
+     * Returns a list with the commands for updating the single songs.
+     *
+     * @return a list with the update commands
+     */
+    public List<UpdateLocalStoreCommand> getUpdateCommands()
+    {
+        return updateCommands;
+    }
+
+    /**
+     * Executes this command. After the transaction has been committed
+     * successfully, the update commands are asked to add the IDs of the
+     * entities they have created to the cache.
+     *
+     * @throws Exception if an error occurs
+     */
+    @Override
+    public void execute() throws Exception
+    {
+        super.execute();
+        for (UpdateLocalStoreCommand cmd : updateCommands)
+        {
+            cmd.cacheNewEntities();
+        }
+    }
+
+    /**
+     * Implements the logic of this command. This implementation executes the
+     * update commands for all songs using the given {@code EntityManager}.
+     *
+     * @param em the {@code EntityManager}
+     */
+    @Override
+    protected void executeJPAOperation(EntityManager em)
+    {
+        if (getLog().isInfoEnabled())
+        {
+            getLog().info(
+                    "Updating local store with " + updateCommands.size()
+                            + " songs.");
+        }
+
+        for (UpdateLocalStoreCommand cmd : updateCommands)
+        {
+            cmd.executeJPAOperation(em);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package de.oliver_heger.mediastore.localstore.impl;
 
+import java.util.List;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 
@@ -21,6 +23,14 @@ import de.oliver_heger.mediastore.service.SongData;
  * already contained in the local database. If not, the missing information is
  * added. Otherwise the play counter is increased.
  * </p>
+ * <p>
+ * Entities are resolved using an {@link EntityIdCache}. If the cache contains
+ * the ID of an entity, it is loaded directly by its primary key and checked
+ * against the key; only if this fails, a query by name is executed. Entities
+ * found this way are added to the cache. The IDs of entities newly created by
+ * this command are added to the cache after the transaction has been
+ * committed.
+ * </p>
  *
  * @author Oliver Heger
  * @version $Id: $
@@ -33,6 +43,18 @@ class UpdateLocalStoreCommand extends JPACommand
     /** The number of times the song has been played. */
     private final int playCount;
 
+    /** The cache for the IDs of entities. */
+    private final EntityIdCache idCache;
+
+    /** The song entity newly created by this command. */
+    private SongEntity newSong;
+
+    /** The artist entity newly created by this command. */
+    private ArtistEntity newArtist;
+
+    /** The album entity newly created by this command. */
+    private AlbumEntity newAlbum;
+
     /**
      * Creates a new instance of {@code UpdateLocalStoreCommand} and initializes
      * it with the {@code EntityManagerFactory} and the object with the song
@@ -50,6 +72,28 @@ class UpdateLocalStoreCommand extends JPACommand
     public UpdateLocalStoreCommand(
             ConcurrentInitializer<EntityManagerFactory> emfInit, SongData data,
             int playcnt)
+    {
+        this(emfInit, data, playcnt, new EntityIdCache());
+    }
+
+    /**
+     * Creates a new instance of {@code UpdateLocalStoreCommand} and initializes
+     * it with the {@code EntityManagerFactory}, the object with the song
+     * information, and the cache for entity IDs.
+     *
+     * @param emfInit the initializer for the {@code EntityManagerFactory} (must
+     *        not be <b>null</b>)
+     * @param data the data object for the song to be updated (must not be
+     *        <b>null</b>)
+     * @param playcnt the number of times the song has been played (must be &gt;
+     *        0)
+     * @param cache the cache for entity IDs (must not be <b>null</b>)
+     * @throws NullPointerException if a required parameter is missing
+     * @throws IllegalArgumentException if the play count is invalid
+     */
+    public UpdateLocalStoreCommand(
+            ConcurrentInitializer<EntityManagerFactory> emfInit, SongData data,
+            int playcnt, EntityIdCache cache)
     {
         super(emfInit, false);
         if (data == null)
@@ -61,9 +105,14 @@ class UpdateLocalStoreCommand extends JPACommand
             throw new IllegalArgumentException(
                     "Play count must be greater than 0!");
         }
+        if (cache == null)
+        {
+            throw new NullPointerException("ID cache must not be null!");
+        }
 
         songData = data;
         playCount = playcnt;
+        idCache = cache;
     }
 
     /**
@@ -87,6 +136,29 @@ class UpdateLocalStoreCommand extends JPACommand
         return playCount;
     }
 
+    /**
+     * Returns the cache for entity IDs used by this command.
+     *
+     * @return the ID cache
+     */
+    public EntityIdCache getIdCache()
+    {
+        return idCache;
+    }
+
+    /**
+     * Executes this command. After the transaction has been committed
+     * successfully, the IDs of newly created entities are added to the cache.
+     *
+     * @throws Exception if an error occurs
+     */
+    @Override
+    public void execute() throws Exception
+    {
+        super.execute();
+        cacheNewEntities();
+    }
+
     /**
      * Implements the logic of this command. This implementation checks which of
      * the entities specified by the current {@code SongData} object already
@@ -98,10 +170,7 @@ class UpdateLocalStoreCommand extends JPACommand
     @Override
     protected void executeJPAOperation(EntityManager em)
     {
-        SongEntity song =
-                Finders.findSong(em, getSongData().getName(),
-                        toInteger(getSongData().getDuration()), getSongData()
-                                .getArtistName());
+        SongEntity song = findSong(em);
 
         if (song == null)
         {
@@ -114,11 +183,61 @@ class UpdateLocalStoreCommand extends JPACommand
 
             song = createEntityFromSongData(em);
             em.persist(song);
+            newSong = song;
         }
 
         song.incrementPlayCount(getPlayCount());
     }
 
+    /**
+     * Adds the IDs of the entities created by this command to the ID cache.
+     * This method must only be called after the transaction has been
+     * committed.
+     */
+    void cacheNewEntities()
+    {
+        if (newSong != null)
+        {
+            idCache.putID(songKey(), newSong.getId());
+        }
+        if (newArtist != null)
+        {
+            idCache.putID(artistKey(), newArtist.getId());
+        }
+        if (newAlbum != null)
+        {
+            idCache.putID(albumKey(), newAlbum.getId());
+        }
+    }
+
+    /**
+     * Searches for the song entity referenced by the current song data object.
+     * The ID cache is checked first. If the song is found by a query, its ID is
+     * added to the cache.
+     *
+     * @param em the {@code EntityManager}
+     * @return the song entity or <b>null</b> if it does not exist
+     */
+    private SongEntity findSong(EntityManager em)
+    {
+        List<Object> key = songKey();
+        SongEntity song = findCached(em, SongEntity.class, key);
+
+        if (song == null)
+        {
+            song =
+                    Finders.findSong(em, getSongData().getName(),
+                            toInteger(getSongData().getDuration()),
+                            getSongData().getArtistName());
+            if (song != null)
+            {
+                idCache.putID(key, song.getId());
+            }
+        }
+
+        return song;
+    }
+
     /**
      * Creates a {@link SongEntity} object from the {@code SongData} object of
      * this command.
@@ -158,10 +277,19 @@ class UpdateLocalStoreCommand extends JPACommand
      */
     private ArtistEntity fetchOrCreateArtist(EntityManager em)
     {
-        ArtistEntity artist =
-                Finders.findArtist(em, getSongData().getArtistName());
+        List<Object> key = artistKey();
+        ArtistEntity artist = findCached(em, ArtistEntity.class, key);
+        if (artist != null)
+        {
+            return artist;
+        }
 
-        if (artist == null)
+        artist = Finders.findArtist(em, getSongData().getArtistName());
+        if (artist != null)
+        {
+            idCache.putID(key, artist.getId());
+        }
+        else
         {
             if (getLog().isInfoEnabled())
             {
@@ -173,6 +301,7 @@ class UpdateLocalStoreCommand extends JPACommand
             artist = new ArtistEntity();
             artist.setName(getSongData().getArtistName());
             em.persist(artist);
+            newArtist = artist;
         }
 
         return artist;
@@ -187,11 +316,20 @@ class UpdateLocalStoreCommand extends JPACommand
      */
     private AlbumEntity fetchOrCreateAlbum(EntityManager em)
     {
-        Integer year = toInteger(getSongData().getInceptionYear());
-        AlbumEntity album =
-                Finders.findAlbum(em, getSongData().getAlbumName(), year);
+        List<Object> key = albumKey();
+        AlbumEntity album = findCached(em, AlbumEntity.class, key);
+        if (album != null)
+        {
+            return album;
+        }
 
-        if (album == null)
+        Integer year = toInteger(getSongData().getInceptionYear());
+        album = Finders.findAlbum(em, getSongData().getAlbumName(), year);
+        if (album != null)
+        {
+            idCache.putID(key, album.getId());
+        }
+        else
         {
             if (getLog().isInfoEnabled())
             {
@@ -204,11 +342,75 @@ class UpdateLocalStoreCommand extends JPACommand
             album.setName(getSongData().getAlbumName());
             album.setInceptionYear(year);
             em.persist(album);
+            newAlbum = album;
         }
 
         return album;
     }
 
+    /**
+     * Tries to load an entity using an ID from the cache. If the cache does not
+     * contain the key, result is <b>null</b>. If the entity with the cached ID
+     * no longer exists or no longer matches the key, the entry is removed from
+     * the cache, and result is <b>null</b>, too.
+     *
+     * @param <E> the type of the entity
+     * @param em the {@code EntityManager}
+     * @param entityClass the entity class
+     * @param key the key of the entity in the cache
+     * @return the entity or <b>null</b>
+     */
+    private <E> E findCached(EntityManager em, Class<E> entityClass,
+            List<Object> key)
+    {
+        Long id = idCache.getID(key);
+        if (id == null)
+        {
+            return null;
+        }
+
+        E entity = em.find(entityClass, id);
+        if (entity == null || !key.equals(EntityIdCache.entityKey(entity)))
+        {
+            idCache.remove(key);
+            return null;
+        }
+        return entity;
+    }
+
+    /**
+     * Returns the key of the song entity in the ID cache.
+     *
+     * @return the song key
+     */
+    private List<Object> songKey()
+    {
+        return EntityIdCache.songKey(getSongData().getName(),
+                toInteger(getSongData().getDuration()), getSongData()
+                        .getArtistName());
+    }
+
+    /**
+     * Returns the key of the artist entity in the ID cache.
+     *
+     * @return the artist key
+     */
+    private List<Object> artistKey()
+    {
+        return EntityIdCache.artistKey(getSongData().getArtistName());
+    }
+
+    /**
+     * Returns the key of the album entity in the ID cache.
+     *
+     * @return the album key
+     */
+    private List<Object> albumKey()
+    {
+        return EntityIdCache.albumKey(getSongData().getAlbumName(),
+                toInteger(getSongData().getInceptionYear()));
+    }
+
     /**
      * Helper method for transforming a number to an integer value. This is
      * needed for dealing with the BigInteger properties of the song data
@@ -53,7 +53,7 @@ public class AlbumEntity extends SongOwner
 
     /** The definition of the find specific query. */
     static final String QUERY_FIND_SPECIFIC_DEF =
-            "select a from AlbumEntity a where upper(a.name) = :" + PARAM_NAME
+            "select a from AlbumEntity a where a.searchName = :" + PARAM_NAME
                     + " and ((a.inceptionYear = :" + PARAM_YEAR + ") or (:"
                     + PARAM_YEAR + " is null and a.inceptionYear is null))";
 
@@ -89,6 +89,18 @@ public class AlbumEntity extends SongOwner
         return getInternalName();
     }
 
+    /**
+     * Returns the search name of this album. This is the name in upper case.
+     * It is used by queries for albums.
+     *
+     * @return the search name of this album
+     */
+    @Column(name = "ALBUM_SEARCH_NAME", length = 255)
+    public String getSearchName()
+    {
+        return getInternalSearchName();
+    }
+
     /**
      * Returns a set with the songs associated with this album.
      *
@@ -43,7 +43,7 @@ public class ArtistEntity extends SongOwner
 
     /** The definition of the find by name query. */
     static final String QUERY_FIND_BY_NAME_DEF =
-            "select a from ArtistEntity a where upper(a.name) = :" + PARAM_NAME;
+            "select a from ArtistEntity a where a.searchName = :" + PARAM_NAME;
 
     /**
      * The serial version UID.
@@ -74,6 +74,18 @@ public class ArtistEntity extends SongOwner
         return getInternalName();
     }
 
+    /**
+     * Returns the search name of this artist. This is the name in upper case.
+     * It is used by queries for artists.
+     *
+     * @return the search name of this artist
+     */
+    @Column(name = "ARTIST_SEARCH_NAME", length = 255)
+    public String getSearchName()
+    {
+        return getInternalSearchName();
+    }
+
     /**
      * Returns the set with the songs associated with this artist.
      *
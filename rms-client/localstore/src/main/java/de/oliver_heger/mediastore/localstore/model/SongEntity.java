@@ -34,6 +34,10 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
  * total count is undefined. Therefore this class contains some logic for
  * dealing with such cases.
  * </p>
+ * <p>
+ * For lookups by name a search name is stored, too. This is the name converted
+ * to upper case. It is updated automatically when the name is set.
+ * </p>
  *
  * @author Oliver Heger
  * @version $Id: $
@@ -43,7 +47,8 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 @NamedQueries({
         @NamedQuery(name = SongEntity.QUERY_FIND_SPECIFIC_WITH_ARTIST, query = SongEntity.QUERY_FIND_SPECIFIC_WITH_ARTIST_DEF),
         @NamedQuery(name = SongEntity.QUERY_FIND_SPECIFIC_NO_ARTIST, query = SongEntity.QUERY_FIND_SPECIFIC_NO_ARTIST_DEF),
-        @NamedQuery(name = SongEntity.QUERY_FIND_SONGS_TO_SYNC, query = SongEntity.QUERY_FIND_SONGS_TO_SYNC_DEF)
+        @NamedQuery(name = SongEntity.QUERY_FIND_SONGS_TO_SYNC, query = SongEntity.QUERY_FIND_SONGS_TO_SYNC_DEF),
+        @NamedQuery(name = SongEntity.QUERY_COUNT_SONGS_TO_SYNC, query = SongEntity.QUERY_COUNT_SONGS_TO_SYNC_DEF)
 })
 public class SongEntity implements Serializable
 {
@@ -56,6 +61,9 @@ public class SongEntity implements Serializable
     /** Constant for the artist name parameter. */
     public static final String PARAM_ARTIST = "artist";
 
+    /** Constant for the song ID parameter. */
+    public static final String PARAM_ID = "songID";
+
     /** Constant for the prefix used for all named song queries. */
     public static final String SONG_QUERY_PREFIX =
             "de.oliver_heger.mediastore.localstore.model.SongEntity.";
@@ -82,24 +90,42 @@ public class SongEntity implements Serializable
     public static final String QUERY_FIND_SONGS_TO_SYNC = SONG_QUERY_PREFIX
             + "FIND_SONGS_TO_SYNC";
 
+    /**
+     * Constant for the name of the query for counting the songs to be
+     * synchronized with the server.
+     */
+    public static final String QUERY_COUNT_SONGS_TO_SYNC = SONG_QUERY_PREFIX
+            + "COUNT_SONGS_TO_SYNC";
+
     /** A query prefix with the defining properties except for the artist. */
     static final String QUERY_FIND_SPECIFIC_PREFIX =
-            "select s from SongEntity s where upper(s.name) = :" + PARAM_NAME
+            "select s from SongEntity s where s.searchName = :" + PARAM_NAME
                     + " and ((s.duration = :" + PARAM_DURATION + ") or (:"
                     + PARAM_DURATION + " is null and s.duration is null))";
 
     /** The definition of the find specific with artist query. */
     static final String QUERY_FIND_SPECIFIC_WITH_ARTIST_DEF =
-            QUERY_FIND_SPECIFIC_PREFIX + " and upper(s.artist.name) = :"
+            QUERY_FIND_SPECIFIC_PREFIX + " and s.artist.searchName = :"
                     + PARAM_ARTIST;
 
     /** The definition of the find specific without artist query. */
     static final String QUERY_FIND_SPECIFIC_NO_ARTIST_DEF =
             QUERY_FIND_SPECIFIC_PREFIX + " and s.artist is null";
 
-    /** The definition of the find songs for synchronization query. */
+    /**
+     * The definition of the find songs for synchronization query. Artists and
+     * albums are fetched together with the songs. The songs are ordered by
+     * their IDs, so the query can be executed in pages: the ID parameter is
+     * the ID of the last song of the previous page.
+     */
     static final String QUERY_FIND_SONGS_TO_SYNC_DEF =
-            "select s from SongEntity s where s.currentPlayCount > 0";
+            "select s from SongEntity s left join fetch s.artist"
+                    + " left join fetch s.album where s.currentPlayCount > 0"
+                    + " and s.id > :" + PARAM_ID + " order by s.id";
+
+    /** The definition of the count songs for synchronization query. */
+    static final String QUERY_COUNT_SONGS_TO_SYNC_DEF =
+            "select count(s) from SongEntity s where s.currentPlayCount > 0";
 
     /**
      * The serial version UID.
@@ -112,6 +138,9 @@ public class SongEntity implements Serializable
     /** The song name. */
     private String name;
 
+    /** The search name of the song. */
+    private String searchName;
+
     /** The duration of the song (in seconds). */
     private Integer duration;
 
@@ -184,6 +213,31 @@ public class SongEntity implements Serializable
     public void setName(String name)
     {
         this.name = name;
+        searchName = SongOwner.toSearchName(name);
+    }
+
+    /**
+     * Returns the search name of this song. This is the name in upper case. It
+     * is used by queries for songs.
+     *
+     * @return the search name of this song
+     */
+    @Column(name = "SONG_SEARCH_NAME", length = 255)
+    public String getSearchName()
+    {
+        return searchName;
+    }
+
+    /**
+     * Sets the search name of this song. This method is intended to be called
+     * by the persistence provider. The search name is set automatically by
+     * {@link #setName(String)}.
+     *
+     * @param searchName the search name
+     */
+    void setSearchName(String searchName)
+    {
+        this.searchName = searchName;
     }
 
     /**
@@ -5,6 +5,7 @@ import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 /**
@@ -24,6 +25,13 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
  * references on {@link SongEntity} objects. These are called by the base class
  * when new songs are added or removed.
  * </p>
+ * <p>
+ * Besides the name, an entity stores a search name. This is the name converted
+ * to upper case. Names are compared ignoring case; by storing the normalized
+ * name in an indexed column, lookups by name do not need to apply a function on
+ * the name column. The search name is updated automatically when the name is
+ * set.
+ * </p>
  *
  * @author Oliver Heger
  * @version $Id: $
@@ -47,6 +55,9 @@ public abstract class SongOwner implements Serializable
     /** The name of this entity. */
     private String name;
 
+    /** The search name of this entity. */
+    private String searchName;
+
     /** A set with the songs associated with this entity. */
     private Set<SongEntity> songs = new HashSet<SongEntity>();
 
@@ -69,6 +80,19 @@ public abstract class SongOwner implements Serializable
     public void setName(String name)
     {
         this.name = name;
+        searchName = toSearchName(name);
+    }
+
+    /**
+     * Sets the search name of this entity. This method is intended to be called
+     * by the persistence provider. The search name is set automatically by
+     * {@link #setName(String)}.
+     *
+     * @param searchName the search name
+     */
+    void setSearchName(String searchName)
+    {
+        this.searchName = searchName;
     }
 
     /**
@@ -156,6 +180,17 @@ public abstract class SongOwner implements Serializable
         return name;
     }
 
+    /**
+     * Returns the search name of this object. Derived classes can use this
+     * method to implement the public get method.
+     *
+     * @return the search name of this object
+     */
+    protected final String getInternalSearchName()
+    {
+        return searchName;
+    }
+
     /**
      * Returns a set with the songs associated with this object. Derived classes
      * can use this method to implement the public get method.
@@ -200,6 +235,19 @@ public abstract class SongOwner implements Serializable
         return result;
     }
 
+    /**
+     * Transforms a name to the corresponding search name. Search names are
+     * used for lookups ignoring case. All components dealing with search names
+     * must use this method, so that the same names are produced.
+     *
+     * @param name the name (may be <b>null</b>)
+     * @return the search name
+     */
+    public static String toSearchName(String name)
+    {
+        return StringUtils.upperCase(name, Locale.ENGLISH);
+    }
+
     /**
      * Initializes the given {@code ToStringBuilder}. This method is called by
      * the {@link #toString()} method. Derived classes can add additional fields
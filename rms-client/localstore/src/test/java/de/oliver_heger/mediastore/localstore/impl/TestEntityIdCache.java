@@ -0,0 +1,166 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
+import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
+import de.oliver_heger.mediastore.localstore.model.SongEntity;
+
+/**
+ * Test class for {@code EntityIdCache}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestEntityIdCache
+{
+    /** Constant for a test name. */
+    private static final String NAME = "Misplaced Childhood";
+
+    /** Constant for a test ID. */
+    private static final Long ID = 20121018L;
+
+    /** The cache to be tested. */
+    private EntityIdCache cache;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        cache = new EntityIdCache();
+    }
+
+    /**
+     * Tests a newly created instance.
+     */
+    @Test
+    public void testInit()
+    {
+        assertEquals("Wrong size", 0, cache.size());
+        assertNull("Got an ID", cache.getID(EntityIdCache.artistKey(NAME)));
+    }
+
+    /**
+     * Tests whether IDs can be added and queried.
+     */
+    @Test
+    public void testPutAndGet()
+    {
+        List<Object> key = EntityIdCache.songKey(NAME, 240, "Marillion");
+        cache.putID(key, ID);
+        assertEquals("Wrong size", 1, cache.size());
+        assertEquals("Wrong ID", ID,
+                cache.getID(EntityIdCache.songKey(NAME, 240, "Marillion")));
+    }
+
+    /**
+     * Tests that null IDs are not added to the cache.
+     */
+    @Test
+    public void testPutNullID()
+    {
+        cache.putID(EntityIdCache.artistKey(NAME), null);
+        assertEquals("Wrong size", 0, cache.size());
+    }
+
+    /**
+     * Tests whether entries can be removed.
+     */
+    @Test
+    public void testRemove()
+    {
+        List<Object> key = EntityIdCache.albumKey(NAME, 1985);
+        cache.putID(key, ID);
+        cache.putID(EntityIdCache.artistKey(NAME), ID);
+        cache.remove(key);
+        assertNull("Entry not removed", cache.getID(key));
+        assertEquals("Wrong size", 1, cache.size());
+        cache.clear();
+        assertEquals("Not cleared", 0, cache.size());
+    }
+
+    /**
+     * Tests that names in keys are case insensitive.
+     */
+    @Test
+    public void testKeysIgnoreCase()
+    {
+        assertEquals("Wrong artist key", EntityIdCache.artistKey(NAME),
+                EntityIdCache.artistKey(NAME.toLowerCase(Locale.ENGLISH)));
+        assertEquals("Wrong album key", EntityIdCache.albumKey(NAME, 1985),
+                EntityIdCache.albumKey(NAME.toUpperCase(Locale.ENGLISH), 1985));
+        assertEquals("Wrong song key",
+                EntityIdCache.songKey(NAME, 100, "marillion"),
+                EntityIdCache.songKey(NAME, 100, "MARILLION"));
+    }
+
+    /**
+     * Tests whether the key of a song entity can be determined.
+     */
+    @Test
+    public void testEntityKeySong()
+    {
+        SongEntity song = new SongEntity();
+        song.setName(NAME);
+        song.setDuration(240);
+        assertEquals("Wrong key without artist",
+                EntityIdCache.songKey(NAME, 240, null),
+                EntityIdCache.entityKey(song));
+        ArtistEntity artist = new ArtistEntity();
+        artist.setName("Marillion");
+        song.setArtist(artist);
+        assertEquals("Wrong key with artist",
+                EntityIdCache.songKey(NAME, 240, "MARILLION"),
+                EntityIdCache.entityKey(song));
+    }
+
+    /**
+     * Tests whether the keys of artist and album entities can be determined.
+     */
+    @Test
+    public void testEntityKeyArtistAndAlbum()
+    {
+        ArtistEntity artist = new ArtistEntity();
+        artist.setName(NAME);
+        assertEquals("Wrong artist key", EntityIdCache.artistKey(NAME),
+                EntityIdCache.entityKey(artist));
+        AlbumEntity album = new AlbumEntity();
+        album.setName(NAME);
+        album.setInceptionYear(1985);
+        assertEquals("Wrong album key", EntityIdCache.albumKey(NAME, 1985),
+                EntityIdCache.entityKey(album));
+    }
+
+    /**
+     * Tries to obtain the key of an unsupported object.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testEntityKeyUnsupported()
+    {
+        EntityIdCache.entityKey(NAME);
+    }
+
+    /**
+     * Tests that keys of different entity types or with different properties
+     * are not equal.
+     */
+    @Test
+    public void testKeysDifferent()
+    {
+        assertFalse("Same key for artist and album", EntityIdCache
+                .artistKey(NAME).equals(EntityIdCache.albumKey(NAME, null)));
+        assertFalse("Same key for different years",
+                EntityIdCache.albumKey(NAME, 1985).equals(
+                        EntityIdCache.albumKey(NAME, 1986)));
+        assertFalse("Same key with and without artist", EntityIdCache
+                .songKey(NAME, 100, null).equals(
+                        EntityIdCache.songKey(NAME, 100, "Marillion")));
+    }
+}
@@ -1,7 +1,12 @@
 package de.oliver_heger.mediastore.localstore.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -106,4 +111,90 @@ public class TestFinders
         helper.persist(artist, true);
         assertNull("Got an artist", Finders.findArtist(helper.getEM(), null));
     }
+
+    /**
+     * Creates a number of songs with an artist and an album. All songs but
+     * the first one have a play count.
+     *
+     * @param count the number of songs
+     */
+    private void persistSongsToSync(int count)
+    {
+        ArtistEntity artist = new ArtistEntity();
+        artist.setName(NAME);
+        AlbumEntity album = new AlbumEntity();
+        album.setName(NAME);
+        helper.begin();
+        helper.persist(artist, false);
+        helper.persist(album, false);
+        for (int i = 0; i < count; i++)
+        {
+            SongEntity song = new SongEntity();
+            song.setName(NAME + i);
+            song.setCurrentPlayCount(i);
+            artist.addSong(song);
+            album.addSong(song);
+            helper.persist(song, false);
+        }
+        helper.commit();
+        helper.closeEM();
+    }
+
+    /**
+     * Tests whether the songs to sync can be counted.
+     */
+    @Test
+    public void testCountSongsToSync()
+    {
+        final int count = 6;
+        persistSongsToSync(count);
+        assertEquals("Wrong number of songs", count - 1,
+                Finders.countSongsToSync(helper.getEM()));
+    }
+
+    /**
+     * Tests whether the first page of songs to sync can be loaded.
+     */
+    @Test
+    public void testFindSongsToSyncFirstPage()
+    {
+        persistSongsToSync(6);
+        List<SongEntity> songs =
+                Finders.findSongsToSync(helper.getEM(), null, 2);
+        assertEquals("Wrong number of songs", 2, songs.size());
+        for (int i = 0; i < songs.size(); i++)
+        {
+            SongEntity song = songs.get(i);
+            assertEquals("Wrong song", NAME + (i + 1), song.getName());
+            assertFalse("Song still managed", helper.getEM().contains(song));
+            assertNotNull("No artist", song.getArtist());
+            assertNotNull("No album", song.getAlbum());
+        }
+    }
+
+    /**
+     * Tests whether all songs to sync can be loaded page by page.
+     */
+    @Test
+    public void testFindSongsToSyncPaged()
+    {
+        final int count = 6;
+        persistSongsToSync(count);
+        List<SongEntity> songs =
+                Finders.findSongsToSync(helper.getEM(), null, 2);
+        int index = 1;
+        while (!songs.isEmpty())
+        {
+            assertTrue("Page too big", songs.size() <= 2);
+            for (SongEntity song : songs)
+            {
+                assertEquals("Wrong song", NAME + index, song.getName());
+                index++;
+            }
+            songs =
+                    Finders.findSongsToSync(helper.getEM(),
+                            songs.get(songs.size() - 1).getId(), 2);
+        }
+        assertEquals("Wrong number of songs", count, index);
+    }
 }
@@ -1,10 +1,17 @@
 package de.oliver_heger.mediastore.localstore.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManagerFactory;
 
@@ -14,11 +21,14 @@ import net.sf.jguiraffe.gui.cmd.CommandQueue;
 import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
 import org.apache.commons.lang3.concurrent.ConstantInitializer;
 import org.easymock.EasyMock;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import de.oliver_heger.mediastore.RemoteMediaStoreTestHelper;
 import de.oliver_heger.mediastore.localstore.CommandObserver;
+import de.oliver_heger.mediastore.localstore.JPATestHelper;
 import de.oliver_heger.mediastore.localstore.SyncController;
 import de.oliver_heger.mediastore.localstore.model.SongEntity;
 import de.oliver_heger.mediastore.oauth.OAuthTemplate;
@@ -41,6 +51,9 @@ public class TestMediaStoreImpl
     private static final String SVC_URI =
             "http://remotemediastore.appspot.com/resources/";
 
+    /** Constant for the delay in write-behind mode. */
+    private static final long WRITE_BEHIND_DELAY = 60000;
+
     /** The factory for data objects. */
     private static ObjectFactory factory;
 
@@ -50,6 +63,9 @@ public class TestMediaStoreImpl
     /** A mock for the command queue. */
     private CommandQueue queue;
 
+    /** The directory for journal files. */
+    private File journalDir;
+
     @BeforeClass
     public static void setUpBeforeClass() throws Exception
     {
@@ -61,6 +77,18 @@ public class TestMediaStoreImpl
     {
         emf = EasyMock.createMock(EntityManagerFactory.class);
         queue = EasyMock.createMock(CommandQueue.class);
+        journalDir =
+                new File(System.getProperty("java.io.tmpdir"), "storejournal"
+                        + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (journalDir.exists())
+        {
+            RemoteMediaStoreTestHelper.removeDir(journalDir);
+        }
     }
 
     /**
@@ -88,6 +116,46 @@ public class TestMediaStoreImpl
                 new ConstantInitializer<EntityManagerFactory>(emf), queue);
     }
 
+    /**
+     * Creates a journal for write-behind tests.
+     *
+     * @return the journal
+     */
+    private PlayCountJournal createJournal()
+    {
+        return new PlayCountJournal(new File(journalDir, "test.journal"));
+    }
+
+    /**
+     * Creates a test instance in write-behind mode.
+     *
+     * @return the test object
+     */
+    private MediaStoreTestImpl createWriteBehindStore()
+    {
+        MediaStoreTestImpl store =
+                new MediaStoreTestImpl(
+                        new ConstantInitializer<EntityManagerFactory>(emf),
+                        queue, createJournal());
+        store.setMockCommandExecution(true);
+        return store;
+    }
+
+    /**
+     * Creates a song data object for write-behind tests.
+     *
+     * @param name the name of the song
+     * @return the data object
+     */
+    private static SongData createSongData(String name)
+    {
+        SongData data = factory.createSongData();
+        data.setName(name);
+        data.setArtistName("Genesis");
+        data.setDuration(BigInteger.valueOf(300));
+        return data;
+    }
+
     /**
      * Tries to create an instance without an initializer for the EMF.
      */
@@ -180,6 +248,270 @@ public class TestMediaStoreImpl
         store.updateSongData(data, -1);
     }
 
+    /**
+     * Tests whether multiple songs can be updated in a single step.
+     */
+    @Test
+    public void testUpdateSongDataBatch()
+    {
+        MediaStoreTestImpl store = createStore();
+        store.setMockCommandExecution(true);
+        SongData data1 = factory.createSongData();
+        SongData data2 = factory.createSongData();
+        Map<SongData, Integer> playCounts =
+                new LinkedHashMap<SongData, Integer>();
+        playCounts.put(data1, 1);
+        playCounts.put(data2, 3);
+        store.updateSongData(playCounts);
+        UpdateLocalStoreBatchCommand cmd =
+                (UpdateLocalStoreBatchCommand) store.getExecutedCommand();
+        assertSame("Wrong EMF", emf, cmd.getEntityManagerFactory());
+        List<UpdateLocalStoreCommand> commands = cmd.getUpdateCommands();
+        assertEquals("Wrong number of commands", 2, commands.size());
+        assertSame("Wrong song data 1", data1, commands.get(0).getSongData());
+        assertSame("Wrong song data 2", data2, commands.get(1).getSongData());
+        assertEquals("Wrong play count", 3, commands.get(1).getPlayCount());
+    }
+
+    /**
+     * Tests that all update commands created by the store share the same ID
+     * cache.
+     */
+    @Test
+    public void testUpdateCommandsShareIdCache()
+    {
+        MediaStoreTestImpl store = createStore();
+        UpdateLocalStoreCommand cmd1 =
+                (UpdateLocalStoreCommand) store.createUpdateSongDataCommand(
+                        factory.createSongData(), 1);
+        Map<SongData, Integer> playCounts =
+                new LinkedHashMap<SongData, Integer>();
+        playCounts.put(factory.createSongData(), 1);
+        UpdateLocalStoreBatchCommand cmd2 =
+                (UpdateLocalStoreBatchCommand) store
+                        .createUpdateSongDataCommand(playCounts);
+        assertSame("Different ID cache", cmd1.getIdCache(), cmd2
+                .getUpdateCommands().get(0).getIdCache());
+    }
+
+    /**
+     * Tests that write-behind mode is disabled per default.
+     */
+    @Test
+    public void testIsWriteBehindDefault()
+    {
+        assertFalse("Write-behind", createStore().isWriteBehind());
+    }
+
+    /**
+     * Tries to create a write-behind instance with an invalid delay.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitInvalidDelay()
+    {
+        new MediaStoreImpl(new ConstantInitializer<EntityManagerFactory>(emf),
+                queue, OAUTH_URI, SVC_URI, createJournal(), 0);
+    }
+
+    /**
+     * Tests whether updates are collected and written in a single command in
+     * write-behind mode.
+     */
+    @Test
+    public void testUpdateSongDataWriteBehind()
+    {
+        MediaStoreTestImpl store = createWriteBehindStore();
+        assertTrue("No write-behind", store.isWriteBehind());
+        SongData data1 = createSongData("Mama");
+        SongData data2 = createSongData("MAMA");
+        SongData data3 = createSongData("Home by the sea");
+        store.updateSongData(data1, 1);
+        Map<SongData, Integer> playCounts =
+                new LinkedHashMap<SongData, Integer>();
+        playCounts.put(data2, 2);
+        playCounts.put(data3, 1);
+        store.updateSongData(playCounts);
+        assertTrue("Commands executed", store.getExecutedCommands().isEmpty());
+        store.flush();
+        UpdateLocalStoreBatchCommand cmd =
+                (UpdateLocalStoreBatchCommand) store.getExecutedCommand();
+        List<UpdateLocalStoreCommand> commands = cmd.getUpdateCommands();
+        assertEquals("Wrong number of commands", 2, commands.size());
+        assertSame("Wrong song data 1", data1, commands.get(0).getSongData());
+        assertEquals("Wrong play count 1", 3, commands.get(0).getPlayCount());
+        assertSame("Wrong song data 2", data3, commands.get(1).getSongData());
+        assertEquals("Wrong play count 2", 1, commands.get(1).getPlayCount());
+        store.flush();
+        assertEquals("Too many commands", 1, store.getExecutedCommands()
+                .size());
+    }
+
+    /**
+     * Tests that updates are recorded in the journal in write-behind mode.
+     */
+    @Test
+    public void testUpdateSongDataWriteBehindJournal() throws IOException
+    {
+        MediaStoreTestImpl store = createWriteBehindStore();
+        store.updateSongData(createSongData("Mama"), 2);
+        List<File> segments = createJournal().pendingSegments();
+        assertEquals("Wrong number of segments", 1, segments.size());
+        Map<SongData, Integer> playCounts =
+                createJournal().read(segments.get(0));
+        assertEquals("Wrong number of songs", 1, playCounts.size());
+        assertEquals("Wrong play count", 2, playCounts.values().iterator()
+                .next().intValue());
+    }
+
+    /**
+     * Tests whether the data of an update is checked in write-behind mode.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdateSongDataWriteBehindInvalidPlayCount()
+    {
+        MediaStoreTestImpl store = createWriteBehindStore();
+        store.updateSongData(createSongData("Mama"), 0);
+    }
+
+    /**
+     * Tests whether shutdown() flushes pending updates. This has to be done
+     * synchronously without using the command queue.
+     */
+    @Test
+    public void testShutdownFlushes()
+    {
+        MediaStoreTestImpl store = createWriteBehindStore();
+        store.updateSongData(createSongData("Mama"), 1);
+        store.shutdown();
+        assertTrue("Commands passed to queue", store.getExecutedCommands()
+                .isEmpty());
+        assertEquals("Wrong number of synchronous commands", 1, store
+                .getSynchronousCommands().size());
+        Command cmd = store.getSynchronousCommands().get(0);
+        assertTrue("Wrong command: " + cmd,
+                cmd instanceof UpdateLocalStoreBatchCommand);
+    }
+
+    /**
+     * Tests that shutdown() does not execute a command if there are no
+     * pending updates.
+     */
+    @Test
+    public void testShutdownNoPendingUpdates()
+    {
+        MediaStoreTestImpl store = createWriteBehindStore();
+        store.shutdown();
+        assertTrue("Commands passed to queue", store.getExecutedCommands()
+                .isEmpty());
+        assertTrue("Synchronous commands", store.getSynchronousCommands()
+                .isEmpty());
+    }
+
+    /**
+     * Tests that pending updates are committed when shutdown() returns and
+     * that the journal is cleared.
+     */
+    @Test
+    public void testShutdownWritesPendingUpdates() throws IOException
+    {
+        EasyMock.replay(queue);
+        PlayCountJournal journal = createJournal();
+        JPATestHelper helper = new JPATestHelper();
+        try
+        {
+            MediaStoreImpl store =
+                    new MediaStoreImpl(
+                            new ConstantInitializer<EntityManagerFactory>(
+                                    helper.getEMF()), queue, OAUTH_URI,
+                            SVC_URI, journal, WRITE_BEHIND_DELAY);
+            store.updateSongData(createSongData("Mama"), 1);
+            store.shutdown();
+            assertEquals("Song not stored", 1, helper.getEM()
+                    .createQuery("select s from SongEntity s").getResultList()
+                    .size());
+            assertTrue("Journal not cleared", createJournal()
+                    .pendingSegments().isEmpty());
+            EasyMock.verify(queue);
+        }
+        finally
+        {
+            helper.close();
+        }
+    }
+
+    /**
+     * Tests whether exceptions thrown by a synchronously executed command are
+     * handled.
+     */
+    @Test
+    public void testExecuteSynchronouslyException() throws Exception
+    {
+        Command cmd = EasyMock.createMock(Command.class);
+        Exception ex = new IllegalStateException("Test exception");
+        cmd.execute();
+        EasyMock.expectLastCall().andThrow(ex);
+        cmd.onException(ex);
+        cmd.onFinally();
+        EasyMock.replay(cmd);
+        createStore().executeSynchronously(cmd);
+        EasyMock.verify(cmd);
+    }
+
+    /**
+     * Tests whether updates remaining in the journal are recovered.
+     */
+    @Test
+    public void testRecoverJournal() throws IOException
+    {
+        PlayCountJournal journal = createJournal();
+        journal.append(createSongData("Mama"), 1);
+        journal.append(createSongData("Domino"), 2);
+        MediaStoreTestImpl store = createWriteBehindStore();
+        store.recoverJournal();
+        UpdateLocalStoreBatchCommand cmd =
+                (UpdateLocalStoreBatchCommand) store.getExecutedCommand();
+        assertEquals("Wrong number of commands", 2, cmd.getUpdateCommands()
+                .size());
+        assertEquals("Wrong song", "Domino", cmd.getUpdateCommands().get(1)
+                .getSongData().getName());
+    }
+
+    /**
+     * Tests whether the command created in write-behind mode removes the
+     * journal segment after the updates have been committed.
+     */
+    @Test
+    public void testWriteBehindCommandRemovesSegment() throws Exception
+    {
+        PlayCountJournal journal = createJournal();
+        SongData data = createSongData("Mama");
+        journal.append(data, 1);
+        File segment = journal.seal();
+        Map<SongData, Integer> playCounts =
+                new LinkedHashMap<SongData, Integer>();
+        playCounts.put(data, 1);
+        JPATestHelper helper = new JPATestHelper();
+        try
+        {
+            MediaStoreImpl store =
+                    new MediaStoreImpl(
+                            new ConstantInitializer<EntityManagerFactory>(
+                                    helper.getEMF()), queue, OAUTH_URI,
+                            SVC_URI, journal, 1000);
+            Command cmd = store.createWriteBehindCommand(playCounts, segment);
+            cmd.execute();
+            cmd.onFinally();
+            assertFalse("Segment not removed", segment.exists());
+            assertEquals("Song not stored", 1, helper.getEM()
+                    .createQuery("select s from SongEntity s").getResultList()
+                    .size());
+        }
+        finally
+        {
+            helper.close();
+        }
+    }
+
     /**
      * Tests whether synchronization with the server works correctly.
      */
@@ -187,7 +519,7 @@ public class TestMediaStoreImpl
     public void testSyncWithServer()
     {
         SyncController controller = EasyMock.createMock(SyncController.class);
-        CommandObserver<List<SongEntity>> observer = createCommandObserver();
+        CommandObserver<Integer> observer = createCommandObserver();
         final Integer maxSongs = 42;
         MediaStoreTestImpl store = createStore();
         store.setMockCommandExecution(true);
@@ -201,6 +533,40 @@ public class TestMediaStoreImpl
         OAuthTemplate templ = cmd.createOAuthTemplate();
         assertEquals("Wrong OAuth URI", OAUTH_URI, templ.getOAuthEndpointURI());
         assertEquals("Wrong service URI", SVC_URI, templ.getServiceURI());
+        assertEquals("Wrong batch size", 0, cmd.getBatchSize());
+        assertEquals("Wrong parallelism", 0, cmd.getParallelism());
+    }
+
+    /**
+     * Tests whether the batch size for sync operations is passed to the sync
+     * command.
+     */
+    @Test
+    public void testSyncWithServerBatchSize()
+    {
+        SyncController controller = EasyMock.createMock(SyncController.class);
+        MediaStoreTestImpl store = createStore();
+        store.setMockCommandExecution(true);
+        store.setSyncBatchSize(50);
+        store.syncWithServer(createCommandObserver(), controller, null);
+        SyncCommand cmd = (SyncCommand) store.getExecutedCommand();
+        assertEquals("Wrong batch size", 50, cmd.getBatchSize());
+    }
+
+    /**
+     * Tests whether the parallelism for sync operations is passed to the sync
+     * command.
+     */
+    @Test
+    public void testSyncWithServerParallelism()
+    {
+        SyncController controller = EasyMock.createMock(SyncController.class);
+        MediaStoreTestImpl store = createStore();
+        store.setMockCommandExecution(true);
+        store.setSyncParallelism(4);
+        store.syncWithServer(createCommandObserver(), controller, null);
+        SyncCommand cmd = (SyncCommand) store.getExecutedCommand();
+        assertEquals("Wrong parallelism", 4, cmd.getParallelism());
     }
 
     /**
@@ -211,6 +577,10 @@ public class TestMediaStoreImpl
         /** A list for storing the executed commands. */
         private final List<Command> executedCommands;
 
+        /** A list for storing the commands executed synchronously. */
+        private final List<Command> synchronousCommands =
+                new ArrayList<Command>();
+
         /** A flag whether command execution is to be mocked. */
         private boolean mockCommandExecution;
 
@@ -222,6 +592,15 @@ public class TestMediaStoreImpl
             executedCommands = new ArrayList<Command>();
         }
 
+        public MediaStoreTestImpl(
+                ConcurrentInitializer<EntityManagerFactory> factoryInit,
+                CommandQueue cmdQueue, PlayCountJournal journal)
+        {
+            super(factoryInit, cmdQueue, OAUTH_URI, SVC_URI, journal,
+                    WRITE_BEHIND_DELAY);
+            executedCommands = new ArrayList<Command>();
+        }
+
         /**
          * Returns a flag whether command execution is to be mocked.
          *
@@ -242,6 +621,27 @@ public class TestMediaStoreImpl
             this.mockCommandExecution = mockCommandExecution;
         }
 
+        /**
+         * Returns a list with all commands that have been executed.
+         *
+         * @return the executed commands
+         */
+        public List<Command> getExecutedCommands()
+        {
+            return executedCommands;
+        }
+
+        /**
+         * Returns a list with all commands that have been executed
+         * synchronously.
+         *
+         * @return the synchronously executed commands
+         */
+        public List<Command> getSynchronousCommands()
+        {
+            return synchronousCommands;
+        }
+
         /**
          * Returns the single command that was executed.
          *
@@ -267,5 +667,20 @@ public class TestMediaStoreImpl
                 super.execute(command);
             }
         }
+
+        /**
+         * Records this invocation. Optionally mocks command execution.
+         *
+         * @param command the command
+         */
+        @Override
+        void executeSynchronously(Command command)
+        {
+            synchronousCommands.add(command);
+            if (!isMockCommandExecution())
+            {
+                super.executeSynchronously(command);
+            }
+        }
     }
 }
@@ -0,0 +1,247 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.oliver_heger.mediastore.RemoteMediaStoreTestHelper;
+import de.oliver_heger.mediastore.service.ObjectFactory;
+import de.oliver_heger.mediastore.service.SongData;
+
+/**
+ * Test class for {@code PlayCountJournal}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestPlayCountJournal
+{
+    /** Constant for the prefix of a song name. */
+    private static final String SONG_NAME = "Song ";
+
+    /** The directory for the journal files. */
+    private File journalDir;
+
+    /** The journal to be tested. */
+    private PlayCountJournal journal;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        journalDir =
+                new File(System.getProperty("java.io.tmpdir"), "journal"
+                        + System.nanoTime());
+        journal = new PlayCountJournal(new File(journalDir, "test.journal"));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (journalDir.exists())
+        {
+            RemoteMediaStoreTestHelper.removeDir(journalDir);
+        }
+    }
+
+    /**
+     * Creates a data object for a test song.
+     *
+     * @param idx the index of the song
+     * @return the data object
+     */
+    private static SongData createSongData(int idx)
+    {
+        SongData data = new ObjectFactory().createSongData();
+        data.setName(SONG_NAME + idx);
+        data.setArtistName("Artist");
+        data.setDuration(BigInteger.valueOf(180 + idx));
+        data.setTrackNo(BigInteger.valueOf(idx));
+        return data;
+    }
+
+    /**
+     * Checks whether the given map contains the expected test songs.
+     *
+     * @param playCounts the map to check
+     * @param count the number of expected songs
+     */
+    private static void checkPlayCounts(Map<SongData, Integer> playCounts,
+            int count)
+    {
+        assertEquals("Wrong number of songs", count, playCounts.size());
+        Iterator<Map.Entry<SongData, Integer>> it =
+                playCounts.entrySet().iterator();
+        for (int i = 1; i <= count; i++)
+        {
+            Map.Entry<SongData, Integer> e = it.next();
+            SongData exp = createSongData(i);
+            assertEquals("Wrong name", exp.getName(), e.getKey().getName());
+            assertEquals("Wrong artist", exp.getArtistName(), e.getKey()
+                    .getArtistName());
+            assertNull("Got an album", e.getKey().getAlbumName());
+            assertEquals("Wrong duration", exp.getDuration(), e.getKey()
+                    .getDuration());
+            assertNull("Got a year", e.getKey().getInceptionYear());
+            assertEquals("Wrong track", exp.getTrackNo(), e.getKey()
+                    .getTrackNo());
+            assertEquals("Wrong play count", i, e.getValue().intValue());
+        }
+    }
+
+    /**
+     * Tries to create an instance without a file.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testInitNull()
+    {
+        new PlayCountJournal(null);
+    }
+
+    /**
+     * Tests whether updates can be written and read again.
+     */
+    @Test
+    public void testAppendAndRead() throws IOException
+    {
+        final int count = 4;
+        for (int i = 1; i <= count; i++)
+        {
+            journal.append(createSongData(i), i);
+        }
+        assertTrue("No journal file", journal.getJournalFile().exists());
+        File segment = journal.seal();
+        assertFalse("Journal file not sealed", journal.getJournalFile()
+                .exists());
+        checkPlayCounts(journal.read(segment), count);
+    }
+
+    /**
+     * Tests seal() if there is no journal file.
+     */
+    @Test
+    public void testSealNoJournal() throws IOException
+    {
+        assertNull("Got a segment", journal.seal());
+    }
+
+    /**
+     * Tests whether a segment can be removed.
+     */
+    @Test
+    public void testRemove() throws IOException
+    {
+        journal.append(createSongData(1), 1);
+        File segment = journal.seal();
+        journal.remove(segment);
+        assertFalse("Segment not removed", segment.exists());
+    }
+
+    /**
+     * Tests whether pending segments are found, including a journal file
+     * written by another instance.
+     */
+    @Test
+    public void testPendingSegments() throws IOException
+    {
+        journal.append(createSongData(1), 1);
+        File seg1 = journal.seal();
+        journal.append(createSongData(1), 1);
+        journal.append(createSongData(2), 2);
+        PlayCountJournal journal2 =
+                new PlayCountJournal(journal.getJournalFile());
+        List<File> segments = journal2.pendingSegments();
+        assertEquals("Wrong number of segments", 2, segments.size());
+        assertEquals("Wrong first segment", seg1, segments.get(0));
+        checkPlayCounts(journal2.read(segments.get(1)), 2);
+    }
+
+    /**
+     * Tests that a partially written record at the end of a journal file is
+     * ignored.
+     */
+    @Test
+    public void testReadIncompleteRecord() throws IOException
+    {
+        journal.append(createSongData(1), 1);
+        FileOutputStream out =
+                new FileOutputStream(journal.getJournalFile(), true);
+        out.write(new byte[] {
+                1, 0, 10, 'I', 'n', 'c'
+        });
+        out.close();
+        checkPlayCounts(journal.read(journal.seal()), 1);
+    }
+
+    /**
+     * Tests that records appended after a partially written record are not
+     * lost. This simulates a crash during a write operation followed by a
+     * restart.
+     */
+    @Test
+    public void testAppendAfterIncompleteRecord() throws IOException
+    {
+        journal.append(createSongData(1), 1);
+        FileOutputStream out =
+                new FileOutputStream(journal.getJournalFile(), true);
+        out.write(new byte[] {
+                0, 0, 0, 42, 1, 2
+        });
+        out.close();
+        PlayCountJournal journal2 =
+                new PlayCountJournal(journal.getJournalFile());
+        journal2.append(createSongData(2), 2);
+        checkPlayCounts(journal2.read(journal2.seal()), 2);
+    }
+
+    /**
+     * Tests reading a segment file which has been truncated in the middle of
+     * a record.
+     */
+    @Test
+    public void testReadTruncatedSegment() throws IOException
+    {
+        for (int i = 1; i <= 3; i++)
+        {
+            journal.append(createSongData(i), i);
+        }
+        File segment = journal.seal();
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.setLength(segment.length() - 5);
+        raf.close();
+        checkPlayCounts(journal.read(segment), 2);
+    }
+
+    /**
+     * Tests that reading stops at a record with an invalid checksum.
+     */
+    @Test
+    public void testReadCorruptRecord() throws IOException
+    {
+        journal.append(createSongData(1), 1);
+        long length = journal.getJournalFile().length();
+        journal.append(createSongData(2), 2);
+        journal.append(createSongData(3), 3);
+        File segment = journal.seal();
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(length + 20);
+        int b = raf.read();
+        raf.seek(length + 20);
+        raf.write(b ^ 0xFF);
+        raf.close();
+        checkPlayCounts(journal.read(segment), 1);
+    }
+}
@@ -0,0 +1,163 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.oliver_heger.mediastore.localstore.JPATestHelper;
+import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
+import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
+
+/**
+ * Test class for {@code SchemaMigration}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestSchemaMigration
+{
+    /** Constant for the name of a test artist. */
+    private static final String ARTIST_NAME = "Supertramp";
+
+    /** Constant for the name of a test album. */
+    private static final String ALBUM_NAME = "Breakfast in America";
+
+    /** The JPA test helper. */
+    private JPATestHelper helper;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        helper = new JPATestHelper();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        helper.close();
+    }
+
+    /**
+     * Executes a native update statement in a separate transaction.
+     *
+     * @param sql the SQL statement
+     */
+    private void executeUpdate(String sql)
+    {
+        helper.begin();
+        helper.getEM().createNativeQuery(sql).executeUpdate();
+        helper.commit();
+        helper.closeEM();
+    }
+
+    /**
+     * Executes a native query which returns a single value.
+     *
+     * @param sql the SQL query
+     * @return the result of the query
+     */
+    private Object querySingle(String sql)
+    {
+        Object result = helper.getEM().createNativeQuery(sql).getSingleResult();
+        helper.closeEM();
+        return result;
+    }
+
+    /**
+     * Checks whether the index for the given search name column exists.
+     *
+     * @param column the name of the search name column
+     */
+    private void checkIndex(String column)
+    {
+        Number count =
+                (Number) querySingle("select count(*) from "
+                        + "INFORMATION_SCHEMA.SYSTEM_INDEXINFO "
+                        + "where INDEX_NAME = 'IDX_" + column + "'");
+        assertEquals("No index for " + column, 1, count.intValue());
+    }
+
+    /**
+     * Tests whether indices for the search name columns are created.
+     */
+    @Test
+    public void testMigrateCreatesIndices()
+    {
+        SchemaMigration.migrate(helper.getEMF());
+        checkIndex("SONG_SEARCH_NAME");
+        checkIndex("ARTIST_SEARCH_NAME");
+        checkIndex("ALBUM_SEARCH_NAME");
+    }
+
+    /**
+     * Tests that a migration can be performed multiple times.
+     */
+    @Test
+    public void testMigrateTwice()
+    {
+        SchemaMigration.migrate(helper.getEMF());
+        SchemaMigration.migrate(helper.getEMF());
+        checkIndex("SONG_SEARCH_NAME");
+    }
+
+    /**
+     * Tests whether undefined search names are initialized.
+     */
+    @Test
+    public void testMigrateInitializesSearchNames()
+    {
+        ArtistEntity artist = new ArtistEntity();
+        artist.setName(ARTIST_NAME);
+        helper.persist(artist, true);
+        helper.closeEM();
+        executeUpdate("update ARTIST set ARTIST_SEARCH_NAME = null");
+        SchemaMigration.migrate(helper.getEMF());
+        assertNotNull("Artist not found", Finders.findArtist(helper.getEM(),
+                ARTIST_NAME.toLowerCase(Locale.ENGLISH)));
+    }
+
+    /**
+     * Tests that search names are initialized in the same way as for new
+     * entities, even for characters whose upper case form is different in the
+     * database.
+     */
+    @Test
+    public void testMigrateSearchNamesSameAsEntities()
+    {
+        final String name = "Die Stra\u00dfe";
+        ArtistEntity artist = new ArtistEntity();
+        artist.setName(name);
+        helper.persist(artist, true);
+        helper.closeEM();
+        Object expected = querySingle("select ARTIST_SEARCH_NAME from ARTIST");
+        executeUpdate("update ARTIST set ARTIST_SEARCH_NAME = null");
+        SchemaMigration.migrate(helper.getEMF());
+        assertEquals("Wrong search name", expected,
+                querySingle("select ARTIST_SEARCH_NAME from ARTIST"));
+        assertNotNull("Artist not found",
+                Finders.findArtist(helper.getEM(), name));
+    }
+
+    /**
+     * Tests whether a missing search name column is added.
+     */
+    @Test
+    public void testMigrateAddsMissingColumn()
+    {
+        AlbumEntity album = new AlbumEntity();
+        album.setName(ALBUM_NAME);
+        helper.persist(album, true);
+        helper.closeEM();
+        executeUpdate("alter table ALBUM drop column ALBUM_SEARCH_NAME");
+        SchemaMigration.migrate(helper.getEMF());
+        assertEquals("Wrong search name",
+                ALBUM_NAME.toUpperCase(Locale.ENGLISH),
+                querySingle("select ALBUM_SEARCH_NAME from ALBUM"));
+        checkIndex("ALBUM_SEARCH_NAME");
+    }
+}
@@ -3,11 +3,12 @@ package de.oliver_heger.mediastore.localstore.impl;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -20,7 +21,9 @@ import net.sf.jguiraffe.gui.cmd.CommandQueue;
 
 import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
 import org.apache.commons.lang3.concurrent.ConstantInitializer;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -68,7 +71,7 @@ public class TestSyncCommand
     private ConcurrentInitializer<EntityManagerFactory> init;
 
     /** The command observer. */
-    private CommandObserver<List<SongEntity>> observer;
+    private CommandObserver<Integer> observer;
 
     /** The controller. */
     private SyncController controller;
@@ -118,10 +121,10 @@ public class TestSyncCommand
      *
      * @return the mock observer
      */
-    private static CommandObserver<List<SongEntity>> createObserver()
+    private static CommandObserver<Integer> createObserver()
     {
         @SuppressWarnings("unchecked")
-        CommandObserver<List<SongEntity>> obs =
+        CommandObserver<Integer> obs =
                 EasyMock.createMock(CommandObserver.class);
         return obs;
     }
@@ -210,6 +213,81 @@ public class TestSyncCommand
         assertSame("Wrong template", templ, syncSongCmd.getOAuthTemplate());
         assertSame("Wrong song", song, syncSongCmd.getSong());
         assertSame("Wrong controller", controller, syncSongCmd.getController());
+        assertSame("Wrong session", cmd.getSyncSession(),
+                syncSongCmd.getSyncSession());
+    }
+
+    /**
+     * Tests whether a correct command for synchronizing a batch of songs is
+     * created.
+     */
+    @Test
+    public void testCreateSyncSongBatchCommand()
+    {
+        OAuthTemplate templ = new OAuthTemplate(OAUTH_URI, SVC_URI);
+        List<SongEntity> songs =
+                Arrays.asList(createTestSong(1), createTestSong(2));
+        SyncCommandTestImpl cmd = createCommand(null);
+        SyncSongBatchCommand batchCmd =
+                (SyncSongBatchCommand) cmd.createSyncSongBatchCommand(songs,
+                        templ);
+        assertSame("Wrong template", templ, batchCmd.getOAuthTemplate());
+        assertSame("Wrong controller", controller, batchCmd.getController());
+        assertEquals("Wrong number of songs", songs.size(), batchCmd
+                .getSongCommands().size());
+        assertSame("Wrong song", songs.get(1), batchCmd.getSongCommands()
+                .get(1).getSong());
+        assertSame("Wrong session", cmd.getSyncSession(),
+                batchCmd.getSyncSession());
+    }
+
+    /**
+     * Tests the default batch size.
+     */
+    @Test
+    public void testGetBatchSizeDefault()
+    {
+        assertEquals("Wrong batch size", 0, createCommand(null).getBatchSize());
+    }
+
+    /**
+     * Tests whether a correct command for synchronizing songs concurrently is
+     * created.
+     */
+    @Test
+    public void testCreateSyncPipelineCommand()
+    {
+        final int parallelism = 3;
+        final int batchSize = 10;
+        initMocks();
+        OAuthTemplate templ = new OAuthTemplate(OAUTH_URI, SVC_URI);
+        List<SongEntity> songs =
+                Arrays.asList(createTestSong(1), createTestSong(2));
+        SyncCommandTestImpl cmd =
+                new SyncCommandTestImpl(init, observer, controller, queue,
+                        null, batchSize, parallelism);
+        SyncPipelineCommand pipeCmd =
+                (SyncPipelineCommand) cmd.createSyncPipelineCommand(songs,
+                        templ);
+        assertSame("Wrong controller", controller, pipeCmd.getController());
+        assertEquals("Wrong parallelism", parallelism,
+                pipeCmd.getParallelism());
+        assertEquals("Wrong batch size", batchSize, pipeCmd.getBatchSize());
+        assertSame("Wrong template", templ, pipeCmd.getOAuthTemplate());
+        assertSame("Wrong session", cmd.getSyncSession(),
+                pipeCmd.getSyncSession());
+        assertSame("Wrong song", songs.get(1), pipeCmd.getSongCommands()
+                .get(1).getSong());
+    }
+
+    /**
+     * Tests the default parallelism.
+     */
+    @Test
+    public void testGetParallelismDefault()
+    {
+        assertEquals("Wrong parallelism", 1, createCommand(null)
+                .getParallelism());
     }
 
     /**
@@ -224,45 +302,79 @@ public class TestSyncCommand
         assertEquals("Wrong service URI", SVC_URI, templ.getServiceURI());
     }
 
+    /**
+     * Tests whether all songs that need to be synchronized are counted.
+     */
+    @Test
+    public void testCountSongsToSyncNoLimit()
+    {
+        persistTestSongs();
+        SyncCommandTestImpl cmd = createCommand(null);
+        assertEquals("Wrong number of songs", SONG_COUNT,
+                cmd.countSongsToSync(jpaHelper.getEM()));
+    }
+
+    /**
+     * Tests whether a limit is taken into account when counting songs.
+     */
+    @Test
+    public void testCountSongsToSyncWithLimit()
+    {
+        persistTestSongs();
+        SyncCommandTestImpl cmd = createCommand(SONG_COUNT - 1);
+        assertEquals("Wrong number of songs", SONG_COUNT - 1,
+                cmd.countSongsToSync(jpaHelper.getEM()));
+    }
+
+    /**
+     * Tests that a limit greater than the number of songs has no effect.
+     */
+    @Test
+    public void testCountSongsToSyncLimitNotReached()
+    {
+        persistTestSongs();
+        SyncCommandTestImpl cmd = createCommand(SONG_COUNT + 1);
+        assertEquals("Wrong number of songs", SONG_COUNT,
+                cmd.countSongsToSync(jpaHelper.getEM()));
+    }
+
     /**
      * Tests whether all songs that need to be synchronized are found.
      */
     @Test
-    public void testFetchSongsToSyncNoLimit()
+    public void testFetchSongsToSync()
     {
         persistTestSongs();
         SyncCommandTestImpl cmd = createCommand(null);
-        List<SongEntity> songs = cmd.fetchSongsToSync(jpaHelper.getEM());
+        List<SongEntity> songs =
+                cmd.fetchSongsToSync(jpaHelper.getEM(), null, SONG_COUNT);
         assertEquals("Wrong number of songs", SONG_COUNT, songs.size());
         for (int i = 1; i <= SONG_COUNT; i++)
         {
-            String songName = SONG_NAME + i;
-            boolean found = false;
-            for (SongEntity song : songs)
-            {
-                if (songName.equals(song.getName()))
-                {
-                    found = true;
-                    break;
-                }
-            }
-            assertTrue("Song not found: " + i, found);
+            assertEquals("Wrong song", SONG_NAME + i, songs.get(i - 1)
+                    .getName());
         }
     }
 
     /**
-     * Tests whether a limit is taken into account when retrieving songs.
+     * Tests whether a page of songs can be fetched.
      */
     @Test
-    public void testFetchSongsWithLimit()
+    public void testFetchSongsToSyncPage()
     {
+        final int pageSize = 4;
         persistTestSongs();
-        SyncCommandTestImpl cmd = createCommand(SONG_COUNT - 1);
-        List<SongEntity> songs = cmd.fetchSongsToSync(jpaHelper.getEM());
-        assertEquals("Wrong number of songs", SONG_COUNT - 1, songs.size());
-        for (SongEntity song : songs)
+        SyncCommandTestImpl cmd = createCommand(null);
+        List<SongEntity> songs =
+                cmd.fetchSongsToSync(jpaHelper.getEM(), null, pageSize);
+        songs =
+                cmd.fetchSongsToSync(jpaHelper.getEM(),
+                        songs.get(pageSize - 1).getId(), pageSize);
+        assertEquals("Wrong number of songs", pageSize, songs.size());
+        for (int i = 0; i < pageSize; i++)
         {
-            assertTrue("No play count: " + song, song.getCurrentPlayCount() > 0);
+            assertEquals("Wrong song", SONG_NAME + (pageSize + i + 1), songs
+                    .get(i).getName());
         }
     }
 
@@ -274,7 +386,8 @@ public class TestSyncCommand
     {
         persistTestSongs();
         SyncCommandTestImpl cmd = createCommand(null);
-        List<SongEntity> songs = cmd.fetchSongsToSync(jpaHelper.getEM());
+        List<SongEntity> songs =
+                cmd.fetchSongsToSync(jpaHelper.getEM(), null, SONG_COUNT);
         jpaHelper.closeEM();
         for (SongEntity song : songs)
         {
@@ -284,10 +397,119 @@ public class TestSyncCommand
     }
 
     /**
-     * Tests the execution of a sync command.
+     * Tests the default page size.
+     */
+    @Test
+    public void testGetPageSizeDefault()
+    {
+        assertEquals("Wrong page size", Finders.SYNC_PAGE_SIZE, createCommand(
+                null).getPageSize());
+    }
+
+    /**
+     * Tests that the page size is a multiple of the batch size.
+     */
+    @Test
+    public void testGetPageSizeBatches()
+    {
+        initMocks();
+        assertEquals("Wrong page size (1)", Finders.SYNC_PAGE_SIZE,
+                new SyncCommandTestImpl(init, observer, controller, queue,
+                        null, 50).getPageSize());
+        assertEquals("Wrong page size (2)", 300, new SyncCommandTestImpl(init,
+                observer, controller, queue, null, 100).getPageSize());
+    }
+
+    /**
+     * Tests the execution of a sync command. The command should schedule a
+     * command for the first page of songs.
      */
     @Test
     public void testExecute() throws Exception
+    {
+        persistTestSongs();
+        SyncCommandTestImpl cmd = createCommand(null);
+        Capture<Command> pageCmd = new Capture<Command>();
+        queue.execute(EasyMock.capture(pageCmd));
+        observer.commandCompletedBackground(SONG_COUNT);
+        controller.startSynchronization(SONG_COUNT);
+        EasyMock.replay(observer, controller, queue);
+        cmd.execute();
+        EasyMock.verify(observer, controller, queue);
+        SyncCommand.SyncPageCommand page =
+                (SyncCommand.SyncPageCommand) pageCmd.getValue();
+        assertNull("Got a last song ID", page.getLastSongID());
+        assertEquals("Wrong remaining songs", SONG_COUNT,
+                page.getRemainingSongs());
+        assertFalse("Wrong UI flag", page.isUpdateGUI());
+    }
+
+    /**
+     * Tests whether the execution of a sync command takes the limit into
+     * account.
+     */
+    @Test
+    public void testExecuteWithLimit() throws Exception
+    {
+        final int limit = 5;
+        persistTestSongs();
+        SyncCommandTestImpl cmd = createCommand(limit);
+        Capture<Command> pageCmd = new Capture<Command>();
+        queue.execute(EasyMock.capture(pageCmd));
+        observer.commandCompletedBackground(limit);
+        controller.startSynchronization(limit);
+        EasyMock.replay(observer, controller, queue);
+        cmd.execute();
+        EasyMock.verify(observer, controller, queue);
+        assertEquals("Wrong remaining songs", limit,
+                ((SyncCommand.SyncPageCommand) pageCmd.getValue())
+                        .getRemainingSongs());
+    }
+
+    /**
+     * Tests a sync operation if no songs can be found.
+     */
+    @Test
+    public void testProduceResultsNoSongs()
+    {
+        initMocks();
+        controller.startSynchronization(0);
+        Command endCmd = EasyMock.createMock(Command.class);
+        queue.execute(endCmd);
+        EasyMock.replay(endCmd, observer, controller, queue);
+        SyncCommandTestImpl cmd =
+                new SyncCommandTestImpl(init, observer, controller, queue, null)
+                {
+                    @Override
+                    OAuthTemplate createOAuthTemplate()
+                    {
+                        throw new UnsupportedOperationException(
+                                "Unexpected method call!");
+                    }
+                };
+        cmd.installMockEndCommand(endCmd);
+        assertEquals("Wrong result", 0,
+                cmd.produceResults(jpaHelper.getEM()).intValue());
+        EasyMock.verify(endCmd, observer, controller, queue);
+    }
+
+    /**
+     * Executes the given page command.
+     *
+     * @param cmd the command
+     * @throws Exception if an error occurs
+     */
+    private static void executePageCommand(Command cmd) throws Exception
+    {
+        cmd.execute();
+        cmd.onFinally();
+    }
+
+    /**
+     * Tests the execution of a command for the last page of songs.
+     */
+    @Test
+    public void testSyncPageCommand() throws Exception
     {
         SyncCommandTestImpl cmd = createCommand(null);
         List<SongEntity> songs = new LinkedList<SongEntity>();
@@ -302,51 +524,209 @@ public class TestSyncCommand
             queue.execute(sc);
             syncCmds.add(sc);
         }
-        observer.commandCompletedBackground(songs);
-        controller.startSynchronization(SONG_COUNT);
         queue.execute(endCmd);
         EasyMock.replay(endCmd, observer, controller, queue);
         cmd.installMockEndCommand(endCmd);
-        cmd.installMockEntities(new ArrayList<SongEntity>(songs), syncCmds);
-        cmd.execute();
+        cmd.installMockEntities(songs, syncCmds);
+        OAuthTemplate templ = new OAuthTemplate(OAUTH_URI, SVC_URI);
+        executePageCommand(cmd.createSyncPageCommand(null, SONG_COUNT, templ));
         EasyMock.verify(endCmd, observer, controller, queue);
+        assertSame("Wrong template", templ, cmd.getCheckTemplate());
     }
 
     /**
-     * Tests a sync operation if no songs can be found.
+     * Tests the execution of a page command if a batch size is set.
      */
     @Test
-    public void testProduceResultsNoSongs()
+    public void testSyncPageCommandBatches() throws Exception
     {
         initMocks();
-        List<SongEntity> songs = Collections.emptyList();
-        List<Command> syncCmds = Collections.emptyList();
-        controller.startSynchronization(0);
+        final int batchSize = 4;
+        final List<Command> batchCmds = new LinkedList<Command>();
+        final List<List<SongEntity>> batches =
+                new ArrayList<List<SongEntity>>();
+        List<SongEntity> songs = new LinkedList<SongEntity>();
+        for (int i = 1; i <= SONG_COUNT; i++)
+        {
+            songs.add(createTestSong(i));
+        }
+        for (int i = 0; i < 3; i++)
+        {
+            Command bc = EasyMock.createMock(Command.class);
+            EasyMock.replay(bc);
+            queue.execute(bc);
+            batchCmds.add(bc);
+        }
         Command endCmd = EasyMock.createMock(Command.class);
         queue.execute(endCmd);
         EasyMock.replay(endCmd, observer, controller, queue);
         SyncCommandTestImpl cmd =
-                new SyncCommandTestImpl(init, observer, controller, queue, null)
+                new SyncCommandTestImpl(init, observer, controller, queue,
+                        null, batchSize)
                 {
                     @Override
-                    protected EntityManager getEntityManager()
+                    Command createSyncSongBatchCommand(
+                            List<SongEntity> batch, OAuthTemplate templ)
                     {
-                        return jpaHelper.getEM();
+                        assertNotNull("No template", templ);
+                        batches.add(batch);
+                        return batchCmds.remove(0);
                     }
+                };
+        cmd.installMockEndCommand(endCmd);
+        cmd.installMockEntities(new ArrayList<SongEntity>(songs), null);
+        executePageCommand(cmd.createSyncPageCommand(null, SONG_COUNT,
+                new OAuthTemplate(OAUTH_URI, SVC_URI)));
+        EasyMock.verify(endCmd, observer, controller, queue);
+        assertEquals("Wrong number of batches", 3, batches.size());
+        assertEquals("Wrong batch 1", songs.subList(0, 4), batches.get(0));
+        assertEquals("Wrong batch 2", songs.subList(4, 8), batches.get(1));
+        assertEquals("Wrong batch 3", songs.subList(8, 9), batches.get(2));
+    }
 
+    /**
+     * Tests the execution of a page command if a parallelism is set. The songs
+     * of the page are passed to a single pipeline command even if a batch
+     * size is set.
+     */
+    @Test
+    public void testSyncPageCommandPipeline() throws Exception
+    {
+        initMocks();
+        final List<List<SongEntity>> pipelines =
+                new ArrayList<List<SongEntity>>();
+        List<SongEntity> songs = new LinkedList<SongEntity>();
+        for (int i = 1; i <= SONG_COUNT; i++)
+        {
+            songs.add(createTestSong(i));
+        }
+        final Command pipeCmd = EasyMock.createMock(Command.class);
+        queue.execute(pipeCmd);
+        Command endCmd = EasyMock.createMock(Command.class);
+        queue.execute(endCmd);
+        EasyMock.replay(pipeCmd, endCmd, observer, controller, queue);
+        SyncCommandTestImpl cmd =
+                new SyncCommandTestImpl(init, observer, controller, queue,
+                        null, 4, 2)
+                {
                     @Override
-                    OAuthTemplate createOAuthTemplate()
+                    Command createSyncPipelineCommand(
+                            List<SongEntity> pipeSongs, OAuthTemplate templ)
                     {
-                        throw new UnsupportedOperationException(
-                                "Unexpected method call!");
+                        assertNotNull("No template", templ);
+                        pipelines.add(pipeSongs);
+                        return pipeCmd;
                     }
                 };
         cmd.installMockEndCommand(endCmd);
-        cmd.installMockEntities(songs, syncCmds);
-        cmd.produceResults(jpaHelper.getEM());
+        cmd.installMockEntities(new ArrayList<SongEntity>(songs), null);
+        executePageCommand(cmd.createSyncPageCommand(null, SONG_COUNT,
+                new OAuthTemplate(OAUTH_URI, SVC_URI)));
+        EasyMock.verify(pipeCmd, endCmd, observer, controller, queue);
+        assertEquals("Wrong number of pipelines", 1, pipelines.size());
+        assertEquals("Wrong songs", songs, pipelines.get(0));
+    }
+
+    /**
+     * Tests that the end command is scheduled if a page command fails.
+     */
+    @Test
+    public void testSyncPageCommandException()
+    {
+        SyncCommandTestImpl cmd = createCommand(null);
+        Command endCmd = EasyMock.createMock(Command.class);
+        queue.execute(endCmd);
+        EasyMock.replay(endCmd, observer, controller, queue);
+        cmd.installMockEndCommand(endCmd);
+        cmd.createSyncPageCommand(null, SONG_COUNT,
+                new OAuthTemplate(OAUTH_URI, SVC_URI)).onException(
+                new RuntimeException("Test exception"));
         EasyMock.verify(endCmd, observer, controller, queue);
     }
 
+    /**
+     * Tests a complete sync operation with multiple pages. The commands passed
+     * to the queue are executed in order. It is checked that only a single
+     * page of songs is held at any time: a page is only loaded after all
+     * songs of the previous page have been processed.
+     */
+    @Test
+    public void testExecuteMultiplePages() throws Exception
+    {
+        final int pageSize = 2;
+        persistTestSongs();
+        initMocks();
+        final LinkedList<Command> commands = new LinkedList<Command>();
+        final List<Integer> pages = new ArrayList<Integer>();
+        final List<String> syncedSongs = new ArrayList<String>();
+        final int[] pendingSongs = new int[1];
+        queue.execute(EasyMock.anyObject(Command.class));
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>()
+        {
+            @Override
+            public Object answer() throws Throwable
+            {
+                commands.add((Command) EasyMock.getCurrentArguments()[0]);
+                return null;
+            }
+        }).anyTimes();
+        observer.commandCompletedBackground(SONG_COUNT);
+        controller.startSynchronization(SONG_COUNT);
+        controller.endSynchronization();
+        EasyMock.replay(observer, controller, queue);
+        SyncCommandTestImpl cmd =
+                new SyncCommandTestImpl(init, observer, controller, queue, null)
+                {
+                    @Override
+                    int getPageSize()
+                    {
+                        return pageSize;
+                    }
+
+                    @Override
+                    List<SongEntity> fetchSongsToSync(EntityManager em,
+                            Long lastID, int maxResults)
+                    {
+                        assertEquals("Songs of previous page pending", 0,
+                                pendingSongs[0]);
+                        List<SongEntity> songs =
+                                super.fetchSongsToSync(em, lastID, maxResults);
+                        assertTrue("Page too big", songs.size() <= pageSize);
+                        pages.add(songs.size());
+                        pendingSongs[0] += songs.size();
+                        return songs;
+                    }
+
+                    @Override
+                    Command createSyncSongCommand(final SongEntity song,
+                            OAuthTemplate templ)
+                    {
+                        return new CommandBase(false)
+                        {
+                            @Override
+                            public void execute() throws Exception
+                            {
+                                syncedSongs.add(song.getName());
+                                pendingSongs[0]--;
+                            }
+                        };
+                    }
+                };
+        executePageCommand(cmd);
+        while (!commands.isEmpty())
+        {
+            executePageCommand(commands.removeFirst());
+        }
+        EasyMock.verify(observer, controller, queue);
+        assertEquals("Wrong pages", Arrays.asList(2, 2, 2, 2, 1), pages);
+        assertEquals("Wrong number of synced songs", SONG_COUNT,
+                syncedSongs.size());
+        for (int i = 1; i <= SONG_COUNT; i++)
+        {
+            assertEquals("Wrong song", SONG_NAME + i, syncedSongs.get(i - 1));
+        }
+    }
+
     /**
      * A test implementation which provides some mocking facilities.
      */
@@ -366,12 +746,31 @@ public class TestSyncCommand
 
         public SyncCommandTestImpl(
                 ConcurrentInitializer<EntityManagerFactory> emfInit,
-                CommandObserver<List<SongEntity>> obs, SyncController ctrl,
+                CommandObserver<Integer> obs, SyncController ctrl,
                 CommandQueue q, Integer songLimit)
         {
             super(emfInit, obs, ctrl, q, OAUTH_URI, SVC_URI, songLimit);
         }
 
+        public SyncCommandTestImpl(
+                ConcurrentInitializer<EntityManagerFactory> emfInit,
+                CommandObserver<Integer> obs, SyncController ctrl,
+                CommandQueue q, Integer songLimit, int batchSize)
+        {
+            super(emfInit, obs, ctrl, q, OAUTH_URI, SVC_URI, songLimit,
+                    batchSize);
+        }
+
+        public SyncCommandTestImpl(
+                ConcurrentInitializer<EntityManagerFactory> emfInit,
+                CommandObserver<Integer> obs, SyncController ctrl,
+                CommandQueue q, Integer songLimit, int batchSize,
+                int parallelism)
+        {
+            super(emfInit, obs, ctrl, q, OAUTH_URI, SVC_URI, songLimit,
+                    batchSize, parallelism);
+        }
+
         /**
          * Installs mock entities to be returned by fetchSongsToSync() and
          * corresponding sync command mock objects.
@@ -396,18 +795,30 @@ public class TestSyncCommand
             mockEndCommand = cmd;
         }
 
+        /**
+         * Returns the template passed to the mock sync commands.
+         *
+         * @return the template
+         */
+        public OAuthTemplate getCheckTemplate()
+        {
+            return checkTemplate;
+        }
+
         /**
          * Either returns the mock entities or calls the super method.
          */
         @Override
-        List<SongEntity> fetchSongsToSync(EntityManager em)
+        List<SongEntity> fetchSongsToSync(EntityManager em, Long lastID,
+                int maxResults)
         {
             if (mockSongs == null)
             {
-                return super.fetchSongsToSync(em);
+                return super.fetchSongsToSync(em, lastID, maxResults);
             }
-            assertSame("Wrong entity manager", getEntityManager(), em);
-            return new ArrayList<SongEntity>(mockSongs);
+            assertNotNull("No entity manager", em);
+            return new ArrayList<SongEntity>(mockSongs.subList(0,
+                    Math.min(maxResults, mockSongs.size())));
         }
 
         /**
@@ -0,0 +1,674 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
+import org.apache.commons.lang3.concurrent.ConstantInitializer;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.WebResource;
+
+import de.oliver_heger.mediastore.localstore.JPATestHelper;
+import de.oliver_heger.mediastore.localstore.SyncController;
+import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
+import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
+import de.oliver_heger.mediastore.localstore.model.SongEntity;
+import de.oliver_heger.mediastore.oauth.NotAuthorizedException;
+import de.oliver_heger.mediastore.oauth.OAuthCallback;
+import de.oliver_heger.mediastore.oauth.OAuthTemplate;
+import de.oliver_heger.mediastore.oauth.ResourceProcessor;
+import de.oliver_heger.mediastore.service.SongData;
+
+/**
+ * Test class for {@code SyncPipelineCommand}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestSyncPipelineCommand
+{
+    /** Constant for the OAuth URI. */
+    private static final String OAUTH_URI =
+            "http://remotemediastore.appspot.com/oauth/";
+
+    /** Constant for the service URI. */
+    private static final String SVC_URI =
+            "http://remotemediastore.appspot.com/resources/";
+
+    /** Constant for the name of the first artist. */
+    private static final String ARTIST1 = "Genesis";
+
+    /** Constant for the name of the second artist. */
+    private static final String ARTIST2 = "Yes";
+
+    /** Constant for the number of threads. */
+    private static final int PARALLELISM = 3;
+
+    /** Constant for the batch size. */
+    private static final int BATCH_SIZE = 2;
+
+    /** The JPA test helper. */
+    private JPATestHelper helper;
+
+    /** The initializer for the EMF. */
+    private ConcurrentInitializer<EntityManagerFactory> init;
+
+    /** A mock sync controller. */
+    private SyncController controller;
+
+    /** A mock OAuth callback. */
+    private OAuthCallback callback;
+
+    /** The list with test songs. */
+    private List<SongEntity> songs;
+
+    /** A list with the requests sent to the server. */
+    private List<String> requests;
+
+    /** The name of an artist whose synchronization fails. */
+    private String failingArtist;
+
+    /** The name of a song whose synchronization fails. */
+    private String failingSong;
+
+    /** The name of a song whose play count cannot be reset. */
+    private String failingReset;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        helper = new JPATestHelper();
+        init =
+                new ConstantInitializer<EntityManagerFactory>(helper.getEMF());
+        controller = EasyMock.createMock(SyncController.class);
+        callback = EasyMock.createMock(OAuthCallback.class);
+        requests = Collections.synchronizedList(new ArrayList<String>());
+        songs = persistSongs();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        helper.close();
+    }
+
+    /**
+     * Creates and persists the test songs. The first two songs belong to the
+     * same artist (using different case), the second song does not have an
+     * album. Only the second artist is reported as newly created by the
+     * server, so the results do not depend on the order in which the
+     * requests complete.
+     *
+     * @return the list with test songs
+     */
+    private List<SongEntity> persistSongs()
+    {
+        ArtistEntity art1 = new ArtistEntity();
+        art1.setName(ARTIST1);
+        ArtistEntity art1Upper = new ArtistEntity();
+        art1Upper.setName(ARTIST1.toUpperCase(Locale.ENGLISH));
+        ArtistEntity art2 = new ArtistEntity();
+        art2.setName(ARTIST2);
+        AlbumEntity album1 = new AlbumEntity();
+        album1.setName("Duke");
+        album1.setInceptionYear(1980);
+        AlbumEntity album2 = new AlbumEntity();
+        album2.setName("Fragile");
+        album2.setInceptionYear(1971);
+
+        List<SongEntity> result = new ArrayList<SongEntity>();
+        result.add(createSong("Turn it on again", art1, album1));
+        result.add(createSong("Mama", art1Upper, null));
+        result.add(createSong("Roundabout", art2, album2));
+
+        helper.begin();
+        for (Object entity : new Object[] {
+                art1, art1Upper, art2, album1, album2
+        })
+        {
+            helper.persist(entity, false);
+        }
+        for (SongEntity song : result)
+        {
+            helper.persist(song, false);
+        }
+        helper.commit();
+        helper.closeEM();
+        return result;
+    }
+
+    /**
+     * Creates a test song entity.
+     *
+     * @param name the name of the song
+     * @param artist the artist
+     * @param album the album (may be <b>null</b>)
+     * @return the song entity
+     */
+    private static SongEntity createSong(String name, ArtistEntity artist,
+            AlbumEntity album)
+    {
+        SongEntity song = new SongEntity();
+        song.setName(name);
+        song.setCurrentPlayCount(2);
+        artist.addSong(song);
+        if (album != null)
+        {
+            album.addSong(song);
+        }
+        return song;
+    }
+
+    /**
+     * Creates a test command instance.
+     *
+     * @param authorized the result of the OAuth template
+     * @return the test command
+     */
+    private SyncPipelineCommand createTestCommand(boolean authorized)
+    {
+        return createTestCommand(authorized, 0);
+    }
+
+    /**
+     * Creates a test command instance with the given batch size.
+     *
+     * @param authorized the result of the OAuth template
+     * @param batchSize the batch size
+     * @return the test command
+     */
+    private SyncPipelineCommand createTestCommand(boolean authorized,
+            int batchSize)
+    {
+        return new SyncPipelineCommandTestImpl(new OAuthTemplateTestImpl(
+                authorized), batchSize);
+    }
+
+    /**
+     * Checks that each song was sent to the server after its artist and its
+     * album.
+     *
+     * @param songPrefix the prefix of the requests for songs
+     */
+    private void checkRequestOrder(String songPrefix)
+    {
+        int lastDependency = -1;
+        int firstSong = requests.size();
+        for (int i = 0; i < requests.size(); i++)
+        {
+            if (requests.get(i).startsWith(songPrefix))
+            {
+                firstSong = Math.min(firstSong, i);
+            }
+            else
+            {
+                lastDependency = i;
+            }
+        }
+        assertTrue("Song before dependencies: " + requests,
+                lastDependency < firstSong);
+    }
+
+    /**
+     * Prepares the mock controller to accept all test songs.
+     *
+     * @param cmd the test command
+     */
+    private void expectAcceptSongs(SyncPipelineCommand cmd)
+    {
+        for (SyncSongCommand songCmd : cmd.getSongCommands())
+        {
+            EasyMock.expect(controller.beforeSongSync(songCmd.fetchSongData()))
+                    .andReturn(Boolean.TRUE);
+        }
+        EasyMock.expect(controller.getOAuthCallback()).andReturn(callback);
+    }
+
+    /**
+     * Returns the data object of the test song with the given index.
+     *
+     * @param cmd the test command
+     * @param idx the index
+     * @return the data object of this song
+     */
+    private static SongData songData(SyncPipelineCommand cmd, int idx)
+    {
+        return cmd.getSongCommands().get(idx).fetchSongData();
+    }
+
+    /**
+     * Returns the current play count of the test song with the given index as
+     * stored in the database.
+     *
+     * @param idx the index
+     * @return the current play count of this song
+     */
+    private int currentPlayCount(int idx)
+    {
+        int count =
+                helper.getEM().find(SongEntity.class, songs.get(idx).getId())
+                        .getCurrentPlayCount();
+        helper.closeEM();
+        return count;
+    }
+
+    /**
+     * Tries to create an instance without a template.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testInitNoTemplate()
+    {
+        new SyncPipelineCommand(init, songs, controller, null, PARALLELISM);
+    }
+
+    /**
+     * Tries to create an instance with an invalid number of threads.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitNoThreads()
+    {
+        new SyncPipelineCommand(init, songs, controller, new OAuthTemplate(
+                OAUTH_URI, SVC_URI), 0);
+    }
+
+    /**
+     * Tries to create an instance without songs.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testInitNoSongs()
+    {
+        new SyncPipelineCommand(init, null, controller, new OAuthTemplate(
+                OAUTH_URI, SVC_URI), PARALLELISM);
+    }
+
+    /**
+     * Tests the properties related to concurrency.
+     */
+    @Test
+    public void testParallelism()
+    {
+        SyncPipelineCommand cmd = createTestCommand(true);
+        assertEquals("Wrong parallelism", PARALLELISM, cmd.getParallelism());
+        assertEquals("Wrong window size", 2 * PARALLELISM,
+                cmd.getWindowSize());
+        assertSame("Wrong controller", controller, cmd.getController());
+        assertEquals("Wrong number of song commands", songs.size(), cmd
+                .getSongCommands().size());
+        assertSame("Wrong template", cmd.getOAuthTemplate(), cmd
+                .getSongCommands().get(0).getOAuthTemplate());
+        assertSame("Wrong session", cmd.getSyncSession(), cmd
+                .getSongCommands().get(0).getSyncSession());
+    }
+
+    /**
+     * Tests a successful sync operation.
+     */
+    @Test
+    public void testExecute() throws Exception
+    {
+        SyncPipelineCommand cmd = createTestCommand(true);
+        expectAcceptSongs(cmd);
+        controller.afterSongSync(songData(cmd, 0), true, false, true);
+        controller.afterSongSync(songData(cmd, 1), true, false, false);
+        controller.afterSongSync(songData(cmd, 2), true, true, true);
+        EasyMock.replay(controller, callback);
+        cmd.execute();
+        EasyMock.verify(controller, callback);
+
+        assertEquals("Wrong number of requests", 7, requests.size());
+        assertEquals("Artist not synchronized once", 1,
+                Collections.frequency(requests, "artist:" + ARTIST1));
+        checkRequestOrder("song:");
+        for (int i = 0; i < songs.size(); i++)
+        {
+            assertEquals("Play count not reset: " + i, 0, currentPlayCount(i));
+        }
+    }
+
+    /**
+     * Tests that artists and albums are synchronized only once if a sync
+     * operation consists of multiple commands sharing a session.
+     */
+    @Test
+    public void testExecuteMultipleCommandsSharedSession() throws Exception
+    {
+        helper.begin();
+        EntityManager em = helper.getEM();
+        SongEntity song =
+                createSong("Misunderstanding", em.find(ArtistEntity.class,
+                        songs.get(0).getArtist().getId()), em.find(
+                        AlbumEntity.class, songs.get(0).getAlbum().getId()));
+        helper.persist(song, false);
+        helper.commit();
+        helper.closeEM();
+        SyncSession session = new SyncSession();
+        SyncPipelineCommand cmd1 =
+                new SyncPipelineCommandTestImpl(new OAuthTemplateTestImpl(true),
+                        songs.subList(0, 1), session);
+        SyncPipelineCommand cmd2 =
+                new SyncPipelineCommandTestImpl(new OAuthTemplateTestImpl(true),
+                        Collections.singletonList(song), session);
+        expectAcceptSongs(cmd1);
+        controller.afterSongSync(songData(cmd1, 0), true, false, true);
+        expectAcceptSongs(cmd2);
+        controller.afterSongSync(songData(cmd2, 0), true, false, false);
+        EasyMock.replay(controller, callback);
+        cmd1.execute();
+        cmd2.execute();
+        EasyMock.verify(controller, callback);
+
+        assertEquals("Wrong number of requests: " + requests, 4,
+                requests.size());
+        assertEquals("Artist not synchronized once", 1,
+                Collections.frequency(requests, "artist:" + ARTIST1));
+        assertEquals("Album not synchronized once", 1,
+                Collections.frequency(requests, "album:Duke"));
+        assertEquals("Play count not reset", 0, currentPlayCount(0));
+    }
+
+    /**
+     * Tests a sync operation which sends the songs in batches.
+     */
+    @Test
+    public void testExecuteBatches() throws Exception
+    {
+        SyncPipelineCommand cmd = createTestCommand(true, BATCH_SIZE);
+        expectAcceptSongs(cmd);
+        controller.afterSongSync(songData(cmd, 0), true, false, true);
+        controller.afterSongSync(songData(cmd, 1), false, false, false);
+        controller.afterSongSync(songData(cmd, 2), true, true, true);
+        EasyMock.replay(controller, callback);
+        cmd.execute();
+        EasyMock.verify(controller, callback);
+
+        assertEquals("Wrong batch size", BATCH_SIZE, cmd.getBatchSize());
+        assertEquals("Wrong number of requests", 6, requests.size());
+        assertTrue("Batch 1 not found: " + requests,
+                requests.contains("batch:Turn it on again,Mama"));
+        assertTrue("Batch 2 not found: " + requests,
+                requests.contains("batch:Roundabout"));
+        checkRequestOrder("batch:");
+        for (int i = 0; i < songs.size(); i++)
+        {
+            assertEquals("Play count not reset: " + i, 0, currentPlayCount(i));
+        }
+    }
+
+    /**
+     * Tests that a song of a batch which could not be stored by the server is
+     * reported as failed, and that its play count is not reset.
+     */
+    @Test
+    public void testExecuteBatchSongFailed() throws Exception
+    {
+        failingSong = "Mama";
+        SyncPipelineCommand cmd = createTestCommand(true, BATCH_SIZE);
+        expectAcceptSongs(cmd);
+        controller.afterSongSync(songData(cmd, 0), true, false, true);
+        controller.failedSongSync(EasyMock.eq(songData(cmd, 1)),
+                EasyMock.anyObject(IllegalStateException.class));
+        controller.afterSongSync(songData(cmd, 2), true, true, true);
+        EasyMock.replay(controller, callback);
+        cmd.execute();
+        EasyMock.verify(controller, callback);
+        assertEquals("Play count of failed song was reset", 2,
+                currentPlayCount(1));
+        assertEquals("Play count not reset (1)", 0, currentPlayCount(0));
+        assertEquals("Play count not reset (2)", 0, currentPlayCount(2));
+    }
+
+    /**
+     * Tests that the failure of a single request only affects the song
+     * concerned.
+     */
+    @Test
+    public void testExecuteSongFailed() throws Exception
+    {
+        failingSong = "Mama";
+        SyncPipelineCommand cmd = createTestCommand(true);
+        expectAcceptSongs(cmd);
+        controller.afterSongSync(songData(cmd, 0), true, false, true);
+        controller.failedSongSync(EasyMock.eq(songData(cmd, 1)),
+                EasyMock.anyObject(IllegalStateException.class));
+        controller.afterSongSync(songData(cmd, 2), true, true, true);
+        EasyMock.replay(controller, callback);
+        cmd.execute();
+        EasyMock.verify(controller, callback);
+        assertEquals("Play count of failed song was reset", 2,
+                currentPlayCount(1));
+        assertEquals("Play count not reset (1)", 0, currentPlayCount(0));
+        assertEquals("Play count not reset (2)", 0, currentPlayCount(2));
+    }
+
+    /**
+     * Tests that an error when resetting the play count of a song is reported
+     * and does not affect the other songs.
+     */
+    @Test
+    public void testExecuteResetFailed() throws Exception
+    {
+        failingReset = "Mama";
+        SyncPipelineCommand cmd = createTestCommand(true);
+        expectAcceptSongs(cmd);
+        controller.afterSongSync(songData(cmd, 0), true, false, true);
+        controller.afterSongSync(songData(cmd, 1), true, false, false);
+        controller.afterSongSync(songData(cmd, 2), true, true, true);
+        controller.failedSongSync(EasyMock.eq(songData(cmd, 1)),
+                EasyMock.anyObject(IllegalStateException.class));
+        EasyMock.replay(controller, callback);
+        cmd.execute();
+        EasyMock.verify(controller, callback);
+        assertEquals("Play count of failed song was reset", 2,
+                currentPlayCount(1));
+        assertEquals("Play count not reset (1)", 0, currentPlayCount(0));
+        assertEquals("Play count not reset (2)", 0, currentPlayCount(2));
+    }
+
+    /**
+     * Tests that songs are skipped if the controller does not accept them.
+     */
+    @Test
+    public void testExecuteSkipSongs() throws Exception
+    {
+        SyncPipelineCommand cmd = createTestCommand(true);
+        for (SyncSongCommand songCmd : cmd.getSongCommands())
+        {
+            EasyMock.expect(controller.beforeSongSync(songCmd.fetchSongData()))
+                    .andReturn(Boolean.FALSE);
+        }
+        EasyMock.replay(controller, callback);
+        cmd.execute();
+        EasyMock.verify(controller, callback);
+        assertTrue("Got requests", requests.isEmpty());
+        assertEquals("Play count was reset", 2, currentPlayCount(0));
+    }
+
+    /**
+     * Tests that songs are reported as failed if their artist could not be
+     * synchronized.
+     */
+    @Test
+    public void testExecuteDependencyFailed() throws Exception
+    {
+        failingArtist = ARTIST2;
+        SyncPipelineCommand cmd = createTestCommand(true);
+        expectAcceptSongs(cmd);
+        controller.afterSongSync(songData(cmd, 0), true, false, true);
+        controller.afterSongSync(songData(cmd, 1), true, false, false);
+        controller.failedSongSync(EasyMock.eq(songData(cmd, 2)),
+                EasyMock.anyObject(IllegalStateException.class));
+        EasyMock.replay(controller, callback);
+        cmd.execute();
+        EasyMock.verify(controller, callback);
+        assertTrue("Song of failed artist synchronized",
+                !requests.contains("song:Roundabout"));
+        assertEquals("Play count was reset", 2, currentPlayCount(2));
+        assertEquals("Play count not reset", 0, currentPlayCount(0));
+    }
+
+    /**
+     * Tests that a failed authorization is reported for all songs.
+     */
+    @Test
+    public void testExecuteNotAuthorized() throws Exception
+    {
+        SyncPipelineCommand cmd = createTestCommand(false);
+        expectAcceptSongs(cmd);
+        for (int i = 0; i < songs.size(); i++)
+        {
+            controller.authorizationFailed(songData(cmd, i));
+        }
+        EasyMock.replay(controller, callback);
+        cmd.execute();
+        EasyMock.verify(controller, callback);
+        assertEquals("Play count was reset", 2, currentPlayCount(0));
+    }
+
+    /**
+     * A test OAuth template which directly invokes the resource processor
+     * without a resource. It is shared by all threads of the pipeline.
+     */
+    private class OAuthTemplateTestImpl extends OAuthTemplate
+    {
+        /** The result to be returned. */
+        private final boolean result;
+
+        public OAuthTemplateTestImpl(boolean authorized)
+        {
+            super(OAUTH_URI, SVC_URI);
+            result = authorized;
+        }
+
+        /**
+         * Invokes the processor if authorization is successful.
+         */
+        @Override
+        public boolean execute(ResourceProcessor proc, OAuthCallback cb)
+        {
+            assertSame("Wrong callback", callback, cb);
+            try
+            {
+                if (result)
+                {
+                    proc.doWithResource(null);
+                }
+                return result;
+            }
+            catch (NotAuthorizedException naex)
+            {
+                throw new AssertionError("Unexpected exception: " + naex);
+            }
+        }
+    }
+
+    /**
+     * A test command implementation which creates song commands with mock
+     * server requests.
+     */
+    private class SyncPipelineCommandTestImpl extends SyncPipelineCommand
+    {
+        public SyncPipelineCommandTestImpl(OAuthTemplate template,
+                int batchSize)
+        {
+            super(init, songs, controller, template, PARALLELISM, batchSize);
+        }
+
+        public SyncPipelineCommandTestImpl(OAuthTemplate template,
+                List<SongEntity> songList, SyncSession session)
+        {
+            super(init, songList, controller, template, PARALLELISM, 0,
+                    session);
+        }
+
+        /**
+         * Records the batch request. Only the first song is reported as
+         * created. The failing song gets a null result.
+         */
+        @Override
+        List<Boolean> syncSongBatch(WebResource resource,
+                List<SyncSongCommand> commands)
+        {
+            StringBuilder buf = new StringBuilder("batch:");
+            List<Boolean> results = new ArrayList<Boolean>();
+            for (SyncSongCommand cmd : commands)
+            {
+                if (!results.isEmpty())
+                {
+                    buf.append(',');
+                }
+                buf.append(cmd.getSong().getName());
+                results.add(cmd.getSong().getName().equals(failingSong) ? null
+                        : Boolean.valueOf(results.isEmpty()));
+            }
+            requests.add(buf.toString());
+            return results;
+        }
+
+        /**
+         * Returns a song command which only records the requests.
+         */
+        @Override
+        SyncSongCommand createSongCommand(SongEntity song, OAuthTemplate templ)
+        {
+            return new SyncSongCommand(init, song, controller, templ,
+                    getSyncSession())
+            {
+                @Override
+                boolean syncArtist(WebResource resource)
+                {
+                    String name = getSong().getArtist().getName();
+                    if (name.equals(failingArtist))
+                    {
+                        throw new IllegalStateException("Test exception!");
+                    }
+                    requests.add("artist:" + name);
+                    getSyncSession().artistSynchronized(
+                            getSong().getArtist());
+                    return ARTIST2.equals(name);
+                }
+
+                @Override
+                boolean syncAlbum(WebResource resource)
+                {
+                    requests.add("album:" + getSong().getAlbum().getName());
+                    getSyncSession().albumSynchronized(getSong().getAlbum());
+                    return true;
+                }
+
+                @Override
+                boolean syncSong(WebResource resource, SongData songData)
+                {
+                    if (songData.getName().equals(failingSong))
+                    {
+                        throw new IllegalStateException("Test exception!");
+                    }
+                    requests.add("song:" + songData.getName());
+                    return true;
+                }
+
+                @Override
+                protected void executeJPAOperation(EntityManager em)
+                {
+                    if (getSong().getName().equals(failingReset))
+                    {
+                        throw new IllegalStateException("Test exception!");
+                    }
+                    super.executeJPAOperation(em);
+                }
+            };
+        }
+    }
+}
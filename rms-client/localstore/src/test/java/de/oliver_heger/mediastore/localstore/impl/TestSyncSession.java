@@ -0,0 +1,109 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
+import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
+
+/**
+ * Test class for {@code SyncSession}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestSyncSession
+{
+    /** Constant for a test name. */
+    private static final String NAME = "Misplaced Childhood";
+
+    /** Constant for an inception year. */
+    private static final Integer YEAR = 1985;
+
+    /** The session to be tested. */
+    private SyncSession session;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        session = new SyncSession();
+    }
+
+    /**
+     * Creates an artist entity with the given name.
+     *
+     * @param name the name
+     * @return the artist
+     */
+    private static ArtistEntity createArtist(String name)
+    {
+        ArtistEntity artist = new ArtistEntity();
+        artist.setName(name);
+        return artist;
+    }
+
+    /**
+     * Creates an album entity with the given name and year.
+     *
+     * @param name the name
+     * @param year the inception year
+     * @return the album
+     */
+    private static AlbumEntity createAlbum(String name, Integer year)
+    {
+        AlbumEntity album = new AlbumEntity();
+        album.setName(name);
+        album.setInceptionYear(year);
+        return album;
+    }
+
+    /**
+     * Tests a newly created instance.
+     */
+    @Test
+    public void testInit()
+    {
+        assertFalse("Artist synchronized",
+                session.isArtistSynchronized(createArtist(NAME)));
+        assertFalse("Album synchronized",
+                session.isAlbumSynchronized(createAlbum(NAME, YEAR)));
+    }
+
+    /**
+     * Tests whether artists can be registered. Names are case insensitive.
+     */
+    @Test
+    public void testArtistSynchronized()
+    {
+        session.artistSynchronized(createArtist(NAME));
+        assertTrue("Artist not synchronized", session
+                .isArtistSynchronized(createArtist(NAME
+                        .toUpperCase(Locale.ENGLISH))));
+        assertFalse("Other artist synchronized",
+                session.isArtistSynchronized(createArtist("Marillion")));
+        assertFalse("Album synchronized",
+                session.isAlbumSynchronized(createAlbum(NAME, YEAR)));
+    }
+
+    /**
+     * Tests whether albums can be registered. The inception year is taken into
+     * account.
+     */
+    @Test
+    public void testAlbumSynchronized()
+    {
+        session.albumSynchronized(createAlbum(NAME, YEAR));
+        assertTrue("Album not synchronized", session
+                .isAlbumSynchronized(createAlbum(NAME
+                        .toLowerCase(Locale.ENGLISH), YEAR)));
+        assertFalse("Wrong year", session.isAlbumSynchronized(createAlbum(
+                NAME, null)));
+        assertFalse("Artist synchronized",
+                session.isArtistSynchronized(createArtist(NAME)));
+    }
+}
@@ -0,0 +1,645 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.persistence.EntityManagerFactory;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
+import org.apache.commons.lang3.concurrent.ConstantInitializer;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.UniformInterface;
+import com.sun.jersey.api.client.UniformInterfaceException;
+import com.sun.jersey.api.client.WebResource;
+
+import de.oliver_heger.mediastore.localstore.JPATestHelper;
+import de.oliver_heger.mediastore.localstore.SyncController;
+import de.oliver_heger.mediastore.localstore.model.AlbumEntity;
+import de.oliver_heger.mediastore.localstore.model.ArtistEntity;
+import de.oliver_heger.mediastore.localstore.model.SongEntity;
+import de.oliver_heger.mediastore.oauth.NotAuthorizedException;
+import de.oliver_heger.mediastore.oauth.OAuthCallback;
+import de.oliver_heger.mediastore.oauth.OAuthTemplate;
+import de.oliver_heger.mediastore.service.ObjectFactory;
+import de.oliver_heger.mediastore.service.SyncBatchData;
+import de.oliver_heger.mediastore.service.SyncBatchResultData;
+
+/**
+ * Test class for {@code SyncSongBatchCommand}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestSyncSongBatchCommand
+{
+    /** Constant for the name of the first artist. */
+    private static final String ARTIST1 = "Genesis";
+
+    /** Constant for the name of the second artist. */
+    private static final String ARTIST2 = "Yes";
+
+    /** An initializer for the EMF. */
+    private ConcurrentInitializer<EntityManagerFactory> init;
+
+    /** A mock sync controller. */
+    private SyncController controller;
+
+    /** A mock OAuth template. */
+    private OAuthTemplate templ;
+
+    /** A mock OAuth callback. */
+    private OAuthCallback callback;
+
+    /** The list with test songs. */
+    private List<SongEntity> songs;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        init =
+                new ConstantInitializer<EntityManagerFactory>(
+                        EasyMock.createMock(EntityManagerFactory.class));
+        controller = EasyMock.createMock(SyncController.class);
+        templ = EasyMock.createMock(OAuthTemplate.class);
+        callback = EasyMock.createMock(OAuthCallback.class);
+        songs = createSongs();
+    }
+
+    /**
+     * Creates the test songs. The first two songs belong to the same artist
+     * (using different case), the second song does not have an album.
+     *
+     * @return the list with test songs
+     */
+    private static List<SongEntity> createSongs()
+    {
+        ArtistEntity art1 = new ArtistEntity();
+        art1.setName(ARTIST1);
+        ArtistEntity art1Upper = new ArtistEntity();
+        art1Upper.setName(ARTIST1.toUpperCase(Locale.ENGLISH));
+        ArtistEntity art2 = new ArtistEntity();
+        art2.setName(ARTIST2);
+        AlbumEntity album1 = new AlbumEntity();
+        album1.setName("Duke");
+        album1.setInceptionYear(1980);
+        AlbumEntity album2 = new AlbumEntity();
+        album2.setName("Fragile");
+        album2.setInceptionYear(1971);
+
+        List<SongEntity> result = new ArrayList<SongEntity>();
+        result.add(createSong("Turn it on again", art1, album1));
+        result.add(createSong("Mama", art1Upper, null));
+        result.add(createSong("Roundabout", art2, album2));
+        return result;
+    }
+
+    /**
+     * Creates a test song entity.
+     *
+     * @param name the name of the song
+     * @param artist the artist
+     * @param album the album (may be <b>null</b>)
+     * @return the song entity
+     */
+    private static SongEntity createSong(String name, ArtistEntity artist,
+            AlbumEntity album)
+    {
+        SongEntity song = new SongEntity();
+        song.setName(name);
+        song.setCurrentPlayCount(1);
+        artist.addSong(song);
+        if (album != null)
+        {
+            album.addSong(song);
+        }
+        return song;
+    }
+
+    /**
+     * Creates a test command instance.
+     *
+     * @return the test command
+     */
+    private SyncSongBatchCommand createTestCommand()
+    {
+        return new SyncSongBatchCommand(init, songs, controller, templ);
+    }
+
+    /**
+     * Prepares the mock objects for a sync operation in which all test songs
+     * are accepted. The OAuth template does not call the command.
+     *
+     * @param cmd the command
+     */
+    private void prepareAcceptedSongs(SyncSongBatchCommand cmd)
+    {
+        for (SyncSongCommand songCmd : cmd.getSongCommands())
+        {
+            EasyMock.expect(controller.beforeSongSync(songCmd.fetchSongData()))
+                    .andReturn(Boolean.TRUE);
+        }
+        EasyMock.expect(controller.getOAuthCallback()).andReturn(callback);
+        EasyMock.expect(templ.execute(cmd, callback)).andReturn(Boolean.TRUE);
+    }
+
+    /**
+     * Tries to create an instance without a list of songs.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testInitNoSongs()
+    {
+        new SyncSongBatchCommand(init, null, controller, templ);
+    }
+
+    /**
+     * Tests whether commands for the single songs are created.
+     */
+    @Test
+    public void testGetSongCommands()
+    {
+        SyncSongBatchCommand cmd = createTestCommand();
+        List<SyncSongCommand> commands = cmd.getSongCommands();
+        assertEquals("Wrong number of commands", songs.size(), commands.size());
+        for (int i = 0; i < songs.size(); i++)
+        {
+            assertSame("Wrong song", songs.get(i), commands.get(i).getSong());
+            assertSame("Wrong controller", controller, commands.get(i)
+                    .getController());
+            assertSame("Wrong template", templ, commands.get(i)
+                    .getOAuthTemplate());
+            assertSame("Wrong session", cmd.getSyncSession(), commands.get(i)
+                    .getSyncSession());
+        }
+        assertSame("Wrong controller", controller, cmd.getController());
+        assertSame("Wrong template", templ, cmd.getOAuthTemplate());
+    }
+
+    /**
+     * Tests whether the sync controller can skip songs.
+     */
+    @Test
+    public void testExecuteSyncOperationSkip()
+    {
+        SyncSongBatchCommand cmd = createTestCommand();
+        for (SyncSongCommand songCmd : cmd.getSongCommands())
+        {
+            EasyMock.expect(controller.beforeSongSync(songCmd.fetchSongData()))
+                    .andReturn(Boolean.FALSE);
+        }
+        EasyMock.replay(controller, templ);
+        assertFalse("Wrong result", cmd.executeSyncOperation());
+        EasyMock.verify(controller, templ);
+    }
+
+    /**
+     * Tests whether a failed OAuth authorization is reported for all songs.
+     */
+    @Test
+    public void testExecuteSyncOperationOAuthAborted()
+    {
+        SyncSongBatchCommand cmd = createTestCommand();
+        for (SyncSongCommand songCmd : cmd.getSongCommands())
+        {
+            EasyMock.expect(controller.beforeSongSync(songCmd.fetchSongData()))
+                    .andReturn(Boolean.TRUE);
+            controller.authorizationFailed(songCmd.fetchSongData());
+        }
+        EasyMock.expect(controller.getOAuthCallback()).andReturn(callback);
+        EasyMock.expect(templ.execute(cmd, callback)).andReturn(Boolean.FALSE);
+        EasyMock.replay(controller, templ, callback);
+        assertFalse("Wrong result", cmd.executeSyncOperation());
+        EasyMock.verify(controller, templ, callback);
+    }
+
+    /**
+     * Tests whether a correct batch data object is created.
+     */
+    @Test
+    public void testCreateBatchData()
+    {
+        SyncSongBatchCommand cmd = createTestCommand();
+        prepareAcceptedSongs(cmd);
+        EasyMock.replay(controller, templ, callback);
+        assertTrue("Wrong result", cmd.executeSyncOperation());
+        SyncSongBatchCommand.BatchIndex index =
+                new SyncSongBatchCommand.BatchIndex();
+        SyncBatchData batch = cmd.createBatchData(index);
+        assertEquals("Wrong number of artists", 2, batch.getArtists().size());
+        assertEquals("Wrong artist 1", ARTIST1, batch.getArtists().get(0)
+                .getName());
+        assertEquals("Wrong artist 2", ARTIST2, batch.getArtists().get(1)
+                .getName());
+        assertEquals("Wrong number of albums", 2, batch.getAlbums().size());
+        assertEquals("Wrong number of songs", 3, batch.getSongs().size());
+        assertSame("Wrong song data", cmd.getSongCommands().get(1)
+                .fetchSongData(), batch.getSongs().get(1));
+        assertEquals("Wrong artist index 1", 0, index.getArtistIndex(0));
+        assertEquals("Wrong artist index 2", -1, index.getArtistIndex(1));
+        assertEquals("Wrong artist index 3", 1, index.getArtistIndex(2));
+        assertEquals("Wrong album index 1", 0, index.getAlbumIndex(0));
+        assertEquals("Wrong album index 2", -1, index.getAlbumIndex(1));
+        assertEquals("Wrong album index 3", 1, index.getAlbumIndex(2));
+    }
+
+    /**
+     * Tests that artists and albums already synchronized in the current
+     * session are not added to the batch.
+     */
+    @Test
+    public void testCreateBatchDataSession()
+    {
+        SyncSession session = new SyncSession();
+        session.artistSynchronized(songs.get(0).getArtist());
+        session.albumSynchronized(songs.get(0).getAlbum());
+        SyncSongBatchCommand cmd =
+                new SyncSongBatchCommand(init, songs, controller, templ,
+                        session);
+        prepareAcceptedSongs(cmd);
+        EasyMock.replay(controller, templ, callback);
+        assertTrue("Wrong result", cmd.executeSyncOperation());
+        SyncSongBatchCommand.BatchIndex index =
+                new SyncSongBatchCommand.BatchIndex();
+        SyncBatchData batch = cmd.createBatchData(index);
+        assertEquals("Wrong number of artists", 1, batch.getArtists().size());
+        assertEquals("Wrong artist", ARTIST2, batch.getArtists().get(0)
+                .getName());
+        assertEquals("Wrong number of albums", 1, batch.getAlbums().size());
+        assertEquals("Wrong number of songs", 3, batch.getSongs().size());
+        assertEquals("Wrong artist index 1", -1, index.getArtistIndex(0));
+        assertEquals("Wrong artist index 3", 0, index.getArtistIndex(2));
+        assertEquals("Wrong album index 1", -1, index.getAlbumIndex(0));
+        assertEquals("Wrong album index 3", 0, index.getAlbumIndex(2));
+    }
+
+    /**
+     * Tests whether the batch is sent to the server and the results are
+     * reported to the sync controller.
+     */
+    @Test
+    public void testDoWithResource() throws NotAuthorizedException
+    {
+        WebResource resource = EasyMock.createMock(WebResource.class);
+        final UniformInterface builder =
+                EasyMock.createMock(UniformInterface.class);
+        ClientResponse resp = EasyMock.createMock(ClientResponse.class);
+        SyncSongBatchCommand cmd =
+                new SyncSongBatchCommand(init, songs, controller, templ)
+                {
+                    @Override
+                    UniformInterface prepareResource(WebResource res)
+                    {
+                        return builder;
+                    }
+                };
+        prepareAcceptedSongs(cmd);
+        SyncBatchResultData result =
+                new ObjectFactory().createSyncBatchResultData();
+        result.getArtistResults().addAll(
+                Arrays.asList(Boolean.TRUE, Boolean.FALSE));
+        result.getAlbumResults().addAll(
+                Arrays.asList(Boolean.FALSE, Boolean.TRUE));
+        result.getSongResults().addAll(
+                Arrays.asList(Boolean.TRUE, Boolean.FALSE, Boolean.TRUE));
+        EasyMock.expect(
+                builder.put(EasyMock.eq(ClientResponse.class),
+                        EasyMock.anyObject(SyncBatchData.class))).andReturn(
+                resp);
+        EasyMock.expect(resp.getStatus())
+                .andReturn(ClientResponse.Status.OK.getStatusCode())
+                .anyTimes();
+        EasyMock.expect(resp.getEntity(SyncBatchResultData.class)).andReturn(
+                result);
+        resp.close();
+        List<SyncSongCommand> commands = cmd.getSongCommands();
+        controller.afterSongSync(commands.get(0).fetchSongData(), true, true,
+                false);
+        controller.afterSongSync(commands.get(1).fetchSongData(), false,
+                false, false);
+        controller.afterSongSync(commands.get(2).fetchSongData(), true,
+                false, true);
+        EasyMock.replay(resource, builder, resp, controller, templ, callback);
+        assertTrue("Wrong result", cmd.executeSyncOperation());
+        assertNull("Wrong result", cmd.doWithResource(resource));
+        EasyMock.verify(resource, builder, resp, controller, templ, callback);
+        for (SongEntity song : songs)
+        {
+            assertTrue("Artist not recorded", cmd.getSyncSession()
+                    .isArtistSynchronized(song.getArtist()));
+        }
+        assertTrue("Album not recorded", cmd.getSyncSession()
+                .isAlbumSynchronized(songs.get(2).getAlbum()));
+    }
+
+    /**
+     * Tests that only the artists and albums confirmed by the server are
+     * recorded in the session.
+     */
+    @Test
+    public void testDoWithResourcePartialResults()
+            throws NotAuthorizedException
+    {
+        final UniformInterface builder =
+                EasyMock.createMock(UniformInterface.class);
+        ClientResponse resp = EasyMock.createMock(ClientResponse.class);
+        SyncSongBatchCommand cmd =
+                new SyncSongBatchCommand(init, songs, controller, templ)
+                {
+                    @Override
+                    UniformInterface prepareResource(WebResource res)
+                    {
+                        return builder;
+                    }
+                };
+        prepareAcceptedSongs(cmd);
+        SyncBatchResultData result =
+                new ObjectFactory().createSyncBatchResultData();
+        result.getArtistResults().add(Boolean.TRUE);
+        result.getSongResults().addAll(
+                Arrays.asList(Boolean.TRUE, Boolean.FALSE, Boolean.TRUE));
+        EasyMock.expect(
+                builder.put(EasyMock.eq(ClientResponse.class),
+                        EasyMock.anyObject(SyncBatchData.class))).andReturn(
+                resp);
+        EasyMock.expect(resp.getStatus())
+                .andReturn(ClientResponse.Status.OK.getStatusCode())
+                .anyTimes();
+        EasyMock.expect(resp.getEntity(SyncBatchResultData.class)).andReturn(
+                result);
+        resp.close();
+        List<SyncSongCommand> commands = cmd.getSongCommands();
+        controller.afterSongSync(commands.get(0).fetchSongData(), true, true,
+                false);
+        controller.afterSongSync(commands.get(1).fetchSongData(), false,
+                false, false);
+        controller.afterSongSync(commands.get(2).fetchSongData(), true,
+                false, false);
+        EasyMock.replay(builder, resp, controller, templ, callback);
+        assertTrue("Wrong result", cmd.executeSyncOperation());
+        cmd.doWithResource(EasyMock.createMock(WebResource.class));
+        EasyMock.verify(builder, resp, controller, templ, callback);
+        SyncSession session = cmd.getSyncSession();
+        assertTrue("Artist 1 not recorded",
+                session.isArtistSynchronized(songs.get(1).getArtist()));
+        assertFalse("Artist 2 recorded",
+                session.isArtistSynchronized(songs.get(2).getArtist()));
+        assertFalse("Album 1 recorded",
+                session.isAlbumSynchronized(songs.get(0).getAlbum()));
+        assertFalse("Album 2 recorded",
+                session.isAlbumSynchronized(songs.get(2).getAlbum()));
+    }
+
+    /**
+     * Tests that songs without a result are reported as failed and that only
+     * the confirmed songs are reset.
+     */
+    @Test
+    public void testProcessResultsSongFailed()
+    {
+        SyncSongBatchCommand cmd = createTestCommand();
+        prepareAcceptedSongs(cmd);
+        List<SyncSongCommand> commands = cmd.getSongCommands();
+        controller.afterSongSync(commands.get(0).fetchSongData(), true, false,
+                false);
+        controller.failedSongSync(
+                EasyMock.eq(commands.get(1).fetchSongData()),
+                EasyMock.anyObject(IllegalStateException.class));
+        controller.failedSongSync(
+                EasyMock.eq(commands.get(2).fetchSongData()),
+                EasyMock.anyObject(IllegalStateException.class));
+        EasyMock.replay(controller, templ, callback);
+        assertTrue("Wrong result", cmd.executeSyncOperation());
+        SyncSongBatchCommand.BatchIndex index =
+                new SyncSongBatchCommand.BatchIndex();
+        cmd.createBatchData(index);
+        SyncBatchResultData result =
+                new ObjectFactory().createSyncBatchResultData();
+        result.getSongResults().addAll(Arrays.asList(Boolean.TRUE, null));
+        cmd.processResults(index, result);
+        EasyMock.verify(controller, templ, callback);
+    }
+
+    /**
+     * Tests that an exception after the results have been processed is only
+     * reported for the songs confirmed by the server.
+     */
+    @Test
+    public void testOnExceptionAfterResults()
+    {
+        SyncSongBatchCommand cmd = createTestCommand();
+        prepareAcceptedSongs(cmd);
+        List<SyncSongCommand> commands = cmd.getSongCommands();
+        Throwable ex = new RuntimeException("Test exception!");
+        controller.afterSongSync(commands.get(0).fetchSongData(), false,
+                false, false);
+        controller.failedSongSync(
+                EasyMock.eq(commands.get(1).fetchSongData()),
+                EasyMock.anyObject(IllegalStateException.class));
+        controller.afterSongSync(commands.get(2).fetchSongData(), false,
+                false, false);
+        controller.failedSongSync(commands.get(0).fetchSongData(), ex);
+        controller.failedSongSync(commands.get(2).fetchSongData(), ex);
+        EasyMock.replay(controller, templ, callback);
+        cmd.executeSyncOperation();
+        SyncSongBatchCommand.BatchIndex index =
+                new SyncSongBatchCommand.BatchIndex();
+        cmd.createBatchData(index);
+        SyncBatchResultData result =
+                new ObjectFactory().createSyncBatchResultData();
+        result.getSongResults().addAll(
+                Arrays.asList(Boolean.FALSE, null, Boolean.FALSE));
+        cmd.processResults(index, result);
+        cmd.onException(ex);
+        EasyMock.verify(controller, templ, callback);
+    }
+
+    /**
+     * Tests doWithResource() if the server reports an error. In this case,
+     * no objects must be recorded in the session.
+     */
+    @Test
+    public void testDoWithResourceServerError() throws NotAuthorizedException
+    {
+        final UniformInterface builder =
+                EasyMock.createMock(UniformInterface.class);
+        ClientResponse resp = EasyMock.createMock(ClientResponse.class);
+        SyncSongBatchCommand cmd =
+                new SyncSongBatchCommand(init, songs, controller, templ)
+                {
+                    @Override
+                    UniformInterface prepareResource(WebResource res)
+                    {
+                        return builder;
+                    }
+                };
+        prepareAcceptedSongs(cmd);
+        EasyMock.expect(
+                builder.put(EasyMock.eq(ClientResponse.class),
+                        EasyMock.anyObject(SyncBatchData.class))).andReturn(
+                resp);
+        EasyMock.expect(resp.getStatus())
+                .andReturn(
+                        ClientResponse.Status.INTERNAL_SERVER_ERROR
+                                .getStatusCode()).anyTimes();
+        resp.close();
+        EasyMock.replay(builder, resp, controller, templ, callback);
+        cmd.executeSyncOperation();
+        try
+        {
+            cmd.doWithResource(EasyMock.createMock(WebResource.class));
+            fail("Error response not detected!");
+        }
+        catch (UniformInterfaceException uiex)
+        {
+            EasyMock.verify(builder, resp, controller, templ, callback);
+            assertFalse("Artist recorded", cmd.getSyncSession()
+                    .isArtistSynchronized(songs.get(0).getArtist()));
+        }
+    }
+
+    /**
+     * Tests doWithResource() if the request is not authorized.
+     */
+    @Test(expected = NotAuthorizedException.class)
+    public void testDoWithResourceNotAuthorized() throws NotAuthorizedException
+    {
+        final UniformInterface builder =
+                EasyMock.createMock(UniformInterface.class);
+        ClientResponse resp = EasyMock.createMock(ClientResponse.class);
+        SyncSongBatchCommand cmd =
+                new SyncSongBatchCommand(init, songs, controller, templ)
+                {
+                    @Override
+                    UniformInterface prepareResource(WebResource res)
+                    {
+                        return builder;
+                    }
+                };
+        prepareAcceptedSongs(cmd);
+        EasyMock.expect(
+                builder.put(EasyMock.eq(ClientResponse.class),
+                        EasyMock.anyObject(SyncBatchData.class))).andReturn(
+                resp);
+        EasyMock.expect(resp.getStatus())
+                .andReturn(ClientResponse.Status.UNAUTHORIZED.getStatusCode())
+                .anyTimes();
+        resp.close();
+        EasyMock.replay(builder, resp, controller, templ, callback);
+        cmd.executeSyncOperation();
+        cmd.doWithResource(EasyMock.createMock(WebResource.class));
+    }
+
+    /**
+     * Tests whether a resource is correctly initialized.
+     */
+    @Test
+    public void testPrepareResource()
+    {
+        WebResource resource = EasyMock.createMock(WebResource.class);
+        WebResource.Builder builder =
+                EasyMock.createMock(WebResource.Builder.class);
+        EasyMock.expect(resource.path("batch")).andReturn(resource);
+        EasyMock.expect(resource.accept(MediaType.APPLICATION_XML)).andReturn(
+                builder);
+        EasyMock.expect(builder.type(MediaType.APPLICATION_XML_TYPE))
+                .andReturn(null);
+        EasyMock.replay(resource, builder);
+        assertNull("Wrong result", createTestCommand()
+                .prepareResource(resource));
+        EasyMock.verify(resource, builder);
+    }
+
+    /**
+     * Tests whether exceptions are reported for all songs of the batch.
+     */
+    @Test
+    public void testOnException()
+    {
+        SyncSongBatchCommand cmd = createTestCommand();
+        prepareAcceptedSongs(cmd);
+        Throwable ex = new RuntimeException("Test exception!");
+        for (SyncSongCommand songCmd : cmd.getSongCommands())
+        {
+            controller.failedSongSync(songCmd.fetchSongData(), ex);
+        }
+        EasyMock.replay(controller, templ, callback);
+        cmd.executeSyncOperation();
+        cmd.onException(ex);
+        EasyMock.verify(controller, templ, callback);
+    }
+
+    /**
+     * Tests whether the play counts of all songs confirmed by the server are
+     * reset in the local database.
+     */
+    @Test
+    public void testExecuteJPAOperation()
+    {
+        JPATestHelper helper = new JPATestHelper();
+        try
+        {
+            helper.begin();
+            for (SongEntity song : songs)
+            {
+                helper.persist(song.getArtist(), false);
+                if (song.getAlbum() != null)
+                {
+                    helper.persist(song.getAlbum(), false);
+                }
+                helper.persist(song, false);
+            }
+            helper.commit();
+            helper.closeEM();
+            SyncSongBatchCommand cmd = createTestCommand();
+            prepareAcceptedSongs(cmd);
+            List<SyncSongCommand> commands = cmd.getSongCommands();
+            controller.afterSongSync(commands.get(0).fetchSongData(), true,
+                    false, false);
+            controller.failedSongSync(
+                    EasyMock.eq(commands.get(1).fetchSongData()),
+                    EasyMock.anyObject(IllegalStateException.class));
+            controller.afterSongSync(commands.get(2).fetchSongData(), false,
+                    false, false);
+            EasyMock.replay(controller, templ, callback);
+            cmd.executeSyncOperation();
+            SyncSongBatchCommand.BatchIndex index =
+                    new SyncSongBatchCommand.BatchIndex();
+            cmd.createBatchData(index);
+            SyncBatchResultData result =
+                    new ObjectFactory().createSyncBatchResultData();
+            result.getSongResults().addAll(
+                    Arrays.asList(Boolean.TRUE, null, Boolean.FALSE));
+            cmd.processResults(index, result);
+            helper.begin();
+            cmd.executeJPAOperation(helper.getEM());
+            helper.commit();
+            helper.closeEM();
+            int[] expected = {
+                    0, 1, 0
+            };
+            for (int i = 0; i < songs.size(); i++)
+            {
+                assertEquals("Wrong play count: " + i, expected[i], helper
+                        .getEM().find(SongEntity.class, songs.get(i).getId())
+                        .getCurrentPlayCount());
+            }
+        }
+        finally
+        {
+            helper.close();
+        }
+    }
+}
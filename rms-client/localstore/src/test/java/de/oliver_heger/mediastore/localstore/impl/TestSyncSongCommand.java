@@ -2,6 +2,7 @@ package de.oliver_heger.mediastore.localstore.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -20,6 +21,7 @@ import org.junit.Test;
 
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterface;
+import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 
 import de.oliver_heger.mediastore.localstore.SyncController;
@@ -120,6 +122,27 @@ public class TestSyncSongCommand
         return song;
     }
 
+    /**
+     * Tests whether a default session is created.
+     */
+    @Test
+    public void testGetSyncSessionDefault()
+    {
+        assertNotNull("No session", createTestCommand().getSyncSession());
+    }
+
+    /**
+     * Tests whether a session can be passed to the constructor.
+     */
+    @Test
+    public void testGetSyncSessionInit()
+    {
+        SyncSession session = new SyncSession();
+        SyncSongCommand cmd =
+                new SyncSongCommand(init, song, controller, templ, session);
+        assertSame("Wrong session", session, cmd.getSyncSession());
+    }
+
     /**
      * Tests whether a correct album data object is created.
      */
@@ -243,13 +266,17 @@ public class TestSyncSongCommand
     public void testPrepareResource()
     {
         WebResource resource = EasyMock.createMock(WebResource.class);
+        WebResource.Builder builder =
+                EasyMock.createMock(WebResource.Builder.class);
         EasyMock.expect(resource.path(PATH)).andReturn(resource);
         EasyMock.expect(resource.accept(MediaType.APPLICATION_XML)).andReturn(
-                null);
-        EasyMock.replay(resource);
+                builder);
+        EasyMock.expect(builder.type(MediaType.APPLICATION_XML_TYPE))
+                .andReturn(null);
+        EasyMock.replay(resource, builder);
         SyncSongCommand cmd = createTestCommand();
         assertNull("Wrong result", cmd.prepareResource(resource, PATH));
-        EasyMock.verify(resource);
+        EasyMock.verify(resource, builder);
     }
 
     /**
@@ -276,6 +303,7 @@ public class TestSyncSongCommand
         ClientResponse resp = EasyMock.createMock(ClientResponse.class);
         EasyMock.expect(resp.getStatus()).andReturn(status.getStatusCode())
                 .anyTimes();
+        resp.close();
         return resp;
     }
 
@@ -320,6 +348,43 @@ public class TestSyncSongCommand
         checkSyncRequestCallSuccess(ClientResponse.Status.NO_CONTENT, false);
     }
 
+    /**
+     * Tests a sync request if the server reports that the object was not
+     * modified. This is the answer for objects which already exist.
+     */
+    @Test
+    public void testSyncRequestNotModified() throws NotAuthorizedException
+    {
+        checkSyncRequestCallSuccess(ClientResponse.Status.NOT_MODIFIED, false);
+    }
+
+    /**
+     * Tests a request which causes an error on the server.
+     */
+    @Test
+    public void testSyncRequestServerError() throws NotAuthorizedException
+    {
+        WebResource resource = EasyMock.createMock(WebResource.class);
+        SyncSongCommandRequestTestImpl cmd =
+                new SyncSongCommandRequestTestImpl(init, song, controller,
+                        templ, resource);
+        ClientResponse resp =
+                createResponseMock(ClientResponse.Status.INTERNAL_SERVER_ERROR);
+        EasyMock.expect(cmd.getBuilder().put(ClientResponse.class, this))
+                .andReturn(resp);
+        EasyMock.replay(resource, cmd.getBuilder(), resp);
+        try
+        {
+            cmd.syncRequest(resource, PATH, this);
+            fail("Error response not detected!");
+        }
+        catch (UniformInterfaceException uiex)
+        {
+            assertSame("Wrong response", resp, uiex.getResponse());
+            EasyMock.verify(resource, cmd.getBuilder(), resp);
+        }
+    }
+
     /**
      * Tests a request which is not authorized.
      */
@@ -378,6 +443,114 @@ public class TestSyncSongCommand
         EasyMock.verify(resource);
     }
 
+    /**
+     * Tests that an artist is synchronized only once in a session.
+     */
+    @Test
+    public void testSyncArtistSession() throws NotAuthorizedException
+    {
+        WebResource resource = EasyMock.createMock(WebResource.class);
+        EasyMock.replay(resource);
+        ArtistData data = factory.createArtistData();
+        SyncSession session = new SyncSession();
+        SyncSongCommandMockRequestImpl cmd1 =
+                new SyncSongCommandMockRequestImpl(resource, "artist", data,
+                        session);
+        SyncSongCommandMockRequestImpl cmd2 =
+                new SyncSongCommandMockRequestImpl(resource, "artist", data,
+                        session);
+        assertTrue("Wrong result 1", cmd1.syncArtist(resource));
+        assertFalse("Wrong result 2", cmd2.syncArtist(resource));
+        cmd1.verify();
+        cmd2.verify(0);
+        EasyMock.verify(resource);
+    }
+
+    /**
+     * Tests that an album is synchronized only once in a session.
+     */
+    @Test
+    public void testSyncAlbumSession() throws NotAuthorizedException
+    {
+        WebResource resource = EasyMock.createMock(WebResource.class);
+        EasyMock.replay(resource);
+        AlbumData data = factory.createAlbumData();
+        SyncSession session = new SyncSession();
+        session.albumSynchronized(song.getAlbum());
+        SyncSongCommandMockRequestImpl cmd =
+                new SyncSongCommandMockRequestImpl(resource, "album", data,
+                        session);
+        assertFalse("Wrong result", cmd.syncAlbum(resource));
+        cmd.verify(0);
+        EasyMock.verify(resource);
+    }
+
+    /**
+     * Tests that an artist is not recorded in the session if the request
+     * fails.
+     */
+    @Test
+    public void testSyncArtistSessionNotAuthorized()
+    {
+        WebResource resource = EasyMock.createMock(WebResource.class);
+        EasyMock.replay(resource);
+        SyncSession session = new SyncSession();
+        SyncSongCommand cmd =
+                new SyncSongCommand(init, song, controller, templ, session)
+                {
+                    @Override
+                    boolean syncRequest(WebResource resource, String path,
+                            Object data) throws NotAuthorizedException
+                    {
+                        throw new NotAuthorizedException();
+                    }
+                };
+        try
+        {
+            cmd.syncArtist(resource);
+            fail("Exception not thrown!");
+        }
+        catch (NotAuthorizedException naex)
+        {
+            assertFalse("Artist recorded",
+                    session.isArtistSynchronized(song.getArtist()));
+        }
+    }
+
+    /**
+     * Tests that an album is not recorded in the session if the server
+     * reports an error.
+     */
+    @Test
+    public void testSyncAlbumSessionServerError()
+            throws NotAuthorizedException
+    {
+        WebResource resource = EasyMock.createMock(WebResource.class);
+        EasyMock.replay(resource);
+        SyncSession session = new SyncSession();
+        SyncSongCommand cmd =
+                new SyncSongCommand(init, song, controller, templ, session)
+                {
+                    @Override
+                    boolean syncRequest(WebResource resource, String path,
+                            Object data) throws NotAuthorizedException
+                    {
+                        throw new UniformInterfaceException(
+                                "Test exception!", null, false);
+                    }
+                };
+        try
+        {
+            cmd.syncAlbum(resource);
+            fail("Exception not thrown!");
+        }
+        catch (UniformInterfaceException uiex)
+        {
+            assertFalse("Album recorded",
+                    session.isAlbumSynchronized(song.getAlbum()));
+        }
+    }
+
     /**
      * Tests whether a song can be synchronized.
      */
@@ -664,7 +837,22 @@ public class TestSyncSongCommand
         public SyncSongCommandMockRequestImpl(WebResource expRes,
                 String expPath, Object expData)
         {
-            super(init, song, controller, templ);
+            this(expRes, expPath, expData, null);
+        }
+
+        /**
+         * Creates a new instance of {@code SyncSongCommandMockRequestImpl}
+         * with a sync session and sets the expected test objects.
+         *
+         * @param expRes the expected resource
+         * @param expPath the expected path
+         * @param expData the expected data object
+         * @param session the sync session
+         */
+        public SyncSongCommandMockRequestImpl(WebResource expRes,
+                String expPath, Object expData, SyncSession session)
+        {
+            super(init, song, controller, templ, session);
             resource = expRes;
             path = expPath;
             data = expData;
@@ -675,7 +863,18 @@ public class TestSyncSongCommand
          */
         public void verify()
         {
-            assertEquals("Wrong number of sync calls", 1, syncCalls);
+            verify(1);
+        }
+
+        /**
+         * Verifies that the sync operation was called the expected number of
+         * times.
+         *
+         * @param expCalls the expected number of sync calls
+         */
+        public void verify(int expCalls)
+        {
+            assertEquals("Wrong number of sync calls", expCalls, syncCalls);
         }
 
         /**
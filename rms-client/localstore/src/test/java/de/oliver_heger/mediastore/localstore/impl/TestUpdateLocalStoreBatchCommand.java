@@ -0,0 +1,183 @@
+package de.oliver_heger.mediastore.localstore.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.commons.lang3.concurrent.ConstantInitializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.oliver_heger.mediastore.localstore.JPATestHelper;
+import de.oliver_heger.mediastore.localstore.model.SongEntity;
+import de.oliver_heger.mediastore.service.ObjectFactory;
+import de.oliver_heger.mediastore.service.SongData;
+
+/**
+ * Test class for {@code UpdateLocalStoreBatchCommand}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestUpdateLocalStoreBatchCommand
+{
+    /** Constant for the name of an artist. */
+    private static final String ARTIST_NAME = "Marillion";
+
+    /** Constant for the name of the test album. */
+    private static final String ALBUM_NAME = "Misplaced Childhood";
+
+    /** Constant for the inception year of the test album. */
+    private static final int ALBUM_YEAR = 1985;
+
+    /** Constant for the prefix of a song name. */
+    private static final String SONG_NAME = "Song ";
+
+    /** Constant for the number of test songs. */
+    private static final int SONG_COUNT = 5;
+
+    /** The JPA test helper. */
+    private JPATestHelper helper;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        helper = new JPATestHelper();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        helper.close();
+    }
+
+    /**
+     * Helper method for creating a test command object.
+     *
+     * @param playCounts the map with songs and play counts
+     * @return the test command object
+     */
+    private UpdateLocalStoreBatchCommand createCommand(
+            Map<SongData, Integer> playCounts)
+    {
+        return new UpdateLocalStoreBatchCommand(
+                new ConstantInitializer<EntityManagerFactory>(helper.getEMF()),
+                playCounts);
+    }
+
+    /**
+     * Creates a data object for a test song of the test album.
+     *
+     * @param idx the index of the song
+     * @return the data object
+     */
+    private static SongData createSongData(int idx)
+    {
+        SongData data = new ObjectFactory().createSongData();
+        data.setName(SONG_NAME + idx);
+        data.setDuration(BigInteger.valueOf(60 + idx));
+        data.setTrackNo(BigInteger.valueOf(idx));
+        data.setInceptionYear(BigInteger.valueOf(ALBUM_YEAR));
+        data.setArtistName(ARTIST_NAME);
+        data.setAlbumName(ALBUM_NAME);
+        return data;
+    }
+
+    /**
+     * Creates a map with test songs. Each song has been played as many times
+     * as its index.
+     *
+     * @return the map with test songs
+     */
+    private static Map<SongData, Integer> createPlayCounts()
+    {
+        Map<SongData, Integer> playCounts =
+                new LinkedHashMap<SongData, Integer>();
+        for (int i = 1; i <= SONG_COUNT; i++)
+        {
+            playCounts.put(createSongData(i), i);
+        }
+        return playCounts;
+    }
+
+    /**
+     * Tests whether commands for the single songs are created.
+     */
+    @Test
+    public void testInit()
+    {
+        Map<SongData, Integer> playCounts = createPlayCounts();
+        UpdateLocalStoreBatchCommand cmd = createCommand(playCounts);
+        assertSame("Wrong factory", helper.getEMF(),
+                cmd.getEntityManagerFactory());
+        List<UpdateLocalStoreCommand> commands = cmd.getUpdateCommands();
+        assertEquals("Wrong number of commands", SONG_COUNT, commands.size());
+        int idx = 0;
+        for (Map.Entry<SongData, Integer> e : playCounts.entrySet())
+        {
+            UpdateLocalStoreCommand songCmd = commands.get(idx++);
+            assertSame("Wrong song data", e.getKey(), songCmd.getSongData());
+            assertEquals("Wrong play count", e.getValue().intValue(),
+                    songCmd.getPlayCount());
+        }
+    }
+
+    /**
+     * Tries to create an instance without a map.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testInitNoMap()
+    {
+        createCommand(null);
+    }
+
+    /**
+     * Tries to create an instance with an invalid play count.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitInvalidPlayCount()
+    {
+        Map<SongData, Integer> playCounts = createPlayCounts();
+        playCounts.put(createSongData(0), 0);
+        createCommand(playCounts);
+    }
+
+    /**
+     * Tests whether all songs are written into the local database. Artist and
+     * album entities are created only once.
+     */
+    @Test
+    public void testExecute() throws Exception
+    {
+        UpdateLocalStoreBatchCommand cmd = createCommand(createPlayCounts());
+        cmd.execute();
+        helper.closeEM();
+        @SuppressWarnings("unchecked")
+        List<SongEntity> songs =
+                helper.getEM()
+                        .createQuery("select s from SongEntity s")
+                        .getResultList();
+        assertEquals("Wrong number of songs", SONG_COUNT, songs.size());
+        for (SongEntity song : songs)
+        {
+            assertEquals("Wrong play count", song.getTrackNo().intValue(),
+                    song.getCurrentPlayCount());
+            assertEquals("Wrong artist", ARTIST_NAME, song.getArtist()
+                    .getName());
+            assertEquals("Wrong album", ALBUM_NAME, song.getAlbum().getName());
+        }
+        assertEquals("Wrong number of artists", 1,
+                helper.getEM().createQuery("select a from ArtistEntity a")
+                        .getResultList().size());
+        assertEquals("Wrong number of albums", 1,
+                helper.getEM().createQuery("select a from AlbumEntity a")
+                        .getResultList().size());
+    }
+}
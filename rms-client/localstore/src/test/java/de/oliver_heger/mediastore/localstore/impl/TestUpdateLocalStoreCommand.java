@@ -2,6 +2,7 @@ package de.oliver_heger.mediastore.localstore.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 
 import java.math.BigInteger;
@@ -80,6 +81,22 @@ public class TestUpdateLocalStoreCommand
                 data, playCount);
     }
 
+    /**
+     * Helper method for creating a test command object which uses the given ID
+     * cache.
+     *
+     * @param data the object with song data
+     * @param cache the ID cache
+     * @return the test command object
+     */
+    private UpdateLocalStoreCommand createCommand(SongData data,
+            EntityIdCache cache)
+    {
+        return new UpdateLocalStoreCommand(
+                new ConstantInitializer<EntityManagerFactory>(helper.getEMF()),
+                data, 1, cache);
+    }
+
     /**
      * Helper method for creating a test command object with a default play
      * count.
@@ -197,6 +214,16 @@ public class TestUpdateLocalStoreCommand
         assertSame("Wrong factory", helper.getEMF(),
                 cmd.getEntityManagerFactory());
         assertFalse("UI update", cmd.isUpdateGUI());
+        assertNotNull("No ID cache", cmd.getIdCache());
+    }
+
+    /**
+     * Tries to create an instance without an ID cache.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testInitNoIdCache()
+    {
+        createCommand(createSongData(), null);
     }
 
     /**
@@ -398,4 +425,107 @@ public class TestUpdateLocalStoreCommand
     {
         checkUpdateExistingSong(SONG_NAME, 42);
     }
+
+    /**
+     * Tests whether the IDs of newly created entities are added to the cache.
+     */
+    @Test
+    public void testCacheNewEntities() throws Exception
+    {
+        EntityIdCache cache = new EntityIdCache();
+        createCommand(createSongData(), cache).execute();
+        SongEntity song = checkLocalStore(1);
+        assertEquals("Wrong cache size", 3, cache.size());
+        assertEquals("Wrong song ID", song.getId(), cache.getID(EntityIdCache
+                .songKey(SONG_NAME, SONG_DURATION, ARTIST_NAME)));
+        assertEquals("Wrong artist ID", song.getArtist().getId(),
+                cache.getID(EntityIdCache.artistKey(ARTIST_NAME)));
+        assertEquals("Wrong album ID", song.getAlbum().getId(),
+                cache.getID(EntityIdCache.albumKey(ALBUM_NAME, ALBUM_YEAR)));
+    }
+
+    /**
+     * Tests whether the ID of an existing song found by a query is cached.
+     */
+    @Test
+    public void testCacheExistingSong() throws Exception
+    {
+        SongEntity song = new SongEntity();
+        song.setName(SONG_NAME);
+        song.setDuration(SONG_DURATION);
+        helper.persist(song, true);
+        helper.closeEM();
+        SongData data = createSongData();
+        data.setArtistName(null);
+        EntityIdCache cache = new EntityIdCache();
+        createCommand(data, cache).execute();
+        assertEquals("Wrong song ID", song.getId(), cache.getID(EntityIdCache
+                .songKey(SONG_NAME, SONG_DURATION, null)));
+    }
+
+    /**
+     * Tests whether a song can be updated multiple times using the cache.
+     */
+    @Test
+    public void testUpdateCachedSong() throws Exception
+    {
+        EntityIdCache cache = new EntityIdCache();
+        createCommand(createSongData(), cache).execute();
+        SongData data = createSongData();
+        data.setName(SONG_NAME.toUpperCase(Locale.ENGLISH));
+        createCommand(data, cache).execute();
+        checkLocalStore(2);
+        assertEquals("Wrong cache size", 3, cache.size());
+    }
+
+    /**
+     * Tests that invalid IDs in the cache are detected and replaced.
+     */
+    @Test
+    public void testUpdateStaleCacheEntries() throws Exception
+    {
+        final Long invalidID = Long.valueOf(-1);
+        EntityIdCache cache = new EntityIdCache();
+        cache.putID(EntityIdCache.songKey(SONG_NAME, SONG_DURATION,
+                ARTIST_NAME), invalidID);
+        cache.putID(EntityIdCache.artistKey(ARTIST_NAME), invalidID);
+        cache.putID(EntityIdCache.albumKey(ALBUM_NAME, ALBUM_YEAR), invalidID);
+        createCommand(createSongData(), cache).execute();
+        SongEntity song = checkLocalStore(1);
+        assertEquals("Wrong song ID", song.getId(), cache.getID(EntityIdCache
+                .songKey(SONG_NAME, SONG_DURATION, ARTIST_NAME)));
+        assertEquals("Wrong artist ID", song.getArtist().getId(),
+                cache.getID(EntityIdCache.artistKey(ARTIST_NAME)));
+        assertEquals("Wrong album ID", song.getAlbum().getId(),
+                cache.getID(EntityIdCache.albumKey(ALBUM_NAME, ALBUM_YEAR)));
+    }
+
+    /**
+     * Tests that a cached entity whose key properties have been changed in the
+     * meantime is not used.
+     */
+    @Test
+    public void testUpdateCachedSongKeyChanged() throws Exception
+    {
+        SongEntity song = new SongEntity();
+        song.setName("Another song");
+        song.setDuration(SONG_DURATION);
+        helper.persist(song, true);
+        helper.closeEM();
+        SongData data = createSongData();
+        data.setArtistName(null);
+        data.setAlbumName(null);
+        List<Object> key =
+                EntityIdCache.songKey(SONG_NAME, SONG_DURATION, null);
+        EntityIdCache cache = new EntityIdCache();
+        cache.putID(key, song.getId());
+        createCommand(data, cache).execute();
+        SongEntity newSong =
+                Finders.findSong(helper.getEM(), SONG_NAME, SONG_DURATION,
+                        null);
+        assertFalse("Renamed song was used", song.getId().equals(
+                newSong.getId()));
+        assertEquals("Wrong play count", 1, newSong.getCurrentPlayCount());
+        assertEquals("Wrong cached ID", newSong.getId(), cache.getID(key));
+    }
 }
@@ -268,6 +268,26 @@ public class TestArtistEntity
         assertTrue("Got songs", a2.getSongs().isEmpty());
     }
 
+    /**
+     * Tests whether the search name is set together with the name and
+     * persisted.
+     */
+    @Test
+    public void testSearchName()
+    {
+        artist.setName(NAME);
+        assertEquals("Wrong search name", NAME.toUpperCase(Locale.ENGLISH),
+                artist.getSearchName());
+        helper.persist(artist, true);
+        helper.closeEM();
+        ArtistEntity a2 =
+                helper.getEM().find(ArtistEntity.class, artist.getId());
+        assertEquals("Wrong persistent search name",
+                NAME.toUpperCase(Locale.ENGLISH), a2.getSearchName());
+        artist.setName(null);
+        assertNull("Got a search name", artist.getSearchName());
+    }
+
     /**
      * Tests whether songs can be persisted with an artist.
      */
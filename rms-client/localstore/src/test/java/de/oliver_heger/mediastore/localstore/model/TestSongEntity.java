@@ -188,6 +188,23 @@ public class TestSongEntity
         assertEquals("Wrong play count", 2, s2.getCurrentPlayCount());
     }
 
+    /**
+     * Tests whether the search name is set together with the name and
+     * persisted.
+     */
+    @Test
+    public void testSearchName()
+    {
+        initSong();
+        assertEquals("Wrong search name",
+                SONG_NAME.toUpperCase(Locale.ENGLISH), song.getSearchName());
+        helper.persist(song, true);
+        helper.closeEM();
+        SongEntity s2 = helper.getEM().find(SongEntity.class, song.getId());
+        assertEquals("Wrong persistent search name",
+                SONG_NAME.toUpperCase(Locale.ENGLISH), s2.getSearchName());
+    }
+
     /**
      * Tests whether the total play count field is correctly initialized.
      */
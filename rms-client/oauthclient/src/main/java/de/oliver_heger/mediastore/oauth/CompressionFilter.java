@@ -0,0 +1,337 @@
+package de.oliver_heger.mediastore.oauth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+
+import com.sun.jersey.api.client.AbstractClientRequestAdapter;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientRequestAdapter;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * <p>
+ * A Jersey client filter which supports gzip content encoding.
+ * </p>
+ * <p>
+ * This filter announces to the server that compressed responses are accepted;
+ * responses with gzip content encoding are decompressed transparently. Request
+ * entities are compressed unless their size is known and does not exceed a
+ * threshold. Small entities are sent uncompressed because for them the
+ * compression overhead outweighs the savings. A negative threshold disables
+ * the compression of request entities.
+ * </p>
+ * <p>
+ * The decision whether an entity is compressed has to be made before it is
+ * written: the connector sends the request headers when it opens the stream
+ * for the entity, so the content encoding header cannot be set afterwards.
+ * (This is different on the server side where the response headers can be
+ * deferred; there a {@code ThresholdOutputStream} is used.) The size of an
+ * entity is known if a content length header is set or if the entity is a byte
+ * array or a file. Other entities - e.g. JAXB objects - are serialized into a
+ * buffer first if the filter has been passed the {@code Providers} of the
+ * client and the request defines a content type; the buffer then replaces the
+ * original entity. Only entities whose size cannot be determined this way,
+ * e.g. streams, are always compressed. If an entity is compressed, a content
+ * length header is removed; the length is then determined by the connector
+ * from the compressed data actually sent.
+ * </p>
+ * <p>
+ * An instance does not have any mutable state; so it can be added to a client
+ * which is shared between multiple threads.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class CompressionFilter extends ClientFilter
+{
+    /** Constant for the gzip encoding. */
+    static final String GZIP = "gzip";
+
+    /** Constant for an empty array of annotations. */
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    /** The providers for serializing request entities. */
+    private final Providers providers;
+
+    /** The threshold for the compression of request entities. */
+    private final int threshold;
+
+    /**
+     * Creates a new instance of {@code CompressionFilter} and sets the
+     * threshold for the compression of request entities and the providers
+     * for serializing them.
+     *
+     * @param compressionThreshold the size (in bytes) a request entity must
+     *        exceed to be compressed; a negative value disables compression
+     *        of requests
+     * @param entityProviders the providers of the client which are used to
+     *        determine the size of entities by serializing them (can be
+     *        <b>null</b>, then only entities of a known size are checked
+     *        against the threshold)
+     */
+    public CompressionFilter(int compressionThreshold,
+            Providers entityProviders)
+    {
+        threshold = compressionThreshold;
+        providers = entityProviders;
+    }
+
+    /**
+     * Creates a new instance of {@code CompressionFilter} and sets the
+     * threshold for the compression of request entities. No providers are
+     * set, so entities are not serialized in advance.
+     *
+     * @param compressionThreshold the size (in bytes) a request entity must
+     *        exceed to be compressed; a negative value disables compression
+     *        of requests
+     */
+    public CompressionFilter(int compressionThreshold)
+    {
+        this(compressionThreshold, null);
+    }
+
+    /**
+     * Returns the threshold for the compression of request entities.
+     *
+     * @return the compression threshold
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Returns the providers used for serializing request entities.
+     *
+     * @return the providers (may be <b>null</b>)
+     */
+    public Providers getProviders()
+    {
+        return providers;
+    }
+
+    /**
+     * Handles the specified request. This implementation adds the headers
+     * related to content encoding, installs an adapter for the compression of
+     * the request entity if its size requires it, and decompresses the
+     * response.
+     *
+     * @param request the request
+     * @return the response
+     * @throws ClientHandlerException if an error occurs
+     */
+    @Override
+    public ClientResponse handle(ClientRequest request)
+            throws ClientHandlerException
+    {
+        if (!request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING))
+        {
+            request.getHeaders().add(HttpHeaders.ACCEPT_ENCODING, GZIP);
+        }
+        if (getThreshold() >= 0
+                && request.getEntity() != null
+                && !request.getHeaders().containsKey(
+                        HttpHeaders.CONTENT_ENCODING))
+        {
+            long size = fetchEntitySize(request);
+            if (size < 0)
+            {
+                byte[] data = serializeEntity(request);
+                if (data != null)
+                {
+                    request.setEntity(data);
+                    size = data.length;
+                }
+            }
+            if (size < 0 || size > getThreshold())
+            {
+                request.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING,
+                        GZIP);
+                request.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+                request.setAdapter(new CompressionAdapter(request
+                        .getAdapter()));
+            }
+        }
+
+        ClientResponse response = getNext().handle(request);
+        if (response.hasEntity()
+                && GZIP.equals(response.getHeaders().getFirst(
+                        HttpHeaders.CONTENT_ENCODING)))
+        {
+            response.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+            try
+            {
+                response.setEntityInputStream(new GZIPInputStream(response
+                        .getEntityInputStream()));
+            }
+            catch (IOException ioex)
+            {
+                throw new ClientHandlerException(ioex);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Determines the size of the entity of the specified request if it is
+     * known in advance. This is the case if a content length header is set or
+     * if the entity is a byte array or a file.
+     *
+     * @param request the request
+     * @return the size of the entity in bytes or -1 if it is unknown
+     */
+    static long fetchEntitySize(ClientRequest request)
+    {
+        Object length =
+                request.getHeaders().getFirst(HttpHeaders.CONTENT_LENGTH);
+        if (length instanceof Number)
+        {
+            return ((Number) length).longValue();
+        }
+        if (length != null)
+        {
+            try
+            {
+                return Long.parseLong(length.toString().trim());
+            }
+            catch (NumberFormatException nfex)
+            {
+                return -1;
+            }
+        }
+
+        if (request.getEntity() instanceof byte[])
+        {
+            return ((byte[]) request.getEntity()).length;
+        }
+        if (request.getEntity() instanceof File)
+        {
+            return ((File) request.getEntity()).length();
+        }
+        return -1;
+    }
+
+    /**
+     * Serializes the entity of the specified request into a byte array. This
+     * is done in the same way as the connector would write the entity, using
+     * the {@code MessageBodyWriter} for the entity and the content type of
+     * the request. If no providers are set, the request does not define a
+     * content type, no writer is found, or the entity is a stream, result is
+     * <b>null</b>.
+     *
+     * @param request the request
+     * @return the serialized entity or <b>null</b> if it cannot be serialized
+     * @throws ClientHandlerException if an error occurs
+     */
+    byte[] serializeEntity(ClientRequest request)
+            throws ClientHandlerException
+    {
+        Object contentType =
+                request.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+        Object entity = request.getEntity();
+        if (getProviders() == null || contentType == null
+                || entity instanceof InputStream || entity instanceof Reader)
+        {
+            return null;
+        }
+
+        MediaType mediaType =
+                (contentType instanceof MediaType) ? (MediaType) contentType
+                        : MediaType.valueOf(contentType.toString());
+        Class<?> entityClass = entity.getClass();
+        Type entityType = entityClass;
+        if (entity instanceof GenericEntity)
+        {
+            GenericEntity<?> ge = (GenericEntity<?>) entity;
+            entity = ge.getEntity();
+            entityClass = ge.getRawType();
+            entityType = ge.getType();
+        }
+        return writeEntity(entity, entityClass, entityType, mediaType,
+                request);
+    }
+
+    /**
+     * Writes the specified entity into a byte array using the corresponding
+     * {@code MessageBodyWriter}.
+     *
+     * @param <T> the type of the entity
+     * @param entity the entity
+     * @param entityClass the class of the entity
+     * @param entityType the generic type of the entity
+     * @param mediaType the media type
+     * @param request the request
+     * @return the serialized entity or <b>null</b> if no writer is found
+     * @throws ClientHandlerException if an error occurs
+     */
+    private <T> byte[] writeEntity(Object entity, Class<T> entityClass,
+            Type entityType, MediaType mediaType, ClientRequest request)
+            throws ClientHandlerException
+    {
+        MessageBodyWriter<T> writer =
+                getProviders().getMessageBodyWriter(entityClass, entityType,
+                        NO_ANNOTATIONS, mediaType);
+        if (writer == null)
+        {
+            return null;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try
+        {
+            writer.writeTo(entityClass.cast(entity), entityClass, entityType,
+                    NO_ANNOTATIONS, mediaType, request.getHeaders(), bos);
+        }
+        catch (IOException ioex)
+        {
+            throw new ClientHandlerException(ioex);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * A request adapter which installs the stream for compressing the request
+     * entity.
+     */
+    private static class CompressionAdapter extends
+            AbstractClientRequestAdapter
+    {
+        /**
+         * Creates a new instance of {@code CompressionAdapter}.
+         *
+         * @param adapter the wrapped adapter
+         */
+        public CompressionAdapter(ClientRequestAdapter adapter)
+        {
+            super(adapter);
+        }
+
+        /**
+         * {@inheritDoc} This implementation wraps the stream by a stream
+         * which compresses the data.
+         */
+        @Override
+        public OutputStream adapt(ClientRequest request, OutputStream out)
+                throws IOException
+        {
+            return new GZIPOutputStream(getAdapter().adapt(request, out));
+        }
+    }
+}
@@ -5,9 +5,15 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
 
+import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
+import org.apache.commons.lang3.concurrent.ConcurrentUtils;
+import org.apache.commons.lang3.concurrent.LazyInitializer;
+
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
 import com.sun.jersey.oauth.client.OAuthClientFilter;
 import com.sun.jersey.oauth.signature.OAuthParameters;
 import com.sun.jersey.oauth.signature.OAuthSecrets;
@@ -30,9 +36,33 @@ import com.sun.jersey.oauth.signature.OAuthSecrets;
  * authorization tokens.</li>
  * </ul>
  * The data of a successful authorization is cached so that it can be reused by
- * following invocations of {@code execute()}. Because of this internal state
- * the class is not thread-safe. An instance can only be used by a single
- * thread.
+ * following invocations of {@code execute()}. Access to this internal state is
+ * synchronized, so an instance can be shared by multiple threads. If an
+ * authorization is required, it is performed by a single thread; other threads
+ * wait until it is complete and then use its result. The requests themselves
+ * are executed concurrently; Jersey resource objects can be used by multiple
+ * threads once they have been configured.
+ * </p>
+ * <p>
+ * Creating a Jersey {@code Client} is expensive, and each client manages its
+ * own connections. Therefore, if no client is passed to the constructor, all
+ * instances share a default client which is created on first access. A
+ * {@code Client} is thread-safe, so multiple templates used by different
+ * threads can share it. The default client is configured with the timeouts
+ * defined by the {@link #DEFAULT_CONNECT_TIMEOUT} and
+ * {@link #DEFAULT_READ_TIMEOUT} constants; a client with other timeouts can be
+ * created using the {@link #createClient(int, int)} method. Responses are
+ * closed after they have been processed, so that the underlying connections
+ * can be kept alive and reused by following requests.
+ * </p>
+ * <p>
+ * Clients created by this class are equipped with a {@link CompressionFilter}.
+ * So compressed responses are accepted. The compression of request entities
+ * is opt-in because the server has to support it: the default client and
+ * clients created by {@link #createClient(int, int)} send requests
+ * uncompressed. A client which compresses request entities larger than a
+ * threshold (e.g. {@link #DEFAULT_COMPRESSION_THRESHOLD}) can be created
+ * using {@link #createClient(int, int, int)}.
  * </p>
  *
  * @author Oliver Heger
@@ -40,6 +70,24 @@ import com.sun.jersey.oauth.signature.OAuthSecrets;
  */
 public class OAuthTemplate
 {
+    /** Constant for the default connect timeout in milliseconds. */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /** Constant for the default read timeout in milliseconds. */
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+
+    /**
+     * Constant for the default size in bytes a request entity must exceed in
+     * order to be compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * Constant for a compression threshold which disables the compression of
+     * request entities.
+     */
+    public static final int NO_COMPRESSION = -1;
+
     /** Constant for the consumer key. */
     static final String CONSUMER_KEY = "www.oliver-heger.de";
 
@@ -76,6 +124,18 @@ public class OAuthTemplate
     /** Constant for the slash. */
     private static final String SLASH = "/";
 
+    /** The initializer for the client shared by default. */
+    private static final ConcurrentInitializer<Client> DEFAULT_CLIENT =
+            new LazyInitializer<Client>()
+            {
+                @Override
+                protected Client initialize()
+                {
+                    return createClient(DEFAULT_CONNECT_TIMEOUT,
+                            DEFAULT_READ_TIMEOUT);
+                }
+            };
+
     /** Stores the Jersey client object. */
     private final Client client;
 
@@ -88,6 +148,9 @@ public class OAuthTemplate
     /** The current OAuth filter. */
     private OAuthClientFilter oAuthFilter;
 
+    /** The resource for service calls using the current filter. */
+    private WebResource serviceResource;
+
     /**
      * Creates a new instance of {@code OAuthTemplate} and initializes it with
      * the URIs for the OAuth endpoint and the service and the {@code Client} to
@@ -97,7 +160,7 @@ public class OAuthTemplate
      *        <b>null</b>)
      * @param svcURI the base URI of the resources (must not be <b>null</b>)
      * @param client the client object for dealing with resources (can be
-     *        <b>null</b>, then a default client is created)
+     *        <b>null</b>, then the shared default client is used)
      * @throws NullPointerException if a required parameter is missing
      */
     public OAuthTemplate(String oauthURI, String svcURI, Client client)
@@ -111,14 +174,14 @@ public class OAuthTemplate
         }
         else
         {
-            this.client = Client.create();
+            this.client = ConcurrentUtils.initializeUnchecked(DEFAULT_CLIENT);
         }
     }
 
     /**
      * Creates a new instance of {@code OAuthTemplate} and initializes it with
-     * the URIs for the OAuth services and the base resource URI. A default
-     * {@code Client} object is created.
+     * the URIs for the OAuth services and the base resource URI. The shared
+     * default {@code Client} object is used.
      *
      * @param oauthURI the URI prefix of the OAuth services (must not be
      *        <b>null</b>)
@@ -167,7 +230,7 @@ public class OAuthTemplate
      *
      * @return the current OAuth filter
      */
-    public OAuthClientFilter getOAuthFilter()
+    public synchronized OAuthClientFilter getOAuthFilter()
     {
         return oAuthFilter;
     }
@@ -202,42 +265,50 @@ public class OAuthTemplate
         boolean hasTokens = true;
         do
         {
-            OAuthTokens tokens = null;
-            OAuthClientFilter filter = getOAuthFilter();
+            OAuthTokens newTokens = null;
+            OAuthClientFilter filter;
+            WebResource resource;
 
-            if (filter == null)
+            synchronized (this)
             {
-                if (hasTokens)
+                filter = getOAuthFilter();
+                if (filter == null)
                 {
-                    tokens = callback.getTokens();
-                    hasTokens = tokens != null;
-                }
+                    OAuthTokens tokens = null;
+                    if (hasTokens)
+                    {
+                        tokens = callback.getTokens();
+                        hasTokens = tokens != null;
+                    }
 
-                if (!hasTokens)
-                {
-                    tokens = authorize(callback);
-                    if (tokens == null)
+                    if (!hasTokens)
                     {
-                        return false;
+                        tokens = authorize(callback);
+                        if (tokens == null)
+                        {
+                            return false;
+                        }
+                        newTokens = tokens;
                     }
+                    filter = createOAuthFilterFromTokens(tokens);
+                    oAuthFilter = filter;
+                    serviceResource = null;
                 }
-                filter = createOAuthFilterFromTokens(tokens);
-                oAuthFilter = filter;
+                resource = fetchResourceForServiceCall(filter);
             }
 
-            WebResource resource = createResourceForServiceCall(filter);
             try
             {
                 interactWithResourceProcessor(proc, resource);
-                if (!hasTokens)
+                if (newTokens != null)
                 {
-                    callback.setTokens(tokens);
+                    callback.setTokens(newTokens);
                 }
                 return true;
             }
             catch (NotAuthorizedException naex)
             {
-                oAuthFilter = null;
+                invalidateFilter(filter);
                 hasTokens = false;
             }
         } while (true);
@@ -266,6 +337,51 @@ public class OAuthTemplate
         }
     }
 
+    /**
+     * Creates a new Jersey {@code Client} object with the specified timeouts.
+     * This method can be used to create a client which is passed to the
+     * constructor if the default timeouts are not appropriate. The client
+     * should be shared by all templates accessing the same server. Request
+     * entities are not compressed.
+     *
+     * @param connectTimeout the connect timeout in milliseconds (0 means no
+     *        timeout)
+     * @param readTimeout the read timeout in milliseconds (0 means no timeout)
+     * @return the new client
+     */
+    public static Client createClient(int connectTimeout, int readTimeout)
+    {
+        return createClient(connectTimeout, readTimeout, NO_COMPRESSION);
+    }
+
+    /**
+     * Creates a new Jersey {@code Client} object with the specified timeouts
+     * and compression threshold. A {@link CompressionFilter} is added to the
+     * client. It uses the providers of the client to determine the size of
+     * request entities.
+     *
+     * @param connectTimeout the connect timeout in milliseconds (0 means no
+     *        timeout)
+     * @param readTimeout the read timeout in milliseconds (0 means no timeout)
+     * @param compressionThreshold the size in bytes a request entity must
+     *        exceed to be compressed (a negative value, e.g.
+     *        {@link #NO_COMPRESSION}, disables compression of requests)
+     * @return the new client
+     */
+    public static Client createClient(int connectTimeout, int readTimeout,
+            int compressionThreshold)
+    {
+        ClientConfig config = new DefaultClientConfig();
+        config.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT,
+                Integer.valueOf(connectTimeout));
+        config.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT,
+                Integer.valueOf(readTimeout));
+        Client client = Client.create(config);
+        client.addFilter(new CompressionFilter(compressionThreshold, client
+                .getProviders()));
+        return client;
+    }
+
     /**
      * Creates a new OAuth parameters object. This method is called when
      * parameters have to be initialized.
@@ -454,6 +570,39 @@ public class OAuthTemplate
                 CONSUMER_SECRET);
     }
 
+    /**
+     * Discards the specified OAuth filter after a request was not authorized.
+     * The cached state is only reset if it still refers to this filter;
+     * otherwise, another thread has already performed a new authorization.
+     *
+     * @param filter the filter used by the failed request
+     */
+    private synchronized void invalidateFilter(OAuthClientFilter filter)
+    {
+        if (oAuthFilter == filter)
+        {
+            oAuthFilter = null;
+            serviceResource = null;
+        }
+    }
+
+    /**
+     * Returns the resource object for invoking the service. The resource is
+     * created once for the current OAuth filter and then reused. This method
+     * must be called while holding the lock of this object.
+     *
+     * @param filter the current OAuth filter
+     * @return the resource object
+     */
+    private WebResource fetchResourceForServiceCall(OAuthClientFilter filter)
+    {
+        if (serviceResource == null)
+        {
+            serviceResource = createResourceForServiceCall(filter);
+        }
+        return serviceResource;
+    }
+
     /**
      * Creates the resource object for invoking the service. This resource is
      * then passed to the {@link ResourceProcessor}.
@@ -471,7 +620,8 @@ public class OAuthTemplate
     /**
      * Calls the specified resource processor with the given resource. This
      * method calls the methods defined by the {@link ResourceProcessor}
-     * interface in the expected way.
+     * interface in the expected way. A response returned by the processor is
+     * closed afterwards.
      *
      * @param proc the processor
      * @param resource the current resource
@@ -481,11 +631,17 @@ public class OAuthTemplate
             WebResource resource) throws NotAuthorizedException
     {
         ClientResponse response = proc.doWithResource(resource);
-        checkAuthorizedResponse(response);
-
         if (response != null)
         {
-            proc.processResponse(response);
+            try
+            {
+                checkAuthorizedResponse(response);
+                proc.processResponse(response);
+            }
+            finally
+            {
+                response.close();
+            }
         }
     }
 
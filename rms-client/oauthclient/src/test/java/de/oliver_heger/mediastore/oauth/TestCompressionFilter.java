@@ -0,0 +1,388 @@
+package de.oliver_heger.mediastore.oauth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientRequestAdapter;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+
+/**
+ * Test class for {@code CompressionFilter}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestCompressionFilter
+{
+    /** Constant for the test URI. */
+    private static final String URI_STR =
+            "https://remotemediastore.appspot.com/resources/song";
+
+    /** Constant for the threshold. */
+    private static final int THRESHOLD = 16;
+
+    /** Constant for the encoding of test data. */
+    private static final String ENCODING = "UTF-8";
+
+    /** Constant for test data. */
+    private static final String DATA = "Some test data which is compressed.";
+
+    /** Constant for test data which is below the threshold. */
+    private static final String SHORT_DATA = "Short data";
+
+    /** A mock for the handler called by the filter. */
+    private ClientHandler handler;
+
+    /** The filter to be tested. */
+    private CompressionFilter filter;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        handler = EasyMock.createMock(ClientHandler.class);
+        filter = createFilter(THRESHOLD);
+    }
+
+    /**
+     * Creates a filter with the given threshold which is connected to the
+     * mock handler.
+     *
+     * @param threshold the threshold
+     * @return the filter
+     */
+    private CompressionFilter createFilter(int threshold)
+    {
+        Client client = new Client(handler);
+        CompressionFilter f =
+                new CompressionFilter(threshold, client.getProviders());
+        client.addFilter(f);
+        return f;
+    }
+
+    /**
+     * Creates a test request.
+     *
+     * @param entity the entity of the request
+     * @return the request
+     */
+    private static ClientRequest createRequest(Object entity)
+    {
+        return ClientRequest.create().entity(entity)
+                .build(URI.create(URI_STR), "PUT");
+    }
+
+    /**
+     * Creates a test request with a text entity and a content type.
+     *
+     * @param text the text of the entity
+     * @return the request
+     */
+    private static ClientRequest createTextRequest(String text)
+    {
+        return ClientRequest.create().type(MediaType.TEXT_PLAIN_TYPE)
+                .entity(text).build(URI.create(URI_STR), "PUT");
+    }
+
+    /**
+     * Creates a mock response which does not have an entity.
+     *
+     * @return the mock response
+     */
+    private static ClientResponse createResponseNoEntity()
+    {
+        ClientResponse resp = EasyMock.createMock(ClientResponse.class);
+        EasyMock.expect(resp.hasEntity()).andReturn(Boolean.FALSE);
+        EasyMock.replay(resp);
+        return resp;
+    }
+
+    /**
+     * Compresses the given data.
+     *
+     * @param data the data
+     * @return the compressed data
+     * @throws IOException if an error occurs
+     */
+    private static byte[] compress(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bos);
+        out.write(data);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads the content of the given stream.
+     *
+     * @param in the stream
+     * @return the content of the stream
+     * @throws IOException if an error occurs
+     */
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        int c;
+        while ((c = in.read(buf)) != -1)
+        {
+            bos.write(buf, 0, c);
+        }
+        in.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Tests whether the accepted encoding is added to a request.
+     */
+    @Test
+    public void testHandleAcceptEncoding()
+    {
+        ClientRequest request = createRequest(null);
+        ClientResponse resp = createResponseNoEntity();
+        EasyMock.expect(handler.handle(request)).andReturn(resp);
+        EasyMock.replay(handler);
+        assertEquals("Wrong response", resp, filter.handle(request));
+        assertEquals("Wrong accept encoding", CompressionFilter.GZIP,
+                request.getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING));
+        assertNull("Got an adapter", request.getAdapter());
+        EasyMock.verify(handler);
+    }
+
+    /**
+     * Passes the specified request to the test filter.
+     *
+     * @param request the request
+     */
+    private void handle(ClientRequest request)
+    {
+        ClientResponse resp = createResponseNoEntity();
+        EasyMock.expect(handler.handle(request)).andReturn(resp);
+        EasyMock.replay(handler);
+        filter.handle(request);
+        EasyMock.verify(handler);
+    }
+
+    /**
+     * Tests whether an entity of unknown size is compressed. The size is
+     * unknown because the request does not define a content type.
+     */
+    @Test
+    public void testHandleEntityUnknownSize() throws IOException
+    {
+        ClientRequest request = createRequest(DATA);
+        request.setAdapter(new ClientRequestAdapter()
+        {
+            @Override
+            public OutputStream adapt(ClientRequest req, OutputStream out)
+            {
+                return out;
+            }
+        });
+        handle(request);
+        assertEquals("Wrong content encoding", CompressionFilter.GZIP, request
+                .getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        OutputStream out = request.getAdapter().adapt(request, target);
+        byte[] data = DATA.getBytes(ENCODING);
+        out.write(data);
+        out.close();
+        assertArrayEquals("Wrong data", data, read(new GZIPInputStream(
+                new ByteArrayInputStream(target.toByteArray()))));
+    }
+
+    /**
+     * Tests that a small entity is serialized and not compressed.
+     */
+    @Test
+    public void testHandleSerializedEntityBelowThreshold() throws IOException
+    {
+        ClientRequest request = createTextRequest(SHORT_DATA);
+        handle(request);
+        assertNull("Got an adapter", request.getAdapter());
+        assertFalse("Content encoding set", request.getHeaders().containsKey(
+                HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals("Wrong entity", SHORT_DATA.getBytes(ENCODING),
+                (byte[]) request.getEntity());
+    }
+
+    /**
+     * Tests that a large entity is serialized and compressed.
+     */
+    @Test
+    public void testHandleSerializedEntityAboveThreshold() throws IOException
+    {
+        ClientRequest request = createTextRequest(DATA);
+        handle(request);
+        assertNotNull("No adapter", request.getAdapter());
+        assertEquals("Wrong content encoding", CompressionFilter.GZIP, request
+                .getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals("Wrong entity", DATA.getBytes(ENCODING),
+                (byte[]) request.getEntity());
+    }
+
+    /**
+     * Tests that an entity is not serialized if no providers are available.
+     */
+    @Test
+    public void testSerializeEntityNoProviders()
+    {
+        filter = new CompressionFilter(THRESHOLD);
+        assertNull("Got providers", filter.getProviders());
+        assertNull("Got data",
+                filter.serializeEntity(createTextRequest(SHORT_DATA)));
+    }
+
+    /**
+     * Tests that an entity is not serialized if it is a stream.
+     */
+    @Test
+    public void testSerializeEntityStream()
+    {
+        ClientRequest request = ClientRequest.create()
+                .type(MediaType.TEXT_PLAIN_TYPE)
+                .entity(new ByteArrayInputStream(new byte[THRESHOLD]))
+                .build(URI.create(URI_STR), "PUT");
+        assertNull("Got data", filter.serializeEntity(request));
+    }
+
+    /**
+     * Tests that a small entity of known size is not compressed.
+     */
+    @Test
+    public void testHandleEntityBelowThreshold()
+    {
+        ClientRequest request = createRequest(new byte[THRESHOLD]);
+        handle(request);
+        assertNull("Got an adapter", request.getAdapter());
+        assertFalse("Content encoding set", request.getHeaders().containsKey(
+                HttpHeaders.CONTENT_ENCODING));
+    }
+
+    /**
+     * Tests that a large entity of known size is compressed.
+     */
+    @Test
+    public void testHandleEntityAboveThreshold()
+    {
+        ClientRequest request = createRequest(new byte[THRESHOLD + 1]);
+        handle(request);
+        assertNotNull("No adapter", request.getAdapter());
+        assertEquals("Wrong content encoding", CompressionFilter.GZIP, request
+                .getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    }
+
+    /**
+     * Tests that a content length header is evaluated and removed if the
+     * entity is compressed.
+     */
+    @Test
+    public void testHandleContentLengthAboveThreshold()
+    {
+        ClientRequest request = createRequest(DATA);
+        request.getHeaders().putSingle(HttpHeaders.CONTENT_LENGTH,
+                String.valueOf(THRESHOLD + 1));
+        handle(request);
+        assertNotNull("No adapter", request.getAdapter());
+        assertFalse("Content length not removed", request.getHeaders()
+                .containsKey(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    /**
+     * Tests that an entity is not compressed if the content length header
+     * indicates that it is small.
+     */
+    @Test
+    public void testHandleContentLengthBelowThreshold()
+    {
+        ClientRequest request = createRequest(DATA);
+        request.getHeaders().putSingle(HttpHeaders.CONTENT_LENGTH,
+                Integer.valueOf(THRESHOLD));
+        handle(request);
+        assertNull("Got an adapter", request.getAdapter());
+        assertEquals("Wrong content length", Integer.valueOf(THRESHOLD),
+                request.getHeaders().getFirst(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    /**
+     * Tests the size of an entity if the content length header is invalid.
+     */
+    @Test
+    public void testFetchEntitySizeInvalidContentLength()
+    {
+        ClientRequest request = createRequest(new byte[THRESHOLD]);
+        request.getHeaders().putSingle(HttpHeaders.CONTENT_LENGTH, "many");
+        assertEquals("Wrong size", -1,
+                CompressionFilter.fetchEntitySize(request));
+    }
+
+    /**
+     * Tests that no compression adapter is installed if request compression
+     * is disabled.
+     */
+    @Test
+    public void testHandleCompressionDisabled()
+    {
+        filter = createFilter(-1);
+        ClientRequest request = createRequest(DATA);
+        ClientResponse resp = createResponseNoEntity();
+        EasyMock.expect(handler.handle(request)).andReturn(resp);
+        EasyMock.replay(handler);
+        filter.handle(request);
+        assertNull("Got an adapter", request.getAdapter());
+        assertTrue("No accept encoding", request.getHeaders().containsKey(
+                HttpHeaders.ACCEPT_ENCODING));
+        EasyMock.verify(handler);
+    }
+
+    /**
+     * Tests whether a compressed response is decompressed.
+     */
+    @Test
+    public void testHandleCompressedResponse() throws IOException
+    {
+        ClientRequest request = createRequest(null);
+        ClientResponse resp = EasyMock.createMock(ClientResponse.class);
+        InBoundHeaders headers = new InBoundHeaders();
+        headers.putSingle(HttpHeaders.CONTENT_ENCODING, CompressionFilter.GZIP);
+        EasyMock.expect(resp.hasEntity()).andReturn(Boolean.TRUE);
+        EasyMock.expect(resp.getHeaders()).andReturn(headers).anyTimes();
+        EasyMock.expect(resp.getEntityInputStream()).andReturn(
+                new ByteArrayInputStream(compress(DATA.getBytes(ENCODING))));
+        Capture<InputStream> stream = new Capture<InputStream>();
+        resp.setEntityInputStream(EasyMock.capture(stream));
+        EasyMock.expect(handler.handle(request)).andReturn(resp);
+        EasyMock.replay(handler, resp);
+        filter.handle(request);
+        assertEquals("Wrong data", DATA,
+                new String(read(stream.getValue()), ENCODING));
+        assertFalse("Content encoding not removed",
+                headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+        EasyMock.verify(handler, resp);
+    }
+}
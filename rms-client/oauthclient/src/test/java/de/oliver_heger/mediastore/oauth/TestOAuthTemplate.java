@@ -3,6 +3,7 @@ package de.oliver_heger.mediastore.oauth;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -15,6 +16,11 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.ws.rs.ext.Providers;
 
@@ -25,6 +31,7 @@ import org.junit.Test;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.config.ClientConfig;
 import com.sun.jersey.oauth.client.OAuthClientFilter;
 import com.sun.jersey.oauth.signature.OAuthParameters;
 import com.sun.jersey.oauth.signature.OAuthSecrets;
@@ -84,6 +91,35 @@ public class TestOAuthTemplate
         assertNull("Got a filter", templ.getOAuthFilter());
     }
 
+    /**
+     * Tests whether the default client is shared by all instances.
+     */
+    @Test
+    public void testInitDefaultClientShared()
+    {
+        OAuthTemplate templ1 = new OAuthTemplate(OAUTH_URI, SERVICE_URI);
+        OAuthTemplate templ2 = new OAuthTemplate(OAUTH_URI, SERVICE_URI, null);
+        assertSame("Different clients", templ1.getClient(), templ2.getClient());
+    }
+
+    /**
+     * Tests whether a client with timeouts can be created.
+     */
+    @Test
+    public void testCreateClient()
+    {
+        final int connectTimeout = 1000;
+        final int readTimeout = 2000;
+        Client client = OAuthTemplate.createClient(connectTimeout, readTimeout);
+        assertEquals("Wrong connect timeout", Integer.valueOf(connectTimeout),
+                client.getProperties().get(
+                        ClientConfig.PROPERTY_CONNECT_TIMEOUT));
+        assertEquals("Wrong read timeout", Integer.valueOf(readTimeout),
+                client.getProperties().get(ClientConfig.PROPERTY_READ_TIMEOUT));
+        assertNotSame("Same client", client,
+                new OAuthTemplate(OAUTH_URI, SERVICE_URI).getClient());
+    }
+
     /**
      * Tests whether the URIs passed to the constructor are correctly appended
      * with a slash if necessary.
@@ -415,6 +451,7 @@ public class TestOAuthTemplate
             {
                 proc.processResponse(resp);
             }
+            resp.close();
             return resp;
         }
         catch (NotAuthorizedException nex)
@@ -449,6 +486,35 @@ public class TestOAuthTemplate
         EasyMock.verify(client, callback, proc, resource, resp);
     }
 
+    /**
+     * Tests whether the resource for service calls is reused by multiple
+     * invocations of execute().
+     */
+    @Test
+    public void testExecuteResourceReused()
+    {
+        Client client = EasyMock.createMock(Client.class);
+        OAuthCallback callback = EasyMock.createMock(OAuthCallback.class);
+        ResourceProcessor proc = EasyMock.createMock(ResourceProcessor.class);
+        WebResource resource = EasyMock.createMock(WebResource.class);
+        EasyMock.expect(callback.getTokens()).andReturn(TOKENS);
+        OAuthTemplateExecuteTestImpl templ =
+                new OAuthTemplateExecuteTestImpl(OAUTH_URI, SERVICE_URI, client);
+        OAuthClientFilter filter = templ.installMockFilter();
+        EasyMock.expect(client.resource(SERVICE_URI)).andReturn(resource);
+        resource.addFilter(filter);
+        ClientResponse resp1 =
+                prepareResourceProcessor(proc, resource,
+                        ClientResponse.Status.CREATED);
+        ClientResponse resp2 =
+                prepareResourceProcessor(proc, resource,
+                        ClientResponse.Status.NO_CONTENT);
+        EasyMock.replay(client, callback, proc, resource, resp1, resp2);
+        assertTrue("Wrong result 1", templ.execute(proc, callback));
+        assertTrue("Wrong result 2", templ.execute(proc, callback));
+        EasyMock.verify(client, callback, proc, resource, resp1, resp2);
+    }
+
     /**
      * Tests execute() if the callback does not provide tokens.
      */
@@ -602,6 +668,60 @@ public class TestOAuthTemplate
         EasyMock.verify(client, callback, proc, resource);
     }
 
+    /**
+     * Tests whether a template can be shared by multiple threads. The tokens
+     * should be obtained only once, and all threads should use the same
+     * resource.
+     */
+    @Test
+    public void testExecuteConcurrently() throws Exception
+    {
+        final int threadCount = 8;
+        Client client = EasyMock.createMock(Client.class);
+        final OAuthCallback callback = EasyMock.createMock(OAuthCallback.class);
+        final ResourceProcessor proc =
+                EasyMock.createMock(ResourceProcessor.class);
+        WebResource resource = EasyMock.createMock(WebResource.class);
+        EasyMock.expect(callback.getTokens()).andReturn(TOKENS);
+        final OAuthTemplateExecuteTestImpl templ =
+                new OAuthTemplateExecuteTestImpl(OAUTH_URI, SERVICE_URI, client);
+        OAuthClientFilter filter = templ.installMockFilter();
+        EasyMock.expect(client.resource(SERVICE_URI)).andReturn(resource);
+        resource.addFilter(filter);
+        EasyMock.expect(proc.doWithResource(resource)).andReturn(null)
+                .times(threadCount);
+        EasyMock.replay(client, callback, proc, resource);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        ExecutorService exec = Executors.newFixedThreadPool(threadCount);
+        try
+        {
+            List<Future<Boolean>> futures = new LinkedList<Future<Boolean>>();
+            for (int i = 0; i < threadCount; i++)
+            {
+                futures.add(exec.submit(new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call() throws Exception
+                    {
+                        startLatch.await();
+                        return templ.execute(proc, callback);
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (Future<Boolean> future : futures)
+            {
+                assertTrue("Wrong result", future.get().booleanValue());
+            }
+        }
+        finally
+        {
+            exec.shutdown();
+        }
+        assertSame("Wrong filter", filter, templ.getOAuthFilter());
+        EasyMock.verify(client, callback, proc, resource);
+    }
+
     /**
      * Tests execute() if not processor is provided.
      */
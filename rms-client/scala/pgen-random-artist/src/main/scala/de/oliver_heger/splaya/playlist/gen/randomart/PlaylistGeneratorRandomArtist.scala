@@ -22,6 +22,17 @@ class PlaylistGeneratorRandomArtist extends PlaylistGeneratorRandomUriPart {
    */
   override protected def extractUriPart(parts: Array[String]): String = parts(0)
 
+  /**
+   * @inheritdoc This implementation returns the part before the first path
+   *             separator without splitting the whole URI. If there is no
+   *             separator, the URI is passed to ''extractSinglePart()''.
+   */
+  override protected def extractGroupKey(song: String): String = {
+    val pos = song indexOf PlaylistGeneratorRandomUriPart.SeparatorChar
+    if (pos < 0) extractSinglePart(song)
+    else song.substring(0, pos)
+  }
+
   /**
    * @inheritdoc This implementation returns the passed in part. This means
    *             that songs without an artist in their name are treated as if
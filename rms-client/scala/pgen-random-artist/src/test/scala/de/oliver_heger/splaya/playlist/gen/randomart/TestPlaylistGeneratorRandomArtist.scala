@@ -19,6 +19,15 @@ class TestPlaylistGeneratorRandomArtist extends JUnitSuite with ShouldMatchers {
     generator.extractUriPart(parts) should be(parts(0))
   }
 
+  /**
+   * Tests whether the group key is the artist name.
+   */
+  @Test def testExtractGroupKey(): Unit = {
+    val generator = new PlaylistGeneratorRandomArtistTestImpl
+    generator.extractGroupKey("Veruca Salt/2006 - IV/06 - Closer.mp2") should be("Veruca Salt")
+    generator.extractGroupKey("Closer.mp2") should be("Closer.mp2")
+  }
+
   /**
    * Tests that songs without an artist are handled correctly and sorted in
    * random order.
@@ -44,6 +53,11 @@ class TestPlaylistGeneratorRandomArtist extends JUnitSuite with ShouldMatchers {
      * @inheritdoc This is overridden to make it visible for the test class.
      */
     override def extractUriPart(parts: Array[String]): String = super.extractUriPart(parts)
+
+    /**
+     * @inheritdoc This is overridden to make it visible for the test class.
+     */
+    override def extractGroupKey(song: String): String = super.extractGroupKey(song)
   }
 
 }
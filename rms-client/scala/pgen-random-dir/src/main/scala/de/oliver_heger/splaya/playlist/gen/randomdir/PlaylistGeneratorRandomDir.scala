@@ -21,4 +21,20 @@ class PlaylistGeneratorRandomDir extends PlaylistGeneratorRandomUriPart {
    */
   override protected def extractUriPart(parts: Array[String]): String =
     parts(parts.length - 2)
+
+  /**
+   * @inheritdoc This implementation locates the last two path separators in
+   *             the song URI and returns the part between them. So the URI
+   *             does not have to be split. If there is no separator, the
+   *             URI is passed to ''extractSinglePart()''.
+   */
+  override protected def extractGroupKey(song: String): String = {
+    val end = song lastIndexOf PlaylistGeneratorRandomUriPart.SeparatorChar
+    if (end < 0) extractSinglePart(song)
+    else {
+      val start = song.lastIndexOf(PlaylistGeneratorRandomUriPart.SeparatorChar,
+        end - 1)
+      song.substring(start + 1, end)
+    }
+  }
 }
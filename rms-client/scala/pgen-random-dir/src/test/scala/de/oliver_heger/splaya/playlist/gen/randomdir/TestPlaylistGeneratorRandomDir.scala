@@ -108,6 +108,20 @@ class TestPlaylistGeneratorRandomDir extends JUnitSuite {
     assertTrue("No random order produced", randomOrder)
   }
 
+  /**
+   * Tests whether songs directly below an artist directory are grouped by
+   * this directory.
+   */
+  @Test def testSongsInTopLevelDirectory(): Unit = {
+    val generator = new PlaylistGeneratorRandomDir
+    val initialList = List("artist/song1.mp3", songName(1, 0), "artist/song0.mp3")
+    val expResult1 = List("artist/song0.mp3", "artist/song1.mp3", songName(1, 0))
+    val expResult2 = List(songName(1, 0), "artist/song0.mp3", "artist/song1.mp3")
+
+    val randomList = generator.generatePlaylist(initialList, "", NodeSeq.Empty)
+    assertTrue("Wrong result", randomList == expResult1 || randomList == expResult2)
+  }
+
   /**
    * Tests whether songs without an album can be processed.
    */
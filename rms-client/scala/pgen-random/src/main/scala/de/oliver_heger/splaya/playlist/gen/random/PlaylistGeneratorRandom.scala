@@ -3,7 +3,7 @@ package de.oliver_heger.splaya.playlist.gen.random
 import java.util.Random
 
 import scala.collection.mutable.ListBuffer
-import scala.collection.mutable.Map
+import scala.collection.mutable.HashMap
 
 import de.oliver_heger.splaya.playlist.PlaylistGenerator
 
@@ -38,15 +38,21 @@ import de.oliver_heger.splaya.playlist.PlaylistGenerator
  * }}}
  */
 class PlaylistGeneratorRandom extends PlaylistGenerator {
+  /**
+   * @inheritdoc This implementation determines the units to be shuffled: each
+   * song not contained in a keep group is a unit, and each keep group is a
+   * single unit. The units are represented by an array of indices which is
+   * shuffled in place using the ''Fisher-Yates'' algorithm. So all
+   * permutations of the units are equally likely, and the effort is linear in
+   * the number of songs.
+   */
   def generatePlaylist(songs: Seq[String], mode: String,
     params: xml.NodeSeq): Seq[String] = {
+    val songArray = songs.toIndexedSeq
     val groups = PlaylistGeneratorRandom.extractKeepGroups(params)
-    val listToSort =
-      PlaylistGeneratorRandom.removeKeepGroupFiles(songs, groups) ++ groups.keySet
-    val randMap = PlaylistGeneratorRandom.createRandomMap(listToSort)
-    val orderedPlaylist =
-      PlaylistGeneratorRandom.createOrderedPlaylist(listToSort, randMap)
-    PlaylistGeneratorRandom.reinsertKeepGroups(orderedPlaylist, groups)
+    val units = PlaylistGeneratorRandom.createShuffleUnits(songArray, groups)
+    PlaylistGeneratorRandom.shuffle(units, new Random)
+    PlaylistGeneratorRandom.createPlaylist(units, songArray, groups)
   }
 }
 
@@ -63,91 +69,92 @@ object PlaylistGeneratorRandom {
   /** The name of the XML attribute for the file name. */
   private val AttrName = "@name"
 
-  /** Constant for the prefix of a keep group URI. */
-  private val URIKeepGroup = "keepgroup://"
-
   /**
    * Extracts definitions about keep groups from the given parameters XML. The
-   * return value is a map whose keys are synthetic URIs identifying keep
-   * groups. The values are sequences with the songs contained in the single
-   * keep groups.
+   * return value is a sequence whose elements are sequences with the songs
+   * contained in the single keep groups.
    * @param params the XML parameters object
-   * @return the map with information about the keep groups
+   * @return a sequence with information about the keep groups
    */
-  private def extractKeepGroups(params: xml.NodeSeq): Map[String, Seq[String]] = {
-    val groups = Map.empty[String, Seq[String]]
-    var count = 0
-
-    for (keep <- params if keep.label == ElemKeepGroup) {
-      val files =
-        for (file <- keep \ ElemFile) yield (file \ AttrName).text
-      count += 1
-      groups += URIKeepGroup + count -> files
-    }
-
-    groups
-  }
+  private def extractKeepGroups(params: xml.NodeSeq): IndexedSeq[Seq[String]] =
+    (for (keep <- params if keep.label == ElemKeepGroup) yield {
+      for (file <- keep \ ElemFile) yield (file \ AttrName).text
+    }).toIndexedSeq
 
   /**
-   * Removes all files which belong to keep groups from the given playlist.
+   * Creates an array with the units to be shuffled. Songs are represented by
+   * their (non-negative) index in the list of songs. Files belonging to keep
+   * groups are removed from the list of songs; each occurrence of a file in a
+   * keep group removes one occurrence of this file from the list. The keep
+   * groups are then added as negative numbers: the group with index ''i'' is
+   * represented by the number ''-(i + 1)''. The hash map with the keep group
+   * files ensures that the effort is linear in the number of songs.
    * @param songs the list with songs
-   * @param groups the map with keep groups
-   * @return the resulting song list
+   * @param groups the sequence with keep groups
+   * @return an array with the units to be shuffled
    */
-  private def removeKeepGroupFiles(songs: Seq[String],
-    groups: Map[String, Seq[String]]): Seq[String] = {
-    var playlist = songs
-    for (groupFiles <- groups.values) {
-      playlist = playlist diff groupFiles
+  private def createShuffleUnits(songs: IndexedSeq[String],
+    groups: IndexedSeq[Seq[String]]): Array[Int] = {
+    val groupFiles = HashMap.empty[String, Int]
+    for (group <- groups; file <- group) {
+      groupFiles(file) = groupFiles.getOrElse(file, 0) + 1
     }
 
-    playlist
-  }
-
-  /**
-   * Inserts the songs of keep groups into the given ordered playlist. All
-   * URIs for keep groups are replaced by their corresponding song files.
-   * @param songs the ordered playlist containing URIs for keep groups
-   * @param groups the map with information about keep groups
-   * @return the final playlist with keep groups re-inserted
-   */
-  private def reinsertKeepGroups(songs: Seq[String],
-    groups: Map[String, Seq[String]]): Seq[String] = {
-    if (groups.isEmpty) songs
-    else {
-      val buffer = ListBuffer.empty[String]
-      for (uri <- songs) {
-        if (uri.startsWith(URIKeepGroup)) {
-          buffer ++= groups(uri)
-        } else {
-          buffer += uri
-        }
+    val units = new Array[Int](songs.size + groups.size)
+    var count = 0
+    for (i <- 0 until songs.size) {
+      val song = songs(i)
+      groupFiles.get(song) match {
+        case Some(remaining) =>
+          if (remaining > 1) groupFiles(song) = remaining - 1
+          else groupFiles -= song
+        case None =>
+          units(count) = i
+          count += 1
       }
-      buffer.toList
     }
+
+    for (g <- 0 until groups.size) {
+      units(count) = -(g + 1)
+      count += 1
+    }
+    if (count < units.length) java.util.Arrays.copyOf(units, count)
+    else units
   }
 
   /**
-   * Creates a map which assigns each song in the given list a random number.
-   * This is then used for sorting.
-   * @param songs the list with songs
-   * @return a map with the assigned random numbers
+   * Shuffles the given array in place using the ''Fisher-Yates'' algorithm.
+   * @param units the array to be shuffled
+   * @param rand the random number generator
    */
-  private def createRandomMap(songs: Seq[String]): Map[String, Int] = {
-    val map = Map.empty[String, Int]
-    val rand = new Random
-    songs foreach (map += _ -> rand.nextInt())
-    map
+  private def shuffle(units: Array[Int], rand: Random) {
+    for (i <- units.length - 1 until 0 by -1) {
+      val j = rand.nextInt(i + 1)
+      val tmp = units(i)
+      units(i) = units(j)
+      units(j) = tmp
+    }
   }
 
   /**
-   * Sorts the given song list based on the map with random numbers. This
-   * effectively creates a playlist in random order.
+   * Creates the final playlist from the shuffled units. Indices of songs are
+   * replaced by the corresponding songs, keep groups are replaced by their
+   * song files.
+   * @param units the array with the shuffled units
    * @param songs the list with songs
-   * @param randMap the map with associated random numbers
-   * @return the sorted playlist (in random order)
+   * @param groups the sequence with keep groups
+   * @return the final playlist
    */
-  private def createOrderedPlaylist(songs: Seq[String],
-    randMap: Map[String, Int]): Seq[String] =
-    songs sortWith (randMap(_) < randMap(_))
+  private def createPlaylist(units: Array[Int], songs: IndexedSeq[String],
+    groups: IndexedSeq[Seq[String]]): Seq[String] = {
+    val buffer = ListBuffer.empty[String]
+    for (unit <- units) {
+      if (unit >= 0) {
+        buffer += songs(unit)
+      } else {
+        buffer ++= groups(-unit - 1)
+      }
+    }
+    buffer.toList
+  }
 }
@@ -68,6 +68,23 @@ class TestPlaylistGeneratorRandom extends JUnitSuite {
     assertTrue("No random order", foundPermutation)
   }
 
+  /**
+   * Tests whether the generated playlist contains all songs exactly once if
+   * keep groups are defined.
+   */
+  @Test def testAllSongsContainedWithKeepGroups() {
+    val params = <keep>
+                   <file name={ TestSong + 7 }/>
+                   <file name={ TestSong + 2 }/>
+                 </keep>
+                 <keep>
+                   <file name={ TestSong + SongCount }/>
+                 </keep>;
+    val songs = createSongs()
+    val playlist = gen.generatePlaylist(songs, "", params)
+    assertEquals("Wrong songs", songs.sorted, playlist.sorted)
+  }
+
   /**
    * Tests whether keep groups are taken into account.
    */
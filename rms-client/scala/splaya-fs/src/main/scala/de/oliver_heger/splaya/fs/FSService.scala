@@ -34,4 +34,24 @@ trait FSService {
    */
   @throws(classOf[IOException])
   def scan(rootUri: String, extensions: Set[String]): Seq[String]
+
+  /**
+   * Scans the specified directory structure and reports the media files
+   * found in batches while the scan is still in progress. This method works
+   * like the ''scan()'' method without a listener; however, each time a
+   * number of media files has been discovered (typically the content of a
+   * single directory), the listener function is invoked with this batch. This
+   * allows the caller to process the first media files before the whole
+   * source medium has been scanned. The listener is called on the thread
+   * which invoked this method; the order of the batches is not necessarily
+   * the order of the resulting list.
+   * @param rootUri the URI pointing to the directory structure to be scanned
+   * @param extensions a set with the file extensions of supported audio files
+   * @param listener a function which is invoked for each batch of media files
+   * @return a list with all media files which have been discovered
+   * @throws IOException if an error occurs
+   */
+  @throws(classOf[IOException])
+  def scan(rootUri: String, extensions: Set[String],
+    listener: Seq[String] => Unit): Seq[String]
 }
@@ -0,0 +1,172 @@
+package de.oliver_heger.splaya.fs
+
+import java.io.FilterInputStream
+import java.io.InputStream
+
+/**
+ * A specialized input stream which returns at most a given number of bytes
+ * from an underlying stream.
+ *
+ * This class is used by implementations of ''StreamSource'' for reading a
+ * range of a stream. The underlying stream is expected to be positioned at
+ * the start of the range. After the specified number of bytes has been read,
+ * this stream reports the end of the stream. When the stream is closed, the
+ * underlying stream is closed, too, and an optional close action is invoked.
+ * This can be used to free additional resources which are needed for
+ * accessing the range.
+ *
+ * @param in the underlying input stream
+ * @param length the maximum number of bytes to be read
+ * @param closeAction an action to be invoked when this stream is closed
+ */
+class RangeInputStream(in: InputStream, val length: Long,
+  closeAction: () => Unit = () => {}) extends FilterInputStream(in) {
+  /** The number of bytes which can still be read. */
+  private var remaining = length
+
+  /** The remaining bytes at the time mark() was called. */
+  private var markRemaining = length
+
+  /** A flag whether this stream has already been closed. */
+  private var closed = false
+
+  /**
+   * Returns the number of bytes which can still be read from this stream.
+   * @return the number of remaining bytes in this range
+   */
+  def remainingBytes: Long = remaining
+
+  /**
+   * @inheritdoc This implementation returns -1 if the end of the range has
+   * been reached.
+   */
+  override def read(): Int = {
+    if (remaining <= 0) -1
+    else {
+      val c = super.read()
+      if (c >= 0) {
+        remaining -= 1
+      }
+      c
+    }
+  }
+
+  /**
+   * @inheritdoc This implementation restricts the number of bytes read to the
+   * remaining bytes in the range.
+   */
+  override def read(b: Array[Byte], off: Int, len: Int): Int = {
+    if (remaining <= 0) -1
+    else {
+      val count = super.read(b, off, limit(len))
+      if (count > 0) {
+        remaining -= count
+      }
+      count
+    }
+  }
+
+  /**
+   * @inheritdoc This implementation does not skip beyond the end of the
+   * range.
+   */
+  override def skip(n: Long): Long = {
+    val count = super.skip(scala.math.min(n, remaining))
+    if (count > 0) {
+      remaining -= count
+    }
+    count
+  }
+
+  /**
+   * @inheritdoc This implementation takes the end of the range into account.
+   */
+  override def available(): Int = limit(super.available())
+
+  /**
+   * @inheritdoc This implementation also records the current position in the
+   * range.
+   */
+  override def mark(readLimit: Int) {
+    super.mark(readLimit)
+    markRemaining = remaining
+  }
+
+  /**
+   * @inheritdoc This implementation also restores the position in the range.
+   */
+  override def reset() {
+    super.reset()
+    remaining = markRemaining
+  }
+
+  /**
+   * @inheritdoc This implementation closes the underlying stream and invokes
+   * the close action. Multiple invocations have no effect.
+   */
+  override def close() {
+    if (!closed) {
+      closed = true
+      try {
+        super.close()
+      } finally {
+        closeAction()
+      }
+    }
+  }
+
+  /**
+   * Limits the given number of bytes to the remaining bytes in the range.
+   * @param len the number of bytes
+   * @return the number of bytes which can actually be processed
+   */
+  private def limit(len: Int): Int =
+    scala.math.min(len.toLong, remaining).toInt
+}
+
+/**
+ * The companion object for ''RangeInputStream''.
+ */
+object RangeInputStream {
+  /**
+   * Checks whether the parameters of a range are valid. Offset and length
+   * must not be negative.
+   * @param offset the offset of the range
+   * @param length the length of the range
+   * @throws IllegalArgumentException if the range is invalid
+   */
+  def checkRange(offset: Long, length: Long) {
+    if (offset < 0) {
+      throw new IllegalArgumentException("Invalid range offset: " + offset)
+    }
+    if (length < 0) {
+      throw new IllegalArgumentException("Invalid range length: " + length)
+    }
+  }
+
+  /**
+   * Skips the given number of bytes in the specified stream. Other than the
+   * ''skip()'' method of ''InputStream'', this method does not give up before
+   * the requested number of bytes has been skipped or the end of the stream
+   * has been reached.
+   * @param stream the stream
+   * @param count the number of bytes to skip
+   * @return the number of bytes actually skipped
+   * @throws IOException if an error occurs
+   */
+  def skipFully(stream: InputStream, count: Long): Long = {
+    var toSkip = count
+    var eof = false
+    while (toSkip > 0 && !eof) {
+      val skipped = stream.skip(toSkip)
+      if (skipped > 0) {
+        toSkip -= skipped
+      } else if (stream.read() >= 0) {
+        toSkip -= 1
+      } else {
+        eof = true
+      }
+    }
+    count - toSkip
+  }
+}
@@ -6,6 +6,14 @@ import java.io.InputStream
  *
  * Objects implementing this trait are returned by ''FSService''. They
  * can be queried for the length of the stream and an input stream.
+ *
+ * In addition to sequential access, a stream source supports reading a range
+ * of the underlying data. This is useful for instance for extracting meta
+ * data which is stored at the beginning or at the end of an audio file. If
+ * the source supports random access (as indicated by the ''seekable''
+ * property), ranges can be read efficiently without processing the data
+ * before the start position. Otherwise, the default implementation of
+ * ''openRange()'' simply skips the data before the range.
  */
 trait StreamSource {
   /**
@@ -13,10 +21,68 @@ trait StreamSource {
    */
   val size: Long
 
+  /**
+   * Returns the time of the last modification of the underlying audio source
+   * (in milliseconds since the epoch). Together with the size, this
+   * information can be used to detect whether data derived from the source
+   * is still up to date. This base implementation returns 0 which means that
+   * the modification time is unknown.
+   * @return the time of the last modification or 0 if it is unknown
+   */
+  def lastModified: Long = 0
+
   /**
    * Opens an input stream to the underlying audio source.
    * @return the input stream
    * @throws IOException if an error occurs
    */
   def openStream(): InputStream
+
+  /**
+   * A flag whether this source supports random access. If this is
+   * '''true''', ranges of the data can be accessed without reading all data
+   * before the range. This base implementation returns '''false'''.
+   * @return a flag whether random access is supported
+   */
+  def seekable: Boolean = false
+
+  /**
+   * Opens an input stream for a range of the underlying audio source. The
+   * stream returned by this method starts at the given offset and returns at
+   * most the specified number of bytes. If the range exceeds the size of this
+   * source, less data is returned. This base implementation opens a regular
+   * stream and skips the data before the offset. Derived classes supporting
+   * random access should override it.
+   * @param offset the start position of the range (0-based)
+   * @param length the maximum number of bytes to be read
+   * @return the input stream for this range
+   * @throws IOException if an error occurs
+   * @throws IllegalArgumentException if the offset or the length is negative
+   */
+  def openRange(offset: Long, length: Long): InputStream = {
+    RangeInputStream.checkRange(offset, length)
+    val stream = openStream()
+    try {
+      RangeInputStream.skipFully(stream, offset)
+    } catch {
+      case ex: Exception =>
+        stream.close()
+        throw ex
+    }
+    new RangeInputStream(stream, length)
+  }
+
+  /**
+   * Opens an input stream for the last bytes of the underlying audio source.
+   * This is a convenience method which calls ''openRange()'' with a range
+   * covering the end of this source. If the source is smaller than the
+   * requested length, the whole content is returned.
+   * @param length the number of bytes at the end of the source to be read
+   * @return the input stream for the tail of this source
+   * @throws IOException if an error occurs
+   */
+  def openTail(length: Long): InputStream = {
+    val offset = scala.math.max(0, size - length)
+    openRange(offset, size - offset)
+  }
 }
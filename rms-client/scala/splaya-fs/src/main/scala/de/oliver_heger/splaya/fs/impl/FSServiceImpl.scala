@@ -1,5 +1,7 @@
 package de.oliver_heger.splaya.fs.impl
 
+import java.io.File
+import java.net.URI
 import java.util.concurrent.atomic.AtomicReference
 import java.util.Locale
 
@@ -7,6 +9,8 @@ import scala.annotation.elidable
 import scala.collection.mutable.ListBuffer
 import scala.collection.Seq
 
+import org.apache.commons.vfs2.Capability
+import org.apache.commons.vfs2.FileContent
 import org.apache.commons.vfs2.FileFilter
 import org.apache.commons.vfs2.FileFilterSelector
 import org.apache.commons.vfs2.FileObject
@@ -16,16 +20,22 @@ import org.apache.commons.vfs2.FileSystemException
 import org.apache.commons.vfs2.FileSystemManager
 import org.apache.commons.vfs2.FileType
 import org.apache.commons.vfs2.VFS
+import org.apache.commons.vfs2.util.RandomAccessMode
 import org.slf4j.LoggerFactory
 
 import de.oliver_heger.splaya.fs.FSService
+import de.oliver_heger.splaya.fs.RangeInputStream
 import de.oliver_heger.splaya.fs.StreamSource
 
 /**
  * The implementation of the ''FSService'' interface.
  *
  * This implementation is based on ''Apache Commons VFS''. All operations are
- * delegated to a VFS file system manager.
+ * delegated to a VFS file system manager. The only exception are scans of
+ * directories on the local file system (i.e. with URIs using the ''file:''
+ * scheme): they are handled by a
+ * [[de.oliver_heger.splaya.fs.impl.LocalDirectoryScanner]] which is
+ * significantly faster, especially on mounted network drives.
  */
 class FSServiceImpl extends FSService {
   /** The logger. */
@@ -55,33 +65,97 @@ class FSServiceImpl extends FSService {
   /**
    * @inheritdoc This implementation uses the VFS API to resolve the URI and
    * obtain an object representing its content. This information is exposed
-   * through an anonymous implementation of the ''StreamSource'' trait.
+   * through an anonymous implementation of the ''StreamSource'' trait. If the
+   * file system supports random access, ranges are read directly using a VFS
+   * ''RandomAccessContent'' object.
    */
   def resolve(root: String, uri: String): StreamSource = {
     val rootFile = getFSManager resolveFile root
     val fo = rootFile resolveFile uri
     val content = fo.getContent()
+    val randomAccess =
+      fo.getFileSystem.hasCapability(Capability.RANDOM_ACCESS_READ)
     new StreamSource {
       def openStream() = content.getInputStream()
 
       val size = content.getSize()
+
+      override val lastModified = FSServiceImpl.fetchLastModified(content)
+
+      override def seekable = randomAccess
+
+      override def openRange(offset: Long, length: Long) =
+        if (randomAccess) openRandomAccessRange(content, offset, length)
+        else super.openRange(offset, length)
     }
   }
 
+  /**
+   * @inheritdoc This implementation delegates to the ''scan()'' method with
+   * a listener passing in a dummy listener.
+   */
+  def scan(rootUri: String, extensions: Set[String]): Seq[String] =
+    scan(rootUri, extensions, FSServiceImpl.DummyListener)
+
   /**
    * @inheritdoc This implementation triggers a recursive scan of the given
-   * root directory.
+   * root directory. If the root URI points to a directory on the local file
+   * system, a ''LocalDirectoryScanner'' is used. Otherwise, the directory
+   * structure is scanned using VFS. In both cases, the listener is passed the
+   * media files found in a single directory.
    */
-  def scan(rootUri: String, extensions: Set[String]): Seq[String] = {
+  def scan(rootUri: String, extensions: Set[String],
+    listener: Seq[String] => Unit): Seq[String] = {
+    val exts = FSServiceImpl.fetchExtensions(extensions)
+    FSServiceImpl.localDirectory(rootUri) match {
+      case Some(dir) =>
+        new LocalDirectoryScanner(exts,
+          FSServiceImpl.ScanParallelism).scan(dir, listener)
+      case None =>
+        scanVFS(rootUri, exts, listener)
+    }
+  }
+
+  /**
+   * Scans a directory structure using VFS.
+   * @param rootUri the URI of the root directory
+   * @param extensions the set with supported file extensions
+   * @param listener the listener to be notified about the files of a directory
+   * @return a list with the media files which have been discovered
+   */
+  private[impl] def scanVFS(rootUri: String, extensions: Set[String],
+    listener: Seq[String] => Unit): Seq[String] = {
     val resultBuffer = ListBuffer.empty[String]
     val root = getFSManager.resolveFile(rootUri)
-    val selector = new FileFilterSelector(createFileFilter(
-      FSServiceImpl.fetchExtensions(extensions)))
+    val selector = new FileFilterSelector(createFileFilter(extensions))
 
-    scanDirectory(root, root, resultBuffer, selector)
+    scanDirectory(root, root, resultBuffer, selector, listener)
     resultBuffer.toList
   }
 
+  /**
+   * Opens a stream for a range of a file's content using random access. The
+   * ''RandomAccessContent'' object is positioned at the start of the range,
+   * so the data before is not read. It is closed together with the stream.
+   * @param content the content of the file
+   * @param offset the start position of the range
+   * @param length the maximum number of bytes to be read
+   * @return the stream for this range
+   */
+  private def openRandomAccessRange(content: FileContent, offset: Long,
+    length: Long): RangeInputStream = {
+    RangeInputStream.checkRange(offset, length)
+    val rac = content.getRandomAccessContent(RandomAccessMode.READ)
+    try {
+      rac.seek(scala.math.min(offset, rac.length()))
+      new RangeInputStream(rac.getInputStream(), length, () => rac.close())
+    } catch {
+      case ex: Exception =>
+        rac.close()
+        throw ex
+    }
+  }
+
   /**
    * Checks whether the specified audio file is accepted by this scanner. This
    * implementation is called by the filter when listing the children of a
@@ -117,19 +191,32 @@ class FSServiceImpl extends FSService {
 
   /**
    * Recursively scans a directory and adds the found audio files to the given
-   * list buffer.
+   * list buffer. The audio files contained directly in the directory are
+   * passed to the listener before sub directories are processed.
    * @param root the root file of the directory structure
    * @param dir the directory to be scanned
    * @param results the target buffer
    * @param sel the file selector
+   * @param listener the listener to be notified about the found files
    */
   private def scanDirectory(root: FileObject, dir: FileObject,
-    results: ListBuffer[String], sel: FileSelector) {
-    for (fo <- dir.findFiles(sel)) {
-      if (FileType.FOLDER.equals(fo.getType())) {
-        scanDirectory(root, fo, results, sel);
-      } else {
-        results += root.getName.getRelativeName(fo.getName);
+    results: ListBuffer[String], sel: FileSelector,
+    listener: Seq[String] => Unit) {
+    val children = dir.findFiles(sel).toList map { fo =>
+      if (FileType.FOLDER.equals(fo.getType())) Left(fo)
+      else Right(root.getName.getRelativeName(fo.getName))
+    }
+    val batch = children collect { case Right(uri) => uri }
+    if (!batch.isEmpty) {
+      listener(batch)
+    }
+
+    for (child <- children) {
+      child match {
+        case Left(folder) =>
+          scanDirectory(root, folder, results, sel, listener)
+        case Right(uri) =>
+          results += uri
       }
     }
   }
@@ -166,6 +253,15 @@ object FSServiceImpl {
   /** The default supported file extensions. */
   val DefaultFileExtensions = Set("mp3")
 
+  /** The number of threads used for scanning local directories. */
+  private val ScanParallelism = 4
+
+  /** The URI scheme for files on the local file system. */
+  private val SchemeFile = "file"
+
+  /** A listener for scan operations which ignores all batches. */
+  private val DummyListener: Seq[String] => Unit = _ => ()
+
   /**
    * Obtains the extensions to be used for a scan operation. If a set with
    * extensions is provided, all extensions are converted to lower case.
@@ -180,6 +276,37 @@ object FSServiceImpl {
       DefaultFileExtensions
     }
 
+  /**
+   * Determines the time of the last modification of the given file content.
+   * Some file systems do not support this information; in this case, result
+   * is 0.
+   * @param content the file content
+   * @return the last modification time or 0 if it is not available
+   */
+  private def fetchLastModified(content: FileContent): Long =
+    try {
+      content.getLastModifiedTime
+    } catch {
+      case fex: FileSystemException => 0
+    }
+
+  /**
+   * Returns the local directory the given URI points to. If the URI uses the
+   * ''file:'' scheme and refers to an existing directory, it is returned.
+   * Otherwise, result is ''None'', and the URI has to be handled by VFS.
+   * @param rootUri the root URI of a scan operation
+   * @return an option with the corresponding local directory
+   */
+  private[impl] def localDirectory(rootUri: String): Option[File] =
+    try {
+      val uri = new URI(rootUri)
+      if (SchemeFile.equalsIgnoreCase(uri.getScheme)) {
+        Some(new File(uri)) filter (_.isDirectory)
+      } else None
+    } catch {
+      case ex: Exception => None
+    }
+
   /**
    * Helper method for converting a string to lower case.
    * @param s the string to be converted
@@ -0,0 +1,226 @@
+package de.oliver_heger.splaya.fs.impl
+
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+import java.util.Locale
+
+import scala.collection.mutable.ListBuffer
+
+import org.apache.commons.vfs2.provider.UriParser
+import org.apache.commons.vfs2.provider.local.GenericFileNameParser
+
+/**
+ * A class for scanning a directory structure on the local file system for
+ * audio files.
+ *
+ * For media located on the local file system (which includes network shares
+ * mounted into the local file system) this class is used as an alternative to
+ * the VFS-based scan of ''FSServiceImpl''. It works directly on
+ * ''java.io.File'' objects; so no VFS file objects have to be created for the
+ * single entries of a directory, and file extensions are checked directly on
+ * the file names.
+ *
+ * Because listing directories on network drives can be slow, the
+ * directories are processed in parallel by a thread pool of the given size.
+ * The calling thread submits a task for each directory encountered and
+ * collects the results. When all directories have been listed, the result
+ * is assembled in the same order a sequential depth-first scan would have
+ * produced: the entries of a directory are processed in the order in which
+ * they are listed, and the content of a sub directory is inserted at the
+ * position of this sub directory.
+ *
+ * The URIs returned by this class are relative to the root directory; the
+ * single path components are separated by slashes. They have to be identical
+ * to the relative names produced by a VFS scan; otherwise, URIs stored in
+ * existing playlists would no longer match, and ''FSServiceImpl.resolve()''
+ * could not decode them. Therefore, each path component is encoded in the
+ * same way as VFS encodes the names of local files (e.g. '%' becomes
+ * ''%25'' and '#' becomes ''%23'').
+ *
+ * Optionally, a listener function can be passed to a scan operation. It is
+ * invoked by the calling thread with the audio files of a directory as soon
+ * as this directory has been listed. So the files found can already be
+ * processed while the scan is still in progress.
+ *
+ * @param extensions the set with supported file extensions (in lower case)
+ * @param parallelism the number of threads for listing directories
+ */
+private[impl] class LocalDirectoryScanner(extensions: Set[String],
+  parallelism: Int) {
+  /**
+   * Scans the given root directory and returns the relative URIs of all
+   * audio files found.
+   * @param root the root directory
+   * @param listener a function to be notified about the audio files of a
+   * single directory
+   * @return a sequence with the URIs of all audio files
+   * @throws IOException if a directory cannot be listed
+   */
+  @throws(classOf[IOException])
+  def scan(root: File, listener: Seq[String] => Unit = _ => ()): Seq[String] = {
+    val executor = Executors.newFixedThreadPool(parallelism)
+    try {
+      val completionService =
+        new ExecutorCompletionService[DirectoryContent](executor)
+      val contents = collection.mutable.Map.empty[String, DirectoryContent]
+      completionService.submit(listTask(root, ""))
+      var pending = 1
+
+      while (pending > 0) {
+        val content = fetchResult(completionService.take().get())
+        pending -= 1
+        contents += content.path -> content
+        val files = content.files
+        if (!files.isEmpty) {
+          listener(files)
+        }
+        for (dir <- content.directories) {
+          completionService.submit(listTask(new File(content.directory, dir),
+            content.path + LocalDirectoryScanner.encodeName(dir) + "/"))
+          pending += 1
+        }
+      }
+
+      val results = ListBuffer.empty[String]
+      assembleResults(contents, "", results)
+      results.toList
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+
+  /**
+   * Creates a task which lists the given directory.
+   * @param dir the directory
+   * @param path the relative path of this directory (ending on a slash unless
+   * it is the root directory)
+   * @return the task for listing this directory
+   */
+  private def listTask(dir: File, path: String): Callable[DirectoryContent] =
+    new Callable[DirectoryContent] {
+      def call(): DirectoryContent = listDirectory(dir, path)
+    }
+
+  /**
+   * Lists the given directory. Sub directories and files with a supported
+   * extension are recorded in the resulting data object.
+   * @param dir the directory
+   * @param path the relative path of this directory
+   * @return an object describing the content of this directory
+   * @throws IOException if the directory cannot be listed
+   */
+  private def listDirectory(dir: File, path: String): DirectoryContent = {
+    val files = dir.listFiles()
+    if (files == null) {
+      throw new IOException("Cannot list directory: " + dir)
+    }
+
+    val entries = ListBuffer.empty[(String, Boolean)]
+    for (f <- files) {
+      if (f.isDirectory) {
+        entries += ((f.getName, true))
+      } else if (f.isFile && hasSupportedExtension(f.getName)) {
+        entries += ((f.getName, false))
+      }
+    }
+    DirectoryContent(dir, path, entries.toList)
+  }
+
+  /**
+   * Checks whether the given file name has one of the supported extensions.
+   * @param name the file name
+   * @return a flag whether the extension is supported
+   */
+  private def hasSupportedExtension(name: String): Boolean = {
+    val pos = name.lastIndexOf('.')
+    extensions(if (pos < 0) "" else
+      name.substring(pos + 1).toLowerCase(Locale.ENGLISH))
+  }
+
+  /**
+   * Adds the URIs of all files in the directory with the given path to the
+   * result buffer. Sub directories are processed recursively.
+   * @param contents the map with the contents of all directories
+   * @param path the path of the current directory
+   * @param results the buffer for the results
+   */
+  private def assembleResults(contents: collection.Map[String, DirectoryContent],
+    path: String, results: ListBuffer[String]) {
+    for ((name, isDir) <- contents(path).entries) {
+      val uriName = LocalDirectoryScanner.encodeName(name)
+      if (isDir) {
+        assembleResults(contents, path + uriName + "/", results)
+      } else {
+        results += path + uriName
+      }
+    }
+  }
+
+  /**
+   * Obtains the result of a task for listing a directory. If the task caused
+   * an exception, it is rethrown.
+   * @param f the function which obtains the result
+   * @return the result of the task
+   */
+  private def fetchResult(f: => DirectoryContent): DirectoryContent =
+    try {
+      f
+    } catch {
+      case ex: ExecutionException =>
+        ex.getCause match {
+          case ioex: IOException => throw ioex
+          case other => throw new IOException("Scan failed", other)
+        }
+    }
+}
+
+/**
+ * The companion object of ''LocalDirectoryScanner''.
+ */
+private[impl] object LocalDirectoryScanner {
+  /** The parser which determines the characters to be encoded. */
+  private val NameParser = GenericFileNameParser.getInstance
+
+  /**
+   * Encodes the name of a file or directory so that it can be used as a
+   * component of a relative URI. All characters which are encoded by VFS in
+   * the names of local files are replaced by escape sequences; the result is
+   * the same as the relative name obtained from a VFS file object.
+   * @param name the name to be encoded
+   * @return the encoded name
+   */
+  def encodeName(name: String): String =
+    UriParser.encode(name, name.toArray filter NameParser.encodeCharacter)
+}
+
+/**
+ * A data class describing the content of a directory.
+ *
+ * @param directory the directory
+ * @param path the relative path of this directory (already encoded)
+ * @param entries a list with the names of the relevant entries of this
+ * directory and flags whether they are directories (the plain names of the
+ * file system)
+ */
+private case class DirectoryContent(directory: File, path: String,
+  entries: List[(String, Boolean)]) {
+  /**
+   * Returns a list with the names of the sub directories.
+   * @return the names of the sub directories
+   */
+  def directories: List[String] =
+    entries filter (_._2) map (_._1)
+
+  /**
+   * Returns a list with the relative URIs of the audio files contained in
+   * this directory.
+   * @return the URIs of the audio files
+   */
+  def files: List[String] =
+    entries filterNot (_._2) map (e =>
+      path + LocalDirectoryScanner.encodeName(e._1))
+}
@@ -0,0 +1,150 @@
+package de.oliver_heger.splaya.fs
+
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+
+import de.oliver_heger.tsthlp.StreamDataGenerator
+
+/**
+ * Test class for ''RangeInputStream''.
+ */
+class TestRangeInputStream extends JUnitSuite {
+  /** Constant for the length of the test data. */
+  private val Length = 128
+
+  /** The generator for test data. */
+  private val generator = StreamDataGenerator()
+
+  /**
+   * Creates a stream with test data.
+   * @return the test stream
+   */
+  private def createStream(): InputStream =
+    new ByteArrayInputStream(generator.generateStreamContent(0,
+      Length).getBytes)
+
+  /**
+   * Reads the given stream and returns its content as string.
+   * @param stream the stream
+   * @return the content of the stream
+   */
+  private def read(stream: InputStream): String =
+    new String(StreamDataGenerator.readStream(stream))
+
+  /**
+   * Tests whether reading stops at the end of the range.
+   */
+  @Test def testReadLimited() {
+    val stream = new RangeInputStream(createStream(), 20)
+    assertEquals("Wrong content", generator.generateStreamContent(0, 20),
+      read(stream))
+    assertEquals("Wrong remaining bytes", 0, stream.remainingBytes)
+  }
+
+  /**
+   * Tests single byte reads.
+   */
+  @Test def testReadSingleBytes() {
+    val stream = new RangeInputStream(createStream(), 2)
+    val content = generator.generateStreamContent(0, 2)
+    assertEquals("Wrong byte 1", content(0).toInt, stream.read())
+    assertEquals("Wrong byte 2", content(1).toInt, stream.read())
+    assertEquals("Not at end", -1, stream.read())
+  }
+
+  /**
+   * Tests a range which is longer than the underlying stream.
+   */
+  @Test def testReadRangeTooLong() {
+    val stream = new RangeInputStream(createStream(), 2 * Length)
+    assertEquals("Wrong content", generator.generateStreamContent(0, Length),
+      read(stream))
+  }
+
+  /**
+   * Tests that skip() does not go beyond the range.
+   */
+  @Test def testSkip() {
+    val stream = new RangeInputStream(createStream(), 10)
+    assertEquals("Wrong skip result", 10, stream.skip(100))
+    assertEquals("Not at end", -1, stream.read())
+  }
+
+  /**
+   * Tests that available() takes the range into account.
+   */
+  @Test def testAvailable() {
+    val stream = new RangeInputStream(createStream(), 10)
+    assertEquals("Wrong available", 10, stream.available())
+  }
+
+  /**
+   * Tests whether mark() and reset() restore the position in the range.
+   */
+  @Test def testMarkReset() {
+    val stream = new RangeInputStream(createStream(), 10)
+    stream.mark(100)
+    read(stream)
+    stream.reset()
+    assertEquals("Wrong content", generator.generateStreamContent(0, 10),
+      read(stream))
+  }
+
+  /**
+   * Tests whether the close action is invoked exactly once.
+   */
+  @Test def testCloseAction() {
+    var count = 0
+    val stream = new RangeInputStream(createStream(), 10, () => count += 1)
+    stream.close()
+    stream.close()
+    assertEquals("Wrong number of close actions", 1, count)
+  }
+
+  /**
+   * Tests skipFully() if there is enough data.
+   */
+  @Test def testSkipFully() {
+    val stream = createStream()
+    assertEquals("Wrong skip result", 100,
+      RangeInputStream.skipFully(stream, 100))
+    assertEquals("Wrong content", generator.generateStreamContent(100, 28),
+      read(stream))
+  }
+
+  /**
+   * Tests skipFully() if the end of the stream is reached.
+   */
+  @Test def testSkipFullyEndOfStream() {
+    assertEquals("Wrong skip result", Length,
+      RangeInputStream.skipFully(createStream(), 2 * Length))
+  }
+
+  /**
+   * Tests checkRange() for a negative length.
+   */
+  @Test(expected = classOf[IllegalArgumentException])
+  def testCheckRangeNegativeLength() {
+    RangeInputStream.checkRange(0, -1)
+  }
+
+  /**
+   * Tests the default implementation of openRange() in StreamSource.
+   */
+  @Test def testStreamSourceOpenRangeDefault() {
+    val source = new StreamSource {
+      val size = Length.toLong
+      def openStream() = createStream()
+    }
+    assertTrue("Seekable", !source.seekable)
+    assertEquals("Wrong range", generator.generateStreamContent(50, 30),
+      read(source.openRange(50, 30)))
+    assertEquals("Wrong tail", generator.generateStreamContent(Length - 8, 8),
+      read(source.openTail(8)))
+  }
+}
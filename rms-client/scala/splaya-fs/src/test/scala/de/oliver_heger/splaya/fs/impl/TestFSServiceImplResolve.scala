@@ -2,6 +2,7 @@ package de.oliver_heger.splaya.fs.impl
 
 import java.io.File
 import java.io.IOException
+import java.io.InputStream
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
@@ -74,6 +75,92 @@ class TestFSServiceImplResolve extends JUnitSuite with TestFileSupport {
     assert(Length === source.size)
   }
 
+  /**
+   * Tests whether the modification time of the file is returned by the
+   * resolved source.
+   */
+  @Test def testResolveLastModified() {
+    val f = createDataFile()
+    val time = 1234567890000L
+    f.setLastModified(time)
+    val source = service.resolve(f.getParentFile().toURI.toString, f.getName)
+    assert(f.lastModified === source.lastModified)
+  }
+
+  /**
+   * Reads the content of the given stream as string and closes it.
+   * @param stream the stream
+   * @return the content of the stream as string
+   */
+  private def readAndClose(stream: InputStream): String = {
+    try {
+      new String(StreamDataGenerator.readStream(stream))
+    } finally {
+      stream.close()
+    }
+  }
+
+  /**
+   * Tests whether a local file supports random access.
+   */
+  @Test def testResolveSeekable() {
+    val source = resolveFile()
+    assert(source.seekable === true)
+  }
+
+  /**
+   * Tests whether a range of the content can be read.
+   */
+  @Test def testResolveOpenRange() {
+    val source = resolveFile()
+    assert(generator.generateStreamContent(100, 50) ===
+      readAndClose(source.openRange(100, 50)))
+  }
+
+  /**
+   * Tests whether a range at the start of the content can be read.
+   */
+  @Test def testResolveOpenRangeHead() {
+    val source = resolveFile()
+    assert(generator.generateStreamContent(0, 10) ===
+      readAndClose(source.openRange(0, 10)))
+  }
+
+  /**
+   * Tests a range which exceeds the size of the file.
+   */
+  @Test def testResolveOpenRangeBeyondEnd() {
+    val source = resolveFile()
+    assert(generator.generateStreamContent(Length - 16, 16) ===
+      readAndClose(source.openRange(Length - 16, 100)))
+  }
+
+  /**
+   * Tests whether the tail of the content can be read.
+   */
+  @Test def testResolveOpenTail() {
+    val source = resolveFile()
+    assert(generator.generateStreamContent(Length - 32, 32) ===
+      readAndClose(source.openTail(32)))
+  }
+
+  /**
+   * Tests openTail() if the requested length is larger than the file.
+   */
+  @Test def testResolveOpenTailWholeFile() {
+    val source = resolveFile()
+    assert(generator.generateStreamContent(0, Length) ===
+      readAndClose(source.openTail(2 * Length)))
+  }
+
+  /**
+   * Tries to open a range with a negative offset.
+   */
+  @Test(expected = classOf[IllegalArgumentException])
+  def testResolveOpenRangeNegativeOffset() {
+    resolveFile().openRange(-1, 10)
+  }
+
   /**
    * Tries to resolve a non existing URI.
    */
@@ -167,6 +167,19 @@ class TestFSServiceImplScan extends JUnitSuite with EasyMockSugar {
     checkScan(Set("MP3", "someOtherExt"))
   }
 
+  /**
+   * Tests whether a listener is notified about the files found during a scan
+   * operation.
+   */
+  @Test def testScanWithListener() {
+    val rootURI = setUpMusicDir().toURI.toString
+    var batches = List.empty[Seq[String]]
+    val files = service.scan(rootURI, null, b => batches ::= b)
+    assertEquals("Wrong number of batches", 9, batches.size)
+    assertEquals("Wrong files in batches", files.toSet,
+      batches.flatten.toSet)
+  }
+
   /**
    * Tests whether the filter for file extensions is actually applied.
    */
@@ -176,6 +189,93 @@ class TestFSServiceImplScan extends JUnitSuite with EasyMockSugar {
     assertTrue("Got URIs", files.isEmpty)
   }
 
+  /**
+   * Tests whether a local directory can be scanned through VFS. This is the
+   * code path used for all URIs not pointing to a local directory.
+   */
+  @Test def testScanLocalDirectoryWithVFS() {
+    val rootURI = setUpMusicDir().toURI.toString
+    val root = TestFSServiceImplScan.manager.resolveFile(rootURI)
+    var batches = List.empty[Seq[String]]
+    val files = service.scanVFS(rootURI, FSServiceImpl.DefaultFileExtensions,
+      b => batches ::= b)
+    assertEquals("Wrong number of files", fileURIs.size, files.size)
+    files.foreach(TestFSServiceImplScan.checkFile(root, _))
+    assertEquals("Wrong number of batches", 9, batches.size)
+    assertEquals("Wrong files in batches", files.toSet, batches.flatten.toSet)
+  }
+
+  /**
+   * Tests that a scan through VFS yields the same files as a scan of the
+   * local directory.
+   */
+  @Test def testScanVFSSameResultAsLocalScan() {
+    val rootURI = setUpMusicDir().toURI.toString
+    val vfsFiles = service.scanVFS(rootURI,
+      FSServiceImpl.DefaultFileExtensions, _ => ())
+    assertEquals("Different results", vfsFiles.toSet,
+      service.scan(rootURI, null).toSet)
+  }
+
+  /**
+   * Tests that names with characters which have to be encoded in URIs lead to
+   * the same results for a scan through VFS and a scan of the local
+   * directory. The URIs found must be resolvable.
+   */
+  @Test def testScanSpecialCharactersSameResultAsLocalScan() {
+    val rootDir = createDirectory(null, "music")
+    val dir = createDirectory(rootDir, "100% #1 Hits")
+    val names = Set("50% Off.mp3", "Track #2.mp3", "A Song.mp3")
+    names foreach (createFile(dir, _))
+    val rootURI = rootDir.toURI.toString
+    val vfsFiles = service.scanVFS(rootURI,
+      FSServiceImpl.DefaultFileExtensions, _ => ())
+    val files = service.scan(rootURI, null)
+    assertEquals("Wrong number of files", names.size, files.size)
+    assertEquals("Different results", vfsFiles.toSet, files.toSet)
+    assertTrue("Not encoded: " + files, files forall (_.startsWith("100%25")))
+    val foundNames = files map { uri =>
+      val in = new BufferedReader(new InputStreamReader(
+        service.resolve(rootURI, uri).openStream()))
+      try {
+        in.readLine()
+      } finally {
+        in.close()
+      }
+    }
+    assertEquals("Wrong resolved files", names, foundNames.toSet)
+  }
+
+  /**
+   * Tests whether a local directory can be determined from a root URI.
+   */
+  @Test def testLocalDirectory() {
+    val dir = setUpMusicDir()
+    assertEquals("Wrong directory", dir,
+      FSServiceImpl.localDirectory(dir.toURI.toString).get)
+  }
+
+  /**
+   * Tests that URIs with other schemes are not handled as local directories.
+   */
+  @Test def testLocalDirectoryOtherScheme() {
+    assertFalse("Got a directory",
+      FSServiceImpl.localDirectory("ftp://host/music").isDefined)
+    assertFalse("Got a directory for invalid URI",
+      FSServiceImpl.localDirectory("file:/invalid uri").isDefined)
+  }
+
+  /**
+   * Tests that a file URI pointing to a file is not handled as a local
+   * directory.
+   */
+  @Test def testLocalDirectoryNoDirectory() {
+    val dir = createDirectory(null, "noDir")
+    val file = createFile(dir, "test.mp3")
+    assertFalse("Got a directory",
+      FSServiceImpl.localDirectory(file.toURI.toString).isDefined)
+  }
+
   /**
    * Tests the file filter if an exception is thrown.
    */
@@ -0,0 +1,144 @@
+package de.oliver_heger.splaya.fs.impl
+
+import java.io.File
+import java.io.IOException
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+
+/**
+ * Test class for ''LocalDirectoryScanner''.
+ */
+class TestLocalDirectoryScanner extends JUnitSuite {
+  /** The root directory for the test files. */
+  private var rootDir: File = _
+
+  @Before def setUp() {
+    rootDir = new File(System.getProperty("java.io.tmpdir"),
+      "scanner" + System.nanoTime())
+    assertTrue("Could not create root directory", rootDir.mkdir())
+  }
+
+  /**
+   * Removes the test directory structure.
+   */
+  @After def tearDown() {
+    remove(rootDir)
+  }
+
+  /**
+   * Removes the given file or directory recursively.
+   * @param f the file to be removed
+   */
+  private def remove(f: File) {
+    if (f.isDirectory) {
+      f.listFiles() foreach (remove(_))
+    }
+    f.delete()
+  }
+
+  /**
+   * Creates a file with the given relative path. Missing directories are
+   * created.
+   * @param path the relative path
+   * @return the file
+   */
+  private def createFile(path: String): File = {
+    val file = new File(rootDir, path)
+    file.getParentFile.mkdirs()
+    assertTrue("Could not create file " + path, file.createNewFile())
+    file
+  }
+
+  /**
+   * Determines the expected result of a scan by traversing the given
+   * directory sequentially.
+   * @param dir the directory
+   * @param path the relative path of the directory
+   * @return the list of audio files in this directory
+   */
+  private def expectedFiles(dir: File, path: String): List[String] =
+    dir.listFiles().toList flatMap { f =>
+      val name = LocalDirectoryScanner.encodeName(f.getName)
+      if (f.isDirectory) expectedFiles(f, path + name + "/")
+      else if (f.getName.toLowerCase.endsWith(".mp3")) List(path + name)
+      else Nil
+    }
+
+  /**
+   * Tests whether names are encoded in the same way as by VFS.
+   */
+  @Test def testEncodeName() {
+    assertEquals("Wrong plain name", "01 - Track.mp3",
+      LocalDirectoryScanner.encodeName("01 - Track.mp3"))
+    assertEquals("Wrong encoded name", "100%25.mp3",
+      LocalDirectoryScanner.encodeName("100%.mp3"))
+  }
+
+  /**
+   * Tests a scan of a directory structure with multiple levels.
+   */
+  @Test def testScan() {
+    for (artist <- 1 to 5; album <- 1 to 4; track <- 1 to 6) {
+      createFile("Artist " + artist + "/Album " + album + "/" + track +
+        " - Track.mp3")
+    }
+    createFile("Artist 1/Album 1/cover.jpg")
+    createFile("Artist 2/README")
+    createFile("top level.MP3")
+    createFile("Artist 3/Album 2/CD 2/\u00c4\u00f6 track.mp3")
+    val scanner = new LocalDirectoryScanner(Set("mp3"), 3)
+    val files = scanner.scan(rootDir)
+    assertEquals("Wrong number of files", 122, files.size)
+    assertEquals("Wrong result", expectedFiles(rootDir, ""), files)
+  }
+
+  /**
+   * Tests whether the listener is passed the files of each directory.
+   */
+  @Test def testScanWithListener() {
+    createFile("top.mp3")
+    createFile("Artist/Album 1/1 - Track.mp3")
+    createFile("Artist/Album 1/2 - Track.mp3")
+    createFile("Artist/Album 2/1 - Track.mp3")
+    createFile("Artist/Album 3/cover.jpg")
+    var batches = Set.empty[Set[String]]
+    val scanner = new LocalDirectoryScanner(Set("mp3"), 2)
+    val files = scanner.scan(rootDir, b => batches += b.toSet[String])
+    assertEquals("Wrong number of files", 4, files.size)
+    assertEquals("Wrong batches", Set(Set("top.mp3"),
+      Set("Artist/Album 1/1 - Track.mp3", "Artist/Album 1/2 - Track.mp3"),
+      Set("Artist/Album 2/1 - Track.mp3")), batches)
+  }
+
+  /**
+   * Tests a scan of an empty directory.
+   */
+  @Test def testScanEmptyDirectory() {
+    val scanner = new LocalDirectoryScanner(Set("mp3"), 2)
+    assertTrue("Got files", scanner.scan(rootDir).isEmpty)
+  }
+
+  /**
+   * Tests whether files without an extension can be matched.
+   */
+  @Test def testScanNoExtension() {
+    createFile("file.mp3")
+    createFile("README")
+    val scanner = new LocalDirectoryScanner(Set(""), 1)
+    assertEquals("Wrong result", List("README"), scanner.scan(rootDir))
+  }
+
+  /**
+   * Tests a scan operation on a directory which cannot be listed.
+   */
+  @Test(expected = classOf[IOException])
+  def testScanNonExistingDirectory() {
+    val scanner = new LocalDirectoryScanner(Set("mp3"), 1)
+    scanner.scan(new File(rootDir, "nonExisting"))
+  }
+}
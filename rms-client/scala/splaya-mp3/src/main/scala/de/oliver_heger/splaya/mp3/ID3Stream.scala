@@ -21,7 +21,11 @@ import java.io.PushbackInputStream
  * It is also possible to evaluate ID3 information. If this is desired, rather
  * than calling ''skipID3()'', call ''nextID3Frame()'' for obtaining a data
  * object describing the next ID3 frame. From this object the single ID3 tags
- * can be obtained.
+ * can be obtained. A filter for tag names can be passed to ''nextID3Frame()''.
+ * Only the tags accepted by the filter are read into memory; all other tags
+ * (e.g. embedded pictures which can be pretty large) are skipped in the
+ * underlying stream without copying their data. The content of tags is
+ * decoded only when it is queried.
  *
  * @param in the input stream to be filtered
  */
@@ -65,12 +69,16 @@ class ID3Stream(in: InputStream) extends PushbackInputStream(in,
    * Reads the next ID3v2 frame from this stream. If a frame is found at the
    * current position, it is fully read and returned. (The stream is then
    * advanced to the position directly after this frame.) Otherwise, ''None''
-   * is returned.
+   * is returned. With the optional filter function the tags to be read can be
+   * selected: the returned frame contains only tags whose names are accepted
+   * by the filter; the data of other tags is skipped.
+   * @param tagFilter a filter for the names of the tags to be read
    * @return an ''Option'' for the next ''ID3Frame''
    * @throws IOException if an error occurs
    */
-  def nextID3Frame(): Option[ID3Frame] = {
-    nextHeader() map (createFrame(_))
+  def nextID3Frame(tagFilter: String => Boolean = ID3Stream.AllTags):
+    Option[ID3Frame] = {
+    nextHeader() map (createFrame(_, tagFilter))
   }
 
   /**
@@ -122,12 +130,14 @@ class ID3Stream(in: InputStream) extends PushbackInputStream(in,
    * For an unknown version, an ''IDFrame'' object with an empty map of tags
    * is returned, and this frame is skipped.
    * @param header the header of the ID3v2 frame
+   * @param tagFilter the filter for the tags to be read
    * @return the newly created ''ID3Frame'' object
    */
-  private def createFrame(header: ID3Header): ID3Frame = {
+  private def createFrame(header: ID3Header,
+    tagFilter: String => Boolean): ID3Frame = {
     val tagmap = ID3Stream.Versions.get(header.version) match {
       case Some(vdata) =>
-        extractTags(header, vdata)
+        extractTags(header, vdata, tagFilter)
       case None =>
         skipID3Frame(header)
         Map.empty[String, ID3Tag]
@@ -139,12 +149,15 @@ class ID3Stream(in: InputStream) extends PushbackInputStream(in,
   /**
    * Extracts all tags of the current ID3v2 frame using the given
    * ''VersionData'' object. The frame is fully read. If it contains padding
-   * at the end, it is skipped.
+   * at the end, it is skipped. Tags not accepted by the filter are skipped,
+   * too; so no memory is allocated for their content.
    * @param header the header of the current frame
    * @param vdata the object describing the properties of this frame version
+   * @param tagFilter the filter for the tags to be read
    * @return the newly created ''ID3Frame''
    */
-  private def extractTags(header: ID3Header, vdata: ID3Stream.VersionData): Map[String, ID3Tag] = {
+  private def extractTags(header: ID3Header, vdata: ID3Stream.VersionData,
+    tagFilter: String => Boolean): Map[String, ID3Tag] = {
     var tagmap = Map.empty[String, ID3Tag]
     var bytesToRead = header.size
     var padding = false
@@ -155,20 +168,43 @@ class ID3Stream(in: InputStream) extends PushbackInputStream(in,
       padding = tagHeader(0) == 0
       if (!endOfStream && !padding) {
         val tagSize = math.min(bytesToRead, vdata.extractSize(tagHeader))
-        val tagData = new Array[Byte](tagSize)
-        readBuffer(tagData)
-        val tag = ID3Tag(vdata extractTagName tagHeader, tagData)
-        tagmap = tagmap + (tag.name -> tag)
+        val tagName = vdata extractTagName tagHeader
+        if (tagFilter(tagName)) {
+          val tagData = new Array[Byte](tagSize)
+          readBuffer(tagData)
+          tagmap = tagmap + (tagName -> ID3Tag(tagName, tagData))
+        } else {
+          skipBytes(tagSize)
+        }
         bytesToRead -= tagSize
       }
     }
 
-    if (bytesToRead > 0 && !endOfStream) {
-      in.skip(bytesToRead)
+    if (bytesToRead > 0) {
+      skipBytes(bytesToRead)
     }
     tagmap
   }
 
+  /**
+   * Skips the given number of bytes in the underlying stream. If the end of
+   * the stream is reached, the corresponding flag is set.
+   * @param count the number of bytes to skip
+   */
+  private def skipBytes(count: Int) {
+    var remaining = count.toLong
+    while (remaining > 0 && !endOfStream) {
+      val skipped = in.skip(remaining)
+      if (skipped > 0) {
+        remaining -= skipped
+      } else if (in.read() >= 0) {
+        remaining -= 1
+      } else {
+        endOfStream = true
+      }
+    }
+  }
+
   /**
    * Reads the whole buffer from the underlying stream or skips the read
    * operation if the end of the stream is reached.
@@ -212,7 +248,7 @@ object ID3Stream {
   private val IdxSize = 6
 
   /** The size of an ID3 header. */
-  private val HeaderSize = 10
+  private[mp3] val HeaderSize = 10
 
   /** The string identifying an ID3 header. */
   private val HeaderID = "ID3".getBytes
@@ -241,6 +277,16 @@ object ID3Stream {
   /** An array with tag names for ID3v2.3 and 4 frames. */
   private val TagsV3 = Array("TIT2", "TPE1", "TALB", "TYER", "TRCK")
 
+  /**
+   * A set with the names of all tags which are evaluated by the
+   * ''ID3TagProvider'' objects returned by ''providerFor()''. This set can be
+   * used as filter for ''nextID3Frame()'' if only these tags are of interest.
+   */
+  val ProviderTags: Set[String] = (TagsV2 ++ TagsV3).toSet
+
+  /** A filter function accepting all tags. */
+  private val AllTags: String => Boolean = _ => true
+
   /** A map with version-specific data. */
   private val Versions = createVersionDataMap()
 
@@ -59,15 +59,22 @@ object ID3v1Handler {
    * @param buf the buffer with the ID3v1 data
    * @return an ''ID3TagProvider'' for extracting tag information
    */
-  def providerFor(buf: Array[Byte]): ID3TagProvider = {
-    if (buf.length == FrameSize) {
-      buf match {
-        case Array('T', 'A', 'G', _*) =>
-          createProvider(buf)
-        case _ => UndefinedProvider
-      }
-    } else UndefinedProvider
-  }
+  def providerFor(buf: Array[Byte]): ID3TagProvider =
+    if (isID3v1Frame(buf)) createProvider(buf)
+    else UndefinedProvider
+
+  /**
+   * Checks whether the specified buffer contains a valid ID3v1 frame. This is
+   * the case if it has the correct size and starts with the ID3v1 tag.
+   * @param buf the buffer with the ID3v1 data
+   * @return '''true''' if this buffer contains an ID3v1 frame, '''false'''
+   * otherwise
+   */
+  def isID3v1Frame(buf: Array[Byte]): Boolean =
+    buf.length == FrameSize && (buf match {
+      case Array('T', 'A', 'G', _*) => true
+      case _ => false
+    })
 
   /**
    * Extracts ID3 tags if a valid frame was detected.
@@ -2,9 +2,11 @@ package de.oliver_heger.splaya.mp3
 
 import java.io.IOException
 import java.io.InputStream
+import java.util.Locale
 
+import de.oliver_heger.splaya.fs.StreamSource
 import de.oliver_heger.splaya.AudioSourceData
-import de.oliver_heger.splaya.MediaDataExtractor
+import de.oliver_heger.splaya.SourceMediaDataExtractor
 
 /**
  * A specialized ''MediaDataExtractor'' implementation which is able to extract
@@ -16,33 +18,96 @@ import de.oliver_heger.splaya.MediaDataExtractor
  * MP3 frames can be found, it is considered to be no MP3 file, and result
  * is '' None''. If an audio file contains multiple ID3 frames with the same
  * tags, frames with a higher version take precedence.
+ *
+ * There are two modes for determining the duration of an audio file. In
+ * ''strict'' mode an iteration over all MP3 frames is done, and the durations
+ * of all frames are accumulated. This is exact, but all data of the file has
+ * to be processed. In ''fast'' mode (which is the default) the first frame is
+ * checked for an information header (Xing, Info, or VBRI) which contains the
+ * number of frames; then the duration can be calculated directly. If there
+ * is no such header, but the audio file is a seekable source and the first
+ * frames have a constant bit rate, the duration is estimated from the file
+ * size and the bit rate. Only if this is not possible, the iteration over all
+ * frames is done as a fallback. The mode can be set using the
+ * ''mp3Extractor.durationMode'' property of the OSGi component.
  */
-class MP3MediaDataExtractor extends MediaDataExtractor {
+class MP3MediaDataExtractor extends SourceMediaDataExtractor {
+  /** A flag whether the duration is always determined in strict mode. */
+  @volatile private var strictDuration = false
+
+  /**
+   * Activates this component. This method is called by the declarative
+   * services runtime. It evaluates the configuration properties.
+   * @param props a map with properties of this component
+   * @throws IllegalArgumentException if a property has an invalid value
+   */
+  protected[mp3] def activate(props: java.util.Map[String, Object]) {
+    if (props containsKey MP3MediaDataExtractor.PropDurationMode) {
+      strictDuration = MP3MediaDataExtractor.parseDurationMode(
+        String.valueOf(props get MP3MediaDataExtractor.PropDurationMode))
+    }
+  }
+
+  /**
+   * Returns a flag whether the duration of audio files is determined in
+   * strict mode.
+   * @return '''true''' for strict mode, '''false''' for fast mode
+   */
+  def isStrictDuration: Boolean = strictDuration
+
   /**
    * @inheritdoc This implementation tries to find ID3 frames and extract
-   * information from them. Also an iteration over all MP3 frames is done to
-   * determine the duration of the audio file. If no or only few MP3 frames
-   * are found, the input stream is considered to be no MP3 file. (It could be
-   * well the case that an arbitrary binary file accidently contains valid
-   * MP3 frames; therefore, we use a kind of threshold: if the duration
-   * extracted from the found MP3 frames is less than a second, the file is
-   * ignored.)
+   * information from them. Then the duration of the audio file is determined
+   * as described in the class comment; because the size of the stream is not
+   * known, no estimation based on the bit rate is possible. The ID3v1 tag is
+   * located at the end of the file, so the stream is always read completely.
+   * If no or only few MP3 frames are found, the input stream is considered
+   * to be no MP3 file. (It could be well the case that an arbitrary binary
+   * file accidently contains valid MP3 frames; therefore, we use a kind of
+   * threshold: if the duration extracted from the found MP3 frames is less
+   * than a second, the file is ignored.)
    */
   def extractData(stream: InputStream): Option[AudioSourceData] = {
     val tailStream = new TailStream(stream, ID3v1Handler.FrameSize)
     val id3Stream = new ID3Stream(tailStream)
-    val mp3Stream = new MpegStream(id3Stream)
+    val scanner = new MpegFrameScanner(id3Stream)
 
     val id3v2Frames = extractID3v2Frames(id3Stream)
-    val duration = determineDuration(mp3Stream)
-    if (duration < 1000) None
-    else {
-      val provider = createCombinedTagProvider(id3v2Frames,
-        extractID3v1Data(tailStream))
-      Some(createAudioSourceData(provider, duration))
-    }
+    val duration = determineDuration(scanner, None)
+    // read the remaining data so that the tail is available
+    scanner.skip(Long.MaxValue)
+    createResult(id3v2Frames, extractID3v1Data(tailStream), duration)
   }
 
+  /**
+   * @inheritdoc If the source is seekable, the ID3v1 tag is read directly
+   * from the end of the source, so the data read from the start of the
+   * source does not have to be recorded. In fast mode, the size of the source
+   * is also used to estimate the duration if necessary; so typically only
+   * the beginning and the end of the file have to be read. A source which is
+   * not seekable is read in a single pass by delegating to the method
+   * processing streams; reading the tail separately would mean reading the
+   * whole source twice.
+   */
+  def extractData(source: StreamSource): Option[AudioSourceData] =
+    if (!source.seekable) {
+      withStream(source.openStream())(extractData(_))
+    } else {
+      val tail = withStream(source.openTail(ID3v1Handler.FrameSize))(
+        readFully(_, ID3v1Handler.FrameSize))
+      val audioEnd = source.size -
+        (if (ID3v1Handler.isID3v1Frame(tail)) tail.length else 0)
+
+      withStream(source.openStream()) { stream =>
+        val id3Stream = new ID3Stream(stream)
+        val scanner = new MpegFrameScanner(id3Stream)
+        val id3v2Frames = extractID3v2Frames(id3Stream)
+        val duration = determineDuration(scanner,
+          Some(audioEnd - id3v2Size(id3v2Frames)))
+        createResult(id3v2Frames, ID3v1Handler.providerFor(tail), duration)
+      }
+    }
+
   /**
    * Orders the given list of ''ID3Frame'' objects based on their version.
    * Lower versions come first.
@@ -54,20 +119,45 @@ class MP3MediaDataExtractor extends MediaDataExtractor {
   }
 
   /**
-   * Extracts all ID3v2 frames from the given input stream.
+   * Extracts all ID3v2 frames from the given input stream. Only the tags
+   * evaluated by ID3 tag providers are read; all other tags are skipped.
    * @param id3Stream the ID3 input stream
    * @return a (unsorted) list of ID3v2 frames extracted from the stream
    */
   private def extractID3v2Frames(id3Stream: ID3Stream): List[ID3Frame] = {
     var frames = List[ID3Frame]()
-    var frameOpt = id3Stream.nextID3Frame()
+    var frameOpt = id3Stream.nextID3Frame(ID3Stream.ProviderTags)
     while (frameOpt.isDefined) {
       frames = frameOpt.get :: frames
-      frameOpt = id3Stream.nextID3Frame()
+      frameOpt = id3Stream.nextID3Frame(ID3Stream.ProviderTags)
     }
     frames
   }
 
+  /**
+   * Creates the result of an extract operation. If the duration is too short,
+   * the file is not considered to be an MP3 file, and result is ''None''.
+   * @param id3v2Frames the list with ID3v2 frames
+   * @param v1Provider the provider for ID3v1 data
+   * @param duration the duration of the file
+   * @return the result of the extract operation
+   */
+  private def createResult(id3v2Frames: List[ID3Frame],
+    v1Provider: ID3TagProvider, duration: Long): Option[AudioSourceData] =
+    if (duration < 1000) None
+    else {
+      val provider = createCombinedTagProvider(id3v2Frames, v1Provider)
+      Some(createAudioSourceData(provider, duration))
+    }
+
+  /**
+   * Calculates the number of bytes occupied by the given ID3v2 frames.
+   * @param frames the list with ID3v2 frames
+   * @return the total size of these frames
+   */
+  private def id3v2Size(frames: List[ID3Frame]): Long =
+    (0L /: frames)(_ + _.header.size + ID3Stream.HeaderSize)
+
   /**
    * Extracts ID3v1 tag data from the given stream. This information is located
    * at the very end of the audio file. So after iteration over all MP3 frames
@@ -79,19 +169,106 @@ class MP3MediaDataExtractor extends MediaDataExtractor {
     ID3v1Handler.providerFor(tailStream.tail)
 
   /**
-   * Iterates over all MP3 frames in the given stream to determine the audio
-   * file's duration.
+   * Determines the audio file's duration. In strict mode, this method
+   * iterates over all MP3 frames in the given scanner. Otherwise, it tries to
+   * obtain the duration from an information header in the first frame or to
+   * estimate it based on the bit rate.
+   * @param scanner the scanner for MPEG frames
+   * @param audioEnd an option with the end position of audio data relative to
+   * the position of the scanner; this is defined if the file size is known
    * @return the duration in milliseconds
    */
-  private def determineDuration(mp3Stream: MpegStream): Long = {
-    var duration = 0.0
-    var frameOpt = mp3Stream.nextFrame()
-    while (frameOpt.isDefined) {
+  private def determineDuration(scanner: MpegFrameScanner,
+    audioEnd: Option[Long]): Long =
+    if (strictDuration) scala.math.round(scanner.remainingDuration())
+    else {
+      scanner.nextFrame() match {
+        case Some(header) =>
+          val frameStart = scanner.position - MpegStream.HeaderSize
+          val body = scanner.readFrameBody().get
+          scala.math.round(VBRHeaderHandler.frameCount(header, body) match {
+            case Some(count) => count * header.duration.toDouble
+            case None =>
+              estimateDuration(scanner, header, audioEnd map (_ - frameStart))
+          })
+
+        case None => 0
+      }
+    }
+
+  /**
+   * Determines the duration of an audio file which does not contain an
+   * information header. If the size of the audio data is known, the next
+   * frames are checked whether they have the same bit rate as the first
+   * one. If this is the case, the file is assumed to have a constant bit
+   * rate, and the duration is calculated from the size. Otherwise, all
+   * remaining frames are processed.
+   * @param scanner the scanner for MPEG frames
+   * @param first the header of the first frame (already consumed)
+   * @param audioSize an option with the size of the audio data starting with
+   * the first frame
+   * @return the duration in milliseconds
+   */
+  private def estimateDuration(scanner: MpegFrameScanner, first: MpegHeader,
+    audioSize: Option[Long]): Double = {
+    var duration = first.duration.toDouble
+    var frameCount = 1
+    var constantBitRate = audioSize.isDefined
+    var frameOpt = scanner.nextFrame()
+
+    while (constantBitRate && frameOpt.isDefined &&
+      frameCount < MP3MediaDataExtractor.BitRateSampleSize) {
       duration += frameOpt.get.duration
-      mp3Stream.skipFrame()
-      frameOpt = mp3Stream.nextFrame()
+      constantBitRate = frameOpt.get.bitRate == first.bitRate
+      frameCount += 1
+      scanner.skipFrame()
+      frameOpt = scanner.nextFrame()
+    }
+
+    if (constantBitRate && frameOpt.isDefined)
+      audioSize.get * MP3MediaDataExtractor.BitsPerByte *
+        MP3MediaDataExtractor.MillisPerSecond / first.bitRate
+    else {
+      if (frameOpt.isDefined) {
+        duration += frameOpt.get.duration
+        scanner.skipFrame()
+      }
+      duration + scanner.remainingDuration()
     }
-    scala.math.round(duration)
+  }
+
+  /**
+   * Executes the given function on a stream and ensures that the stream is
+   * closed afterwards.
+   * @param stream the stream
+   * @param f the function to be executed
+   * @return the result of the function
+   */
+  private def withStream[T](stream: InputStream)(f: InputStream => T): T =
+    try {
+      f(stream)
+    } finally {
+      stream.close()
+    }
+
+  /**
+   * Reads up to the given number of bytes from a stream. The resulting array
+   * is shorter if the stream does not contain enough data.
+   * @param stream the stream
+   * @param count the number of bytes to read
+   * @return an array with the data read
+   */
+  private def readFully(stream: InputStream, count: Int): Array[Byte] = {
+    val buf = new Array[Byte](count)
+    var ofs = 0
+    var read = 0
+    while (ofs < count && read >= 0) {
+      read = stream.read(buf, ofs, count - ofs)
+      if (read > 0) {
+        ofs += read
+      }
+    }
+    if (ofs < count) java.util.Arrays.copyOf(buf, ofs) else buf
   }
 
   /**
@@ -151,3 +328,43 @@ class MP3MediaDataExtractor extends MediaDataExtractor {
     artistName: String, duration: Long, inceptionYear: Int,
     trackNo: Int) extends AudioSourceData
 }
+
+/**
+ * The companion object of ''MP3MediaDataExtractor''.
+ */
+object MP3MediaDataExtractor {
+  /** The property for the mode for determining the duration. */
+  val PropDurationMode = "mp3Extractor.durationMode"
+
+  /** The value of the duration mode property for strict mode. */
+  val DurationModeStrict = "strict"
+
+  /** The value of the duration mode property for fast mode. */
+  val DurationModeFast = "fast"
+
+  /**
+   * The number of frames which are checked for a constant bit rate before
+   * the duration is estimated.
+   */
+  private val BitRateSampleSize = 16
+
+  /** Constant for the number of bits in a byte. */
+  private val BitsPerByte = 8
+
+  /** Constant for the number of milliseconds per second. */
+  private val MillisPerSecond = 1000.0
+
+  /**
+   * Parses the value of the duration mode property.
+   * @param value the value of the property
+   * @return a flag whether strict mode is selected
+   * @throws IllegalArgumentException if the value cannot be parsed
+   */
+  private def parseDurationMode(value: String): Boolean =
+    value.trim.toLowerCase(Locale.ENGLISH) match {
+      case DurationModeStrict => true
+      case DurationModeFast => false
+      case err =>
+        throw new IllegalArgumentException("Not a valid duration mode: " + err)
+    }
+}
@@ -0,0 +1,321 @@
+package de.oliver_heger.splaya.mp3
+
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * A class for searching and decoding the headers of MPEG audio frames in an
+ * input stream.
+ *
+ * This class reads the underlying stream in large blocks into an internal
+ * buffer. The search for frame sync words and the decoding of frame headers
+ * operate directly on this buffer; so there is no method call per byte. When
+ * a frame is skipped, the bytes already contained in the buffer are skipped
+ * by just adjusting the current position; only the remaining bytes are
+ * skipped in the underlying stream.
+ *
+ * The data in the buffer can also be read using the ''read()'' methods of
+ * this class. This allows the implementation of stream classes on top of a
+ * scanner, e.g. [[de.oliver_heger.splaya.mp3.MpegStream]].
+ *
+ * This class is not thread-safe.
+ *
+ * @param in the underlying input stream
+ * @param bufferSize the size of the internal buffer
+ */
+class MpegFrameScanner(in: InputStream,
+  bufferSize: Int = MpegFrameScanner.DefaultBufferSize) {
+  /** The buffer for the data of the underlying stream. */
+  private val buffer = new Array[Byte](scala.math.max(bufferSize,
+    MpegStream.HeaderSize))
+
+  /** The current position in the buffer. */
+  private var pos = 0
+
+  /** The number of valid bytes in the buffer. */
+  private var limit = 0
+
+  /** A flag whether the end of the underlying stream is reached. */
+  private var endOfStream = false
+
+  /** The current MPEG header. */
+  private var currentHeader: Option[MpegHeader] = None
+
+  /** The number of bytes obtained from the underlying stream so far. */
+  private var inputPosition = 0L
+
+  /**
+   * Searches for the next MPEG frame header from the current position on.
+   * The semantics of this method is the same as for the method with the same
+   * name of ''MpegStream''. If a header is found, the current position is
+   * directly behind the header. Otherwise, all data has been consumed.
+   * @return an option with the header of the next MPEG frame
+   * @throws IOException if an IO error occurs
+   */
+  @throws(classOf[IOException])
+  def nextFrame(): Option[MpegHeader] = {
+    var frame: Option[MpegHeader] = None
+    var searching = true
+
+    while (searching) {
+      if (!fill(MpegStream.HeaderSize)) {
+        pos = limit
+        searching = false
+      } else {
+        val end = limit - MpegStream.HeaderSize
+        var idx = pos
+        while (idx <= end && frame.isEmpty) {
+          if (buffer(idx) == -1 && (buffer(idx + 1) & 0xE0) == 0xE0) {
+            frame = MpegFrameScanner.decodeHeader(extractByte(buffer, idx + 1),
+              extractByte(buffer, idx + 2), extractByte(buffer, idx + 3))
+          }
+          if (frame.isEmpty) {
+            idx += 1
+          }
+        }
+
+        if (frame.isDefined) {
+          pos = idx + MpegStream.HeaderSize
+          searching = false
+        } else {
+          pos = idx
+        }
+      }
+    }
+
+    currentHeader = frame
+    frame
+  }
+
+  /**
+   * Skips the current MPEG frame. This method can be called after a valid
+   * MPEG header has been retrieved using ''nextFrame()''. In this case the
+   * current position is advanced to the end of the associated MPEG frame.
+   * Otherwise, this method has no effect.
+   * @return '''true''' if a frame could be skipped, '''false''' otherwise
+   * @throws IOException if an IO error occurs
+   */
+  @throws(classOf[IOException])
+  def skipFrame(): Boolean = {
+    if (currentHeader.isDefined) {
+      skip(currentHeader.get.length - MpegStream.HeaderSize)
+      currentHeader = None
+      true
+    } else {
+      false
+    }
+  }
+
+  /**
+   * Reads the content of the current MPEG frame. This method can be called
+   * after a valid MPEG header has been retrieved using ''nextFrame()''. It
+   * works like ''skipFrame()'', but the data of the frame following the
+   * header is returned. If the stream ends within the frame, the array
+   * returned is shorter than the frame. If there is no current frame, result
+   * is ''None''.
+   * @return an option with the data of the current frame (without header)
+   * @throws IOException if an IO error occurs
+   */
+  @throws(classOf[IOException])
+  def readFrameBody(): Option[Array[Byte]] =
+    currentHeader map { header =>
+      val body = new Array[Byte](header.length - MpegStream.HeaderSize)
+      var ofs = 0
+      var count = 0
+      while (ofs < body.length && count >= 0) {
+        count = read(body, ofs, body.length - ofs)
+        if (count > 0) {
+          ofs += count
+        }
+      }
+      currentHeader = None
+      if (ofs < body.length) java.util.Arrays.copyOf(body, ofs) else body
+    }
+
+  /**
+   * Returns the current position of this scanner. This is the number of bytes
+   * which have been consumed from the underlying stream, either by reading or
+   * by skipping. Directly after a call of ''nextFrame()'' which found a frame
+   * the position points behind the frame header.
+   * @return the current position in the underlying stream
+   */
+  def position: Long = inputPosition - (limit - pos)
+
+  /**
+   * Determines the accumulated duration of all MPEG frames from the current
+   * position up to the end of the stream. This is equivalent to calling
+   * ''nextFrame()'' and ''skipFrame()'' in a loop.
+   * @return the duration of all remaining frames (in milliseconds)
+   * @throws IOException if an IO error occurs
+   */
+  @throws(classOf[IOException])
+  def remainingDuration(): Double = {
+    var duration = 0.0
+    var frameOpt = nextFrame()
+    while (frameOpt.isDefined) {
+      duration += frameOpt.get.duration
+      skipFrame()
+      frameOpt = nextFrame()
+    }
+    duration
+  }
+
+  /**
+   * Reads a single byte. Data in the internal buffer is returned first.
+   * @return the byte read or -1 if the end of the stream is reached
+   * @throws IOException if an IO error occurs
+   */
+  @throws(classOf[IOException])
+  def read(): Int =
+    if (pos < limit) {
+      val result = extractByte(buffer, pos)
+      pos += 1
+      result
+    } else {
+      val result = in.read()
+      if (result >= 0) {
+        inputPosition += 1
+      }
+      result
+    }
+
+  /**
+   * Reads data into the given array. Data in the internal buffer is returned
+   * first.
+   * @param b the target array
+   * @param off the offset in the target array
+   * @param len the maximum number of bytes to read
+   * @return the number of bytes read or -1 if the end of the stream is
+   * reached
+   * @throws IOException if an IO error occurs
+   */
+  @throws(classOf[IOException])
+  def read(b: Array[Byte], off: Int, len: Int): Int =
+    if (pos < limit) {
+      val count = scala.math.min(len, limit - pos)
+      System.arraycopy(buffer, pos, b, off, count)
+      pos += count
+      count
+    } else {
+      val count = in.read(b, off, len)
+      if (count > 0) {
+        inputPosition += count
+      }
+      count
+    }
+
+  /**
+   * Skips the given number of bytes. Bytes in the internal buffer are skipped
+   * first, then the underlying stream is advanced.
+   * @param n the number of bytes to skip
+   * @return the number of bytes actually skipped
+   * @throws IOException if an IO error occurs
+   */
+  @throws(classOf[IOException])
+  def skip(n: Long): Long = {
+    val inBuffer = scala.math.min(n, limit - pos).toInt
+    pos += inBuffer
+    if (n > inBuffer) inBuffer + skipUnderlyingStream(n - inBuffer)
+    else inBuffer
+  }
+
+  /**
+   * Returns an estimation of the number of bytes which can be read without
+   * blocking.
+   * @return the number of available bytes
+   * @throws IOException if an IO error occurs
+   */
+  @throws(classOf[IOException])
+  def available(): Int = (limit - pos) + in.available()
+
+  /**
+   * Makes sure that the buffer contains at least the given number of bytes
+   * after the current position. If necessary, the remaining bytes are moved
+   * to the start of the buffer, and the buffer is filled from the underlying
+   * stream.
+   * @param count the number of bytes required
+   * @return a flag whether the requested number of bytes is available
+   */
+  private def fill(count: Int): Boolean = {
+    if (limit - pos < count) {
+      val remaining = limit - pos
+      System.arraycopy(buffer, pos, buffer, 0, remaining)
+      pos = 0
+      limit = remaining
+      while (limit < count && !endOfStream) {
+        val read = in.read(buffer, limit, buffer.length - limit)
+        if (read < 0) {
+          endOfStream = true
+        } else {
+          limit += read
+          inputPosition += read
+        }
+      }
+    }
+    limit - pos >= count
+  }
+
+  /**
+   * Skips the given number of bytes in the underlying stream. Skipping stops
+   * if the end of the stream is reached.
+   * @param count the number of bytes to skip
+   * @return the number of bytes actually skipped
+   */
+  private def skipUnderlyingStream(count: Long): Long = {
+    var remaining = count
+    while (remaining > 0 && !endOfStream) {
+      val skipped = in.skip(remaining)
+      if (skipped > 0) {
+        remaining -= skipped
+      } else if (in.read() >= 0) {
+        remaining -= 1
+      } else {
+        endOfStream = true
+      }
+    }
+    inputPosition += count - remaining
+    count - remaining
+  }
+}
+
+/**
+ * The companion object of ''MpegFrameScanner''.
+ */
+object MpegFrameScanner {
+  /** The default size of the internal buffer. */
+  val DefaultBufferSize = 16384
+
+  /**
+   * Decodes an MPEG frame header from the given bytes. The bytes are the
+   * ones following the frame sync byte. If the header contains invalid
+   * values, result is ''None''.
+   * @param b1 the first byte after the frame sync byte
+   * @param b2 the second byte after the frame sync byte
+   * @param b3 the third byte after the frame sync byte
+   * @return an option with the decoded header
+   */
+  def decodeHeader(b1: Int, b2: Int, b3: Int): Option[MpegHeader] = {
+    if ((b1 & 0xE0) != 0xE0) None
+    else {
+      val mpegVer = (b1 >> 3) & 0x03
+      val layer = (b1 >> 1) & 0x03
+      val bitRateCode = (b2 >> 4) & 0x0F
+      val sampleRateCode = (b2 >> 2) & 0x03
+      val padding = (b2 >> 1) & 0x01
+      val channelMode = (b3 >> 6) & 0x03
+
+      if (mpegVer == 1 || layer == 0 || bitRateCode == 0 || bitRateCode == 15 ||
+        sampleRateCode == 3) None
+      else {
+        val bitRate = MpegStream.calculateBitRate(mpegVer, layer, bitRateCode)
+        val sampleRate = MpegStream.calculateSampleRate(mpegVer, sampleRateCode)
+        val length = MpegStream.calculateFrameLength(layer, bitRate,
+          sampleRate, padding)
+        val duration = MpegStream.calculateDuration(layer, sampleRate)
+        Some(MpegHeader(bitRate = bitRate, sampleRate = sampleRate,
+          layer = layer, mpegVersion = mpegVer, length = length,
+          duration = duration, channelMode = channelMode))
+      }
+    }
+  }
+}
@@ -13,15 +13,18 @@ import java.io.PushbackInputStream
  * way. However, there are special methods for searching and extracting
  * headers of MPEG frames. Some meta information of frames can be queried.
  *
+ * This class is a facade for a
+ * [[de.oliver_heger.splaya.mp3.MpegFrameScanner]] which does the actual
+ * work on large blocks of data. Read operations first return data which has
+ * been pushed back, then the data buffered by the scanner, and finally data
+ * from the underlying stream.
+ *
  * @param in the underlying input stream
  */
 class MpegStream(in: InputStream)
   extends PushbackInputStream(in, MpegStream.HeaderSize) {
-  /** The current MPEG header. */
-  private var currentHeader: Option[MpegHeader] = None
-
-  /** A flag whether the end of the stream is reached. */
-  private var endOfStream = false
+  /** The scanner for MPEG frames. */
+  private val scanner = new MpegFrameScanner(in)
 
   /**
    * Searches for the next MPEG frame header from the current stream position
@@ -33,24 +36,7 @@ class MpegStream(in: InputStream)
    * @throws IOException if an IO error occurs
    */
   @throws(classOf[IOException])
-  def nextFrame(): Option[MpegHeader] = {
-    var frame: Option[MpegHeader] = None
-    while (!endOfStream && frame.isEmpty) {
-      findFrameSyncByte()
-      if (!endOfStream) {
-        val headerField = createHeaderField()
-        if (!endOfStream) {
-          frame = createHeader(headerField)
-          if (frame.isEmpty) {
-            pushBack(headerField)
-          }
-        }
-      }
-    }
-
-    currentHeader = frame
-    frame
-  }
+  def nextFrame(): Option[MpegHeader] = scanner.nextFrame()
 
   /**
    * Skips the current MPEG frame. This method can be called after a valid
@@ -62,148 +48,53 @@ class MpegStream(in: InputStream)
    * @throws IOException if an IO error occurs
    */
   @throws(classOf[IOException])
-  def skipFrame(): Boolean = {
-    if (currentHeader.isDefined) {
-      skipStream(in, currentHeader.get.length - MpegStream.HeaderSize)
-      currentHeader = None
-      true
-    } else {
-      false
-    }
-  }
+  def skipFrame(): Boolean = scanner.skipFrame()
 
   /**
-   * Advances the underlying stream until the first byte of frame sync is found.
+   * Determines the accumulated duration of all MPEG frames from the current
+   * stream position up to the end of the stream.
+   * @return the duration of all remaining frames (in milliseconds)
+   * @throws IOException if an IO error occurs
    */
-  private def findFrameSyncByte() {
-    var found = false
-    while (!found && !endOfStream) {
-      if (nextByte() == 0xFF) {
-        found = true
-      }
-    }
-  }
+  @throws(classOf[IOException])
+  def remainingDuration(): Double = scanner.remainingDuration()
 
   /**
-   * Creates a bit field for the MPEG frame header.
-   * @return the bit field
+   * @inheritdoc This implementation returns pushed back data first and then
+   * delegates to the scanner.
    */
-  private def createHeaderField(): HeaderBitField = {
-    val field = new HeaderBitField
-    field <<= nextByte()
-    field <<= nextByte()
-    field <<= nextByte()
-    field
-  }
+  override def read(): Int =
+    if (pushedBack > 0) super.read() else scanner.read()
 
   /**
-   * Creates an ''MpegHeader'' object based on the given header field. If the
-   * header field contains invalid values, result is ''None'',
-   * @param bits the header bit field
-   * @return the ''MpegHeader''
+   * @inheritdoc This implementation returns pushed back data first and then
+   * delegates to the scanner.
    */
-  private def createHeader(bits: HeaderBitField): Option[MpegHeader] = {
-    if (bits(21, 23) != 7) None
-    else {
-      val mpegVer = bits(19, 20)
-      val layer = bits(17, 18)
-      val bitRateCode = bits(12, 15)
-      val sampleRateCode = bits(10, 11)
-      val padding = bits(9)
-
-      if (mpegVer == 1 || layer == 0 || bitRateCode == 0 || bitRateCode == 15 ||
-        sampleRateCode == 3) None
-      else {
-        val bitRate = MpegStream.calculateBitRate(mpegVer, layer, bitRateCode)
-        val sampleRate = MpegStream.calculateSampleRate(mpegVer, sampleRateCode)
-        val length = MpegStream.calculateFrameLength(layer, bitRate,
-          sampleRate, padding)
-        val duration = MpegStream.calculateDuration(layer, sampleRate)
-        Some(MpegHeader(bitRate = bitRate, sampleRate = sampleRate, layer = layer,
-          mpegVersion = mpegVer, length = length, duration = duration))
-      }
-    }
-  }
+  override def read(b: Array[Byte], off: Int, len: Int): Int =
+    if (pushedBack > 0 && len > 0)
+      super.read(b, off, scala.math.min(len, pushedBack))
+    else scanner.read(b, off, len)
 
   /**
-   * Reads the next byte. This implementation reads a byte from the underlying
-   * stream. Checks for the end of stream are done; if the end is reached, 0
-   * is returned. (This is done for having a defined byte value when
-   * constructing an MPEG header.)
-   * @return the next byte
+   * @inheritdoc This implementation skips pushed back data first and then
+   * delegates to the scanner.
    */
-  private def nextByte(): Int = {
-    if (endOfStream) 0
-    else {
-      val result = read()
-      if (result == -1) {
-        endOfStream = true
-        0
-      } else result
-    }
-  }
+  override def skip(n: Long): Long =
+    if (pushedBack > 0) super.skip(scala.math.min(n, pushedBack))
+    else scanner.skip(n)
 
   /**
-   * Pushes the given header field back in the stream so that the bytes are
-   * read again. This method is called if an invalid header was detected. Then
-   * search has to continue at the next byte after the frame sync byte.
-   * @param field the header bit field with the invalid frame header
+   * @inheritdoc This implementation takes the data buffered by the scanner
+   * into account.
    */
-  private def pushBack(field: HeaderBitField) {
-    unread(field.toArray)
-  }
+  override def available(): Int = pushedBack + scanner.available()
 
   /**
-   * A class representing the bit field of an MPEG header. It allows convenient
-   * access to specific bit groups.
+   * Returns the number of bytes which have been pushed back and not yet been
+   * read again.
+   * @return the number of pushed back bytes
    */
-  private class HeaderBitField {
-    /** The internal value. */
-    private var value: Int = 0
-
-    /**
-     * Adds a byte to this field.
-     * @param b the byte to be added
-     */
-    def <<=(b: Int) {
-      value <<= 8
-      value |= b
-    }
-
-    /**
-     * Returns the value of the bit group from the given start and end index.
-     * E.g. ''from'' = 0, ''to'' = 3 will return the value of the first 4 bits.
-     * @param the from index
-     * @param to the to index
-     * @return the value of this group of bits
-     */
-    def apply(from: Int, to: Int): Int = {
-      val shiftVal = value >> from
-      val mask = (1 << (to - from + 1)) - 1
-      shiftVal & mask
-    }
-
-    /**
-     * Returns the value of the bit with the given index. The bit index is
-     * 0-based. Result is either 0 or 1, depending on the value of this bit.
-     * @param bit the bit index
-     * @return the value of this bit
-     */
-    def apply(bit: Int): Int = apply(bit, bit)
-
-    /**
-     * Returns the internal value of this field as an array. The array contains
-     * 3 bytes.
-     * @return the internal value of this field as byte array
-     */
-    def toArray: Array[Byte] = {
-      val result = new Array[Byte](3)
-      result(0) = apply(16, 23).toByte
-      result(1) = apply(8, 15).toByte
-      result(2) = apply(0, 7).toByte
-      result
-    }
-  }
+  private def pushedBack: Int = buf.length - pos
 }
 
 /**
@@ -249,7 +140,7 @@ object MpegStream {
   private val SampleCountL2 = 1152
 
   /** Constant for the size of an MPEG frame header in bytes. */
-  private val HeaderSize = 4
+  private[mp3] val HeaderSize = 4
 
   /**
    * Calculates the bit rate based on the given parameters.
@@ -258,7 +149,7 @@ object MpegStream {
    * @param code the code for the bit rate
    * @return the bit rate in bit per second
    */
-  private def calculateBitRate(mpegVer: Int, layer: Int, code: Int): Int = {
+  private[mp3] def calculateBitRate(mpegVer: Int, layer: Int, code: Int): Int = {
     val arr =
       if (mpegVer == MpegHeader.MpegV1) {
         layer match {
@@ -279,7 +170,7 @@ object MpegStream {
    * @param code the code for the sample rate
    * @return the sample rate in samples per second
    */
-  private def calculateSampleRate(mpegVer: Int, code: Int): Int =
+  private[mp3] def calculateSampleRate(mpegVer: Int, code: Int): Int =
     SampleRate(mpegVer)(code)
 
   /**
@@ -290,7 +181,7 @@ object MpegStream {
    * @param padding the padding flag
    * @return the length of the frame in bytes
    */
-  private def calculateFrameLength(layer: Int, bitRate: Int, sampleRate: Int,
+  private[mp3] def calculateFrameLength(layer: Int, bitRate: Int, sampleRate: Int,
     padding: Int): Int = {
     if (layer == MpegHeader.Layer1)
       (12 * bitRate / sampleRate + padding) * 4
@@ -304,7 +195,7 @@ object MpegStream {
    * @param sampleRate the sample rate
    * @return the duration of this frame in milliseconds
    */
-  private def calculateDuration(layer: Int, sampleRate: Int): Float = {
+  private[mp3] def calculateDuration(layer: Int, sampleRate: Int): Float = {
     val sampleCount = if (layer == MpegHeader.Layer1) SampleCountL1
     else SampleCountL2
     (1000.0f / sampleRate) * sampleCount
@@ -336,9 +227,10 @@ object MpegStream {
  * @param the bit rate of the associated frame (in bps)
  * @param sampleRate the sample rate (in samples per second)
  * @param duration the duration of this frame (in milliseconds)
+ * @param channelMode a code for the channel mode
  */
 case class MpegHeader(length: Int, mpegVersion: Int, layer: Int, bitRate: Int,
-  sampleRate: Int, duration: Float)
+  sampleRate: Int, duration: Float, channelMode: Int = 0)
 
 /**
  * The companion object of ''MpegHeader''.
@@ -361,4 +253,16 @@ object MpegHeader {
 
   /** Constant for audio layer 3. */
   final val Layer3 = 1
+
+  /** Constant for the stereo channel mode. */
+  final val ChannelModeStereo = 0
+
+  /** Constant for the joint stereo channel mode. */
+  final val ChannelModeJointStereo = 1
+
+  /** Constant for the dual channel mode. */
+  final val ChannelModeDualChannel = 2
+
+  /** Constant for the mono channel mode. */
+  final val ChannelModeMono = 3
 }
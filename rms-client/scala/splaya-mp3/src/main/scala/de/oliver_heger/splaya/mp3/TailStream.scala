@@ -13,6 +13,13 @@ import java.io.InputStream
  * can then be queried after the whole stream was read. It contains the last
  * bytes read from the original input stream.
  *
+ * The internal buffer is a ring buffer which is at least as large as the
+ * default skip size. The position of the tail is tracked by index arithmetic
+ * only. When data is read into a buffer provided by the caller, only the last
+ * bytes of this buffer (at most ''tailSize'') are copied into the ring
+ * buffer. When data is skipped, it is read directly into the ring buffer; so
+ * no temporary buffers are allocated, and no data is copied.
+ *
  * @param in the underlying input stream
  * @param tailSize the size of the tail buffer
  */
@@ -20,10 +27,10 @@ class TailStream(in: InputStream, val tailSize: Int) extends FilterInputStream(i
   /** Constant for the default skip buffer size. */
   private val SkipSize = 4096
 
-  /** The buffer in which the tail data is stored. */
-  private val tailBuffer = new Array[Byte](tailSize)
+  /** The ring buffer in which the tail data is stored. */
+  private val ringBuffer = new Array[Byte](math.max(tailSize, SkipSize))
 
-  /** A copy of the internal tail buffer used for mark() operations. */
+  /** A copy of the internal ring buffer used for mark() operations. */
   private var markBuffer: Array[Byte] = _
 
   /** The number of bytes that have been read so far. */
@@ -32,7 +39,7 @@ class TailStream(in: InputStream, val tailSize: Int) extends FilterInputStream(i
   /** The number of bytes read at the last mark() operation. */
   private var markBytesRead = 0L
 
-  /** The current index into the tail buffer. */
+  /** The index in the ring buffer at which the next byte is written. */
   private var currentIndex = 0
 
   /** A copy of the current index used for mark() operations. */
@@ -82,8 +89,7 @@ class TailStream(in: InputStream, val tailSize: Int) extends FilterInputStream(i
    * is called later.
    */
   override def mark(limit: Int) {
-    markBuffer = new Array(tailSize)
-    System.arraycopy(tailBuffer, 0, markBuffer, 0, tailSize)
+    markBuffer = ringBuffer.clone()
     markIndex = currentIndex
     markBytesRead = bytesRead
   }
@@ -95,7 +101,7 @@ class TailStream(in: InputStream, val tailSize: Int) extends FilterInputStream(i
    */
   override def reset() {
     if (markBuffer != null) {
-      System.arraycopy(markBuffer, 0, tailBuffer, 0, tailSize)
+      System.arraycopy(markBuffer, 0, ringBuffer, 0, ringBuffer.length)
       currentIndex = markIndex
       bytesRead = markBytesRead
     }
@@ -104,23 +110,25 @@ class TailStream(in: InputStream, val tailSize: Int) extends FilterInputStream(i
   /**
    * @inheritdoc This implementation calls the underlying stream's ''read()''
    * method to read the specified number of bytes. This ensures that even if
-   * skipping parts of the stream the tail buffer gets filled.
+   * skipping parts of the stream the tail buffer gets filled. The data is
+   * read directly into the ring buffer.
    */
   override def skip(count: Long): Long = {
-    val bufSize = math.min(count, SkipSize).toInt
-    val buf = new Array[Byte](bufSize)
     var bytesSkipped = 0L
-    var bytesRead = 0
-
-    while (bytesSkipped < count && bytesRead != -1) {
-      val len = math.min(bufSize, count - bytesSkipped).toInt
-      bytesRead = read(buf, 0, len)
-      if (bytesRead != -1) {
-        bytesSkipped += bytesRead
+    var read = 0
+
+    while (bytesSkipped < count && read != -1) {
+      val len = math.min(ringBuffer.length - currentIndex,
+        count - bytesSkipped).toInt
+      read = in.read(ringBuffer, currentIndex, len)
+      if (read > 0) {
+        currentIndex = (currentIndex + read) % ringBuffer.length
+        bytesRead += read
+        bytesSkipped += read
       }
     }
 
-    if (bytesRead < 0 && bytesSkipped == 0) -1
+    if (read < 0 && bytesSkipped == 0) -1
     else bytesSkipped
   }
 
@@ -134,8 +142,14 @@ class TailStream(in: InputStream, val tailSize: Int) extends FilterInputStream(i
   def tail: Array[Byte] = {
     val size = math.min(tailSize, bytesRead).toInt
     val result = new Array[Byte](size)
-    System.arraycopy(tailBuffer, currentIndex, result, 0, size - currentIndex)
-    System.arraycopy(tailBuffer, 0, result, size - currentIndex, currentIndex)
+    val start = currentIndex - size
+    if (start >= 0) {
+      System.arraycopy(ringBuffer, start, result, 0, size)
+    } else {
+      System.arraycopy(ringBuffer, ringBuffer.length + start, result, 0,
+        -start)
+      System.arraycopy(ringBuffer, 0, result, -start, currentIndex)
+    }
     result
   }
 
@@ -144,57 +158,28 @@ class TailStream(in: InputStream, val tailSize: Int) extends FilterInputStream(i
    * @param b the byte to be added
    */
   private def appendByte(b: Byte) {
-    tailBuffer(currentIndex) = b
+    ringBuffer(currentIndex) = b
     currentIndex += 1
-    if (currentIndex >= tailSize) {
+    if (currentIndex >= ringBuffer.length) {
       currentIndex = 0
     }
     bytesRead += 1
   }
 
   /**
-   * Adds the content of the given buffer to the internal tail buffer.
+   * Adds the content of the given buffer to the internal tail buffer. Only
+   * the last bytes of the buffer which are relevant for the tail are copied.
    * @param buf the buffer
    * @param ofs the start offset in the buffer
-   * @param length the number of bytes to be copied
+   * @param length the number of bytes read into the buffer
    */
   private def appendBuf(buf: Array[Byte], ofs: Int, length: Int) {
-    if (length >= tailSize) {
-      replaceTailBuffer(buf, ofs, length)
-    } else {
-      copyToTailBuffer(buf, ofs, length)
-    }
-
+    val count = math.min(length, tailSize)
+    val start = ofs + length - count
+    val size1 = math.min(ringBuffer.length - currentIndex, count)
+    System.arraycopy(buf, start, ringBuffer, currentIndex, size1)
+    System.arraycopy(buf, start + size1, ringBuffer, 0, count - size1)
+    currentIndex = (currentIndex + count) % ringBuffer.length
     bytesRead += length
   }
-
-  /**
-   * Replaces the content of the internal tail buffer by the last portion of the
-   * given buffer. This method is called if a buffer was read from the
-   * underlying stream whose length is larger than the tail buffer.
-   * @param buf the buffer
-   * @param ofs the start offset in the buffer
-   * @param length the number of bytes to be copied
-   */
-  private def replaceTailBuffer(buf: Array[Byte], ofs: Int, length: Int) {
-    System.arraycopy(buf, ofs + length - tailSize, tailBuffer, 0, tailSize)
-    currentIndex = 0
-  }
-
-  /**
-   * Copies the given buffer into the internal tail buffer at the current
-   * position. This method is called if a buffer is read from the underlying
-   * stream whose length is smaller than the tail buffer. In this case the
-   * tail buffer is only partly overwritten.
-   * @param buf the buffer
-   * @param ofs the start offset in the buffer
-   * @param length the number of bytes to be copied
-   */
-  private def copyToTailBuffer(buf: Array[Byte], ofs: Int, length: Int) {
-    val remaining = tailSize - currentIndex
-    val size1 = math.min(remaining, length)
-    System.arraycopy(buf, ofs, tailBuffer, currentIndex, size1)
-    System.arraycopy(buf, ofs + size1, tailBuffer, 0, length - size1)
-    currentIndex = (currentIndex + length) % tailSize
-  }
 }
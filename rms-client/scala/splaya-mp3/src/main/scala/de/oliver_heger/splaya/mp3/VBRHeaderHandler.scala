@@ -0,0 +1,136 @@
+package de.oliver_heger.splaya.mp3
+
+/**
+ * An object for evaluating the information headers written by MP3 encoders
+ * into the first frame of an audio file.
+ *
+ * Many encoders store an additional header in the first MPEG frame of an MP3
+ * file. This frame does not contain audio data, but meta information about
+ * the file. Especially, the total number of frames is contained, which allows
+ * calculating the duration of the file without iterating over all frames.
+ * This object supports the following headers:
+ * - ''Xing'' headers as written for files with variable bit rate, and ''Info''
+ * headers (which have the same format) as written by LAME for files with
+ * constant bit rate. These headers are located directly after the side
+ * information of the frame.
+ * - ''VBRI'' headers as written by the Fraunhofer encoder. They are located
+ * at a fixed position after the frame header.
+ */
+object VBRHeaderHandler {
+  /** The ID of a Xing header. */
+  private val XingID = "Xing".getBytes("ISO-8859-1")
+
+  /** The ID of an Info header. */
+  private val InfoID = "Info".getBytes("ISO-8859-1")
+
+  /** The ID of a VBRI header. */
+  private val VBRIID = "VBRI".getBytes("ISO-8859-1")
+
+  /** The offset of the flags field in a Xing header. */
+  private val XingFlagsOffset = 4
+
+  /** The offset of the frame count field in a Xing header. */
+  private val XingFramesOffset = 8
+
+  /** The flag indicating that a Xing header contains the number of frames. */
+  private val XingFlagFrames = 0x01
+
+  /** The position of a VBRI header in the frame body. */
+  private val VBRIOffset = 32
+
+  /** The offset of the frame count field in a VBRI header. */
+  private val VBRIFramesOffset = 14
+
+  /** The size of the side information for MPEG 1 stereo frames. */
+  private val SideInfoMpeg1Stereo = 32
+
+  /** The size of the side information for MPEG 1 mono frames. */
+  private val SideInfoMpeg1Mono = 17
+
+  /** The size of the side information for MPEG 2 stereo frames. */
+  private val SideInfoMpeg2Stereo = 17
+
+  /** The size of the side information for MPEG 2 mono frames. */
+  private val SideInfoMpeg2Mono = 9
+
+  /** The number of bits to shift a byte in a multi-byte number. */
+  private val ByteShift = 8
+
+  /**
+   * Determines the number of frames of an audio file from the information
+   * header in its first frame. The passed in array contains the data of the
+   * frame after the frame header. If a supported header is found which
+   * contains the number of frames, this number is returned. Otherwise, result
+   * is ''None''. Note that the frame with the information header is not
+   * included in this number.
+   * @param header the header of the frame
+   * @param body the data of the frame
+   * @return an option with the number of audio frames of the file
+   */
+  def frameCount(header: MpegHeader, body: Array[Byte]): Option[Long] =
+    if (header.layer != MpegHeader.Layer3) None
+    else xingFrameCount(body, sideInfoSize(header)) orElse vbriFrameCount(body)
+
+  /**
+   * Tries to obtain the number of frames from a Xing or Info header.
+   * @param body the data of the frame
+   * @param offset the offset of the header
+   * @return an option with the number of frames
+   */
+  private def xingFrameCount(body: Array[Byte], offset: Int): Option[Long] =
+    if ((hasID(body, offset, XingID) || hasID(body, offset, InfoID)) &&
+      body.length >= offset + XingFramesOffset + 4 &&
+      (readInt(body, offset + XingFlagsOffset) & XingFlagFrames) != 0)
+      Some(readInt(body, offset + XingFramesOffset))
+    else None
+
+  /**
+   * Tries to obtain the number of frames from a VBRI header.
+   * @param body the data of the frame
+   * @return an option with the number of frames
+   */
+  private def vbriFrameCount(body: Array[Byte]): Option[Long] =
+    if (hasID(body, VBRIOffset, VBRIID) &&
+      body.length >= VBRIOffset + VBRIFramesOffset + 4)
+      Some(readInt(body, VBRIOffset + VBRIFramesOffset))
+    else None
+
+  /**
+   * Determines the size of the side information of the given frame. A Xing
+   * header is located directly behind it.
+   * @param header the frame header
+   * @return the size of the side information
+   */
+  private def sideInfoSize(header: MpegHeader): Int = {
+    val mono = header.channelMode == MpegHeader.ChannelModeMono
+    if (header.mpegVersion == MpegHeader.MpegV1) {
+      if (mono) SideInfoMpeg1Mono else SideInfoMpeg1Stereo
+    } else {
+      if (mono) SideInfoMpeg2Mono else SideInfoMpeg2Stereo
+    }
+  }
+
+  /**
+   * Checks whether the given array contains the specified header ID at the
+   * given position.
+   * @param body the array to be checked
+   * @param offset the offset
+   * @param id the ID to be checked
+   * @return a flag whether the ID was found
+   */
+  private def hasID(body: Array[Byte], offset: Int, id: Array[Byte]): Boolean =
+    body.length >= offset + id.length &&
+      id.indices.forall(i => body(offset + i) == id(i))
+
+  /**
+   * Reads a 4 byte integer in big endian order from the given array. The
+   * result is unsigned.
+   * @param body the array
+   * @param offset the offset of the number
+   * @return the number read from the array
+   */
+  private def readInt(body: Array[Byte], offset: Int): Long =
+    (0 until 4).foldLeft(0L) { (value, i) =>
+      (value << ByteShift) | extractByte(body, offset + i)
+    }
+}
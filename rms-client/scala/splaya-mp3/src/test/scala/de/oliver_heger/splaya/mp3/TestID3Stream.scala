@@ -410,4 +410,36 @@ class TestID3Stream extends JUnitSuite {
     assertEquals("Wrong track", 11, provider.trackNo.get)
     assertFalse("Got a year", provider.inceptionYear.isDefined)
   }
+
+  /**
+   * Tests whether only the tags accepted by a filter are read.
+   */
+  @Test def testNextFrameWithTagFilter() {
+    val tagsOut = new ByteArrayOutputStream
+    var size = 0
+    size += writeV2Tag(tagsOut, "TT2", "Tit")
+    size += writeV2Tag(tagsOut, "PIC", streamgen.generateStreamContent(0, 200))
+    size += writeV2Tag(tagsOut, "TAL", "Alb")
+    val out = new ByteArrayOutputStream
+    out.write(createV2Header(size))
+    out.write(tagsOut.toByteArray)
+    out.write("MP3".getBytes)
+    stream = new ID3Stream(new ByteArrayInputStream(out.toByteArray))
+    val frame = stream.nextID3Frame(ID3Stream.ProviderTags).get
+    assertEquals("Wrong tags", Set("TT2", "TAL"), frame.tags.keySet)
+    checkID3Tag(frame, "TT2", "Tit")
+    checkID3Tag(frame, "TAL", "Alb")
+    assertEquals("Wrong position", 'M'.toInt, stream.read())
+  }
+
+  /**
+   * Tests whether a filter can be used to select specific tags of a file.
+   */
+  @Test def testNextFrameWithTagFilterFromFile() {
+    stream = streamForTestFile("test.mp3")
+    val frame = stream.nextID3Frame(Set("TIT2", "TRCK")).get
+    assertEquals("Wrong tags", Set("TIT2", "TRCK"), frame.tags.keySet)
+    checkID3Tag(frame, "TIT2", "Testtitle")
+    assertFalse("Got another frame", stream.nextID3Frame().isDefined)
+  }
 }
@@ -1,5 +1,7 @@
 package de.oliver_heger.splaya.mp3
 
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
 import java.io.InputStream
 
 import org.junit.Assert.assertEquals
@@ -10,6 +12,8 @@ import org.junit.Before
 import org.junit.Test
 import org.scalatest.junit.JUnitSuite
 
+import de.oliver_heger.splaya.fs.StreamSource
+
 /**
  * Test class for ''ID3MediaDataExtractor''.
  */
@@ -29,6 +33,133 @@ class TestMP3MediaDataExtractor extends JUnitSuite {
   private def streamForTestFile(name: String): InputStream =
     getClass.getResourceAsStream("/" + name)
 
+  /**
+   * Creates a stream source for the given data.
+   * @param data the content of the source
+   * @param canSeek the value of the seekable flag of the source
+   * @return the stream source
+   */
+  private def createSource(data: Array[Byte], canSeek: Boolean = true): StreamSource =
+    new StreamSource {
+      val size = data.length.toLong
+      def openStream(): InputStream = new ByteArrayInputStream(data)
+      override def seekable = canSeek
+    }
+
+  /**
+   * Creates a stream source for the given test file.
+   * @param name the name of the test file
+   * @return a stream source for this test file
+   */
+  private def sourceForTestFile(name: String): StreamSource = {
+    val bos = new ByteArrayOutputStream
+    val in = streamForTestFile(name)
+    try {
+      var c = in.read()
+      while (c != -1) {
+        bos.write(c)
+        c = in.read()
+      }
+    } finally {
+      in.close()
+    }
+    createSource(bos.toByteArray)
+  }
+
+  /**
+   * Writes an MPEG 1 layer 3 frame with a sample rate of 44100 Hz to the
+   * given stream. The frame has a duration of 26.12 ms. Optionally, an
+   * information header can be written into the frame.
+   * @param bos the target stream
+   * @param bitRateCode the code for the bit rate (9 = 128 kbps, 10 =
+   * 160 kbps)
+   * @param channelMode the channel mode
+   * @param info an optional tuple with the ID of an information header and
+   * its offset in the frame body
+   * @param frames the number of frames to be written into the header
+   */
+  private def writeFrame(bos: ByteArrayOutputStream, bitRateCode: Int = 9,
+    channelMode: Int = MpegHeader.ChannelModeStereo,
+    info: Option[(String, Int)] = None, frames: Int = 0) {
+    val header = MpegFrameScanner.decodeHeader(0xFB, bitRateCode << 4,
+      channelMode << 6).get
+    val frame = new Array[Byte](header.length)
+    frame(0) = 0xFF.toByte
+    frame(1) = 0xFB.toByte
+    frame(2) = (bitRateCode << 4).toByte
+    frame(3) = (channelMode << 6).toByte
+    info foreach { inf =>
+      val pos = MpegStream.HeaderSize + inf._2
+      val id = inf._1.getBytes("ISO-8859-1")
+      System.arraycopy(id, 0, frame, pos, id.length)
+      val countPos = if (inf._1 == "VBRI") pos + 14
+      else {
+        frame(pos + 7) = 1
+        pos + 8
+      }
+      frame(countPos + 2) = (frames >> 8).toByte
+      frame(countPos + 3) = frames.toByte
+    }
+    bos.write(frame)
+  }
+
+  /**
+   * Writes an ID3v1 frame with a title to the given stream.
+   * @param bos the target stream
+   */
+  private def writeID3v1Frame(bos: ByteArrayOutputStream) {
+    val frame = new Array[Byte](ID3v1Handler.FrameSize)
+    val data = "TAGID3v1 Title".getBytes("ISO-8859-1")
+    System.arraycopy(data, 0, frame, 0, data.length)
+    bos.write(frame)
+  }
+
+  /**
+   * Creates the content of a test audio file with an information header in
+   * the first frame. The file contains only a few audio frames, but the
+   * header claims a large number of frames.
+   * @param id the ID of the information header
+   * @param offset the offset of the header in the frame body
+   * @param channelMode the channel mode
+   * @return the content of the test file
+   */
+  private def createInfoHeaderFile(id: String, offset: Int,
+    channelMode: Int = MpegHeader.ChannelModeStereo): Array[Byte] = {
+    val bos = new ByteArrayOutputStream
+    writeFrame(bos, channelMode = channelMode, info = Some((id, offset)),
+      frames = 1000)
+    for (i <- 0 until 5) {
+      writeFrame(bos, channelMode = channelMode)
+    }
+    bos.toByteArray
+  }
+
+  /**
+   * Creates the content of a test audio file consisting of the given number
+   * of frames with the specified bit rate codes and an ID3v1 frame.
+   * @param count the number of frames
+   * @param bitRateCodes a sequence of bit rate codes used for the frames
+   * @return the content of the test file
+   */
+  private def createFramesFile(count: Int, bitRateCodes: Seq[Int]): Array[Byte] = {
+    val bos = new ByteArrayOutputStream
+    for (i <- 0 until count) {
+      writeFrame(bos, bitRateCode = bitRateCodes(i % bitRateCodes.size))
+    }
+    writeID3v1Frame(bos)
+    bos.toByteArray
+  }
+
+  /**
+   * Sets the duration mode of the test extractor.
+   * @param mode the duration mode
+   */
+  private def setDurationMode(mode: String) {
+    val props = new java.util.HashMap[String, Object]
+    props.put(MP3MediaDataExtractor.PropDurationMode, mode)
+    extractor.activate(props)
+  }
+
   /**
    * Tests whether data from an MP3 file with ID3v2 tags can be extracted.
    */
@@ -99,6 +230,127 @@ class TestMP3MediaDataExtractor extends JUnitSuite {
     assertFalse("Got data", optData.isDefined)
   }
 
+  /**
+   * Tests whether the duration is obtained from a Xing header.
+   */
+  @Test def testDurationFromXingHeader() {
+    val data = createInfoHeaderFile("Xing", 32)
+    val optData = extractor.extractData(new ByteArrayInputStream(data))
+    assertEquals("Wrong duration", 26122, optData.get.duration)
+  }
+
+  /**
+   * Tests whether the duration is obtained from an Info header in a mono
+   * file.
+   */
+  @Test def testDurationFromInfoHeaderMono() {
+    val data = createInfoHeaderFile("Info", 17, MpegHeader.ChannelModeMono)
+    val optData = extractor.extractData(createSource(data))
+    assertEquals("Wrong duration", 26122, optData.get.duration)
+  }
+
+  /**
+   * Tests whether the duration is obtained from a VBRI header.
+   */
+  @Test def testDurationFromVBRIHeader() {
+    val data = createInfoHeaderFile("VBRI", 32)
+    val optData = extractor.extractData(new ByteArrayInputStream(data))
+    assertEquals("Wrong duration", 26122, optData.get.duration)
+  }
+
+  /**
+   * Tests that information headers are ignored in strict mode.
+   */
+  @Test def testInfoHeaderStrictMode() {
+    setDurationMode("Strict")
+    assertTrue("Wrong mode", extractor.isStrictDuration)
+    val data = createInfoHeaderFile("Xing", 32)
+    assertFalse("Got data",
+      extractor.extractData(new ByteArrayInputStream(data)).isDefined)
+  }
+
+  /**
+   * Tests whether the duration of a file with a constant bit rate is
+   * estimated based on the size of a source.
+   */
+  @Test def testDurationConstantBitRateFromSource() {
+    val optData = extractor.extractData(createSource(createFramesFile(201,
+      List(9))))
+    val data = optData.get
+    assertEquals("Wrong duration", 5239, data.duration)
+    assertEquals("Wrong title", "ID3v1 Title", data.title)
+  }
+
+  /**
+   * Tests that all frames are processed for a source in strict mode.
+   */
+  @Test def testDurationConstantBitRateFromSourceStrictMode() {
+    setDurationMode(MP3MediaDataExtractor.DurationModeStrict)
+    val optData = extractor.extractData(createSource(createFramesFile(201,
+      List(9))))
+    val data = optData.get
+    assertEquals("Wrong duration", 5251, data.duration)
+    assertEquals("Wrong title", "ID3v1 Title", data.title)
+  }
+
+  /**
+   * Tests that the duration is not estimated for a source which is not
+   * seekable. Such a source is read in a single pass.
+   */
+  @Test def testDurationConstantBitRateFromNonSeekableSource() {
+    val optData = extractor.extractData(createSource(createFramesFile(201,
+      List(9)), canSeek = false))
+    val data = optData.get
+    assertEquals("Wrong duration", 5251, data.duration)
+    assertEquals("Wrong title", "ID3v1 Title", data.title)
+  }
+
+  /**
+   * Tests whether all frames are processed if the bit rate is not constant.
+   */
+  @Test def testDurationVariableBitRateFromSource() {
+    val optData = extractor.extractData(createSource(createFramesFile(60,
+      List(9, 10))))
+    assertEquals("Wrong duration", 1567, optData.get.duration)
+  }
+
+  /**
+   * Tests whether data can be extracted from a source for a test file.
+   */
+  @Test def testExtractDataFromSource() {
+    val optData = extractor.extractData(sourceForTestFile(
+      "testMultiID3Frames.mp3"))
+    val data = optData.get
+    assertEquals("Wrong title", "Title_v2", data.title)
+    assertEquals("Wrong artist", "Artist_v1", data.artistName)
+    assertEquals("Wrong duration", 6, data.duration / 1000)
+  }
+
+  /**
+   * Tests a source which does not contain an MP3 file.
+   */
+  @Test def testExtractDataFromSourceNoMP3() {
+    assertFalse("Got data",
+      extractor.extractData(sourceForTestFile("test.wav")).isDefined)
+  }
+
+  /**
+   * Tests that fast mode is the default.
+   */
+  @Test def testDefaultDurationMode() {
+    assertFalse("Strict mode", extractor.isStrictDuration)
+    setDurationMode(MP3MediaDataExtractor.DurationModeFast)
+    assertFalse("Strict mode after activate", extractor.isStrictDuration)
+  }
+
+  /**
+   * Tests whether an invalid duration mode is rejected.
+   */
+  @Test(expected = classOf[IllegalArgumentException])
+  def testInvalidDurationMode() {
+    setDurationMode("unknown")
+  }
+
   /**
    * Tests whether a number of frames is correctly sorted.
    */
@@ -0,0 +1,203 @@
+package de.oliver_heger.splaya.mp3
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+
+/**
+ * Test class for ''MpegFrameScanner''.
+ */
+class TestMpegFrameScanner extends JUnitSuite {
+  /** Constant for the length of the test frame. */
+  private val FrameLength = 480
+
+  /**
+   * Returns an input stream for the test file with the given name.
+   * @param name the name of the test audio file
+   * @return an input stream for this file
+   */
+  private def testStream(name: String): InputStream =
+    getClass.getResourceAsStream("/" + name)
+
+  /**
+   * Writes a valid frame header (MPEG 2, layer 3, 80 kbps, 24000 Hz) to the
+   * given stream. The frame has a length of 480 bytes; the content of the
+   * frame after the header is filled with the given byte.
+   * @param bos the target stream
+   * @param fill the byte for the frame content
+   */
+  private def writeFrame(bos: ByteArrayOutputStream, fill: Int) {
+    bos.write(0xFF)
+    bos.write(0xF3)
+    bos.write(0x94)
+    bos.write(0)
+    for (i <- 4 until FrameLength) {
+      bos.write(fill)
+    }
+  }
+
+  /**
+   * Creates a scanner for the given data.
+   * @param bos the stream with the data
+   * @param bufferSize the buffer size of the scanner
+   * @return the scanner
+   */
+  private def createScanner(bos: ByteArrayOutputStream, bufferSize: Int) =
+    new MpegFrameScanner(new ByteArrayInputStream(bos.toByteArray), bufferSize)
+
+  /**
+   * Tests whether a header spanning buffer boundaries is found.
+   */
+  @Test def testNextFrameAcrossBufferBoundary() {
+    val bos = new ByteArrayOutputStream
+    for (i <- 0 until 7) {
+      bos.write(0)
+    }
+    writeFrame(bos, 0)
+    val scanner = createScanner(bos, 8)
+    val header = scanner.nextFrame().get
+    assertEquals("Wrong MPEG version", MpegHeader.MpegV2, header.mpegVersion)
+    assertEquals("Wrong layer", MpegHeader.Layer3, header.layer)
+    assertEquals("Wrong bit rate", 80000, header.bitRate)
+    assertEquals("Wrong sample rate", 24000, header.sampleRate)
+    assertEquals("Wrong length", FrameLength, header.length)
+  }
+
+  /**
+   * Tests whether frames are skipped correctly, both inside the buffer and
+   * in the underlying stream.
+   */
+  @Test def testSkipFrames() {
+    val bos = new ByteArrayOutputStream
+    for (i <- 0 until 5) {
+      writeFrame(bos, 0)
+    }
+    for (bufSize <- List(64, 1024, 8192)) {
+      val scanner = createScanner(bos, bufSize)
+      var count = 0
+      while (scanner.nextFrame().isDefined) {
+        assertTrue("Could not skip", scanner.skipFrame())
+        count += 1
+      }
+      assertEquals("Wrong number of frames for " + bufSize, 5, count)
+    }
+  }
+
+  /**
+   * Tests whether data can be read after a frame header.
+   */
+  @Test def testReadAfterHeader() {
+    val bos = new ByteArrayOutputStream
+    writeFrame(bos, 0x42)
+    val scanner = createScanner(bos, 16)
+    scanner.nextFrame()
+    val data = new Array[Byte](FrameLength)
+    var total = 0
+    var read = scanner.read(data, 0, data.length)
+    while (read > 0) {
+      total += read
+      read = scanner.read(data, total, data.length - total)
+    }
+    assertEquals("Wrong number of bytes", FrameLength - 4, total)
+    assertTrue("Wrong data", data.take(total) forall (_ == 0x42))
+    assertEquals("Not at end", -1, scanner.read())
+  }
+
+  /**
+   * Tests whether the data of a frame can be read.
+   */
+  @Test def testReadFrameBody() {
+    val bos = new ByteArrayOutputStream
+    bos.write(0)
+    writeFrame(bos, 0x42)
+    writeFrame(bos, 0x11)
+    val scanner = createScanner(bos, 64)
+    scanner.nextFrame()
+    assertEquals("Wrong position", 5, scanner.position)
+    val body = scanner.readFrameBody().get
+    assertEquals("Wrong length", FrameLength - 4, body.length)
+    assertTrue("Wrong data", body forall (_ == 0x42))
+    assertEquals("Wrong position after read", FrameLength + 1,
+      scanner.position)
+    assert(None === scanner.readFrameBody())
+    scanner.nextFrame()
+    assertTrue("Wrong data of 2nd frame",
+      scanner.readFrameBody().get forall (_ == 0x11))
+  }
+
+  /**
+   * Tests readFrameBody() if the stream ends within the frame.
+   */
+  @Test def testReadFrameBodyTruncated() {
+    val bos = new ByteArrayOutputStream
+    writeFrame(bos, 0x42)
+    val data = bos.toByteArray.take(100)
+    val scanner = new MpegFrameScanner(new ByteArrayInputStream(data), 16)
+    scanner.nextFrame()
+    assertEquals("Wrong length", 96, scanner.readFrameBody().get.length)
+  }
+
+  /**
+   * Tests whether the position takes skipped frames into account.
+   */
+  @Test def testPositionAfterSkip() {
+    val bos = new ByteArrayOutputStream
+    for (i <- 0 until 3) {
+      writeFrame(bos, 0)
+    }
+    val scanner = createScanner(bos, 16)
+    scanner.nextFrame()
+    scanner.skipFrame()
+    scanner.nextFrame()
+    assertEquals("Wrong position", FrameLength + 4, scanner.position)
+    scanner.skipFrame()
+    assertEquals("Wrong end position", 2 * FrameLength, scanner.position)
+  }
+
+  /**
+   * Tests whether the channel mode is decoded.
+   */
+  @Test def testDecodeHeaderChannelMode() {
+    assertEquals("Wrong channel mode", MpegHeader.ChannelModeMono,
+      MpegFrameScanner.decodeHeader(0xFB, 0x90, 0xC0).get.channelMode)
+    assertEquals("Wrong default mode", MpegHeader.ChannelModeStereo,
+      MpegFrameScanner.decodeHeader(0xFB, 0x90, 0x00).get.channelMode)
+  }
+
+  /**
+   * Tests that skipFrame() has no effect if there is no current frame.
+   */
+  @Test def testSkipFrameNoHeader() {
+    val bos = new ByteArrayOutputStream
+    writeFrame(bos, 0)
+    assertFalse("Wrong result", createScanner(bos, 16).skipFrame())
+  }
+
+  /**
+   * Tests whether the duration of the whole file is determined correctly.
+   */
+  @Test def testRemainingDuration() {
+    val id3Stream = new ID3Stream(testStream("test.mp3"))
+    id3Stream.skipID3()
+    val scanner = new MpegFrameScanner(id3Stream)
+    val duration = scala.math.round(scanner.remainingDuration())
+    assertTrue("Wrong duration: " + duration,
+      scala.math.abs(10842 - duration) < 100)
+    assert(None === scanner.nextFrame())
+  }
+
+  /**
+   * Tests decodeHeader() for invalid data.
+   */
+  @Test def testDecodeHeaderInvalid() {
+    assert(None === MpegFrameScanner.decodeHeader(0xEB, 0x96, 0))
+    assert(None === MpegFrameScanner.decodeHeader(0xF3, 0xF0, 0))
+    assert(None === MpegFrameScanner.decodeHeader(0x13, 0x96, 0))
+  }
+}
@@ -146,6 +146,30 @@ class TestMpegStream extends JUnit3Suite {
     checkDuration("test2.mp3", 6734)
   }
 
+  /**
+   * Tests whether data can be read from the stream after a frame header has
+   * been found. Pushed back data has to be taken into account.
+   */
+  @Test def testReadAfterFrameHeader() {
+    val bos = new ByteArrayOutputStream
+    bos.write(0xFF)
+    bos.write(0xF3)
+    bos.write(0x96)
+    bos.write(0)
+    bos.write(1)
+    bos.write(2)
+    stream = new MpegStream(new ByteArrayInputStream(bos.toByteArray))
+    assertTrue("No header found", stream.nextFrame().isDefined)
+    assertEquals("Wrong available", 2, stream.available())
+    assertEquals("Wrong byte (1)", 1, stream.read())
+    stream.unread(1)
+    val buf = new Array[Byte](4)
+    assertEquals("Wrong count (1)", 1, stream.read(buf, 0, 4))
+    assertEquals("Wrong count (2)", 1, stream.read(buf, 1, 3))
+    assertEquals("Wrong content", List[Byte](1, 2), buf.take(2).toList)
+    assertEquals("Not at end", -1, stream.read())
+  }
+
   /**
    * Tries to skip a frame if no current header is available.
    */
@@ -110,6 +110,40 @@ class TestTailStream extends JUnitSuite {
         === new String(stream.tail))
   }
 
+  /**
+   * Tests whether the tail is correct if skip() operations wrap around the
+   * end of the internal ring buffer.
+   */
+  @Test def testSkipWrapAround() {
+    val tailSize = 128
+    val count = 10000
+    val stream = new TailStream(streamgen.nextStream(count), tailSize)
+    var pos = 0
+    while (pos < count - 1000) {
+      assert(1000 === stream.skip(1000))
+      pos += 1000
+      assert(streamgen.generateStreamContent(pos - tailSize, tailSize)
+        === new String(stream.tail))
+    }
+  }
+
+  /**
+   * Tests whether skip() and read() operations can be mixed.
+   */
+  @Test def testSkipAndRead() {
+    val tailSize = 100
+    val count = 5000
+    val stream = new TailStream(streamgen.nextStream(count), tailSize)
+    assert(4090 === stream.skip(4090))
+    val buf = new Array[Byte](20)
+    assert(20 === stream.read(buf))
+    assert(streamgen.generateStreamContent(4010, tailSize)
+      === new String(stream.tail))
+    stream.read()
+    assert(streamgen.generateStreamContent(4011, tailSize)
+      === new String(stream.tail))
+  }
+
   /**
    * Tests a skip() operation at the end of the stream.
    */
@@ -0,0 +1,70 @@
+package de.oliver_heger.splaya.mp3
+
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+
+/**
+ * Test class for ''VBRHeaderHandler''.
+ */
+class TestVBRHeaderHandler extends JUnitSuite {
+  /** A header for an MPEG 2 layer 3 stereo frame. */
+  private val Mpeg2Header = MpegFrameScanner.decodeHeader(0xF3, 0x94, 0).get
+
+  /**
+   * Creates a frame body with a Xing header at the given position.
+   * @param offset the offset of the Xing header
+   * @param flags the flags of the header
+   * @return the frame body
+   */
+  private def createXingBody(offset: Int, flags: Int): Array[Byte] = {
+    val body = new Array[Byte](Mpeg2Header.length - MpegStream.HeaderSize)
+    val id = "Xing".getBytes("ISO-8859-1")
+    System.arraycopy(id, 0, body, offset, id.length)
+    body(offset + 7) = flags.toByte
+    body(offset + 8) = 0x80.toByte
+    body(offset + 11) = 0x01
+    body
+  }
+
+  /**
+   * Tests whether the number of frames can be obtained from a Xing header in
+   * an MPEG 2 frame. The number is treated as unsigned.
+   */
+  @Test def testFrameCountXingMpeg2() {
+    val body = createXingBody(17, 0x0F)
+    assert(Some(0x80000001L) === VBRHeaderHandler.frameCount(Mpeg2Header, body))
+  }
+
+  /**
+   * Tests that a Xing header without the frames flag is ignored.
+   */
+  @Test def testFrameCountXingNoFramesFlag() {
+    val body = createXingBody(17, 0x0E)
+    assert(None === VBRHeaderHandler.frameCount(Mpeg2Header, body))
+  }
+
+  /**
+   * Tests that a Xing header at a wrong position is ignored.
+   */
+  @Test def testFrameCountXingWrongOffset() {
+    val body = createXingBody(32, 0x0F)
+    assert(None === VBRHeaderHandler.frameCount(Mpeg2Header, body))
+  }
+
+  /**
+   * Tests that frames of other layers are not evaluated.
+   */
+  @Test def testFrameCountOtherLayer() {
+    val body = createXingBody(17, 0x0F)
+    val header = Mpeg2Header.copy(layer = MpegHeader.Layer2)
+    assert(None === VBRHeaderHandler.frameCount(header, body))
+  }
+
+  /**
+   * Tests frameCount() for a body which is too short.
+   */
+  @Test def testFrameCountShortBody() {
+    val body = createXingBody(17, 0x0F).take(25)
+    assert(None === VBRHeaderHandler.frameCount(Mpeg2Header, body))
+  }
+}
@@ -5,6 +5,8 @@ import java.math.BigInteger
 import java.util.EventListener
 
 import scala.actors.Actor
+import scala.actors.TIMEOUT
+import scala.collection.mutable.LinkedHashMap
 
 import org.slf4j.LoggerFactory
 
@@ -33,10 +35,29 @@ import de.oliver_heger.splaya.PlaylistUpdate
  * information is retrieved. So this constellation - although unlikely - has to
  * be taken into account.
  *
+ * Each update of the media store is a transaction on the local database.
+ * Therefore, songs which have been played are not written immediately, but
+ * collected in a batch. Repeated plays of the same song are merged into a
+ * single play count. The batch is passed to the media store when it reaches
+ * a configurable size, when the oldest song in the batch has been waiting
+ * longer than a configurable interval, when a new playlist is started, and
+ * when this actor shuts down.
+ *
  * @param store a reference to the ''MediaStore'' service
+ * @param batchSize the number of songs after which the media store is updated
+ * @param flushInterval the maximum time (in milliseconds) songs are kept in
+ * the batch before the media store is updated
  */
-class StoreListenerActor(val store: MediaStore) extends Actor
-  with EventListener {
+class StoreListenerActor(val store: MediaStore, val batchSize: Int,
+  val flushInterval: Long) extends Actor with EventListener {
+  /**
+   * Creates a new instance of ''StoreListenerActor'' with default settings
+   * for batch updates.
+   * @param store a reference to the ''MediaStore'' service
+   */
+  def this(store: MediaStore) = this(store,
+    StoreListenerActor.DefaultBatchSize, StoreListenerActor.DefaultFlushInterval)
+
   /** Constant for the milliseconds factor. */
   private val Millis = 1000
 
@@ -55,19 +76,31 @@ class StoreListenerActor(val store: MediaStore) extends Actor
   /** The current playlist. */
   private var playlist: Option[PlaylistData] = None
 
+  /**
+   * A map with the playlist items waiting to be written into the media store
+   * and their play counts.
+   */
+  private val pendingItems = LinkedHashMap.empty[Int, Int]
+
+  /** The time when the oldest pending item was added. */
+  private var pendingSince = 0L
+
   def act() {
     var running = true
 
     while (running) {
-      receive {
+      receiveWithin(flushInterval) {
         case cl: Closeable =>
+          flushPendingItems()
           cl.close()
           running = false
 
         case PlayerShutdown =>
+          flushPendingItems()
           running = false
 
         case pl: PlaylistData =>
+          flushPendingItems()
           initPlaylist(pl)
 
         case PlaylistUpdate(_, idx) =>
@@ -82,8 +115,14 @@ class StoreListenerActor(val store: MediaStore) extends Actor
             storeAudioDataIfRequired(src.index)
           }
 
+        case TIMEOUT => // check for pending items below
+
         case _ => // ignore other messages
       }
+
+      if (running) {
+        checkFlushInterval()
+      }
     }
 
     log.info("StoreListenerActor exits.")
@@ -121,19 +160,65 @@ class StoreListenerActor(val store: MediaStore) extends Actor
   }
 
   /**
-   * Updates the local media store with information about the specified playlist
-   * item if this information is available. This method is called whenever an
-   * audio source was played or audio data was retrieved. If all conditions are
-   * fulfilled, a ''SongData'' object is created for the playlist item, and the
-   * media store service is called.
+   * Records that the media store has to be updated with information about the
+   * specified playlist item if this information is available. This method is
+   * called whenever an audio source was played or audio data was retrieved.
+   * If all conditions are fulfilled, the play count of the item is added to
+   * the current batch. If the batch is full, the media store is updated.
    * @param idx the index of the affected playlist item
    */
   private def storeAudioDataIfRequired(idx: Int) {
     if (playedSources(idx) > 0 && mediaDataAvailable(idx)) {
-      log.info("Storing audio information for playlist item {}.", idx)
-      val data = createSongData(playlist.get.getAudioSourceData(idx))
-      store.updateSongData(data, playedSources(idx))
+      if (pendingItems.isEmpty) {
+        pendingSince = System.currentTimeMillis()
+      }
+      pendingItems(idx) = pendingItems.getOrElse(idx, 0) + playedSources(idx)
       playedSources(idx) = 0
+
+      if (pendingItems.size >= batchSize) {
+        flushPendingItems()
+      }
+    }
+  }
+
+  /**
+   * Updates the media store if the oldest pending item has been waiting
+   * longer than the flush interval.
+   */
+  private def checkFlushInterval() {
+    if (!pendingItems.isEmpty &&
+      System.currentTimeMillis() - pendingSince >= flushInterval) {
+      flushPendingItems()
     }
   }
+
+  /**
+   * Writes all pending playlist items into the media store. For each item a
+   * ''SongData'' object is created, and the media store service is called
+   * once for the whole batch.
+   */
+  private def flushPendingItems() {
+    if (!pendingItems.isEmpty) {
+      log.info("Storing audio information for {} playlist items.",
+        pendingItems.size)
+      val playCounts = new java.util.LinkedHashMap[SongData, Integer]
+      for ((idx, count) <- pendingItems) {
+        playCounts.put(createSongData(playlist.get.getAudioSourceData(idx)),
+          Integer.valueOf(count))
+      }
+      store.updateSongData(playCounts)
+      pendingItems.clear()
+    }
+  }
+}
+
+/**
+ * The companion object for ''StoreListenerActor''.
+ */
+object StoreListenerActor {
+  /** The default number of songs after which the media store is updated. */
+  val DefaultBatchSize = 10
+
+  /** The default interval (in milliseconds) for updating the media store. */
+  val DefaultFlushInterval = 5 * 60 * 1000L
 }
@@ -1,12 +1,15 @@
 package de.oliver_heger.mediastore.storelistener
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
 import scala.actors.Actor
 
-import org.easymock.EasyMock.{eq => matchEq}
 import org.easymock.IAnswer
 import org.easymock.EasyMock
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 import org.scalatest.junit.JUnitSuite
@@ -104,18 +107,39 @@ class TestStoreListenerActor extends JUnitSuite with EasyMockSugar
 
   /**
    * Prepares the mock for the media store to expect an update operation.
-   * @param playCount the number of times the song was played
+   * @param playCounts the expected play counts of the songs in the batch
+   * @param latch an optional latch to be triggered when the update happens
    */
-  private def expectMediaStoreUpdate(playCount: Int = 1) {
-    store.updateSongData(EasyMock.anyObject(), matchEq(playCount))
+  private def expectMediaStoreUpdate(playCounts: List[Int] = List(1),
+    latch: CountDownLatch = new CountDownLatch(1)) {
+    store.updateSongData(EasyMock.anyObject[java.util.Map[SongData, Integer]]())
     EasyMock.expectLastCall().andAnswer(new IAnswer[Unit]() {
       def answer() {
-        val data = EasyMock.getCurrentArguments()(0).asInstanceOf[SongData]
-        checkSongData(data)
+        val data = EasyMock.getCurrentArguments()(0)
+          .asInstanceOf[java.util.Map[SongData, Integer]]
+        assertEquals("Wrong number of songs", playCounts.size, data.size)
+        val it = data.entrySet.iterator
+        for (count <- playCounts) {
+          val e = it.next()
+          checkSongData(e.getKey)
+          assertEquals("Wrong play count", count, e.getValue.intValue)
+        }
+        latch.countDown()
       }
     })
   }
 
+  /**
+   * Sends messages to the test actor which cause the song with the given
+   * index to be recorded as played.
+   * @param plData the playlist data
+   * @param idx the index of the song
+   */
+  private def playSong(plData: PlaylistData, idx: Int) {
+    actor ! PlaylistUpdate(plData, idx)
+    actor ! PlaybackSourceEnd(createAudioSource(idx), false)
+  }
+
   /**
    * Tests whether the specified song data object contains the expected
    * information.
@@ -154,7 +178,7 @@ class TestStoreListenerActor extends JUnitSuite with EasyMockSugar
     val plData = createPlaylistData()
     val src = createAudioSource(Index)
     EasyMock.expect(plData.getAudioSourceData(Index)).andReturn(createSourceData())
-    expectMediaStoreUpdate(2)
+    expectMediaStoreUpdate(List(2))
     whenExecuting(store, plData) {
       actor ! plData
       actor ! PlaybackSourceEnd(src, false)
@@ -165,16 +189,15 @@ class TestStoreListenerActor extends JUnitSuite with EasyMockSugar
   }
 
   /**
-   * Tests whether internal counters are reset after a source has been stored.
-   * If the source is played a second time, play count should be 1 again.
+   * Tests whether repeated plays of a source which has already been added to
+   * the current batch are merged into a single play count.
    */
   @Test def testAudioSourcePlayedMultipleTimes() {
     val plData = createPlaylistData()
     val src = createAudioSource(Index)
     EasyMock.expect(plData.getAudioSourceData(Index))
-      .andReturn(createSourceData()).times(2)
-    expectMediaStoreUpdate()
-    expectMediaStoreUpdate()
+      .andReturn(createSourceData())
+    expectMediaStoreUpdate(List(2))
     whenExecuting(store, plData) {
       actor ! plData
       actor ! PlaybackSourceEnd(src, false)
@@ -184,6 +207,68 @@ class TestStoreListenerActor extends JUnitSuite with EasyMockSugar
     }
   }
 
+  /**
+   * Tests whether the media store is updated when the batch is full.
+   */
+  @Test def testBatchSizeReached() {
+    closeActor(actor)
+    actor = new StoreListenerActor(store, 2, 60000)
+    actor.start()
+    val plData = createPlaylistData()
+    for (i <- 1 to 3) {
+      EasyMock.expect(plData.getAudioSourceData(i)).andReturn(createSourceData())
+    }
+    val latch = new CountDownLatch(1)
+    expectMediaStoreUpdate(List(1, 1), latch)
+    expectMediaStoreUpdate()
+    whenExecuting(store, plData) {
+      actor ! plData
+      playSong(plData, 1)
+      playSong(plData, 2)
+      assertTrue("No update", latch.await(5, TimeUnit.SECONDS))
+      playSong(plData, 3)
+      shutdownActor()
+    }
+  }
+
+  /**
+   * Tests whether the media store is updated when the flush interval is
+   * exceeded.
+   */
+  @Test def testFlushIntervalExceeded() {
+    closeActor(actor)
+    actor = new StoreListenerActor(store, 100, 50)
+    actor.start()
+    val plData = createPlaylistData()
+    EasyMock.expect(plData.getAudioSourceData(Index)).andReturn(createSourceData())
+    val latch = new CountDownLatch(1)
+    expectMediaStoreUpdate(latch = latch)
+    whenExecuting(store, plData) {
+      actor ! plData
+      playSong(plData, Index)
+      assertTrue("No update", latch.await(5, TimeUnit.SECONDS))
+      shutdownActor()
+    }
+  }
+
+  /**
+   * Tests whether pending songs are written when a new playlist is started.
+   */
+  @Test def testNewPlaylistFlushesBatch() {
+    val plData = createPlaylistData()
+    val plData2 = createPlaylistData()
+    EasyMock.expect(plData.getAudioSourceData(Index)).andReturn(createSourceData())
+    val latch = new CountDownLatch(1)
+    expectMediaStoreUpdate(latch = latch)
+    whenExecuting(store, plData, plData2) {
+      actor ! plData
+      playSong(plData, Index)
+      actor ! plData2
+      assertTrue("No update", latch.await(5, TimeUnit.SECONDS))
+      shutdownActor()
+    }
+  }
+
   /**
    * Tests that the actor ignores messages if no current playlist is set (this
    * should not happen in practice, but to be on the safe side...).
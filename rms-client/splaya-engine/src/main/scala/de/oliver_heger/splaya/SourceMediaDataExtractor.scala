@@ -0,0 +1,30 @@
+package de.oliver_heger.splaya
+import de.oliver_heger.splaya.fs.StreamSource
+
+/**
+ * A specialized ''MediaDataExtractor'' which can process a
+ * [[de.oliver_heger.splaya.fs.StreamSource]] directly.
+ *
+ * A plain ''MediaDataExtractor'' is passed a stream which has to be read
+ * sequentially from the start. For some media formats meta data is located at
+ * specific positions, e.g. at the beginning and the end of a file. An
+ * extractor implementing this trait gets access to the stream source and can
+ * therefore read only the ranges it is interested in using the
+ * ''openRange()'' or ''openTail()'' methods. If a source supports random
+ * access, the effort for extracting meta data then depends on the size of
+ * these ranges rather than on the size of the whole file.
+ *
+ * Callers check whether an extractor implements this trait and, if so,
+ * invoke the ''extractData()'' method for stream sources.
+ */
+trait SourceMediaDataExtractor extends MediaDataExtractor {
+  /**
+   * Extracts meta data from the given stream source if possible. This method
+   * works like the method with the same name expecting a stream. However, the
+   * implementation is responsible for opening and closing all streams it
+   * needs. Exceptions can be thrown, they have to be handled by the caller.
+   * @param source the stream source to be processed
+   * @return an ''Option'' object with extracted meta data
+   */
+  def extractData(source: StreamSource): Option[AudioSourceData]
+}
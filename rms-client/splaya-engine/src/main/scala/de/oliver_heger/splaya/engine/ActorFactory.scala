@@ -10,6 +10,9 @@ import de.oliver_heger.splaya.fs.FSService
 import de.oliver_heger.splaya.osgiutil.ServiceWrapper
 import de.oliver_heger.splaya.playlist.impl.AudioSourceDataExtractor
 import de.oliver_heger.splaya.playlist.impl.AudioSourceDataExtractorActor
+import de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndex
+import de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndexActor
+import de.oliver_heger.splaya.playlist.impl.ExtractionConcurrency
 import de.oliver_heger.splaya.playlist.impl.PlaylistCreationActor
 import de.oliver_heger.splaya.playlist.impl.PlaylistCtrlActor
 import de.oliver_heger.splaya.playlist.impl.PlaylistDataExtractorActor
@@ -100,16 +103,34 @@ trait ActorFactory {
   def createAudioSourceDataExtractorActor(extr: AudioSourceDataExtractor): Actor =
     new AudioSourceDataExtractorActor(extr)
 
+  /**
+   * Creates the actor which fills the index with audio meta data in
+   * background.
+   * @param extrActor the actor which handles meta data extraction for a single
+   * audio file
+   * @param fsService a reference to the ''FSService''
+   * @param index the index with audio meta data
+   * @return the index actor
+   */
+  def createAudioSourceDataIndexActor(extrActor: Actor,
+    fsService: ServiceWrapper[FSService], index: AudioSourceDataIndex): Actor =
+    new AudioSourceDataIndexActor(extrActor, fsService, index)
+
   /**
    * Creates the actor responsible for extracting audio meta data for a whole
    * playlist.
    * @param gateway the gateway
    * @param extrActor the actor which handles meta data extraction for a single
    * audio file
+   * @param concurrency the object determining the number of parallel
+   * extraction requests for a source medium
+   * @param index an optional index with audio meta data
    * @return the playlist data extractor actor
    */
-  def createPlaylistDataExtractorActor(gateway: Gateway, extrActor: Actor): Actor =
-    new PlaylistDataExtractorActor(gateway, extrActor)
+  def createPlaylistDataExtractorActor(gateway: Gateway, extrActor: Actor,
+    concurrency: ExtractionConcurrency = ExtractionConcurrency.Default,
+    index: Option[AudioSourceDataIndex] = None): Actor =
+    new PlaylistDataExtractorActor(gateway, extrActor, concurrency, index)
 
   /**
    * Creates the actor which controls the playlist.
@@ -1,4 +1,5 @@
 package de.oliver_heger.splaya.engine;
+import java.io.File
 import java.util.Locale
 
 import scala.Array.canBuildFrom
@@ -16,6 +17,9 @@ import de.oliver_heger.splaya.osgiutil.ServiceWrapper
 import de.oliver_heger.splaya.playlist.impl.AddMediaDataExtractor
 import de.oliver_heger.splaya.playlist.impl.AddPlaylistGenerator
 import de.oliver_heger.splaya.playlist.impl.AudioSourceDataExtractorImpl
+import de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndex
+import de.oliver_heger.splaya.playlist.impl.ExtractionConcurrency
+import de.oliver_heger.splaya.playlist.impl.IndexMedia
 import de.oliver_heger.splaya.playlist.impl.PlaylistControllerImpl
 import de.oliver_heger.splaya.playlist.impl.PlaylistFileStoreImpl
 import de.oliver_heger.splaya.playlist.impl.RemoveMediaDataExtractor
@@ -51,6 +55,18 @@ import de.oliver_heger.splaya.PlaybackContextFactory
  * missing, it is assumed that the size is provided in bytes
  * $ - `audioPlayer.fileExtensions`: a comma-separated list with file extensions
  * of media files to be taken into account
+ * $ - `audioPlayer.extractionConcurrency`: defines the number of audio files
+ * whose meta data is extracted in parallel; this is a comma-separated list of
+ * entries of the form `prefix=limit` assigning a limit to source media whose
+ * URI starts with the prefix; an entry consisting only of a number defines
+ * the limit for all other media; per default, only a single file is
+ * processed at a time
+ * $ - `audioPlayer.indexRoots`: a comma-separated list with the URIs of source
+ * media to be indexed in background; meta data about the audio files on these
+ * media is extracted when the player is idle and stored in an index in the
+ * current user's home directory, so that it is available immediately when a
+ * playlist is loaded; data about audio files on other media is not stored in
+ * the index; per default, no media are indexed
  *
  * For a new audio player object a number of different ''Actor'' objects has to
  * be created. This is done through an
@@ -70,6 +86,10 @@ class AudioPlayerFactoryImpl(val actorFactory: ActorFactory)
   protected[engine] val playlistFileStore: PlaylistFileStore =
     AudioPlayerFactoryImpl.createPlaylistFileStore()
 
+  /** The index with audio meta data shared by all audio player instances. */
+  protected[engine] val sourceDataIndex =
+    AudioPlayerFactoryImpl.createSourceDataIndex()
+
   /**
    * The actor for creating playlist instances. This actor is global to the
    * factory and shared between multiple audio player instances.
@@ -83,6 +103,13 @@ class AudioPlayerFactoryImpl(val actorFactory: ActorFactory)
   private val audioDataExtractorActor =
     actorFactory.createAudioSourceDataExtractorActor(createAudioSourceExtractor())
 
+  /**
+   * The actor for filling the index with audio meta data in background. This
+   * actor is global to the factory.
+   */
+  private val indexActor = actorFactory.createAudioSourceDataIndexActor(
+    audioDataExtractorActor, fsService, sourceDataIndex)
+
   /**
    * The actor for managing playback context factories and context creation.
    * This actor is shared between all audio player instances.
@@ -96,6 +123,12 @@ class AudioPlayerFactoryImpl(val actorFactory: ActorFactory)
   @volatile private var fileExtensions =
     AudioPlayerFactoryImpl.DefaultFileExtensions
 
+  /** The object defining the concurrency of meta data extraction. */
+  @volatile private var extractionConcurrency = ExtractionConcurrency.Default
+
+  /** The URIs of the source media to be indexed in background. */
+  @volatile private var indexRoots = Seq.empty[String]
+
   /** The logger. */
   private val log = LoggerFactory.getLogger(getClass)
 
@@ -122,6 +155,20 @@ class AudioPlayerFactoryImpl(val actorFactory: ActorFactory)
    */
   def getFileExtensions = fileExtensions
 
+  /**
+   * Returns the object which determines the number of parallel requests for
+   * extracting meta data from the audio files on a source medium.
+   * @return the ''ExtractionConcurrency'' object
+   */
+  def getExtractionConcurrency = extractionConcurrency
+
+  /**
+   * Returns a sequence with the URIs of the source media whose audio files are
+   * indexed in background.
+   * @return the URIs of the source media to be indexed
+   */
+  def getIndexRoots = indexRoots
+
   /**
    * Creates a new ''AudioPlayer'' instance.
    * @return the ''AudioPlayer'' instance
@@ -141,7 +188,8 @@ class AudioPlayerFactoryImpl(val actorFactory: ActorFactory)
     val timingActor = actorFactory.createTimingActor(gateway, new StopWatch)
     val eventActor = actorFactory.createEventTranslatorActor(gateway, 4)
     val playlistExtrActor =
-      actorFactory.createPlaylistDataExtractorActor(gateway, audioDataExtractorActor)
+      actorFactory.createPlaylistDataExtractorActor(gateway,
+        audioDataExtractorActor, extractionConcurrency, Some(sourceDataIndex))
     val plCtrlActor = actorFactory.createPlaylistCtrlActor(gateway, readActor,
       fsService, playlistFileStore, playlistCreationActor, Set("mp3"))
 
@@ -181,9 +229,24 @@ class AudioPlayerFactoryImpl(val actorFactory: ActorFactory)
         String.valueOf(props get AudioPlayerFactoryImpl.PropFileExtensions))
     }
 
+    if (props containsKey AudioPlayerFactoryImpl.PropExtractionConcurrency) {
+      extractionConcurrency = ExtractionConcurrency.parse(String.valueOf(
+        props get AudioPlayerFactoryImpl.PropExtractionConcurrency))
+    }
+
+    if (props containsKey AudioPlayerFactoryImpl.PropIndexRoots) {
+      indexRoots = AudioPlayerFactoryImpl.parseIndexRoots(
+        String.valueOf(props get AudioPlayerFactoryImpl.PropIndexRoots))
+    }
+    sourceDataIndex.restrictTo(indexRoots)
+
     playlistCreationActor.start()
     audioDataExtractorActor.start()
     playbackCtxActor.start()
+    indexActor.start()
+    if (!indexRoots.isEmpty) {
+      indexActor ! IndexMedia(indexRoots, fileExtensions)
+    }
   }
 
   /**
@@ -192,6 +255,7 @@ class AudioPlayerFactoryImpl(val actorFactory: ActorFactory)
   protected[engine] def deactivate() {
     log.info("Deactivating AudioPlayerFactoryImpl")
     playlistCreationActor ! Exit
+    indexActor ! Exit
     audioDataExtractorActor ! Exit
     playbackCtxActor ! Exit
   }
@@ -292,7 +356,7 @@ class AudioPlayerFactoryImpl(val actorFactory: ActorFactory)
    * @return the ''AudioSourceDataExtractor''
    */
   private def createAudioSourceExtractor() =
-    new AudioSourceDataExtractorImpl(fsService)
+    new AudioSourceDataExtractorImpl(fsService, Some(sourceDataIndex))
 }
 
 /**
@@ -305,6 +369,12 @@ object AudioPlayerFactoryImpl {
   /** Constant for the file extensions property. */
   val PropFileExtensions = "audioPlayer.fileExtensions"
 
+  /** Constant for the extraction concurrency property. */
+  val PropExtractionConcurrency = "audioPlayer.extractionConcurrency"
+
+  /** Constant for the property with the source media to be indexed. */
+  val PropIndexRoots = "audioPlayer.indexRoots"
+
   /** The default buffer size. */
   val DefaultBufferSize = 10 * 1024 * 1024
 
@@ -329,6 +399,9 @@ object AudioPlayerFactoryImpl {
    */
   private val PlayaSubDir = "/.jplaya"
 
+  /** Constant for the name of the file with the audio meta data index. */
+  private val IndexFileName = "sourcedata.index"
+
   /**
    * Determines the size of the local file buffer. This method tries to parse
    * the string value of the buffer size property. If it contains a unit, the
@@ -371,6 +444,15 @@ object AudioPlayerFactoryImpl {
   private def parseFileExtensions(value: String): Set[String] =
     value.split(RegExSplitExtensions).map(toLower(_)).toSet
 
+  /**
+   * Determines the URIs of the source media to be indexed. This method expects
+   * a comma-separated string as input. Empty elements are ignored.
+   * @param value the value of the index roots property
+   * @return a sequence with the URIs of the source media
+   */
+  private def parseIndexRoots(value: String): Seq[String] =
+    value.trim.split(RegExSplitExtensions).toSeq filterNot (_.isEmpty)
+
   /**
    * Creates the ''PlaylistFileStore'' object used by this factory. This object
    * is used by audio player instances to access media information. This
@@ -381,6 +463,16 @@ object AudioPlayerFactoryImpl {
   private def createPlaylistFileStore() =
     new PlaylistFileStoreImpl((System getProperty PropHomeDir) + PlayaSubDir)
 
+  /**
+   * Creates the ''AudioSourceDataIndex'' object used by this factory. The
+   * index is stored in the same directory as the playlist data. It is loaded
+   * on first access.
+   * @return the ''AudioSourceDataIndex'' object
+   */
+  private def createSourceDataIndex() =
+    new AudioSourceDataIndex(new File((System getProperty PropHomeDir) +
+      PlayaSubDir, IndexFileName))
+
   /**
    * Helper method for converting a string to lower case.
    * @param s the string to be converted
@@ -54,15 +54,32 @@ import java.io.Closeable
  * published. Now a client application using the audio player engine can exit
  * safely.
  *
+ * Event listeners are not invoked directly by this actor. Rather, for each
+ * registered listener a [[de.oliver_heger.splaya.engine.msg.ListenerDispatcherActor]]
+ * is created which delivers the events asynchronously using a bounded queue.
+ * So a slow listener cannot block the audio engine. Events which are
+ * superseded by newer ones (e.g. position changed events) are coalesced if
+ * the listener cannot keep up; if the queue of a listener is full, pending
+ * position changed events are dropped. All other events (e.g. playlist
+ * updates or the final shutdown event) are never dropped. Statistics about
+ * the event delivery can be queried by sending a ''QueryListenerStatistics''
+ * message.
+ *
  * @param gateway the gateway object
  * @param actorsToExitCount the number of actors whose exit state is monitored;
  * when all of these actors have exited a player shutdown event is generated
+ * @param listenerQueueCapacity the capacity of the event queue of a single
+ * event listener
  */
-class EventTranslatorActor(gateway: Gateway, val actorsToExitCount: Int)
+class EventTranslatorActor(gateway: Gateway, val actorsToExitCount: Int,
+  val listenerQueueCapacity: Int = ListenerDispatcherActor.DefaultCapacity)
   extends Actor {
   /** Constant for a dummy position changed event setting all positions to 0. */
   private val InitPositionChanged = PlaybackPositionChanged(0, 1, 0, null)
 
+  /** The coalesce key for position changed events. */
+  private val PositionChangedKey = Some(AudioPlayerEventType.POSITION_CHANGED)
+
   /** The logger. */
   private val log = LoggerFactory.getLogger(classOf[EventTranslatorActor])
 
@@ -92,6 +109,7 @@ class EventTranslatorActor(gateway: Gateway, val actorsToExitCount: Int)
     while (running) {
       receive {
         case cl: Closeable =>
+          shutdownListeners()
           cl.close()
           running = false
           log.info(this + " exited.")
@@ -133,7 +151,8 @@ class EventTranslatorActor(gateway: Gateway, val actorsToExitCount: Int)
             lastPlaybackTime = time
             playerListeners.fire(() =>
               createEventWithPosition(AudioPlayerEventType.POSITION_CHANGED,
-                lastPositionEvent.source), _.positionChanged(_))
+                lastPositionEvent.source), _.positionChanged(_),
+              PositionChangedKey, droppable = true)
           }
 
         case pe: PlaybackError =>
@@ -162,7 +181,11 @@ class EventTranslatorActor(gateway: Gateway, val actorsToExitCount: Int)
         case PlaylistUpdate(pd, idx) =>
           playlistListeners.fire(() =>
             PlaylistEventImpl(PlaylistEventType.PLAYLIST_UPDATED, pd, idx),
-            _.playlistUpdated(_))
+            _.playlistUpdated(_),
+            Some((PlaylistEventType.PLAYLIST_UPDATED, idx)))
+
+        case QueryListenerStatistics =>
+          reply(playerListeners.statistics ::: playlistListeners.statistics)
 
         case ae: ActorExited =>
           running = handleActorExited()
@@ -210,60 +233,89 @@ class EventTranslatorActor(gateway: Gateway, val actorsToExitCount: Int)
         AudioPlayerEventImpl(getType = AudioPlayerEventType.PLAYER_SHUTDOWN),
         _.playerShutdown(_))
       gateway.publish(PlayerShutdown)
+      shutdownListeners()
       false
     } else true
   }
 
+  /**
+   * Stops the dispatcher actors of all registered event listeners. Events
+   * which are still pending are delivered before.
+   */
+  private def shutdownListeners() {
+    playerListeners.shutdown()
+    playlistListeners.shutdown()
+  }
+
   /**
    * An internally used helper class for managing a list of event listeners of
    * a specific type. The class provides methods for adding and removing
-   * listeners and for firing events.
+   * listeners and for firing events. For each listener a dispatcher actor is
+   * created which is responsible for the actual event delivery.
    * @tparam L the event listener interface
    * @tparam E the event type
    */
   private class Listeners[L, E] {
-    /** The list with the event listeners. */
-    var listeners = List.empty[L]
+    /** The list with the dispatchers for the event listeners. */
+    var dispatchers = List.empty[ListenerDispatcherActor[L, E]]
 
     /**
-     * Adds the given event listener to the internal list.
+     * Adds the given event listener to the internal list. A dispatcher actor
+     * for this listener is created and started.
      * @param listener the listener to be added
      */
     def +=(listener: L) {
-      listeners = listener :: listeners
+      val dispatcher =
+        new ListenerDispatcherActor[L, E](listener, listenerQueueCapacity)
+      dispatcher.start()
+      dispatchers = dispatcher :: dispatchers
     }
 
     /**
      * Removes the given event listener from the internal list. If the listener
-     * was registered multiple times, only one instance is removed.
+     * was registered multiple times, only one instance is removed. The
+     * corresponding dispatcher actor is stopped.
      * @param listener the listener to be removed
      */
     def -=(listener: L) {
-      var found = false
-      listeners = listeners.filterNot { l =>
-        if (found) false
-        else {
-          if (l == listener) {
-            found = true
-            true
-          } else false
-        }
+      dispatchers find (_.listener == listener) foreach { d =>
+        dispatchers = dispatchers filterNot (_ eq d)
+        d ! Exit
       }
     }
 
     /**
      * Fires an event by calling all event listeners. The event function is
-     * invoked if there is at least one listener. Then on all listeners the
-     * invoke function is called passing in the listener and the event object.
+     * invoked if there is at least one listener. Then the event is passed to
+     * the dispatchers of all listeners together with the invoke function.
      * @param fEv the function for creating the event object
      * @param fInv the function for invoking the event listener
+     * @param coalesceKey an optional key for events which can be replaced by
+     * newer events of the same kind
+     * @param droppable a flag whether the event may be dropped if the queue
+     * of a listener is full
      */
-    def fire(fEv: () => E, fInv: (L, E) => Unit) {
-      if (!listeners.isEmpty) {
+    def fire(fEv: () => E, fInv: (L, E) => Unit,
+      coalesceKey: Option[Any] = None, droppable: Boolean = false) {
+      if (!dispatchers.isEmpty) {
         val event = fEv()
-        listeners foreach (fInv(_, event))
+        dispatchers foreach (_.offer(event, fInv, coalesceKey, droppable))
       }
     }
+
+    /**
+     * Returns a list with delivery statistics for all listeners.
+     * @return the list with statistics
+     */
+    def statistics: List[ListenerStatistics] = dispatchers map (_.statistics)
+
+    /**
+     * Stops all dispatcher actors and clears the list of listeners.
+     */
+    def shutdown() {
+      dispatchers foreach (_ ! Exit)
+      dispatchers = Nil
+    }
   }
 }
 
@@ -0,0 +1,278 @@
+package de.oliver_heger.splaya.engine.msg
+
+import java.io.Closeable
+
+import scala.actors.Actor
+import scala.collection.mutable.ListBuffer
+
+import org.slf4j.LoggerFactory
+
+/**
+ * An actor class which is responsible for delivering events to a single event
+ * listener.
+ *
+ * [[de.oliver_heger.splaya.engine.msg.EventTranslatorActor]] creates an
+ * instance of this class for each event listener registered. Events are not
+ * passed directly to the listener, but are stored in a bounded queue by
+ * calling the ''offer()'' method. The queue is processed by this actor on its
+ * own thread. So a listener which needs a long time to process its events
+ * cannot slow down the event translator actor or other listeners; it only
+ * degrades its own event delivery.
+ *
+ * Some events are superseded by newer events of the same kind, e.g. an event
+ * about a changed playback position is of no interest if there is already a
+ * newer one. For such events a ''coalesce key'' can be provided. If the queue
+ * already contains a pending event with the same key, this event is removed,
+ * and the new event is appended at the end of the queue. So the order in
+ * which events arrive is preserved. If the queue is full, the oldest pending
+ * event which has been marked as ''droppable'' is removed. Only events whose
+ * information is superseded by later events of the same kind (e.g. position
+ * changes) should be marked this way. If there is no such event in the queue,
+ * a new droppable event is dropped itself. Events which are not droppable are
+ * never dropped; they are added even if this means that the queue grows
+ * beyond its capacity. So state changes - like playlist updates or the
+ * shutdown of the player - always reach the listener. The capacity thus only
+ * limits the number of pending droppable events. Dropped events are counted
+ * in the statistics.
+ *
+ * For each event delivered the time it spent in the queue is recorded. The
+ * resulting statistics can be queried using the ''statistics()'' method.
+ *
+ * This actor exits when it receives a ''Closeable'' message. Events still
+ * pending at this time are delivered before.
+ *
+ * @tparam L the type of the event listener
+ * @tparam E the type of the events
+ * @param listener the event listener served by this actor
+ * @param capacity the maximum number of events in the queue
+ */
+class ListenerDispatcherActor[L, E](val listener: L, val capacity: Int)
+  extends Actor {
+  /** The logger. */
+  private val log = LoggerFactory.getLogger(classOf[ListenerDispatcherActor[_, _]])
+
+  /** The lock for synchronizing access to the queue and the statistics. */
+  private val lock = new Object
+
+  /** The queue with the events waiting for delivery. */
+  private val queue = ListBuffer.empty[PendingEvent[L, E]]
+
+  /** A flag whether a delivery message has been sent to this actor. */
+  private var deliveryScheduled = false
+
+  /** The number of events delivered so far. */
+  private var deliveredCount = 0L
+
+  /** The number of events dropped because the queue was full. */
+  private var droppedCount = 0L
+
+  /** The number of events replaced by a newer event of the same kind. */
+  private var coalescedCount = 0L
+
+  /** The accumulated delivery latency in nanoseconds. */
+  private var totalLatency = 0L
+
+  /** The maximum delivery latency in nanoseconds. */
+  private var maxLatency = 0L
+
+  /**
+   * The main message loop of this actor.
+   */
+  def act() {
+    var running = true
+
+    while (running) {
+      receive {
+        case cl: Closeable =>
+          deliverPendingEvents()
+          cl.close()
+          running = false
+
+        case DeliverEvents =>
+          deliverPendingEvents()
+      }
+    }
+  }
+
+  /**
+   * Adds an event to the queue of this actor. This method can be called from
+   * an arbitrary thread. The event is delivered asynchronously by invoking
+   * the given function with the listener and the event object.
+   * @param event the event to be delivered
+   * @param fInv the function for invoking the event listener
+   * @param coalesceKey an optional key; if defined, a pending event with the
+   * same key is replaced by this event
+   * @param droppable a flag whether this event may be dropped if the queue is
+   * full; this should only be set for events which are superseded by newer
+   * events of the same kind; events without this flag are always queued
+   */
+  def offer(event: E, fInv: (L, E) => Unit, coalesceKey: Option[Any] = None,
+    droppable: Boolean = false) {
+    val pending = PendingEvent(event, fInv, coalesceKey, droppable,
+      System.nanoTime())
+    lock.synchronized {
+      val idx = if (coalesceKey.isDefined)
+        queue.indexWhere(_.coalesceKey == coalesceKey) else -1
+      if (idx >= 0) {
+        queue.remove(idx)
+        queue += pending
+        coalescedCount += 1
+      } else if (queue.size < capacity || dropEvent() || !droppable) {
+        queue += pending
+      } else {
+        droppedCount += 1
+        if (log.isDebugEnabled) {
+          log.debug("Queue of " + this + " is full. Dropping new event "
+            + event)
+        }
+      }
+
+      if (!queue.isEmpty && !deliveryScheduled) {
+        deliveryScheduled = true
+        this ! DeliverEvents
+      }
+    }
+  }
+
+  /**
+   * Returns an object with statistical information about the event delivery
+   * to the listener managed by this actor.
+   * @return the current statistics of this actor
+   */
+  def statistics: ListenerStatistics = lock.synchronized {
+    ListenerStatistics(listener, deliveredCount, droppedCount, coalescedCount,
+      totalLatency, maxLatency)
+  }
+
+  /**
+   * Returns a string representation for this object. This implementation
+   * returns the name of this actor.
+   * @return a string for this object
+   */
+  override def toString = "ListenerDispatcherActor[" + listener + "]"
+
+  /**
+   * Delivers all events contained in the queue. The listener is invoked
+   * without holding the lock, so new events can be added concurrently.
+   */
+  private def deliverPendingEvents() {
+    var pending = nextEvent()
+    while (pending != null) {
+      try {
+        pending.fInv(listener, pending.event)
+      } catch {
+        case ex: Exception =>
+          log.error("Event listener " + listener + " threw an exception!", ex)
+      }
+      recordDelivery(System.nanoTime() - pending.enqueueTime)
+      pending = nextEvent()
+    }
+  }
+
+  /**
+   * Obtains the next event from the queue. If the queue is empty, result is
+   * '''null''', and the delivery flag is reset. So the next event added to
+   * the queue causes a new delivery message to be sent.
+   * @return the next event to be delivered or '''null'''
+   */
+  private def nextEvent(): PendingEvent[L, E] = lock.synchronized {
+    if (queue.isEmpty) {
+      deliveryScheduled = false
+      null
+    } else queue.remove(0)
+  }
+
+  /**
+   * Tries to remove an event from the full queue to make room for a new one.
+   * Only the oldest droppable event can be removed. If there is none, a new
+   * event which is not droppable is added nevertheless. This method is called
+   * while holding the lock.
+   * @return a flag whether an event could be removed
+   */
+  private def dropEvent(): Boolean = {
+    val idx = queue.indexWhere(_.droppable)
+    if (idx >= 0) {
+      val dropped = queue.remove(idx)
+      droppedCount += 1
+      if (log.isDebugEnabled) {
+        log.debug("Queue of " + this + " is full. Dropping event "
+          + dropped.event)
+      }
+      true
+    } else false
+  }
+
+  /**
+   * Updates the statistics after an event has been delivered.
+   * @param latency the time the event was waiting in the queue (in nanos)
+   */
+  private def recordDelivery(latency: Long) {
+    lock.synchronized {
+      deliveredCount += 1
+      totalLatency += latency
+      if (latency > maxLatency) {
+        maxLatency = latency
+      }
+    }
+  }
+
+  /**
+   * An internally used message which tells this actor to deliver the events
+   * in its queue.
+   */
+  private case object DeliverEvents
+}
+
+/**
+ * The companion object for ''ListenerDispatcherActor''.
+ */
+object ListenerDispatcherActor {
+  /** Constant for the default capacity of the event queue. */
+  val DefaultCapacity = 64
+}
+
+/**
+ * A class storing statistical information about the event delivery to a
+ * single event listener. Instances are created by
+ * [[de.oliver_heger.splaya.engine.msg.ListenerDispatcherActor]]. All time
+ * values are in nanoseconds.
+ * @param listener the event listener affected
+ * @param deliveredCount the number of events delivered to the listener
+ * @param droppedCount the number of events dropped because the listener could
+ * not keep up
+ * @param coalescedCount the number of events replaced by newer ones before
+ * they could be delivered
+ * @param totalLatency the accumulated time events were waiting for delivery
+ * @param maxLatency the maximum time an event was waiting for delivery
+ */
+case class ListenerStatistics(listener: Any, deliveredCount: Long,
+  droppedCount: Long, coalescedCount: Long, totalLatency: Long,
+  maxLatency: Long) {
+  /**
+   * Returns the average time an event was waiting for delivery. Result is 0
+   * if no events have been delivered yet.
+   * @return the average delivery latency in nanoseconds
+   */
+  def averageLatency: Long =
+    if (deliveredCount == 0) 0 else totalLatency / deliveredCount
+}
+
+/**
+ * A message class for querying the delivery statistics of all event listeners
+ * registered at the ''EventTranslatorActor''. The actor answers with a list of
+ * [[de.oliver_heger.splaya.engine.msg.ListenerStatistics]] objects.
+ */
+case object QueryListenerStatistics
+
+/**
+ * A class representing an event in the queue of a
+ * ''ListenerDispatcherActor''.
+ * @param event the event
+ * @param fInv the function for invoking the listener
+ * @param coalesceKey the optional coalesce key
+ * @param droppable a flag whether the event may be dropped if the queue is
+ * full
+ * @param enqueueTime the time (in nanoseconds) the event was added
+ */
+private case class PendingEvent[L, E](event: E, fInv: (L, E) => Unit,
+  coalesceKey: Option[Any], droppable: Boolean, enqueueTime: Long)
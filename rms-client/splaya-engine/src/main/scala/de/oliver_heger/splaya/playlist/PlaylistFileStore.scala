@@ -16,6 +16,12 @@ package de.oliver_heger.splaya.playlist
  * played.
  * - The status of the current playlist can be loaded and stored. This allows a
  * playlist manager to save the current position in the playlist.
+ * - The current position in a playlist can be updated without storing the
+ * whole playlist again. This is a cheap operation, so it can be done
+ * frequently.
+ * - The ID of the playlist which was used for a source medium the last time
+ * can be recorded. So a persistent playlist can be found before the medium
+ * has been scanned completely.
  * - Meta data about a playlist - so-called ''playlist settings'' can be
  * queried. Here the playlist manager can obtain information about the name of
  * a playlist and a description plus an algorithm how to create a new playlist
@@ -48,6 +54,41 @@ trait PlaylistFileStore {
    */
   def savePlaylist(playlistID: String, plElem: xml.Elem)
 
+  /**
+   * Saves the current position in the specified playlist. This method is
+   * intended to be called frequently, e.g. whenever playback of an audio
+   * source ends. It only records the position; the playlist itself must have
+   * been saved before using ''savePlaylist()''. A following
+   * ''loadPlaylist()'' operation returns XML whose ''current'' section
+   * reflects the latest position saved by this method.
+   * @param playlistID the ID of the playlist in question
+   * @param index the index of the current audio source in the playlist
+   * @param position the position in the current audio source
+   * @param time the time in the current audio source
+   */
+  def savePlaylistPosition(playlistID: String, index: Int, position: Long,
+    time: Long)
+
+  /**
+   * Returns the ID of the playlist which was used the last time the specified
+   * source medium was read. This information is available before the content
+   * of the medium is known; so it can be used to find a persistent playlist
+   * without scanning the medium first. Note that the content of the medium
+   * may have changed in the meantime, so the playlist ID calculated for the
+   * current content can be different.
+   * @param mediumURI the URI of the source medium
+   * @return an ''Option'' with the ID of the last playlist for this medium
+   */
+  def loadMediumPlaylistID(mediumURI: String): Option[String]
+
+  /**
+   * Records the ID of the playlist used for the specified source medium. The
+   * ID can later be queried using ''loadMediumPlaylistID()''.
+   * @param mediumURI the URI of the source medium
+   * @param playlistID the ID of the playlist for this medium
+   */
+  def saveMediumPlaylistID(mediumURI: String, playlistID: String)
+
   /**
    * Loads the settings for the specified playlist. The returned XML contains
    * meta data about this playlist. It may not be available.
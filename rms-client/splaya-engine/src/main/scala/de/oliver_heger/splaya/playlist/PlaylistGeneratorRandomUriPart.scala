@@ -1,5 +1,6 @@
 package de.oliver_heger.splaya.playlist
 
+import scala.collection.mutable.HashMap
 import scala.xml.NodeSeq
 
 object PlaylistGeneratorRandomUriPart {
@@ -8,6 +9,9 @@ object PlaylistGeneratorRandomUriPart {
 
   /** The separator for path components. */
   private val Separator = "/"
+
+  /** The separator character for path components. */
+  private[playlist] val SeparatorChar = '/'
 }
 
 /**
@@ -28,6 +32,12 @@ object PlaylistGeneratorRandomUriPart {
  * Some media may contain songs directly on the top level directory. Such songs
  * cannot be assigned to an album or an artist. A concrete implementation has
  * to decide how to treat such elements when generating the random playlist.
+ *
+ * Playlists can become very large. Therefore, generation is done in linear
+ * time without a comparison sort over all songs: each song is assigned the ID
+ * of its group using a hash map, the groups are assigned random ranks, and the
+ * songs are distributed into buckets according to these ranks. Only the songs
+ * within a bucket have to be sorted by their names.
  */
 trait PlaylistGeneratorRandomUriPart extends PlaylistGenerator {
 
@@ -42,20 +52,50 @@ trait PlaylistGeneratorRandomUriPart extends PlaylistGenerator {
    *             ''extractSinglePart()'' is invoked.
    */
   override def generatePlaylist(songs: Seq[String], mode: String, params: NodeSeq): Seq[String] = {
-    val albumList = songs map extractPartFromSongUri
-    val songAlbumMapping = Map(songs zip albumList: _*)
-    val distinctAlbums = albumList.toSet.toList
-    val albumIndices = util.Random.shuffle(distinctAlbums.indices)
-    val albumIndexMapping = Map(distinctAlbums zip albumIndices: _*)
+    val songArray = songs.toArray
+    val groupIDs = new Array[Int](songArray.length)
+    val groups = HashMap.empty[String, Int]
+    for (i <- 0 until songArray.length) {
+      groupIDs(i) = groups.getOrElseUpdate(extractGroupKey(songArray(i)), groups.size)
+    }
 
-    def albumIndex(s: String): Int = albumIndexMapping(songAlbumMapping(s))
+    val ranks = randomRanks(groups.size)
+    val bucketStarts = new Array[Int](groups.size + 1)
+    for (id <- groupIDs) {
+      bucketStarts(ranks(id) + 1) += 1
+    }
+    for (r <- 1 to groups.size) {
+      bucketStarts(r) += bucketStarts(r - 1)
+    }
 
-    songs.sortWith { (song1, song2) =>
-      val idx1 = albumIndex(song1)
-      val idx2 = albumIndex(song2)
-      if (idx1 != idx2) idx1 < idx2
-      else song1.compareTo(song2) < 0
+    val positions = bucketStarts.clone()
+    val orderedSongs = new Array[String](songArray.length)
+    for (i <- 0 until songArray.length) {
+      val rank = ranks(groupIDs(i))
+      orderedSongs(positions(rank)) = songArray(i)
+      positions(rank) += 1
     }
+    for (r <- 0 until groups.size) {
+      java.util.Arrays.sort(orderedSongs.asInstanceOf[Array[Object]],
+        bucketStarts(r), bucketStarts(r + 1))
+    }
+    orderedSongs
+  }
+
+  /**
+   * Determines the key of the group the given song belongs to. Songs with the
+   * same key are played in sequence. This base implementation splits the song
+   * URI at the path separator and delegates to ''extractUriPart()'' or
+   * ''extractSinglePart()''. Concrete implementations can override this
+   * method to extract the key directly from the URI without creating
+   * intermediate objects.
+   * @param song the song URI
+   * @return the key of the group for this song
+   */
+  protected def extractGroupKey(song: String): String = {
+    val components = song split Separator
+    if (components.length < 2) extractSinglePart(components.head)
+    else extractUriPart(components)
   }
 
   /**
@@ -80,13 +120,20 @@ trait PlaylistGeneratorRandomUriPart extends PlaylistGenerator {
   protected def extractSinglePart(part: String): String = UndefinedPart
 
   /**
-   * Extracts the relevant URI part from the given song URI.
-   * @param song the song URI
-   * @return the URI part to work with
+   * Returns an array which assigns each group a random rank. The array is a
+   * random permutation of the group IDs created by the ''Fisher-Yates''
+   * algorithm.
+   * @param groupCount the number of groups
+   * @return an array with the ranks of the groups
    */
-  private def extractPartFromSongUri(song: String): String = {
-    val components = song split Separator
-    if (components.length < 2) extractSinglePart(components.head)
-    else extractUriPart(components)
+  private def randomRanks(groupCount: Int): Array[Int] = {
+    val ranks = Array.range(0, groupCount)
+    for (i <- groupCount - 1 until 0 by -1) {
+      val j = util.Random.nextInt(i + 1)
+      val tmp = ranks(i)
+      ranks(i) = ranks(j)
+      ranks(j) = tmp
+    }
+    ranks
   }
 }
@@ -3,7 +3,12 @@ package de.oliver_heger.splaya.playlist.impl
 import java.io.Closeable
 
 import scala.actors.Actor
+import scala.actors.TIMEOUT
+import scala.collection.mutable.Queue
 
+import org.slf4j.LoggerFactory
+
+import de.oliver_heger.splaya.engine.msg.Exit
 import de.oliver_heger.splaya.AudioSourceData
 import de.oliver_heger.splaya.MediaDataExtractor
 
@@ -15,34 +20,91 @@ import de.oliver_heger.splaya.MediaDataExtractor
  * to obtain meta data about this audio source. The information extracted is
  * then sent back to the sender.
  *
+ * The actual extraction is done by a number of worker actors managed by this
+ * actor. So multiple audio sources can be processed in parallel. A request is
+ * passed to an idle worker; if all workers are busy, it is queued until a
+ * worker becomes available. The number of requests sent concurrently is
+ * controlled by the senders, e.g. depending on the source medium.
+ *
+ * Requests for indexing audio sources in background (which are sent by an
+ * [[de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndexActor]]) have a
+ * lower priority. They are only passed to a worker if no regular extraction
+ * requests are pending or in progress. So interactive requests, e.g. for the
+ * current playlist, are always processed first. While an index request is
+ * processed, regular requests for the same source medium are queued until it
+ * is complete. Thus index requests never add to the number of parallel
+ * requests the senders of regular requests allow for a medium.
+ *
  * An ''AudioSourceDataExtractor'' manages a set of
  * [[de.oliver_heger.splaya.playlist.MediaDataExtractor]] objects. Such
  * objects can be added or removed dynamically. This is also done by this
- * actor; therefore, the ''AudioSourceDataExtractor'' object used need not be
- * thread-safe.
+ * actor; therefore, the ''AudioSourceDataExtractor'' object used need not
+ * support concurrent modifications. However, the extraction of meta data must
+ * be possible from multiple threads.
+ *
+ * When this actor is shut down it waits for pending requests to be processed,
+ * but only for a limited time. Requests which are still queued after this
+ * timeout are discarded; pending index requests are always discarded. So the
+ * time required for a shutdown does not depend on the number of requests
+ * waiting for processing.
  *
  * @param extractor the ''AudioSourceDataExtractor'' to be used
+ * @param workerCount the number of worker actors for doing extractions
+ * @param shutdownTimeout the maximum time (in milliseconds) to wait for
+ * pending requests on shutdown
  */
-class AudioSourceDataExtractorActor(val extractor: AudioSourceDataExtractor)
+class AudioSourceDataExtractorActor(val extractor: AudioSourceDataExtractor,
+  val workerCount: Int = AudioSourceDataExtractorActor.DefaultWorkerCount,
+  val shutdownTimeout: Long =
+    AudioSourceDataExtractorActor.DefaultShutdownTimeout)
   extends Actor {
+  /** A list with all worker actors. */
+  private var workers = List.empty[ExtractionWorker]
+
+  /** A list with the workers which are currently idle. */
+  private var idleWorkers = List.empty[ExtractionWorker]
+
+  /** A queue for requests which cannot be processed immediately. */
+  private val pendingRequests = Queue.empty[ExtractSourceDataRequest]
+
+  /** A queue for index requests waiting for an idle worker. */
+  private val pendingIndexRequests = Queue.empty[IndexSourceDataRequest]
+
+  /** The number of regular requests which are currently processed. */
+  private var activeRequests = 0
+
+  /** The URI of the medium accessed by the index request in progress. */
+  private var indexMedium: Option[String] = None
+
+  /** The logger. */
+  private val log = LoggerFactory.getLogger(classOf[AudioSourceDataExtractorActor])
+
   /**
    * The main method of this actor. The actor mainly reacts on messages
-   * requesting meta data for audio sources. Such requests are delegated to the
-   * ''AudioSourceDataExtractor'' used by this object. Results are sent back to
-   * the requesting actor.
+   * requesting meta data for audio sources. Such requests are delegated to
+   * worker actors which invoke the ''AudioSourceDataExtractor'' used by this
+   * object. Results are sent back to the requesting actor.
    */
   def act() {
+    startWorkers()
     var running = true
 
     while (running) {
       receive {
         case cl: Closeable =>
+          shutdownWorkers()
           cl.close()
           running = false
 
         case req: ExtractSourceDataRequest =>
           handleRequest(req)
 
+        case req: IndexSourceDataRequest =>
+          handleIndexRequest(req)
+
+        case idle: WorkerIdle =>
+          handleWorkerIdle(idle)
+
         case AddMediaDataExtractor(dataExtr) =>
           extractor.addMediaDataExtractor(dataExtr)
 
@@ -60,15 +122,200 @@ class AudioSourceDataExtractorActor(val extractor: AudioSourceDataExtractor)
   override def toString = "AudioSourceDataExtractorActor"
 
   /**
-   * Obtains meta data for an audio source based on the given request.
+   * Creates and starts the worker actors.
+   */
+  private def startWorkers() {
+    workers = (for (i <- 0 until scala.math.max(workerCount, 1))
+      yield new ExtractionWorker).toList
+    workers foreach (_.start())
+    idleWorkers = workers
+  }
+
+  /**
+   * Shuts down all worker actors. Pending index requests are discarded.
+   * Regular requests which are still pending are processed as long as the
+   * shutdown timeout is not exceeded; the remaining ones are discarded. This
+   * method waits until all workers are down.
+   */
+  private def shutdownWorkers() {
+    pendingIndexRequests.clear()
+    val deadline = System.currentTimeMillis() + shutdownTimeout
+    var remaining = shutdownTimeout
+    while ((!pendingRequests.isEmpty || idleWorkers.size < workers.size)
+      && remaining > 0) {
+      receiveWithin(remaining) {
+        case idle: WorkerIdle =>
+          handleWorkerIdle(idle)
+
+        case TIMEOUT =>
+      }
+      remaining = deadline - System.currentTimeMillis()
+    }
+
+    if (!pendingRequests.isEmpty) {
+      log.warn("Discarding {} pending requests on shutdown.",
+        pendingRequests.size)
+      pendingRequests.clear()
+    }
+    workers foreach (_ !? Exit)
+    workers = Nil
+    idleWorkers = Nil
+  }
+
+  /**
+   * Handles a request for audio source data. The request is passed to an
+   * idle worker if possible. Otherwise, it is queued.
    * @param req the request for audio source data
    */
   private def handleRequest(req: ExtractSourceDataRequest) {
-    val data = extractor.extractAudioSourceData(req.mediumURI, req.uri)
-    req.sender ! ExtractSourceDataResult(req.playlistID, req.index, data)
+    pendingRequests += req
+    dispatchRequests()
+  }
+
+  /**
+   * Handles a request for indexing an audio source. Such requests are only
+   * passed to a worker if there are no other requests pending or in
+   * progress. Otherwise, they are queued.
+   * @param req the index request
+   */
+  private def handleIndexRequest(req: IndexSourceDataRequest) {
+    pendingIndexRequests += req
+    dispatchRequests()
+  }
+
+  /**
+   * Handles a message that a worker has completed its current request. The
+   * worker is marked as idle, and pending requests are dispatched.
+   * @param idle the message sent by the worker
+   */
+  private def handleWorkerIdle(idle: WorkerIdle) {
+    if (idle.indexRequest) {
+      indexMedium = None
+    } else {
+      activeRequests -= 1
+    }
+    idleWorkers = idle.worker :: idleWorkers
+    dispatchRequests()
+  }
+
+  /**
+   * Passes pending requests to idle workers as long as this is possible.
+   * Regular requests are preferred over index requests; they are skipped if
+   * their medium is accessed by an index request.
+   */
+  private def dispatchRequests() {
+    var dispatched = true
+    while (dispatched && !idleWorkers.isEmpty) {
+      val w = idleWorkers.head
+      pendingRequests dequeueFirst (r => !isBlocked(r)) match {
+        case Some(req) =>
+          w ! req
+          activeRequests += 1
+
+        case None =>
+          if (canDispatchIndexRequest) {
+            val req = pendingIndexRequests.dequeue()
+            w ! req
+            indexMedium = Some(req.mediumURI)
+          } else {
+            dispatched = false
+          }
+      }
+      if (dispatched) {
+        idleWorkers = idleWorkers.tail
+      }
+    }
+  }
+
+  /**
+   * Checks whether the specified request is blocked because its medium is
+   * accessed by the index request in progress.
+   * @param req the request
+   * @return a flag whether this request has to wait
+   */
+  private def isBlocked(req: ExtractSourceDataRequest) =
+    indexMedium exists (_ == req.mediumURI)
+
+  /**
+   * Checks whether a pending index request can be passed to a worker. This
+   * is only possible if no other requests are pending or in progress.
+   * @return a flag whether an index request can be dispatched
+   */
+  private def canDispatchIndexRequest =
+    !pendingIndexRequests.isEmpty && pendingRequests.isEmpty &&
+      activeRequests == 0 && indexMedium.isEmpty
+
+  /**
+   * Invokes the ''AudioSourceDataExtractor'' for the specified audio source.
+   * Exceptions are caught, so that a result can be sent in any case.
+   * @param mediumURI the URI of the source medium
+   * @param uri the URI of the audio source
+   * @return an ''Option'' with the meta data extracted for the source
+   */
+  private def extract(mediumURI: String, uri: String): Option[AudioSourceData] =
+    try {
+      extractor.extractAudioSourceData(mediumURI, uri)
+    } catch {
+      case ex: Exception =>
+        log.error("Could not extract audio data for " + uri, ex)
+        None
+    }
+
+  /**
+   * An internally used message class which is sent by a worker actor after it
+   * has processed a request.
+   * @param worker the worker which is now idle
+   * @param indexRequest a flag whether the request was an index request
+   */
+  private case class WorkerIdle(worker: ExtractionWorker,
+    indexRequest: Boolean)
+
+  /**
+   * An internally used worker actor class which does the actual extraction of
+   * audio data. Results are sent directly to the sender of the request.
+   */
+  private class ExtractionWorker extends Actor {
+    def act() {
+      var running = true
+
+      while (running) {
+        receive {
+          case cl: Closeable =>
+            cl.close()
+            reply(cl)
+            running = false
+
+          case req: ExtractSourceDataRequest =>
+            val data = extract(req.mediumURI, req.uri)
+            req.sender ! ExtractSourceDataResult(req.playlistID, req.index, data)
+            AudioSourceDataExtractorActor.this ! WorkerIdle(this, false)
+
+          case req: IndexSourceDataRequest =>
+            val data = extract(req.mediumURI, req.uri)
+            req.sender ! IndexSourceDataResult(req.mediumURI, req.uri, data)
+            AudioSourceDataExtractorActor.this ! WorkerIdle(this, true)
+        }
+      }
+    }
+
+    override def toString = "AudioSourceDataExtractorActor.Worker"
   }
 }
 
+/**
+ * The companion object for ''AudioSourceDataExtractorActor''.
+ */
+object AudioSourceDataExtractorActor {
+  /** Constant for the default number of worker actors. */
+  val DefaultWorkerCount = 4
+
+  /**
+   * Constant for the default time (in milliseconds) to wait for pending
+   * requests on shutdown.
+   */
+  val DefaultShutdownTimeout = 2000L
+}
+
 /**
  * A message which can be sent to the ''AudioSourceDataExtractorActor'' to
  * request audio data for a specific audio source. The audio source in question
@@ -100,6 +347,30 @@ case class ExtractSourceDataRequest(playlistID: Long, mediumURI: String,
 case class ExtractSourceDataResult(playlistID: Long, index: Int,
   data: Option[AudioSourceData])
 
+/**
+ * A message which can be sent to the ''AudioSourceDataExtractorActor'' to
+ * request meta data for an audio source with a low priority. Requests of this
+ * type are used to fill an index with meta data in background. They are only
+ * processed if no ''ExtractSourceDataRequest'' messages are pending. The
+ * result is sent to the specified actor in form of an
+ * ''IndexSourceDataResult'' message.
+ * @param mediumURI the URI of the source medium
+ * @param uri the URI of the audio source to be processed
+ * @param sender the actor to which to sent the result
+ */
+case class IndexSourceDataRequest(mediumURI: String, uri: String,
+  sender: Actor)
+
+/**
+ * A message providing the result of an ''IndexSourceDataRequest''. This
+ * answer is sent in any case, even if data extraction failed.
+ * @param mediumURI the URI of the source medium
+ * @param uri the URI of the audio source
+ * @param data an ''Option'' with the meta data extracted for the source
+ */
+case class IndexSourceDataResult(mediumURI: String, uri: String,
+  data: Option[AudioSourceData])
+
 /**
  * A message to add a [[de.oliver_heger.splaya.playlist.MediaDataExtractor]]
  * object. This object is passed to the associated
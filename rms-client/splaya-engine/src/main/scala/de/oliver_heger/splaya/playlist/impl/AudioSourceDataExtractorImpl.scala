@@ -1,8 +1,6 @@
 package de.oliver_heger.splaya.playlist.impl
 import java.io.IOException
 
-import scala.collection.mutable.Set
-
 import org.slf4j.LoggerFactory
 
 import de.oliver_heger.splaya.fs.FSService
@@ -11,6 +9,7 @@ import de.oliver_heger.splaya.osgiutil.ServiceWrapper.convertToOption
 import de.oliver_heger.splaya.osgiutil.ServiceWrapper
 import de.oliver_heger.splaya.AudioSourceData
 import de.oliver_heger.splaya.MediaDataExtractor
+import de.oliver_heger.splaya.SourceMediaDataExtractor
 
 /**
  * A default implementation of the ''AudioSourceDataExtractor'' trait.
@@ -20,32 +19,56 @@ import de.oliver_heger.splaya.MediaDataExtractor
  * meta data are delegated to these extractors. The first defined meta data
  * produced by an extractor is returned. The URIs of the files to be
  * processed are evaluated using the passed in
- * [[de.oliver_heger.splaya.fs.FSService]].
+ * [[de.oliver_heger.splaya.fs.FSService]]. Extractors implementing the
+ * [[de.oliver_heger.splaya.SourceMediaDataExtractor]] trait are passed the
+ * stream source directly, so that they can read only the parts of the file
+ * they need.
+ *
+ * Optionally, an [[de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndex]]
+ * can be passed to the constructor. In this case, the index is queried first
+ * using the size and the modification time of the audio file. The media data
+ * extractors are only invoked if the index does not contain up-to-date data;
+ * results are then stored in the index.
  *
- * Implementation note: This class is not thread-safe. It is intended to be
- * used by an actor so that access is shielded.
+ * Implementation note: Extraction of meta data can be done by multiple
+ * threads in parallel. The methods for adding and removing
+ * ''MediaDataExtractor'' objects must not be called concurrently; they are
+ * intended to be invoked by an actor so that access is shielded. Changes on
+ * the set of extractors are made visible to other threads.
  *
  * @param fsService the ''FSService'' instance
+ * @param index an optional index for meta data which has already been
+ * extracted
  */
-class AudioSourceDataExtractorImpl(fsService: ServiceWrapper[FSService])
+class AudioSourceDataExtractorImpl(fsService: ServiceWrapper[FSService],
+  val index: Option[AudioSourceDataIndex] = None)
   extends AudioSourceDataExtractor {
   /** The logger. */
   private val log = LoggerFactory.getLogger(classOf[AudioSourceDataExtractorImpl])
 
   /** Stores the media data extractors available in the system. */
-  private var mediaDataExtractors: Set[MediaDataExtractor] = Set.empty
+  @volatile private var mediaDataExtractors = Set.empty[MediaDataExtractor]
 
   /**
    * inheritdoc This implementation delegates to the available
    * ''MediaDataExtractor'' objects until one is found which is able to
-   * produce data.
+   * produce data. If an index is available, it is checked first.
    */
   override def extractAudioSourceData(mediumURI: String, uri: String): Option[AudioSourceData] = {
     log.info("Extract audio data for {}.", uri)
-    if (mediaDataExtractors.isEmpty) {
+    val extractors = mediaDataExtractors
+    if (extractors.isEmpty && index.isEmpty) {
       log.warn("No media data extractors available!")
       None
-    } else fsService flatMap { fs => extractMetaData(fs.resolve(mediumURI, uri)) }
+    } else fsService flatMap { fs =>
+      val src = fs.resolve(mediumURI, uri)
+      index match {
+        case Some(idx) =>
+          extractIndexedMetaData(idx, mediumURI, uri, src, extractors)
+        case None =>
+          extractMetaData(src, extractors)
+      }
+    }
   }
 
   /**
@@ -64,13 +87,36 @@ class AudioSourceDataExtractorImpl(fsService: ServiceWrapper[FSService])
     mediaDataExtractors -= extr
   }
 
+  /**
+   * Obtains meta data for the given stream source using the specified index.
+   * If the index contains data which is up to date, it is returned directly.
+   * Otherwise, the media data extractors are queried, and the result is
+   * stored in the index.
+   * @param idx the index
+   * @param mediumURI the URI of the source medium
+   * @param uri the URI of the audio source
+   * @param src the stream source
+   * @param extractors the set with the extractors to be queried
+   * @return an ''Option'' with the meta data for this source
+   */
+  private def extractIndexedMetaData(idx: AudioSourceDataIndex,
+    mediumURI: String, uri: String, src: StreamSource,
+    extractors: Set[MediaDataExtractor]): Option[AudioSourceData] =
+    idx.getIfCurrent(mediumURI, uri, src.size, src.lastModified) orElse {
+      extractMetaData(src, extractors) map { data =>
+        idx.put(mediumURI, uri, src.size, src.lastModified, data)
+      }
+    }
+
   /**
    * Queries all media data extractors to extract data from the given stream.
    * @param src the stream source
+   * @param extractors the set with the extractors to be queried
    * @return an ''Option'' with extracted meta data
    */
-  private def extractMetaData(src: StreamSource): Option[AudioSourceData] = {
-    (None.asInstanceOf[Option[AudioSourceData]] /: mediaDataExtractors) { (optData, extr) =>
+  private def extractMetaData(src: StreamSource,
+    extractors: Set[MediaDataExtractor]): Option[AudioSourceData] = {
+    (None.asInstanceOf[Option[AudioSourceData]] /: extractors) { (optData, extr) =>
       if (optData.isDefined) optData
       else invokeMetaDataExtractor(src, extr)
     }
@@ -83,6 +129,41 @@ class AudioSourceDataExtractorImpl(fsService: ServiceWrapper[FSService])
    * @return an ''Option'' with extracted meta data
    */
   private def invokeMetaDataExtractor(src: StreamSource,
+    extr: MediaDataExtractor): Option[AudioSourceData] = {
+    extr match {
+      case srcExtr: SourceMediaDataExtractor =>
+        invokeSourceMetaDataExtractor(src, srcExtr)
+      case _ =>
+        invokeStreamMetaDataExtractor(src, extr)
+    }
+  }
+
+  /**
+   * Queries a meta data extractor which can process the stream source
+   * directly. The extractor is responsible for opening and closing streams.
+   * @param src the stream source
+   * @param extr the ''SourceMediaDataExtractor''
+   * @return an ''Option'' with extracted meta data
+   */
+  private def invokeSourceMetaDataExtractor(src: StreamSource,
+    extr: SourceMediaDataExtractor): Option[AudioSourceData] = {
+    try {
+      extr.extractData(src)
+    } catch {
+      case ex: Exception =>
+        log.error("MediaDataExtractor throw an exception!", ex)
+        None
+    }
+  }
+
+  /**
+   * Queries a meta data extractor which expects a stream. The stream is
+   * opened and closed by this method.
+   * @param src the stream source
+   * @param extr the ''MediaDataExtractor''
+   * @return an ''Option'' with extracted meta data
+   */
+  private def invokeStreamMetaDataExtractor(src: StreamSource,
     extr: MediaDataExtractor): Option[AudioSourceData] = {
     val stream = src.openStream()
     try {
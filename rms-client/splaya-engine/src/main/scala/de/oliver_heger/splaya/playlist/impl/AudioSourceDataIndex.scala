@@ -0,0 +1,326 @@
+package de.oliver_heger.splaya.playlist.impl
+
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+
+import scala.collection.mutable
+import scala.xml.Elem
+import scala.xml.Node
+import scala.xml.XML
+
+import org.slf4j.LoggerFactory
+
+import de.oliver_heger.splaya.AudioSourceData
+
+/**
+ * A class which stores meta data about audio sources persistently.
+ *
+ * An index maps audio sources - identified by the URI of their source medium
+ * and their relative URI - to the meta data extracted from them. For each
+ * entry the size and the modification time of the audio file at the time of
+ * the extraction are recorded. A lookup which is passed the current size and
+ * modification time only returns data if these properties match; so if an
+ * audio file has been changed, its meta data is extracted again.
+ *
+ * The index is stored in an XML document in the file system. This document
+ * is loaded on first access. The ''save()'' method writes the document if the
+ * index has been changed since it was loaded or saved the last time. The
+ * document is written to a temporary file first which is then renamed, so a
+ * crash while saving does not destroy the existing index. The document is
+ * generated from a snapshot of the entries; so lookups and updates are not
+ * blocked while the file is written.
+ *
+ * Per default, data about audio sources on all source media is stored. With
+ * the ''restrictTo()'' method the index can be limited to specific source
+ * media; data about audio sources on other media is then no longer added.
+ *
+ * This class is thread-safe.
+ *
+ * @param indexFile the file in which the index is stored
+ */
+class AudioSourceDataIndex(val indexFile: File) {
+  import AudioSourceDataIndex._
+
+  /** The logger. */
+  private val log = LoggerFactory.getLogger(classOf[AudioSourceDataIndex])
+
+  /** The lock for synchronizing access to the index. */
+  private val lock = new Object
+
+  /** The lock for serializing save operations. */
+  private val saveLock = new Object
+
+  /** The URIs of the source media to be indexed; None means all media. */
+  @volatile private var indexedMedia: Option[Set[String]] = None
+
+  /** The map with the entries of the index. */
+  private lazy val entries = loadIndex()
+
+  /** A flag whether the index has been changed. */
+  private var modified = false
+
+  /**
+   * Returns the meta data stored in this index for the specified audio source
+   * without checking whether it is still up to date. This method is intended
+   * for a fast lookup, e.g. when a new playlist is loaded.
+   * @param mediumURI the URI of the source medium
+   * @param uri the URI of the audio source
+   * @return an ''Option'' with the meta data for this audio source
+   */
+  def get(mediumURI: String, uri: String): Option[AudioSourceData] =
+    lock.synchronized {
+      entries.get(Key(mediumURI, uri)) map (_.data)
+    }
+
+  /**
+   * Returns the meta data stored in this index for the specified audio source
+   * if the audio file has not been changed since its data was extracted. This
+   * is the case if the passed in size and modification time match the values
+   * recorded for the entry.
+   * @param mediumURI the URI of the source medium
+   * @param uri the URI of the audio source
+   * @param size the current size of the audio file
+   * @param lastModified the current modification time of the audio file
+   * @return an ''Option'' with the up-to-date meta data for this audio source
+   */
+  def getIfCurrent(mediumURI: String, uri: String, size: Long,
+    lastModified: Long): Option[AudioSourceData] =
+    lock.synchronized {
+      entries.get(Key(mediumURI, uri)) filter { e =>
+        e.size == size && e.lastModified == lastModified
+      } map (_.data)
+    }
+
+  /**
+   * Restricts this index to the specified source media. Afterwards, only data
+   * about audio sources on these media is added to the index.
+   * @param mediumURIs the URIs of the source media to be indexed
+   */
+  def restrictTo(mediumURIs: Seq[String]) {
+    indexedMedia = Some(mediumURIs.toSet)
+  }
+
+  /**
+   * Returns a flag whether data about audio sources on the specified source
+   * medium is stored in this index.
+   * @param mediumURI the URI of the source medium
+   * @return a flag whether this medium is indexed
+   */
+  def isIndexed(mediumURI: String): Boolean =
+    indexedMedia map (_ contains mediumURI) getOrElse true
+
+  /**
+   * Adds meta data for an audio source to this index. An existing entry for
+   * this audio source is replaced. The data is copied, so the index does not
+   * reference objects created by external extractors. If the source medium is
+   * not indexed, the index is not changed, and the data is returned as is.
+   * @param mediumURI the URI of the source medium
+   * @param uri the URI of the audio source
+   * @param size the size of the audio file
+   * @param lastModified the modification time of the audio file
+   * @param data the meta data extracted for this audio source
+   * @return the meta data object stored in the index
+   */
+  def put(mediumURI: String, uri: String, size: Long, lastModified: Long,
+    data: AudioSourceData): AudioSourceData =
+    if (!isIndexed(mediumURI)) data
+    else {
+      val entry = Entry(size, lastModified, copyData(data))
+      lock.synchronized {
+        entries += Key(mediumURI, uri) -> entry
+        modified = true
+      }
+      entry.data
+    }
+
+  /**
+   * Returns the number of entries contained in this index.
+   * @return the size of this index
+   */
+  def size: Int = lock.synchronized { entries.size }
+
+  /**
+   * Writes this index into its file if it has been changed. The lock of the
+   * index is only held while a snapshot of the entries is created. Errors
+   * are logged, but not propagated; in this case, the index is written again
+   * on the next invocation.
+   */
+  def save() {
+    saveLock.synchronized {
+      val snapshot = lock.synchronized {
+        if (modified) {
+          modified = false
+          Some(entries.toList)
+        } else None
+      }
+
+      snapshot foreach { data =>
+        try {
+          writeIndex(data)
+        } catch {
+          case ex: Exception =>
+            log.error("Could not save audio source data index", ex)
+            lock.synchronized { modified = true }
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the index file. If it does not exist or cannot be parsed, an empty
+   * map is returned.
+   * @return the map with the entries of the index
+   */
+  private def loadIndex(): mutable.Map[Key, Entry] = {
+    val map = mutable.Map.empty[Key, Entry]
+    if (indexFile.isFile) {
+      log.info("Loading audio source data index {}", indexFile)
+      for (root <- loadXML(() => new FileInputStream(indexFile));
+        node <- root \ ElemSource) {
+        map ++= parseEntry(node)
+      }
+    }
+    map
+  }
+
+  /**
+   * Writes the specified entries into the index file.
+   * @param data a snapshot of the entries of this index
+   * @throws IOException if an error occurs
+   */
+  private def writeIndex(data: Seq[(Key, Entry)]) {
+    val root =
+      <index>
+        {
+          for ((key, entry) <- data) yield <source medium={ key.mediumURI }
+            uri={ key.uri } size={ entry.size.toString }
+            modified={ entry.lastModified.toString }>
+            { dataElem(ElemTitle, entry.data.title) }
+            { dataElem(ElemAlbum, entry.data.albumName) }
+            { dataElem(ElemArtist, entry.data.artistName) }
+            <duration>{ entry.data.duration }</duration>
+            <inceptionYear>{ entry.data.inceptionYear }</inceptionYear>
+            <trackNo>{ entry.data.trackNo }</trackNo>
+          </source>
+        }
+      </index>
+
+    val parent = indexFile.getAbsoluteFile.getParentFile
+    if (parent != null && !parent.isDirectory && !parent.mkdirs()) {
+      throw new IOException("Could not create directory " + parent)
+    }
+    val tempFile = new File(indexFile.getPath + ExtTemp)
+    XML.save(filename = tempFile.getAbsolutePath, node = root,
+      enc = XMLEncoding, xmlDecl = true)
+    if (!tempFile.renameTo(indexFile)) {
+      indexFile.delete()
+      if (!tempFile.renameTo(indexFile)) {
+        throw new IOException("Could not rename " + tempFile + " to "
+          + indexFile)
+      }
+    }
+  }
+}
+
+/**
+ * The companion object for ''AudioSourceDataIndex''.
+ */
+object AudioSourceDataIndex {
+  /** Constant for the extension of the temporary file written by save(). */
+  private val ExtTemp = ".tmp"
+
+  /** Constant for the source XML element. */
+  private val ElemSource = "source"
+
+  /** Constant for the title XML element. */
+  private val ElemTitle = "title"
+
+  /** Constant for the album XML element. */
+  private val ElemAlbum = "album"
+
+  /** Constant for the artist XML element. */
+  private val ElemArtist = "artist"
+
+  /**
+   * Creates a copy of the given ''AudioSourceData'' object.
+   * @param data the data object to be copied
+   * @return the copy
+   */
+  private def copyData(data: AudioSourceData): AudioSourceData =
+    AudioSourceDataImpl(title = data.title, albumName = data.albumName,
+      artistName = data.artistName, duration = data.duration,
+      inceptionYear = data.inceptionYear, trackNo = data.trackNo)
+
+  /**
+   * Creates an XML element for an optional string property of an audio
+   * source. If the property is undefined, no element is created.
+   * @param name the name of the element
+   * @param value the value of the property
+   * @return the XML element for this property
+   */
+  private def dataElem(name: String, value: String): Seq[Node] =
+    if (value == null) Nil
+    else Elem(null, name, xml.Null, xml.TopScope, xml.Text(value))
+
+  /**
+   * Parses an XML element for an entry of the index. If the element contains
+   * invalid numeric values, it is ignored.
+   * @param node the XML element
+   * @return an ''Option'' with a tuple of the key and the entry
+   */
+  private def parseEntry(node: Node): Option[(Key, Entry)] =
+    try {
+      val data = AudioSourceDataImpl(title = optText(node, ElemTitle),
+        albumName = optText(node, ElemAlbum),
+        artistName = optText(node, ElemArtist),
+        duration = parseNumber(node, "duration"),
+        inceptionYear = parseNumber(node, "inceptionYear").toInt,
+        trackNo = parseNumber(node, "trackNo").toInt)
+      Some((Key((node \ "@medium").text, (node \ "@uri").text),
+        Entry((node \ "@size").text.toLong, (node \ "@modified").text.toLong,
+          data)))
+    } catch {
+      case nex: NumberFormatException => None
+    }
+
+  /**
+   * Returns the text of an optional child element. If the element does not
+   * exist, result is '''null'''.
+   * @param node the parent node
+   * @param name the name of the child element
+   * @return the text of this element or '''null'''
+   */
+  private def optText(node: Node, name: String): String = {
+    val seq = node \ name
+    if (seq.isEmpty) null else seq.text
+  }
+
+  /**
+   * Parses the numeric content of a child element. If the element does not
+   * exist, result is 0.
+   * @param node the parent node
+   * @param name the name of the child element
+   * @return the numeric value of this element
+   */
+  private def parseNumber(node: Node, name: String): Long = {
+    val text = (node \ name).text.trim
+    if (text.length == 0) 0 else text.toLong
+  }
+
+  /**
+   * A class representing the key of an entry in the index.
+   * @param mediumURI the URI of the source medium
+   * @param uri the URI of the audio source
+   */
+  private case class Key(mediumURI: String, uri: String)
+
+  /**
+   * A class representing an entry of the index.
+   * @param size the size of the audio file
+   * @param lastModified the modification time of the audio file
+   * @param data the meta data of the audio source
+   */
+  private case class Entry(size: Long, lastModified: Long,
+    data: AudioSourceData)
+}
@@ -0,0 +1,175 @@
+package de.oliver_heger.splaya.playlist.impl
+
+import java.io.Closeable
+import java.io.IOException
+
+import scala.actors.Actor
+import scala.collection.mutable.Queue
+
+import org.slf4j.LoggerFactory
+
+import de.oliver_heger.splaya.fs.FSService
+import de.oliver_heger.splaya.osgiutil.ServiceWrapper.convertToOption
+import de.oliver_heger.splaya.osgiutil.ServiceWrapper
+
+/**
+ * An actor which fills an
+ * [[de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndex]] with meta
+ * data about all audio files found on a set of source media.
+ *
+ * This actor is sent an ''IndexMedia'' message with the URIs of the source
+ * media to be indexed. It scans these media and requests meta data for each
+ * audio file found from the ''AudioSourceDataExtractorActor''. This is done
+ * using ''IndexSourceDataRequest'' messages which are processed only if the
+ * extractor actor is idle; so interactive extraction requests are not
+ * delayed. Only a single request is sent at a time; the next one is sent when
+ * the result of the former has been received.
+ *
+ * The extractor actor is expected to use an ''AudioSourceDataExtractor''
+ * which is backed by the same index; so meta data which is up to date is not
+ * extracted again, and newly extracted data is added to the index
+ * automatically. This actor saves the index when all media have been
+ * processed and when it exits. Because the whole index file is rewritten on
+ * each save operation, saves during a long-running scan only happen after a
+ * certain time interval has passed; so the amount of I/O does not depend on
+ * the number of audio files processed.
+ *
+ * @param extractorActor the actor for extracting audio source data
+ * @param fsService a reference to the ''FSService''
+ * @param index the index to be filled
+ * @param saveInterval the time (in milliseconds) after which the index is
+ * saved while indexing is in progress
+ */
+class AudioSourceDataIndexActor(val extractorActor: Actor,
+  fsService: ServiceWrapper[FSService], val index: AudioSourceDataIndex,
+  val saveInterval: Long = AudioSourceDataIndexActor.DefaultSaveInterval)
+  extends Actor {
+  /** The logger. */
+  private val log = LoggerFactory.getLogger(classOf[AudioSourceDataIndexActor])
+
+  /** A queue with the audio sources (medium URI and URI) to be processed. */
+  private val pendingSources = Queue.empty[(String, String)]
+
+  /** A flag whether a request is currently processed by the extractor. */
+  private var requestPending = false
+
+  /** The number of audio sources processed since the last save operation. */
+  private var unsavedCount = 0
+
+  /** The time of the last save operation. */
+  private var lastSaveTime = 0L
+
+  /**
+   * The main message loop of this actor.
+   */
+  def act() {
+    var running = true
+
+    while (running) {
+      receive {
+        case cl: Closeable =>
+          index.save()
+          cl.close()
+          running = false
+
+        case IndexMedia(mediumURIs, extensions) =>
+          if (unsavedCount == 0) {
+            lastSaveTime = System.currentTimeMillis
+          }
+          mediumURIs foreach (scanMedium(_, extensions))
+          processNextSource()
+
+        case IndexSourceDataResult(_, _, _) =>
+          handleResult()
+      }
+    }
+  }
+
+  /**
+   * Returns a string representation for this actor. This string contains the
+   * name of this actor.
+   * @return a string for this actor
+   */
+  override def toString = "AudioSourceDataIndexActor"
+
+  /**
+   * Scans the given source medium and adds the audio files found to the
+   * queue of sources to be processed.
+   * @param mediumURI the URI of the source medium
+   * @param extensions the file extensions of supported audio files
+   */
+  private def scanMedium(mediumURI: String, extensions: Set[String]) {
+    convertToOption(fsService) match {
+      case Some(fs) =>
+        try {
+          log.info("Scanning medium {} for indexing.", mediumURI)
+          fs.scan(mediumURI, extensions) foreach { uri =>
+            pendingSources += ((mediumURI, uri))
+          }
+        } catch {
+          case ioex: IOException =>
+            log.error("Could not scan medium " + mediumURI, ioex)
+        }
+
+      case None =>
+        log.warn("No FSService available! Cannot index {}.", mediumURI)
+    }
+  }
+
+  /**
+   * Handles the result of an index request. The index is saved if the save
+   * interval has passed, and the next audio source is processed.
+   */
+  private def handleResult() {
+    requestPending = false
+    unsavedCount += 1
+    if (System.currentTimeMillis - lastSaveTime >= saveInterval) {
+      saveIndex()
+    }
+    processNextSource()
+  }
+
+  /**
+   * Sends a request for the next audio source to the extractor actor if
+   * possible. If all audio sources have been processed, the index is saved.
+   */
+  private def processNextSource() {
+    if (!requestPending) {
+      if (pendingSources.isEmpty) {
+        if (unsavedCount > 0) {
+          log.info("Indexing of audio sources complete.")
+          saveIndex()
+        }
+      } else {
+        val (mediumURI, uri) = pendingSources.dequeue()
+        extractorActor ! IndexSourceDataRequest(mediumURI, uri, this)
+        requestPending = true
+      }
+    }
+  }
+
+  /**
+   * Saves the index and resets the counter for processed audio sources.
+   */
+  private def saveIndex() {
+    index.save()
+    unsavedCount = 0
+    lastSaveTime = System.currentTimeMillis
+  }
+}
+
+/**
+ * The companion object for ''AudioSourceDataIndexActor''.
+ */
+object AudioSourceDataIndexActor {
+  /** The default time interval (in milliseconds) after which to save. */
+  val DefaultSaveInterval = 5 * 60 * 1000L
+}
+
+/**
+ * A message which tells the ''AudioSourceDataIndexActor'' to index the
+ * specified source media.
+ * @param mediumURIs a sequence with the URIs of the source media to be indexed
+ * @param extensions a set with the file extensions of supported audio files
+ */
+case class IndexMedia(mediumURIs: Seq[String], extensions: Set[String])
@@ -0,0 +1,148 @@
+package de.oliver_heger.splaya.playlist.impl
+
+import scala.collection.immutable.IndexedSeq
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuilder
+import scala.collection.mutable.Builder
+
+/**
+ * A memory-efficient representation of a playlist.
+ *
+ * A playlist consists of the URIs of all audio sources on a medium. For large
+ * media there can be hundreds of thousands of URIs, and typically many of
+ * them share the same directory prefixes. Storing each URI as a separate
+ * string wastes a lot of memory for the repeated prefixes and for the
+ * overhead of the string objects.
+ *
+ * This class stores each distinct directory only once in a directory table.
+ * For each playlist item the index of its directory in this table is stored
+ * together with the file name. The file names of all items are stored in a
+ * single character array. Full URIs are constructed on demand when an element
+ * is accessed. So from the outside an instance looks like an ordinary
+ * ''IndexedSeq'' of URIs and can be passed to all components expecting a
+ * sequence of strings.
+ *
+ * Instances are immutable. They are created using a builder obtained from
+ * ''CompactPlaylist.newBuilder'' or from an existing sequence using the
+ * ''apply()'' method of the companion object.
+ *
+ * @param directories the table with the distinct directories
+ * @param dirIndices the indices of the directories of the playlist items
+ * @param names an array with the file names of all playlist items
+ * @param nameOffsets the start offsets of the file names
+ */
+class CompactPlaylist private (directories: Array[String],
+  dirIndices: Array[Int], names: Array[Char], nameOffsets: Array[Int])
+  extends IndexedSeq[String] {
+  /**
+   * Returns the number of items in this playlist.
+   * @return the length of this playlist
+   */
+  def length: Int = dirIndices.length
+
+  /**
+   * Returns the URI of the playlist item with the given index.
+   * @param idx the index
+   * @return the URI of this playlist item
+   */
+  def apply(idx: Int): String = {
+    val dir = directories(dirIndices(idx))
+    val start = nameOffsets(idx)
+    val end = if (idx + 1 < length) nameOffsets(idx + 1) else names.length
+    val nameLength = end - start
+    val buf = new java.lang.StringBuilder(dir.length + nameLength)
+    buf.append(dir).append(names, start, nameLength).toString
+  }
+
+  /**
+   * Returns the number of distinct directories referenced by this playlist.
+   * @return the number of directories
+   */
+  def directoryCount: Int = directories.length
+
+  override def stringPrefix = "CompactPlaylist"
+}
+
+/**
+ * The companion object for ''CompactPlaylist''.
+ */
+object CompactPlaylist {
+  /** An empty playlist. */
+  val Empty = newBuilder.result()
+
+  /**
+   * Returns a ''CompactPlaylist'' with the content of the given sequence. If
+   * the sequence already is a ''CompactPlaylist'', it is returned unchanged.
+   * @param uris the sequence with the URIs of the playlist
+   * @return the corresponding ''CompactPlaylist''
+   */
+  def apply(uris: Seq[String]): CompactPlaylist =
+    uris match {
+      case pl: CompactPlaylist => pl
+      case _ =>
+        val builder = newBuilder
+        builder ++= uris
+        builder.result()
+    }
+
+  /**
+   * Returns a builder for creating a new ''CompactPlaylist''.
+   * @return the builder
+   */
+  def newBuilder: Builder[String, CompactPlaylist] = new PlaylistBuilder
+
+  /**
+   * Returns the position at which the given URI is split into a directory and
+   * a file name. This is the position after the last slash.
+   * @param uri the URI
+   * @return the position of the file name in this URI
+   */
+  private def splitPosition(uri: String): Int = uri.lastIndexOf('/') + 1
+
+  /**
+   * The builder implementation for ''CompactPlaylist'' objects.
+   */
+  private class PlaylistBuilder extends Builder[String, CompactPlaylist] {
+    /** A map assigning directories to their indices in the table. */
+    private val dirMap = mutable.Map.empty[String, Int]
+
+    /** The builder for the directory table. */
+    private val directories = ArrayBuilder.make[String]()
+
+    /** The builder for the directory indices. */
+    private val dirIndices = new ArrayBuilder.ofInt
+
+    /** The builder for the offsets of file names. */
+    private val nameOffsets = new ArrayBuilder.ofInt
+
+    /** A buffer for the file names. */
+    private val names = new java.lang.StringBuilder
+
+    def +=(uri: String): this.type = {
+      val pos = splitPosition(uri)
+      val dir = uri.substring(0, pos)
+      dirIndices += dirMap.getOrElseUpdate(dir, {
+        directories += dir
+        dirMap.size
+      })
+      nameOffsets += names.length
+      names.append(uri, pos, uri.length)
+      this
+    }
+
+    def clear() {
+      dirMap.clear()
+      directories.clear()
+      dirIndices.clear()
+      nameOffsets.clear()
+      names.setLength(0)
+    }
+
+    def result(): CompactPlaylist = {
+      val nameChars = new Array[Char](names.length)
+      names.getChars(0, names.length, nameChars, 0)
+      new CompactPlaylist(directories.result(), dirIndices.result(),
+        nameChars, nameOffsets.result())
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package de.oliver_heger.splaya.playlist.impl
+
+/**
+ * A class which determines how many requests for extracting audio meta data
+ * can be processed in parallel for a specific source medium.
+ *
+ * The optimum number of parallel requests depends on the source medium: a
+ * local hard disk can serve multiple requests at the same time while an
+ * optical drive or a network share becomes slower if it is accessed in
+ * parallel. Therefore, the limit can be configured based on prefixes of the
+ * URI of the source medium. If multiple prefixes match, the longest one wins.
+ * If no prefix matches, a default limit is used.
+ *
+ * An instance can be created from a string using the ''parse()'' method of
+ * the companion object.
+ *
+ * @param limits a map with URI prefixes and their corresponding limits
+ * @param defaultLimit the limit for media not matched by a prefix
+ */
+class ExtractionConcurrency(val limits: Map[String, Int],
+  val defaultLimit: Int = 1) {
+  /**
+   * Returns the number of parallel extraction requests allowed for the source
+   * medium with the given URI.
+   * @param mediumURI the URI of the source medium
+   * @return the maximum number of parallel requests for this medium
+   */
+  def limitFor(mediumURI: String): Int = {
+    val prefixes =
+      if (mediumURI == null) Nil
+      else limits.keys filter (mediumURI startsWith _)
+    if (prefixes.isEmpty) defaultLimit
+    else limits(prefixes maxBy (_.length))
+  }
+
+  /**
+   * Returns a string representation for this object. This string contains the
+   * limits defined.
+   * @return a string for this object
+   */
+  override def toString =
+    "ExtractionConcurrency[default = " + defaultLimit + ", limits = " +
+      limits + "]"
+}
+
+/**
+ * The companion object for ''ExtractionConcurrency''.
+ */
+object ExtractionConcurrency {
+  /**
+   * A default instance which allows a single request for all source media.
+   * This is the most conservative setting.
+   */
+  val Default = new ExtractionConcurrency(Map.empty)
+
+  /** Constant for the regular expression for splitting the single entries. */
+  private val RegExSplitEntries = "\\s*[,;]\\s*"
+
+  /** A regular expression for parsing an entry with a URI prefix. */
+  private val RegExPrefixEntry = """\s*(\S+)\s*=\s*(\d+)\s*""".r
+
+  /** A regular expression for parsing an entry with the default limit. */
+  private val RegExDefaultEntry = """\s*(\d+)\s*""".r
+
+  /**
+   * Creates an ''ExtractionConcurrency'' object from the given string. The
+   * string consists of a comma-separated list of entries of the form
+   * `prefix=limit` where ''prefix'' is a prefix of the URI of a source medium
+   * and ''limit'' is the number of parallel requests. An entry consisting of
+   * only a number defines the default limit. Limits must be positive.
+   * Example: `file:///home/music=4, file:///media/nas=2, 1`
+   * @param value the string to be parsed
+   * @return the corresponding ''ExtractionConcurrency'' object
+   * @throws IllegalArgumentException if the string cannot be parsed
+   */
+  def parse(value: String): ExtractionConcurrency = {
+    var defaultLimit = 1
+    var limits = Map.empty[String, Int]
+
+    value.trim.split(RegExSplitEntries) filter (_.length > 0) foreach {
+      case RegExPrefixEntry(prefix, limit) =>
+        limits += prefix -> checkLimit(limit)
+      case RegExDefaultEntry(limit) =>
+        defaultLimit = checkLimit(limit)
+      case err =>
+        throw new IllegalArgumentException(
+          "Not a valid extraction concurrency entry: " + err)
+    }
+    new ExtractionConcurrency(limits, defaultLimit)
+  }
+
+  /**
+   * Converts a limit to a number and checks whether it is valid.
+   * @param limit the string value of the limit
+   * @return the numeric limit
+   * @throws IllegalArgumentException if the limit is not valid
+   */
+  private def checkLimit(limit: String): Int = {
+    val result = limit.toInt
+    if (result < 1) {
+      throw new IllegalArgumentException("Limit must be positive: " + limit)
+    }
+    result
+  }
+}
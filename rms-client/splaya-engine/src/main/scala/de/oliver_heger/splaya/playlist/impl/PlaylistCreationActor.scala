@@ -28,7 +28,9 @@ import de.oliver_heger.splaya.PlaylistSettings
  * playlist has to be created the source medium is scanned first. If available,
  * playlist settings are determined. Based on this information this actor is
  * called to do the actual sorting of the playlist. The sorted playlist is then
- * sent back to the original sender.
+ * sent back to the original sender. It is converted to a
+ * [[de.oliver_heger.splaya.playlist.impl.CompactPlaylist]] to reduce memory
+ * consumption for large playlists.
  *
  * There are a couple of messages which can be processed by this actor. They
  * are defined as case classes to be more explicit.
@@ -107,7 +109,8 @@ class PlaylistCreationActor extends Actor {
       defaultGenerator())
     val orderedSongs = generator.generatePlaylist(request.songs,
       request.settings.orderMode, request.settings.orderParams)
-    request.sender ! PlaylistGenerated(orderedSongs, request.settings)
+    request.sender ! PlaylistGenerated(CompactPlaylist(orderedSongs),
+      request.settings)
   }
 
   /**
@@ -4,7 +4,6 @@ import java.io.Closeable
 import java.io.IOException
 
 import scala.actors.Actor
-import scala.collection.mutable.ListBuffer
 import scala.xml.Elem
 
 import org.apache.commons.lang3.text.translate.NumericEntityEscaper
@@ -12,6 +11,7 @@ import org.apache.commons.lang3.StringEscapeUtils
 
 import de.oliver_heger.splaya.engine.msg.ActorExited
 import de.oliver_heger.splaya.engine.msg.AddSourceStream
+import de.oliver_heger.splaya.engine.msg.FlushPlayer
 import de.oliver_heger.splaya.engine.msg.Gateway
 import de.oliver_heger.splaya.fs.FSService
 import de.oliver_heger.splaya.osgiutil.ServiceWrapper.convertToOption
@@ -41,7 +41,11 @@ import de.oliver_heger.splaya.PlaylistSettings
  * actor to persist the current state of the playlist, so that playback can be
  * interrupted and resumed later. There is an auto-save functionality which
  * causes the playlist to be saved automatically after a configurable number of
- * played audio sources.
+ * played audio sources. The whole playlist is written only once; later save
+ * operations just record the current position which is much cheaper.
+ *
+ * Playlists can become very large. Therefore, they are stored internally as
+ * [[de.oliver_heger.splaya.playlist.impl.CompactPlaylist]] objects.
  *
  * A playlist can be associated with playlist settings - an XML document with
  * meta information like a name, a description, and a default order mode.
@@ -50,6 +54,20 @@ import de.oliver_heger.splaya.PlaylistSettings
  * the root of the source medium for a file named `playlist.settings`. If it
  * exists, it is loaded and interpreted as playlist settings.
  *
+ * Scanning a large source medium can take a while. Before the scan starts,
+ * the ''PlaylistFileStore'' is asked for the playlist which was used the last
+ * time for this medium. If a persistent playlist exists, playback is resumed
+ * from it after the scan. Otherwise, playback is started as early as
+ * possible: the scan reports the audio sources found in batches, and the
+ * first audio source discovered is immediately passed to the source actor
+ * (''provisional playback''). When the scan is complete and the ordered
+ * playlist has been generated, this audio source is moved to the start of
+ * the playlist, so that the current song remains stable; the remaining songs
+ * are sent afterwards. If it turns out that there is a persistent playlist
+ * for the scanned content anyway (e.g. because the medium was never
+ * recorded in the store), the audio engine is flushed, and the persistent
+ * playlist is restored.
+ *
  * @param gateway the gateway object
  * @param sourceActor the actor to which the playlist has to be communicated
  * @param fsService the ''FSService'' for scanning the source medium
@@ -68,7 +86,7 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
         NumericEntityEscaper.between(0x7f, Integer.MAX_VALUE))
 
   /** A sequence with the current playlist. */
-  private var playlist: Seq[String] = List.empty
+  private var playlist: Seq[String] = CompactPlaylist.Empty
 
   /** The ID of the current playlist. */
   private var playlistID: String = _
@@ -91,6 +109,12 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
   /** A flag whether the playlist has been played completely. */
   private var playlistComplete: Boolean = false
 
+  /** A flag whether the current playlist has already been stored. */
+  private var playlistStored: Boolean = false
+
+  /** The audio source which has been sent during the scan of the medium. */
+  private var provisionalSong: Option[String] = None
+
   def act() {
     var running = true
 
@@ -107,6 +131,10 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
         case resp: PlaylistGenerated =>
           handlePlaylistGenerated(resp)
 
+        case RestorePlaylist(playlistData, settings) =>
+          setUpExistingPlaylist(currentSourceMedium, playlistData)
+          gateway.publish(createPlaylistData(settings))
+
         case MoveTo(idx) =>
           handleMoveTo(idx)
 
@@ -175,7 +203,7 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
     def decode(s: String): String =
       StringEscapeUtils.unescapeXml(s)
 
-    val pl = ListBuffer.empty[String]
+    val pl = CompactPlaylist.newBuilder
 
     val current = playlistData \ "current" \ "file" \ "@name"
     if (!current.isEmpty) {
@@ -187,7 +215,7 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
       pl += decode((f \ "@name").text)
     }
 
-    pl.toList
+    pl.result()
   }
 
   /**
@@ -200,51 +228,101 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
   private def sendPlaylist(startIdx: Int, initSkipPos: Long = 0,
     initSkipTime: Long = 0) {
     currentIndex = startIdx
-    val pl = playlist.drop(startIdx)
-    if (!pl.isEmpty) {
-      sourceActor ! AddSourceStream(currentSourceMedium, pl.head, startIdx,
-        initSkipPos, initSkipTime)
-      var idx = startIdx + 1
-      for (uri <- pl.tail) {
-        sourceActor ! AddSourceStream(currentSourceMedium, uri, idx, 0, 0)
-        idx += 1
-      }
-      sourceActor ! PlaylistEnd
+    if (startIdx >= 0 && startIdx < playlist.size) {
+      sourceActor ! AddSourceStream(currentSourceMedium, playlist(startIdx),
+        startIdx, initSkipPos, initSkipTime)
+      sendSongs(startIdx + 1)
     }
   }
 
+  /**
+   * Sends the songs of the current playlist starting with the given index to
+   * the source read actor. The end of the playlist is marked.
+   * @param startIdx the index of the first song to be sent
+   */
+  private def sendSongs(startIdx: Int) {
+    for (idx <- startIdx until playlist.size) {
+      sourceActor ! AddSourceStream(currentSourceMedium, playlist(idx), idx,
+        0, 0)
+    }
+    sourceActor ! PlaylistEnd
+  }
+
   /**
    * Reads the specified medium and constructs a playlist (either based on a
    * persistent playlist file or by using the ''PlaylistGenerator''). The new
-   * playlist is sent to the source actor.
+   * playlist is sent to the source actor. If no persistent playlist is known
+   * for this medium, the first audio source found during the scan is already
+   * passed to the source actor.
    * @param uri the URI of the medium to be read
    */
   private def handleReadMedium(uri: String) {
-    val optList = fsService map(_.scan(uri, extensions))
-    val list = optList.getOrElse(List.empty)
+    currentSourceMedium = uri
+    provisionalSong = None
+    val storedID = store.loadMediumPlaylistID(uri)
+    val storedData = storedID flatMap (store.loadPlaylist(_))
+    val listener: Seq[String] => Unit =
+      if (storedData.isDefined) PlaylistCtrlActor.IgnoreBatch
+      else startPlayback
+    val optList = fsService map(_.scan(uri, extensions, listener))
+    val list = CompactPlaylist(optList.getOrElse(List.empty))
     playlistID = store.calculatePlaylistID(list)
-    val playlistData = store.loadPlaylist(playlistID)
+    val playlistData =
+      if (storedID == Some(playlistID)) storedData
+      else {
+        store.saveMediumPlaylistID(uri, playlistID)
+        store.loadPlaylist(playlistID)
+      }
     val settings = readPlaylistSettings(uri)
 
     playlist = readPersistentPlaylist(playlistData)
+    playlistStored = !playlist.isEmpty
     if (playlist.isEmpty) {
       constructPlaylist(list, settings)
+    } else if (provisionalSong.isDefined) {
+      provisionalSong = None
+      val restoreMsg = RestorePlaylist(playlistData.get, settings)
+      sourceActor ! new FlushPlayer(this ! restoreMsg)
     } else {
       setUpExistingPlaylist(uri, playlistData.get)
       gateway.publish(createPlaylistData(settings))
     }
   }
 
+  /**
+   * Processes a batch of audio sources found while scanning the source
+   * medium. If playback has not yet been started, the first audio source is
+   * sent to the source actor.
+   * @param songs the batch of audio sources
+   */
+  private def startPlayback(songs: Seq[String]) {
+    if (provisionalSong.isEmpty && !songs.isEmpty) {
+      provisionalSong = Some(songs.head)
+      currentIndex = 0
+      sourceActor ! AddSourceStream(currentSourceMedium, songs.head, 0, 0, 0)
+    }
+  }
+
   /**
    * Processes a notification about a newly created playlist. The songs of the
-   * playlist are passed to the source actor. A message about the new playlist
-   * is sent out.
+   * playlist are passed to the source actor. If playback has already been
+   * started with a provisional song, this song is placed at the start of the
+   * playlist, and only the remaining songs are sent. A message about the new
+   * playlist is sent out.
    * @param resp the response of the generate playlist request
    */
   private def handlePlaylistGenerated(resp: PlaylistGenerated) {
-    playlist = resp.songs
+    playlistStored = false
     currentSourceMedium = resp.settings.mediumURI
-    sendPlaylist(0)
+    provisionalSong match {
+      case Some(song) =>
+        playlist = CompactPlaylist(song +: (resp.songs filterNot (_ == song)))
+        sendSongs(1)
+      case None =>
+        playlist = CompactPlaylist(resp.songs)
+        sendPlaylist(0)
+    }
+    provisionalSong = None
     gateway.publish(createPlaylistData(resp.settings))
   }
 
@@ -254,6 +332,7 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
    * @param idx the new index
    */
   private def handleMoveTo(idx: Int) {
+    provisionalSong = None
     if (idx >= 0 && idx < playlist.size) {
       currentIndex = idx
       sendPlaylist(idx)
@@ -267,6 +346,7 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
    * @param delta the delta
    */
   private def handleMoveRelative(delta: Int) {
+    provisionalSong = None
     if (!playlist.isEmpty) {
       currentIndex = scala.math.min(playlist.size - 1,
         scala.math.max(0, currentIndex + delta))
@@ -305,7 +385,7 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
    */
   private def readPersistentPlaylist(playlistData: Option[Elem]): Seq[String] = {
     val pl = playlistData map { readPersistentPlaylist(_) }
-    pl.getOrElse(List.empty)
+    pl.getOrElse(CompactPlaylist.Empty)
   }
 
   /**
@@ -391,13 +471,22 @@ class PlaylistCtrlActor(gateway: Gateway, sourceActor: Actor,
 
   /**
    * Saves the current playlist including information about the current
-   * position. If there is no current playlist, this method has no effect.
+   * position. If the playlist has already been stored, only the current
+   * position is saved. If there is no current playlist, this method has no
+   * effect.
    */
   private def savePlaylist() {
     if (playlistID != null) {
-      val xml = if (playlistComplete) PlaylistCtrlActor.EmptyPlaylist
-      else createPersistentPlaylist
-      store.savePlaylist(playlistID, xml)
+      if (playlistComplete) {
+        store.savePlaylist(playlistID, PlaylistCtrlActor.EmptyPlaylist)
+        playlistStored = false
+      } else if (playlistStored) {
+        store.savePlaylistPosition(playlistID, currentIndex, currentPos,
+          currentTime)
+      } else {
+        store.savePlaylist(playlistID, createPersistentPlaylist)
+        playlistStored = true
+      }
     }
   }
 
@@ -442,6 +531,9 @@ private object PlaylistCtrlActor {
   /** Constant for an empty name or description of a playlist. */
   private val EmptyName = ""
 
+  /** A listener for scan operations which ignores all batches. */
+  private val IgnoreBatch: Seq[String] => Unit = _ => ()
+
   /** Constant for the current XML element. */
   private val ElemCurrent = "current"
 
@@ -517,6 +609,16 @@ private case class PlaylistSettingsData(name: String, description: String,
  */
 private case class ReadMedium(uri: String)
 
+/**
+ * A message which causes the ''PlaylistCtrlActor'' to restore a persistent
+ * playlist. This message is sent after the audio engine has been flushed
+ * because playback had already been started with a provisional song.
+ * @param playlistData the XML root node of the persistent playlist
+ * @param settings the settings of the playlist
+ */
+private case class RestorePlaylist(playlistData: Elem,
+  settings: PlaylistSettings)
+
 /**
  * A message which causes the ''PlaylistCtrlActor'' to set the current index to
  * the given position. If the index is valid, the new playlist is sent to the
@@ -1,12 +1,14 @@
 package de.oliver_heger.splaya.playlist.impl
 
 import scala.actors.Actor
+import scala.collection.mutable
 import de.oliver_heger.splaya.engine.msg.Exit
 import de.oliver_heger.splaya.PlaylistData
 import de.oliver_heger.splaya.AudioSourceData
 import de.oliver_heger.splaya.PlaylistUpdate
 import de.oliver_heger.splaya.engine.msg.Gateway
 import de.oliver_heger.splaya.engine.msg.AccessSourceMedium
+import de.oliver_heger.splaya.PlaybackSourceStart
 import de.oliver_heger.splaya.PlayerShutdown
 import java.io.Closeable
 
@@ -16,20 +18,51 @@ import java.io.Closeable
  *
  * This actor listens for messages indicating that a new playlist was
  * constructed. In such a case, the list with all audio sources is obtained and
- * processed, starting with the current index. For each audio source an
+ * processed. Items near the current index are processed first: starting with
+ * the current index, the items following and preceding it are handled in
+ * alternating order. When playback of another audio source starts, processing
+ * continues around the index of this source. For each audio source an
  * [[de.oliver_heger.splaya.playlist.impl.ExtractSourceDataRequest]] message is
  * sent to the ''AudioSourceDataExtractorActor''. As soon as meta data about an
  * audio source becomes available, a [[de.oliver_heger.splaya.PlaylistUpdate]]
  * event is sent out.
  *
+ * The number of requests processed in parallel is determined by an
+ * [[de.oliver_heger.splaya.playlist.impl.ExtractionConcurrency]] object based
+ * on the URI of the source medium. So fast media like local hard disks can be
+ * processed by multiple workers while slow media like optical drives are
+ * accessed by a single request at a time. Requests in flight are tracked per
+ * source medium rather than per playlist: if a new playlist is set while
+ * requests for the former one are still processed, these requests count
+ * against the limit of their medium until their results arrive.
+ *
  * This actor also takes into account whether the source medium is currently
- * accessed by the ''SourceReaderActor''. If this is the case, loading audio
- * meta data is interrupted.
+ * accessed by the ''SourceReaderActor''. If this is the case, the number of
+ * parallel requests is reduced by one. So for a medium allowing only a single
+ * request loading audio meta data is interrupted.
+ *
+ * If an [[de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndex]] is
+ * provided, it is checked for all items of a new playlist before any
+ * extraction requests are sent. Items for which meta data is found in the
+ * index are updated immediately; so the playlist shows full information
+ * without accessing the source medium. This lookup does not check whether
+ * the audio files have been changed since they were indexed. Therefore,
+ * extraction requests are sent for these items, too; they validate the data
+ * of the index. The extractor actor is expected to be backed by the same
+ * index, so for unchanged files only their size and modification time are
+ * checked. An update event is only sent again if the data extracted differs
+ * from the data of the index. The index is kept up to date in background by
+ * an [[de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndexActor]].
  *
  * @param gateway the gateway object
  * @param sourceDataExtractor the actor for extracting audio source data
+ * @param concurrency the object determining the number of parallel requests
+ * for a source medium
+ * @param dataIndex an optional index with meta data about audio sources
  */
-class PlaylistDataExtractorActor(gateway: Gateway, sourceDataExtractor: Actor)
+class PlaylistDataExtractorActor(gateway: Gateway, sourceDataExtractor: Actor,
+  concurrency: ExtractionConcurrency = ExtractionConcurrency.Default,
+  dataIndex: Option[AudioSourceDataIndex] = None)
   extends Actor {
   /** The playlist to be processed. */
   private var playlistData: PlaylistDataImpl = _
@@ -40,14 +73,30 @@ class PlaylistDataExtractorActor(gateway: Gateway, sourceDataExtractor: Actor)
   /** The number of playlist items which have to be processed. */
   private var itemsToProcess = 0
 
-  /** The index of the current playlist item. */
-  private var index = 0
+  /** An array with flags for the items which have already been requested. */
+  private var requested = Array.empty[Boolean]
+
+  /** The index around which playlist items are processed. */
+  private var centerIndex = 0
+
+  /** The current position in the search sequence around the center index. */
+  private var searchPosition = 0
+
+  /** The URI of the source medium of the current playlist. */
+  private var mediumURI: String = _
+
+  /** The maximum number of parallel requests for the current medium. */
+  private var concurrencyLimit = 1
 
   /** A flag whether the source medium is locked. */
   private var mediumLocked = false
 
-  /** A flag whether a request is currently pending. */
-  private var requestPending = false
+  /**
+   * A map with the requests which are currently pending. Keys are the
+   * playlist ID and the index of the playlist item; values are the URIs of
+   * the source media accessed by the requests.
+   */
+  private val pendingRequests = mutable.Map.empty[(Long, Int), String]
 
   /**
    * The main message loop of this actor.
@@ -63,6 +112,7 @@ class PlaylistDataExtractorActor(gateway: Gateway, sourceDataExtractor: Actor)
 
         case PlayerShutdown =>
           sourceDataExtractor ! Exit
+          dataIndex foreach (_.save())
           running = false
 
         case pld: PlaylistDataImpl =>
@@ -74,6 +124,9 @@ class PlaylistDataExtractorActor(gateway: Gateway, sourceDataExtractor: Actor)
         case AccessSourceMedium(locked) =>
           handleAccessMedium(locked)
 
+        case PlaybackSourceStart(src) =>
+          handleSourceStart(src.index)
+
         case _ => // ignore other messages
       }
     }
@@ -93,26 +146,49 @@ class PlaylistDataExtractorActor(gateway: Gateway, sourceDataExtractor: Actor)
   private def handleNewPlaylist(pld: PlaylistDataImpl) {
     playlistID += 1
     playlistData = pld
-    index = pld.startIndex
-    requestPending = false
+    mediumURI = pld.settings.mediumURI
     itemsToProcess = pld.size
-    processPlaylistItem()
+    requested = new Array[Boolean](pld.size)
+    concurrencyLimit = concurrency.limitFor(mediumURI)
+    setCenterIndex(pld.startIndex)
+    dataIndex foreach (applyIndex(_))
+    processPlaylistItems()
+  }
+
+  /**
+   * Sets the meta data of all playlist items which are contained in the given
+   * index, and sends update messages for them. As the index is not checked
+   * for up-to-date data, these items still have to be processed; the
+   * extraction requests sent for them validate the data of the index.
+   * @param index the index with meta data
+   */
+  private def applyIndex(index: AudioSourceDataIndex) {
+    for (idx <- 0 until requested.length) {
+      index.get(mediumURI, playlistData.getURI(idx)) foreach { data =>
+        playlistData.setAudioSourceData(idx, data)
+        gateway.publish(PlaylistUpdate(playlistData, idx))
+      }
+    }
   }
 
   /**
-   * Handles a message that a new extraction result was received.
+   * Handles a message that a new extraction result was received. The data of
+   * the playlist item is only updated if it has changed; so no additional
+   * update message is sent if the result confirms data obtained from the
+   * index. Results for former playlists are ignored, but they release their
+   * slot of the source medium.
    * @param res the result
    */
   private def handleExtractResult(res: ExtractSourceDataResult) {
+    pendingRequests -= ((res.playlistID, res.index))
     if (playlistID == res.playlistID) {
-      if (!res.data.isEmpty) {
-        playlistData.setAudioSourceData(res.index, res.data.get)
+      val current = playlistData.getAudioSourceData(res.index)
+      res.data filter (_ != current) foreach { data =>
+        playlistData.setAudioSourceData(res.index, data)
         gateway.publish(createPlaylistUpdateMessage(res))
       }
-
-      requestPending = false
-      processPlaylistItem()
     }
+    processPlaylistItems()
   }
 
   /**
@@ -122,53 +198,97 @@ class PlaylistDataExtractorActor(gateway: Gateway, sourceDataExtractor: Actor)
   private def handleAccessMedium(locked: Boolean) {
     mediumLocked = locked
     if (!mediumLocked) {
-      processPlaylistItem()
+      processPlaylistItems()
     }
   }
 
   /**
-   * Processes another item in the playlist if this is currently possible. This
-   * method checks whether there are still remaining items. If so, and if the
-   * source medium is not locked and no request is pending, another request is
-   * sent to the extractor actor.
+   * Handles a message that playback of an audio source starts. The items
+   * around this source are processed next.
+   * @param index the index of the audio source in the playlist
    */
-  private def processPlaylistItem() {
-    if (canProcessItem) {
-      sourceDataExtractor ! createExtractRequest()
+  private def handleSourceStart(index: Int) {
+    if (itemsToProcess > 0 && index >= 0 && index < requested.length) {
+      setCenterIndex(index)
+    }
+  }
+
+  /**
+   * Processes further items in the playlist as long as this is currently
+   * possible. This method checks whether there are still remaining items. If
+   * so, and if the limit of parallel requests has not yet been reached,
+   * another request is sent to the extractor actor.
+   */
+  private def processPlaylistItems() {
+    while (canProcessItem) {
+      val index = nextIndex()
+      sourceDataExtractor ! createExtractRequest(index)
+      requested(index) = true
       itemsToProcess -= 1
-      incrementIndex()
-      requestPending = true
+      pendingRequests += ((playlistID, index) -> mediumURI)
     }
   }
 
   /**
-   * Checks whether a new request for a playlist item can be sent.
+   * Checks whether a new request for a playlist item can be sent. The
+   * requests pending for the medium of the current playlist are taken into
+   * account, including requests of former playlists.
    * @return '''true''' if a playlist item can be processed, '''false'''
    * otherwise
    */
   private def canProcessItem =
-    itemsToProcess > 0 && !mediumLocked && !requestPending
+    itemsToProcess > 0 &&
+      pendingRequests.values.count(_ == mediumURI) < currentLimit
+
+  /**
+   * Returns the number of requests which can currently be sent in parallel.
+   * If the source medium is locked, one request less is allowed.
+   * @return the current limit of parallel requests
+   */
+  private def currentLimit =
+    if (mediumLocked) concurrencyLimit - 1 else concurrencyLimit
 
   /**
-   * Increments the index of the current playlist item performing a wrap if
-   * necessary.
+   * Sets the index around which playlist items are processed. The search for
+   * the next item to be processed starts anew at this index.
+   * @param index the new center index
    */
-  private def incrementIndex() {
-    index += 1
-    if (index >= playlistData.size) {
-      index = 0
+  private def setCenterIndex(index: Int) {
+    centerIndex = index
+    searchPosition = 0
+  }
+
+  /**
+   * Determines the index of the next playlist item to be processed. This is
+   * the item nearest to the center index which has not yet been requested;
+   * items after the center index are preferred. This method must only be
+   * called if there are remaining items.
+   * @return the index of the next playlist item to be processed
+   */
+  private def nextIndex(): Int = {
+    var index = -1
+    while (index < 0) {
+      val offset = if (searchPosition % 2 == 0) -(searchPosition / 2)
+      else (searchPosition + 1) / 2
+      val candidate = centerIndex + offset
+      searchPosition += 1
+      if (candidate >= 0 && candidate < requested.length
+        && !requested(candidate)) {
+        index = candidate
+      }
     }
+    index
   }
 
   /**
-   * Creates a request for extracting audio source data for the current item in
-   * the playlist.
+   * Creates a request for extracting audio source data for the specified item
+   * in the playlist.
+   * @param index the index of the playlist item
    * @return the request
    */
-  private def createExtractRequest() =
+  private def createExtractRequest(index: Int) =
     ExtractSourceDataRequest(playlistID = playlistID, index = index,
-      uri = playlistData.getURI(index),
-      mediumURI = playlistData.settings.mediumURI, sender = this)
+      uri = playlistData.getURI(index), mediumURI = mediumURI, sender = this)
 
   /**
    * Creates a message indicating that the playlist was updated. Messages of
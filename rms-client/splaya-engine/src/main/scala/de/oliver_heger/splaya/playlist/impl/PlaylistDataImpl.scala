@@ -24,15 +24,15 @@ import de.oliver_heger.splaya.AudioSourceData
  */
 private case class PlaylistDataImpl(settings: PlaylistSettings, startIndex: Int,
   playlist: Seq[String]) extends PlaylistData {
-  /** An array for direct access to playlist URIs. */
-  private var playlistArray = playlist.toArray
+  /** A compact sequence for direct access to playlist URIs. */
+  private val playlistItems = CompactPlaylist(playlist)
 
   val size = playlist.size
 
   /** The array with source data objects. */
   private var sourceData = new Array[AudioSourceData](size)
 
-  def getURI(idx: Int) = playlistArray(idx)
+  def getURI(idx: Int) = playlistItems(idx)
 
   /**
    * @inheritdoc This implementation checks whether an ''AudioSourceData''
@@ -3,12 +3,19 @@ package de.oliver_heger.splaya.playlist.impl
 import java.io.BufferedReader
 import java.io.File
 import java.io.FileInputStream
+import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStreamReader
+import java.io.RandomAccessFile
 import java.io.Reader
 import java.util.zip.CRC32
+import java.util.Properties
 
+import scala.actors.Future
+import scala.actors.Futures
+import scala.collection.mutable
 import scala.collection.Seq
+import scala.io.Source
 import scala.xml.Elem
 import scala.xml.XML
 
@@ -22,23 +29,74 @@ import de.oliver_heger.splaya.playlist.PlaylistFileStore
  * This implementation stores information about playlist in XML documents in the
  * file system. The directory in which to store these files is specified as
  * constructor argument. The files are named by their playlist ID with default
- * file extensions.
+ * file extensions. XML documents are written to a temporary file first which
+ * is then renamed. So a crash while saving a document does not destroy the
+ * existing file.
+ *
+ * Updates of the current position in a playlist are not written into the XML
+ * document of the playlist. Rather, they are appended to a journal file. When
+ * the playlist is loaded, the latest valid entry of the journal is applied to
+ * the ''current'' section of the XML document. Each journal entry is
+ * protected by a checksum, so that an entry which was not written completely
+ * is ignored. If the journal reaches a configurable number of entries, it is
+ * compacted in background: the latest position is written into the XML
+ * document, and the journal is truncated.
+ *
+ * The IDs of the playlists last used for source media are stored in a
+ * properties file in the data directory with the medium URIs as keys. This
+ * file is small; it is read once and rewritten when an ID changes.
  *
  * For calculating the playlist ID a simple checksum algorithm is used based on
  * the JDK ''CRC32'' class.
  *
+ * This class is thread-safe.
+ *
  * @param directoryName the name of the directory where to store the data files
+ * @param compactionThreshold the number of journal entries which triggers a
+ * compaction of the journal
  */
-class PlaylistFileStoreImpl(val directoryName: String) extends PlaylistFileStore {
+class PlaylistFileStoreImpl(val directoryName: String,
+  val compactionThreshold: Int = PlaylistFileStoreImpl.DefaultCompactionThreshold)
+  extends PlaylistFileStore {
+  import PlaylistFileStoreImpl._
+
   /** Constant for the file extension for playlist files. */
   private val ExtPlaylist = ".plist"
 
   /** Constant for the file extension for settings files. */
   private val ExtSettings = ".settings"
 
+  /** Constant for the file extension for journal files. */
+  private val ExtJournal = ".journal"
+
+  /** Constant for the extension of temporary files written by save operations. */
+  private val ExtTemp = ".tmp"
+
+  /** Constant for the extension of temporary files written by compactions. */
+  private val ExtCompact = ".compact"
+
   /** The logger. */
   private val log = LoggerFactory.getLogger(classOf[PlaylistFileStoreImpl])
 
+  /** The lock for synchronizing access to the data files. */
+  private val lock = new Object
+
+  /** A map with the number of entries in the journals of playlists. */
+  private val journalSizes = mutable.Map.empty[String, Int]
+
+  /**
+   * A map with version numbers of playlist files. A version is incremented
+   * each time a playlist is saved. This is used to detect that the result of
+   * a compaction is outdated.
+   */
+  private val playlistVersions = mutable.Map.empty[String, Int]
+
+  /** A map with the compactions which are currently in progress. */
+  private val compactions = mutable.Map.empty[String, Future[Any]]
+
+  /** The properties with the playlist IDs of source media. */
+  private var mediumPlaylistIDs: Properties = _
+
   /** The ''File'' for the data directory. */
   lazy val dataDirectory = fetchDataDirectory(directoryName)
 
@@ -55,13 +113,76 @@ class PlaylistFileStoreImpl(val directoryName: String) extends PlaylistFileStore
 
   /**
    * @inheritdoc This implementation searches for a file in the data directory
-   * with the name of the given playlist ID and the extension ''.plist''.
+   * with the name of the given playlist ID and the extension ''.plist''. If
+   * there is a journal for this playlist, its latest entry is applied.
    */
   def loadPlaylist(playlistID: String): Option[Elem] =
-    loadFile(playlistID, ExtPlaylist)
+    lock.synchronized {
+      loadFile(playlistID, ExtPlaylist) map { elem =>
+        readJournal(playlistID).lastOption match {
+          case Some(entry) => applyJournalEntry(elem, entry)
+          case None => elem
+        }
+      }
+    }
 
+  /**
+   * @inheritdoc This implementation writes the XML document and removes an
+   * existing journal for this playlist.
+   */
   def savePlaylist(playlistID: String, plElem: Elem) {
-    saveFile(playlistID, ExtPlaylist, plElem)
+    lock.synchronized {
+      saveFile(playlistID, ExtPlaylist, plElem)
+      dataFile(playlistID, ExtJournal).delete()
+      journalSizes(playlistID) = 0
+      playlistVersions(playlistID) = playlistVersion(playlistID) + 1
+    }
+  }
+
+  /**
+   * @inheritdoc This implementation appends an entry to the journal of this
+   * playlist. If the journal becomes too large, a compaction is started.
+   */
+  def savePlaylistPosition(playlistID: String, index: Int, position: Long,
+    time: Long) {
+    lock.synchronized {
+      val size = journalSize(playlistID) + 1
+      appendJournalEntry(playlistID, JournalEntry(index, position, time))
+      journalSizes(playlistID) = size
+      if (size >= compactionThreshold && !compactions.contains(playlistID)) {
+        startCompaction(playlistID)
+      }
+    }
+  }
+
+  /**
+   * @inheritdoc This implementation looks up the medium URI in the properties
+   * file for medium playlist IDs.
+   */
+  def loadMediumPlaylistID(mediumURI: String): Option[String] =
+    lock.synchronized {
+      Option(fetchMediumPlaylistIDs().getProperty(mediumURI))
+    }
+
+  /**
+   * @inheritdoc This implementation updates the properties file for medium
+   * playlist IDs if the ID of the medium has changed.
+   */
+  def saveMediumPlaylistID(mediumURI: String, playlistID: String) {
+    lock.synchronized {
+      val ids = fetchMediumPlaylistIDs()
+      if (playlistID != ids.getProperty(mediumURI)) {
+        ids.setProperty(mediumURI, playlistID)
+        val tempFile = new File(dataDirectory, MediaFile + ExtTemp)
+        val out = new FileOutputStream(tempFile)
+        try {
+          ids.store(out, null)
+        } finally {
+          out.close()
+        }
+        replaceFile(tempFile, new File(dataDirectory, MediaFile))
+      }
+    }
   }
 
   /**
@@ -69,10 +190,23 @@ class PlaylistFileStoreImpl(val directoryName: String) extends PlaylistFileStore
    * with the name of the given playlist ID and the extension ''.settings''.
    */
   def loadSettings(playlistID: String): Option[Elem] =
-    loadFile(playlistID, ExtSettings)
+    lock.synchronized {
+      loadFile(playlistID, ExtSettings)
+    }
 
   def saveSettings(playlistID: String, root: Elem) {
-    saveFile(playlistID, ExtSettings, root)
+    lock.synchronized {
+      saveFile(playlistID, ExtSettings, root)
+    }
+  }
+
+  /**
+   * Waits until all compactions which are currently in progress are
+   * complete. This method is mainly used for testing purposes.
+   */
+  private[impl] def awaitCompactions() {
+    val futures = lock.synchronized { compactions.values.toList }
+    futures foreach (_())
   }
 
   /**
@@ -90,6 +224,33 @@ class PlaylistFileStoreImpl(val directoryName: String) extends PlaylistFileStore
     dir
   }
 
+  /**
+   * Returns the properties with the playlist IDs of source media. They are
+   * loaded on first access. This method must be called while holding the
+   * lock.
+   * @return the properties with medium playlist IDs
+   */
+  private def fetchMediumPlaylistIDs(): Properties = {
+    if (mediumPlaylistIDs == null) {
+      mediumPlaylistIDs = new Properties
+      val file = new File(dataDirectory, MediaFile)
+      if (file.isFile) {
+        try {
+          val in = new FileInputStream(file)
+          try {
+            mediumPlaylistIDs.load(in)
+          } finally {
+            in.close()
+          }
+        } catch {
+          case ex: IOException =>
+            log.error("Could not read playlist IDs of media", ex)
+        }
+      }
+    }
+    mediumPlaylistIDs
+  }
+
   /**
    * Generates the ''File'' object for the specified data file.
    * @param playlistID the ID of the playlist
@@ -116,14 +277,300 @@ class PlaylistFileStoreImpl(val directoryName: String) extends PlaylistFileStore
   }
 
   /**
-   * Helper method for saving an XML file in the data directory.
+   * Helper method for saving an XML file in the data directory. The document
+   * is written to a temporary file first which then replaces the target file.
    * @param playlistID the ID of the playlist
    * @param ext the file extension
    * @param root the root XML element
    */
   private def saveFile(playlistID: String, ext: String, root: Elem) {
-    val file = dataFile(playlistID, ext)
+    val tempFile = dataFile(playlistID, ext + ExtTemp)
+    writeXML(tempFile, root)
+    replaceFile(tempFile, dataFile(playlistID, ext))
+  }
+
+  /**
+   * Writes an XML document into the specified file.
+   * @param file the target file
+   * @param root the root XML element
+   */
+  private def writeXML(file: File, root: Elem) {
     XML.save(filename = file.getAbsolutePath, node = root, enc = XMLEncoding,
       xmlDecl = true)
   }
+
+  /**
+   * Returns the current version of the given playlist.
+   * @param playlistID the ID of the playlist
+   * @return the version of this playlist
+   */
+  private def playlistVersion(playlistID: String): Int =
+    playlistVersions.getOrElse(playlistID, 0)
+
+  /**
+   * Returns the number of entries in the journal of the given playlist. If
+   * this information is not yet available, the journal is read.
+   * @param playlistID the ID of the playlist
+   * @return the number of entries in the journal
+   */
+  private def journalSize(playlistID: String): Int =
+    journalSizes.getOrElseUpdate(playlistID, readJournal(playlistID).size)
+
+  /**
+   * Appends an entry to the journal of the given playlist. The entry is
+   * preceded by a line separator. So if an entry was not written completely
+   * (e.g. due to a crash), the following entry is not affected.
+   * @param playlistID the ID of the playlist
+   * @param entry the entry to be written
+   */
+  private def appendJournalEntry(playlistID: String, entry: JournalEntry) {
+    val out = new FileOutputStream(dataFile(playlistID, ExtJournal), true)
+    try {
+      out.write(("\n" + entry.toJournalLine).getBytes(JournalEncoding))
+    } finally {
+      out.close()
+    }
+  }
+
+  /**
+   * Reads all valid entries from the journal of the given playlist. Lines
+   * which cannot be parsed or whose checksum does not match are skipped. If
+   * the journal cannot be read, an empty list is returned.
+   * @param playlistID the ID of the playlist
+   * @return a list with the valid entries of the journal
+   */
+  private def readJournal(playlistID: String): List[JournalEntry] = {
+    val file = dataFile(playlistID, ExtJournal)
+    if (!file.isFile) Nil
+    else {
+      try {
+        val source = Source.fromFile(file, JournalEncoding)
+        try {
+          source.getLines().flatMap(JournalEntry.parse(_)).toList
+        } finally {
+          source.close()
+        }
+      } catch {
+        case ex: IOException =>
+          log.error("Could not read journal for playlist " + playlistID, ex)
+          Nil
+      }
+    }
+  }
+
+  /**
+   * Starts a compaction for the given playlist in background. This method
+   * must be called while holding the lock.
+   * @param playlistID the ID of the playlist
+   */
+  private def startCompaction(playlistID: String) {
+    log.info("Starting compaction of journal for playlist {}", playlistID)
+    val version = playlistVersion(playlistID)
+    compactions(playlistID) = Futures.future {
+      compact(playlistID, version)
+    }
+  }
+
+  /**
+   * Compacts the journal of the given playlist. The latest entry of the
+   * journal is applied to the XML document of the playlist which is then
+   * written to a temporary file. This is done without holding the lock, so
+   * that further entries can be appended to the journal in the meantime.
+   * Then the XML document is replaced, and the entries already contained in
+   * it are removed from the journal. If the playlist was saved in the
+   * meantime, the result of the compaction is discarded.
+   * @param playlistID the ID of the playlist
+   * @param version the version of the playlist when the compaction started
+   */
+  private def compact(playlistID: String, version: Int) {
+    try {
+      val (optEntry, journalLength) = lock.synchronized {
+        (readJournal(playlistID).lastOption,
+          dataFile(playlistID, ExtJournal).length)
+      }
+
+      for (entry <- optEntry; elem <- loadFile(playlistID, ExtPlaylist)) {
+        val tempFile = dataFile(playlistID, ExtPlaylist + ExtCompact)
+        writeXML(tempFile, applyJournalEntry(elem, entry))
+        lock.synchronized {
+          if (version == playlistVersion(playlistID)) {
+            replaceFile(tempFile, dataFile(playlistID, ExtPlaylist))
+            truncateJournal(playlistID, journalLength)
+          } else {
+            tempFile.delete()
+          }
+        }
+      }
+    } catch {
+      case ex: Exception =>
+        log.error("Compaction of journal failed for playlist " + playlistID, ex)
+    } finally {
+      lock.synchronized {
+        compactions -= playlistID
+      }
+    }
+  }
+
+  /**
+   * Removes the given number of bytes from the start of the journal of the
+   * given playlist. Entries which have been appended after this position are
+   * kept. This method must be called while holding the lock.
+   * @param playlistID the ID of the playlist
+   * @param length the number of bytes to be removed
+   */
+  private def truncateJournal(playlistID: String, length: Long) {
+    val journal = dataFile(playlistID, ExtJournal)
+    val remaining = readJournalTail(journal, length)
+    if (remaining.isEmpty) {
+      journal.delete()
+    } else {
+      val tempFile = dataFile(playlistID, ExtJournal + ExtTemp)
+      val out = new FileOutputStream(tempFile)
+      try {
+        out.write(remaining)
+      } finally {
+        out.close()
+      }
+      replaceFile(tempFile, journal)
+    }
+    journalSizes -= playlistID
+  }
+
+  /**
+   * Reads the content of the given journal file after the given position.
+   * @param journal the journal file
+   * @param pos the position
+   * @return an array with the remaining content of the file
+   */
+  private def readJournalTail(journal: File, pos: Long): Array[Byte] = {
+    if (journal.length <= pos) Array.empty
+    else {
+      val raf = new RandomAccessFile(journal, "r")
+      try {
+        val data = new Array[Byte]((raf.length - pos).toInt)
+        raf.seek(pos)
+        raf.readFully(data)
+        data
+      } finally {
+        raf.close()
+      }
+    }
+  }
+
+  /**
+   * Replaces the given target file by the source file. If the source file
+   * cannot be renamed directly (which is the case on some platforms if the
+   * target file exists), the target file is removed first.
+   * @param src the source file
+   * @param dest the target file
+   * @throws IOException if the file cannot be replaced
+   */
+  private def replaceFile(src: File, dest: File) {
+    if (!src.renameTo(dest)) {
+      dest.delete()
+      if (!src.renameTo(dest)) {
+        throw new IOException("Could not rename " + src + " to " + dest)
+      }
+    }
+  }
+}
+
+/**
+ * The companion object for ''PlaylistFileStoreImpl''.
+ */
+object PlaylistFileStoreImpl {
+  /** The default number of journal entries which triggers a compaction. */
+  val DefaultCompactionThreshold = 64
+
+  /** Constant for the name of the file with the playlist IDs of media. */
+  private val MediaFile = "media.properties"
+
+  /** Constant for the encoding of journal files. */
+  private val JournalEncoding = "iso-8859-1"
+
+  /** Constant for the separator of the fields of a journal entry. */
+  private val Separator = ';'
+
+  /** Constant for the current XML element. */
+  private val ElemCurrent = "current"
+
+  /** Constant for the file XML element. */
+  private val ElemFile = "file"
+
+  /**
+   * Returns an XML document with the position of the given journal entry.
+   * The ''current'' section of the passed in document is replaced. Elements
+   * for audio files in this section (used by a legacy format) are kept.
+   * @param elem the root element of the playlist document
+   * @param entry the journal entry
+   * @return the updated document
+   */
+  private def applyJournalEntry(elem: Elem, entry: JournalEntry): Elem = {
+    val current =
+      <current>
+        <index>{ entry.index }</index>
+        <position>{ entry.position }</position>
+        <time>{ entry.time }</time>
+        { elem \ ElemCurrent \ ElemFile }
+      </current>
+    elem.copy(child = current +: (elem.child filterNot (_.label == ElemCurrent)))
+  }
+
+  /**
+   * Calculates the checksum for the data of a journal entry.
+   * @param data the data string
+   * @return the checksum
+   */
+  private def checksum(data: String): Long = {
+    val crc = new CRC32
+    crc.update(data.getBytes(JournalEncoding))
+    crc.getValue
+  }
+
+  /**
+   * A class representing an entry of the journal of a playlist.
+   * @param index the index in the playlist
+   * @param position the position in the current audio source
+   * @param time the time in the current audio source
+   */
+  private case class JournalEntry(index: Int, position: Long, time: Long) {
+    /**
+     * Returns the data of this entry without the checksum.
+     * @return the data of this entry
+     */
+    def data: String =
+      index.toString + Separator + position + Separator + time
+
+    /**
+     * Returns the line to be written into the journal for this entry.
+     * @return the line for this entry
+     */
+    def toJournalLine: String = data + Separator + checksum(data)
+  }
+
+  /**
+   * The companion object for ''JournalEntry''.
+   */
+  private object JournalEntry {
+    /** The regular expression for parsing a line of the journal. */
+    private val RegExEntry = """(-?\d+);(-?\d+);(-?\d+);(\d+)""".r
+
+    /**
+     * Parses a line of the journal. If the line is valid and its checksum
+     * matches, a corresponding entry is returned.
+     * @param line the line
+     * @return an ''Option'' with the parsed entry
+     */
+    def parse(line: String): Option[JournalEntry] =
+      line.trim match {
+        case RegExEntry(index, pos, time, crc) =>
+          try {
+            val entry = JournalEntry(index.toInt, pos.toLong, time.toLong)
+            if (checksum(entry.data) == crc.toLong) Some(entry) else None
+          } catch {
+            case nex: NumberFormatException => None
+          }
+        case _ => None
+      }
+  }
 }
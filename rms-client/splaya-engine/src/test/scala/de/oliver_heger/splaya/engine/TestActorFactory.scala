@@ -1,5 +1,7 @@
 package de.oliver_heger.splaya.engine
 
+import java.io.File
+
 import scala.actors.Actor
 
 import org.apache.commons.lang3.time.StopWatch
@@ -17,6 +19,8 @@ import de.oliver_heger.splaya.engine.msg.Gateway
 import de.oliver_heger.splaya.fs.FSService
 import de.oliver_heger.splaya.osgiutil.ServiceWrapper
 import de.oliver_heger.splaya.playlist.impl.AudioSourceDataExtractorActor
+import de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndex
+import de.oliver_heger.splaya.playlist.impl.AudioSourceDataIndexActor
 import de.oliver_heger.splaya.playlist.impl.PlaylistCreationActor
 import de.oliver_heger.splaya.playlist.impl.PlaylistCtrlActor
 import de.oliver_heger.splaya.playlist.impl.PlaylistDataExtractorActor
@@ -97,6 +101,21 @@ class TestActorFactory extends JUnitSuite with EasyMockSugar {
       actor.asInstanceOf[AudioSourceDataExtractorActor].extractor)
   }
 
+  /**
+   * Tests whether an actor for indexing audio meta data can be created.
+   */
+  @Test def testCreateAudioSourceDataIndexActor() {
+    val extrActor = mock[Actor]
+    val index = new AudioSourceDataIndex(new File("test.index"))
+    val actor = factory.createAudioSourceDataIndexActor(extrActor,
+      new ServiceWrapper[FSService], index)
+    assertEquals("Wrong class", classOf[AudioSourceDataIndexActor],
+      actor.getClass)
+    val indexActor = actor.asInstanceOf[AudioSourceDataIndexActor]
+    assertSame("Wrong extractor actor", extrActor, indexActor.extractorActor)
+    assertSame("Wrong index", index, indexActor.index)
+  }
+
   /**
    * Tests whether an actor for extracting meta data for a whole playlist can
    * be created.
@@ -66,6 +66,41 @@ class TestAudioPlayerFactoryImpl extends JUnitSuite with EasyMockSugar {
       factory.getFileExtensions)
   }
 
+  /**
+   * Tests whether the property with the extraction concurrency is evaluated.
+   */
+  @Test def testActivateExtractionConcurrencyProperty() {
+    val factory = new AudioPlayerFactoryImpl
+    val props = new java.util.HashMap[String, Object]
+    props.put(AudioPlayerFactoryImpl.PropExtractionConcurrency,
+      "file:///music=4, 2")
+    factory.activate(props)
+    val concurrency = factory.getExtractionConcurrency
+    assertEquals("Wrong limit", 4, concurrency.limitFor("file:///music/rock"))
+    assertEquals("Wrong default limit", 2, concurrency.defaultLimit)
+    factory.deactivate()
+  }
+
+  /**
+   * Tests whether the property with the source media to be indexed is
+   * evaluated.
+   */
+  @Test def testActivateIndexRootsProperty() {
+    val factory = new AudioPlayerFactoryImpl
+    assertTrue("Got index roots", factory.getIndexRoots.isEmpty)
+    val props = new java.util.HashMap[String, Object]
+    props.put(AudioPlayerFactoryImpl.PropIndexRoots,
+      "file:///music, file:///audiobooks")
+    factory.activate(props)
+    assertEquals("Wrong index roots", List("file:///music",
+      "file:///audiobooks"), factory.getIndexRoots.toList)
+    assertTrue("Root not indexed",
+      factory.sourceDataIndex.isIndexed("file:///music"))
+    assertFalse("Other medium indexed",
+      factory.sourceDataIndex.isIndexed("file:///other"))
+    factory.deactivate()
+  }
+
   /**
    * Helper method for testing whether activate() starts the global actors.
    * @param actFactory the test actor factory
@@ -263,6 +263,38 @@ class TestEventTranslatorActor extends JUnitSuite with TestActorSupport {
     assertEquals("Wrong update index", idx, ev.getUpdateIndex)
   }
 
+  /**
+   * Tests that no playlist events are lost if a listener cannot keep up with
+   * a large number of updates.
+   */
+  @Test def testManyPlaylistUpdates() {
+    val pl = createPlaylist()
+    val count = 2 * ListenerDispatcherActor.DefaultCapacity
+    for (i <- 0 until count) {
+      actor ! PlaylistUpdate(pl, i)
+    }
+    actor ! pl
+    for (i <- 0 until count) {
+      val ev = playlistListener.expectEvent(PlaylistEventType.PLAYLIST_UPDATED)
+      assertEquals("Wrong update index", i, ev.getUpdateIndex)
+    }
+    playlistListener.expectEvent(PlaylistEventType.PLAYLIST_CREATED)
+  }
+
+  /**
+   * Tests whether statistics about the registered listeners can be queried.
+   */
+  @Test def testQueryListenerStatistics() {
+    actor ! PlaylistEnd
+    listener.expectEvent(AudioPlayerEventType.PLAYLIST_END)
+    val stats = (actor !? QueryListenerStatistics).asInstanceOf[List[ListenerStatistics]]
+    assertEquals("Wrong number of statistics", 2, stats.size)
+    assertTrue("No statistics for player listener",
+      stats.exists(_.listener == listener))
+    assertTrue("No statistics for playlist listener",
+      stats.exists(_.listener == playlistListener))
+  }
+
   /**
    * Tests whether ActorExited events are processed correctly and translated
    * to a shutdown event.
@@ -282,6 +314,25 @@ class TestEventTranslatorActor extends JUnitSuite with TestActorSupport {
     actorListener.shutdown()
     actor = null
   }
+
+  /**
+   * Tests that the shutdown event is delivered even if the queue of a
+   * listener is full.
+   */
+  @Test def testPlayerShutdownQueueFull() {
+    val count = 2 * ListenerDispatcherActor.DefaultCapacity
+    for (i <- 0 until count) {
+      actor ! PlaybackError("Error " + i, new Exception, false)
+    }
+    for (i <- 1 to TestEventTranslatorActor.ExitActorsCount) {
+      actor ! ActorExited(actor)
+    }
+    for (i <- 0 until count) {
+      listener.expectEvent(AudioPlayerEventType.EXCEPTION)
+    }
+    listener.expectEvent(AudioPlayerEventType.PLAYER_SHUTDOWN)
+    actor = null
+  }
 }
 
 object TestEventTranslatorActor {
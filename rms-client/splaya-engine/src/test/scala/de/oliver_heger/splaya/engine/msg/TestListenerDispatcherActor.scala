@@ -0,0 +1,265 @@
+package de.oliver_heger.splaya.engine.msg
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+
+import de.oliver_heger.tsthlp.TestActorSupport
+
+/**
+ * Test class for ''ListenerDispatcherActor''.
+ */
+class TestListenerDispatcherActor extends JUnitSuite with TestActorSupport {
+  /** The concrete actor type to be tested. */
+  type ActorUnderTest = ListenerDispatcherActor[BlockingListener, String]
+
+  /** The test listener. */
+  private var listener: BlockingListener = _
+
+  /** The actor to be tested. */
+  protected var actor: ActorUnderTest = _
+
+  @Before def setUp() {
+    listener = new BlockingListener
+  }
+
+  /**
+   * Creates and starts the test actor.
+   * @param capacity the capacity of the queue
+   */
+  private def startActor(capacity: Int = 8) {
+    actor = new ListenerDispatcherActor(listener, capacity)
+    actor.start()
+  }
+
+  /**
+   * Passes an event to the test actor.
+   * @param ev the event
+   * @param key the coalesce key
+   * @param droppable the droppable flag
+   */
+  private def offer(ev: String, key: Option[Any] = None,
+    droppable: Boolean = false) {
+    actor.offer(ev, _.event(_), key, droppable)
+  }
+
+  /**
+   * Sends an event to the test actor which blocks the listener. So the
+   * following events have to be queued.
+   */
+  private def blockListener() {
+    offer(TestListenerDispatcherActor.BlockEvent)
+    listener.expectEvent(TestListenerDispatcherActor.BlockEvent)
+  }
+
+  /**
+   * Tests whether events are passed to the listener in the correct order.
+   */
+  @Test def testDeliverEvents() {
+    startActor()
+    offer("e1")
+    offer("e2")
+    offer("e3")
+    listener.expectEvent("e1")
+    listener.expectEvent("e2")
+    listener.expectEvent("e3")
+  }
+
+  /**
+   * Tests whether events with the same coalesce key are merged. The new event
+   * is delivered after the events which have been queued before it.
+   */
+  @Test def testCoalesceEvents() {
+    startActor()
+    blockListener()
+    offer("pos1", Some("pos"))
+    offer("other")
+    offer("pos2", Some("pos"))
+    listener.release()
+    listener.expectEvent("other")
+    listener.expectEvent("pos2")
+    listener.checkNoEvent()
+    assertEquals("Wrong coalesced count", 1, actor.statistics.coalescedCount)
+  }
+
+  /**
+   * Tests that droppable events are dropped first if the queue is full.
+   */
+  @Test def testDropDroppableEventIfFull() {
+    startActor(2)
+    blockListener()
+    offer("e1")
+    offer("pos", Some("pos"), droppable = true)
+    offer("e2")
+    listener.release()
+    listener.expectEvent("e1")
+    listener.expectEvent("e2")
+    listener.checkNoEvent()
+    assertEquals("Wrong dropped count", 1, actor.statistics.droppedCount)
+  }
+
+  /**
+   * Tests that events with a coalesce key which are not droppable are kept if
+   * the queue is full. A following event which is not droppable (e.g. the
+   * shutdown of the player) is delivered, too.
+   */
+  @Test def testNoDropOfCoalescableEventIfFull() {
+    startActor(2)
+    blockListener()
+    for (i <- 1 to 10) {
+      offer("upd" + i, Some("upd" + i))
+    }
+    offer("shutdown")
+    listener.release()
+    for (i <- 1 to 10) {
+      listener.expectEvent("upd" + i)
+    }
+    listener.expectEvent("shutdown")
+    listener.checkNoEvent()
+    assertEquals("Wrong dropped count", 0, actor.statistics.droppedCount)
+  }
+
+  /**
+   * Tests that a new droppable event is dropped if the queue is full and
+   * there are no droppable events which could be removed.
+   */
+  @Test def testDropNewDroppableEventIfFull() {
+    startActor(2)
+    blockListener()
+    offer("e1")
+    offer("e2")
+    offer("pos", Some("pos"), droppable = true)
+    offer("e3")
+    listener.release()
+    listener.expectEvent("e1")
+    listener.expectEvent("e2")
+    listener.expectEvent("e3")
+    listener.checkNoEvent()
+    assertEquals("Wrong dropped count", 1, actor.statistics.droppedCount)
+  }
+
+  /**
+   * Tests whether pending events are delivered when the actor exits.
+   */
+  @Test def testDeliverPendingEventsOnExit() {
+    startActor()
+    blockListener()
+    offer("e1")
+    actor ! Exit
+    listener.release()
+    listener.expectEvent("e1")
+    actor = null
+  }
+
+  /**
+   * Tests whether an exception thrown by the listener is handled.
+   */
+  @Test def testListenerException() {
+    startActor()
+    offer(TestListenerDispatcherActor.ErrorEvent)
+    offer("e1")
+    listener.expectEvent("e1")
+  }
+
+  /**
+   * Tests the statistics of a newly created actor.
+   */
+  @Test def testInitialStatistics() {
+    startActor()
+    val stats = actor.statistics
+    assertEquals("Wrong delivered count", 0, stats.deliveredCount)
+    assertEquals("Wrong average latency", 0, stats.averageLatency)
+  }
+
+  /**
+   * Tests the statistics after events have been delivered.
+   */
+  @Test def testStatisticsAfterDelivery() {
+    startActor()
+    blockListener()
+    offer("e1")
+    Thread.sleep(20)
+    listener.release()
+    listener.expectEvent("e1")
+    val act = actor
+    shutdownActor()
+    val stats = act.statistics
+    assert(listener === stats.listener)
+    assertEquals("Wrong delivered count", 2, stats.deliveredCount)
+    assertTrue("Wrong max latency: " + stats.maxLatency,
+      stats.maxLatency >= TimeUnit.MILLISECONDS.toNanos(20))
+    assertTrue("Wrong average latency", stats.averageLatency > 0)
+  }
+}
+
+object TestListenerDispatcherActor {
+  /** Constant for an event which causes the listener to block. */
+  val BlockEvent = "block"
+
+  /** Constant for an event which causes the listener to throw an exception. */
+  val ErrorEvent = "error"
+
+  /** Constant for the timeout when waiting for events (in seconds). */
+  val TimeOut = 5
+}
+
+/**
+ * A test listener class which can be blocked on receiving a specific event.
+ * This is used to test the queuing of events.
+ */
+class BlockingListener {
+  /** The queue for storing received events. */
+  private val queue = new LinkedBlockingQueue[String]
+
+  /** The latch for blocking the listener. */
+  private val latch = new CountDownLatch(1)
+
+  /**
+   * Processes an event. If it is the blocking event, this method waits until
+   * the listener is released.
+   * @param ev the event
+   */
+  def event(ev: String) {
+    if (ev == TestListenerDispatcherActor.ErrorEvent) {
+      throw new RuntimeException("Test exception")
+    }
+    queue.put(ev)
+    if (ev == TestListenerDispatcherActor.BlockEvent) {
+      latch.await(TestListenerDispatcherActor.TimeOut, TimeUnit.SECONDS)
+    }
+  }
+
+  /**
+   * Releases the listener if it is blocked.
+   */
+  def release() {
+    latch.countDown()
+  }
+
+  /**
+   * Expects that the specified event has been received.
+   * @param ev the expected event
+   */
+  def expectEvent(ev: String) {
+    val received = queue.poll(TestListenerDispatcherActor.TimeOut,
+      TimeUnit.SECONDS)
+    assertNotNull("No event received", received)
+    assertEquals("Wrong event", ev, received)
+  }
+
+  /**
+   * Checks that no more events have been received.
+   */
+  def checkNoEvent() {
+    val received = queue.poll(100, TimeUnit.MILLISECONDS)
+    assertNull("Got an event: " + received, received)
+  }
+}
@@ -40,6 +40,25 @@ class TestPlaylistGeneratorRandomUriPart extends JUnitSuite with ShouldMatchers
     generator.generatePlaylist(list, "", NodeSeq.Empty) should be(expected)
   }
 
+  /**
+   * Tests whether songs are grouped by the extracted URI part and ordered by
+   * their names within a group.
+   */
+  @Test def testGroupsAreKeptTogether(): Unit = {
+    val list = List("b/3.mp3", "a/2.mp3", "c/1.mp3", "a/1.mp3", "b/1.mp3", "b/2.mp3")
+    val generator = new GeneratorImpl {
+      override protected def extractUriPart(parts: Array[String]): String = parts(0)
+    }
+
+    val playlist = generator.generatePlaylist(list, "", NodeSeq.Empty)
+    playlist.length should be(list.length)
+    val groups = playlist.toList.map(_.substring(0, 1)).foldRight(List.empty[String]) { (g, gs) =>
+      if (gs.nonEmpty && gs.head == g) gs else g :: gs
+    }
+    groups.sorted should be(List("a", "b", "c"))
+    playlist.filter(_.startsWith("b/")) should be(List("b/1.mp3", "b/2.mp3", "b/3.mp3"))
+  }
+
   /**
    * A test implementation of the playlist generator. This implementation
    * returns always the last part of the URI meaning that a playlist in full
@@ -1,5 +1,8 @@
 package de.oliver_heger.splaya.playlist.impl
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
 import org.easymock.EasyMock
 import org.junit.Before
 import org.junit.Test
@@ -9,6 +12,7 @@ import org.scalatest.mock.EasyMockSugar
 import de.oliver_heger.splaya.AudioSourceData
 import de.oliver_heger.splaya.MediaDataExtractor
 import de.oliver_heger.tsthlp.ActorTestImpl
+import de.oliver_heger.tsthlp.QueuingActor
 import de.oliver_heger.tsthlp.TestActorSupport
 
 /**
@@ -57,6 +61,214 @@ class TestAudioSourceDataExtractorActor extends JUnitSuite with EasyMockSugar
     rec.expectMessage(ExtractSourceDataResult(PlaylistID, index, Some(data)))
   }
 
+  /**
+   * Tests whether multiple requests are processed in parallel.
+   */
+  @Test def testParallelExtraction() {
+    shutdownActor()
+    val latch = new CountDownLatch(2)
+    val parallelExtractor = new AudioSourceDataExtractor {
+      def extractAudioSourceData(mediumURI: String, uri: String) = {
+        latch.countDown()
+        if (latch.await(5, TimeUnit.SECONDS)) None
+        else throw new IllegalStateException("No parallel execution!")
+      }
+
+      def addMediaDataExtractor(extr: MediaDataExtractor) {}
+
+      def removeMediaDataExtractor(extr: MediaDataExtractor) {}
+    }
+    actor = new AudioSourceDataExtractorActor(parallelExtractor, 2)
+    actor.start()
+    val rec = new QueuingActor
+    rec.start()
+    actor ! ExtractSourceDataRequest(PlaylistID, RootURI, URI, 1, rec)
+    actor ! ExtractSourceDataRequest(PlaylistID, RootURI, URI, 2, rec)
+    val results = Set(rec.nextMessage(), rec.nextMessage())
+    assert(Set(ExtractSourceDataResult(PlaylistID, 1, None),
+      ExtractSourceDataResult(PlaylistID, 2, None)) === results)
+    rec.shutdown()
+  }
+
+  /**
+   * Tests whether requests are queued if all workers are busy.
+   */
+  @Test def testRequestsQueuedIfWorkersBusy() {
+    shutdownActor()
+    val data = mock[AudioSourceData]
+    val extr = mock[AudioSourceDataExtractor]
+    EasyMock.expect(extr.extractAudioSourceData(RootURI, URI))
+      .andReturn(Some(data)).times(3)
+    val rec = new ActorTestImpl
+    whenExecuting(data, extr) {
+      actor = new AudioSourceDataExtractorActor(extr, 1)
+      actor.start()
+      for (i <- 1 to 3) {
+        actor ! ExtractSourceDataRequest(PlaylistID, RootURI, URI, i, rec)
+      }
+      shutdownActor()
+    }
+    for (i <- 1 to 3) {
+      rec.expectMessage(ExtractSourceDataResult(PlaylistID, i, Some(data)))
+    }
+  }
+
+  /**
+   * Tests that requests which are still queued when the shutdown timeout is
+   * reached are discarded.
+   */
+  @Test def testShutdownDiscardsPendingRequestsAfterTimeout() {
+    shutdownActor()
+    val slowExtractor = new AudioSourceDataExtractor {
+      def extractAudioSourceData(mediumURI: String, uri: String) = {
+        Thread.sleep(300)
+        None
+      }
+
+      def addMediaDataExtractor(extr: MediaDataExtractor) {}
+
+      def removeMediaDataExtractor(extr: MediaDataExtractor) {}
+    }
+    actor = new AudioSourceDataExtractorActor(slowExtractor, 1, 50)
+    actor.start()
+    val rec = new QueuingActor
+    rec.start()
+    for (i <- 1 to 3) {
+      actor ! ExtractSourceDataRequest(PlaylistID, RootURI, URI, i, rec)
+    }
+    shutdownActor()
+    rec.expectMessage(ExtractSourceDataResult(PlaylistID, 1, None))
+    rec.ensureNoMessages()
+    rec.shutdown()
+  }
+
+  /**
+   * Tests whether an index request is processed.
+   */
+  @Test def testIndexRequest() {
+    val data = mock[AudioSourceData]
+    EasyMock.expect(extractor.extractAudioSourceData(RootURI, URI))
+      .andReturn(Some(data))
+    val rec = new ActorTestImpl
+    whenExecuting(data, extractor) {
+      actor ! IndexSourceDataRequest(RootURI, URI, rec)
+      shutdownActor()
+    }
+    rec.expectMessage(IndexSourceDataResult(RootURI, URI, Some(data)))
+  }
+
+  /**
+   * Tests that regular requests are processed before pending index requests.
+   */
+  @Test def testIndexRequestsHaveLowerPriority() {
+    shutdownActor()
+    val latch = new CountDownLatch(1)
+    val blockingExtractor = new AudioSourceDataExtractor {
+      def extractAudioSourceData(mediumURI: String, uri: String) = {
+        latch.await(5, TimeUnit.SECONDS)
+        None
+      }
+
+      def addMediaDataExtractor(extr: MediaDataExtractor) {}
+
+      def removeMediaDataExtractor(extr: MediaDataExtractor) {}
+    }
+    actor = new AudioSourceDataExtractorActor(blockingExtractor, 1)
+    actor.start()
+    val rec = new QueuingActor
+    rec.start()
+    actor ! ExtractSourceDataRequest(PlaylistID, RootURI, URI, 1, rec)
+    actor ! IndexSourceDataRequest(RootURI, "indexed", rec)
+    actor ! ExtractSourceDataRequest(PlaylistID, RootURI, URI, 2, rec)
+    latch.countDown()
+    rec.expectMessage(ExtractSourceDataResult(PlaylistID, 1, None))
+    rec.expectMessage(ExtractSourceDataResult(PlaylistID, 2, None))
+    rec.expectMessage(IndexSourceDataResult(RootURI, "indexed", None))
+    rec.shutdown()
+  }
+
+  /**
+   * Creates an extractor which blocks when it is invoked for the given URI
+   * until the specified latch is released.
+   * @param latch the latch
+   * @param blockingURI the URI for which the extractor blocks
+   * @return the extractor
+   */
+  private def createBlockingExtractor(latch: CountDownLatch,
+    blockingURI: String): AudioSourceDataExtractor =
+    new AudioSourceDataExtractor {
+      def extractAudioSourceData(mediumURI: String, uri: String) = {
+        if (uri == blockingURI) {
+          latch.await(5, TimeUnit.SECONDS)
+        }
+        None
+      }
+
+      def addMediaDataExtractor(extr: MediaDataExtractor) {}
+
+      def removeMediaDataExtractor(extr: MediaDataExtractor) {}
+    }
+
+  /**
+   * Tests that an index request is not processed while regular requests are
+   * in progress, even if there are idle workers.
+   */
+  @Test def testIndexRequestWaitsForActiveRequests() {
+    shutdownActor()
+    val latch = new CountDownLatch(1)
+    actor = new AudioSourceDataExtractorActor(
+      createBlockingExtractor(latch, URI), 2)
+    actor.start()
+    val rec = new QueuingActor
+    rec.start()
+    actor ! ExtractSourceDataRequest(PlaylistID, RootURI, URI, 1, rec)
+    actor ! IndexSourceDataRequest(RootURI, "indexed", rec)
+    rec.ensureNoMessages()
+    latch.countDown()
+    rec.expectMessage(ExtractSourceDataResult(PlaylistID, 1, None))
+    rec.expectMessage(IndexSourceDataResult(RootURI, "indexed", None))
+    rec.shutdown()
+  }
+
+  /**
+   * Tests that regular requests for the medium accessed by an index request
+   * wait until the index request is complete while requests for other media
+   * are processed.
+   */
+  @Test def testRequestWaitsForIndexRequestOnSameMedium() {
+    shutdownActor()
+    val latch = new CountDownLatch(1)
+    val otherMedium = "file://e/cdrom"
+    actor = new AudioSourceDataExtractorActor(
+      createBlockingExtractor(latch, "indexed"), 2)
+    actor.start()
+    val rec = new QueuingActor
+    rec.start()
+    actor ! IndexSourceDataRequest(RootURI, "indexed", rec)
+    actor ! ExtractSourceDataRequest(PlaylistID, RootURI, URI, 1, rec)
+    actor ! ExtractSourceDataRequest(PlaylistID, otherMedium, URI, 2, rec)
+    rec.expectMessage(ExtractSourceDataResult(PlaylistID, 2, None))
+    rec.ensureNoMessages()
+    latch.countDown()
+    rec.expectMessage(IndexSourceDataResult(RootURI, "indexed", None))
+    rec.expectMessage(ExtractSourceDataResult(PlaylistID, 1, None))
+    rec.shutdown()
+  }
+
+  /**
+   * Tests that a result is sent even if the extractor throws an exception.
+   */
+  @Test def testExtractException() {
+    EasyMock.expect(extractor.extractAudioSourceData(RootURI, URI))
+      .andThrow(new IllegalStateException("Test exception"))
+    val rec = new ActorTestImpl
+    whenExecuting(extractor) {
+      actor ! IndexSourceDataRequest(RootURI, URI, rec)
+      shutdownActor()
+    }
+    rec.expectMessage(IndexSourceDataResult(RootURI, URI, None))
+  }
+
   /**
    * Tests whether a media data extractor can be added.
    */
@@ -1,9 +1,11 @@
 package de.oliver_heger.splaya.playlist.impl
 
+import java.io.File
 import java.io.IOException
 import java.io.InputStream
 
 import org.easymock.EasyMock
+import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertSame
 import org.junit.Before
@@ -16,6 +18,7 @@ import de.oliver_heger.splaya.fs.StreamSource
 import de.oliver_heger.splaya.osgiutil.ServiceWrapper
 import de.oliver_heger.splaya.AudioSourceData
 import de.oliver_heger.splaya.MediaDataExtractor
+import de.oliver_heger.splaya.SourceMediaDataExtractor
 
 /**
  * Test class for ''AudioSourceDataExtractorImpl''.
@@ -161,4 +164,106 @@ class TestAudioSourceDataExtractorImpl extends JUnitSuite with EasyMockSugar {
         RootURI, TestURI).get)
     }
   }
+
+  /**
+   * Tests whether an extractor supporting stream sources is passed the
+   * source directly.
+   */
+  @Test def testExtractSourceMediaDataExtractor() {
+    val source = mock[StreamSource]
+    val srcExtr = mock[SourceMediaDataExtractor]
+    val data = mock[AudioSourceData]
+    EasyMock.expect(fsService.resolve(RootURI, TestURI)).andReturn(source)
+    EasyMock.expect(srcExtr.extractData(source)).andReturn(Some(data))
+    whenExecuting(fsService, source, srcExtr) {
+      extractor addMediaDataExtractor srcExtr
+      assertSame("Wrong data", data, extractor.extractAudioSourceData(
+        RootURI, TestURI).get)
+    }
+  }
+
+  /**
+   * Creates an index which is not backed by an existing file.
+   * @return the index
+   */
+  private def createIndex(): AudioSourceDataIndex =
+    new AudioSourceDataIndex(new File(System.getProperty("java.io.tmpdir"),
+      "nonExistingIndex" + System.nanoTime()))
+
+  /**
+   * Creates a mock stream source with the given size and modification time
+   * and prepares the file system service to return it.
+   * @param size the size of the source
+   * @param time the modification time of the source
+   * @return the mock stream source
+   */
+  private def prepareIndexedSource(size: Long, time: Long): StreamSource = {
+    val source = mock[StreamSource]
+    EasyMock.expect(fsService.resolve(RootURI, TestURI)).andReturn(source)
+    EasyMock.expect(source.size).andReturn(size).anyTimes()
+    EasyMock.expect(source.lastModified).andReturn(time).anyTimes()
+    source
+  }
+
+  /**
+   * Tests that data which is up to date is obtained from the index without
+   * invoking the media data extractors.
+   */
+  @Test def testExtractFromIndex() {
+    val index = createIndex()
+    val data = AudioSourceDataImpl(title = "Song", albumName = "Album",
+      artistName = "Artist", duration = 1000, inceptionYear = 2000, trackNo = 1)
+    index.put(RootURI, TestURI, 100, 200, data)
+    val wrapper = new ServiceWrapper[FSService]
+    wrapper bind fsService
+    extractor = new AudioSourceDataExtractorImpl(wrapper, Some(index))
+    val source = prepareIndexedSource(100, 200)
+    val srcExtr = mock[SourceMediaDataExtractor]
+    whenExecuting(fsService, source, srcExtr) {
+      extractor addMediaDataExtractor srcExtr
+      assertEquals("Wrong data", data, extractor.extractAudioSourceData(
+        RootURI, TestURI).get)
+    }
+  }
+
+  /**
+   * Tests that outdated data in the index is replaced by newly extracted data.
+   */
+  @Test def testExtractUpdatesIndex() {
+    val index = createIndex()
+    val data = AudioSourceDataImpl(title = "Song", albumName = "Album",
+      artistName = "Artist", duration = 1000, inceptionYear = 2000, trackNo = 1)
+    index.put(RootURI, TestURI, 100, 200, data)
+    val wrapper = new ServiceWrapper[FSService]
+    wrapper bind fsService
+    extractor = new AudioSourceDataExtractorImpl(wrapper, Some(index))
+    val source = prepareIndexedSource(100, 300)
+    val srcExtr = mock[SourceMediaDataExtractor]
+    val newData = data.copy(title = "New Song")
+    EasyMock.expect(srcExtr.extractData(source)).andReturn(Some(newData))
+    whenExecuting(fsService, source, srcExtr) {
+      extractor addMediaDataExtractor srcExtr
+      assertEquals("Wrong data", newData, extractor.extractAudioSourceData(
+        RootURI, TestURI).get)
+    }
+    assertEquals("Index not updated", newData,
+      index.getIfCurrent(RootURI, TestURI, 100, 300).get)
+  }
+
+  /**
+   * Tests whether an exception thrown by an extractor supporting stream
+   * sources is handled.
+   */
+  @Test def testExtractSourceMediaDataExtractorException() {
+    val source = mock[StreamSource]
+    val srcExtr = mock[SourceMediaDataExtractor]
+    EasyMock.expect(fsService.resolve(RootURI, TestURI)).andReturn(source)
+    EasyMock.expect(srcExtr.extractData(source))
+      .andThrow(new IOException("Test exception!"))
+    whenExecuting(fsService, source, srcExtr) {
+      extractor addMediaDataExtractor srcExtr
+      assertFalse("Got data", extractor.extractAudioSourceData(
+        RootURI, TestURI).isDefined)
+    }
+  }
 }
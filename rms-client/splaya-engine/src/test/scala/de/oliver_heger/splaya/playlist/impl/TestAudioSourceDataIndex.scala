@@ -0,0 +1,220 @@
+package de.oliver_heger.splaya.playlist.impl
+
+import java.io.File
+import java.io.PrintWriter
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+
+import de.oliver_heger.splaya.AudioSourceData
+
+/**
+ * Test class for ''AudioSourceDataIndex''.
+ */
+class TestAudioSourceDataIndex extends JUnitSuite {
+  /** Constant for the URI of the source medium. */
+  private val MediumURI = "file:///music"
+
+  /** Constant for a prefix for the URI of an audio source. */
+  private val URI = "Artist/Album/Song"
+
+  /** Constant for the size of an audio file. */
+  private val Size = 4711L
+
+  /** Constant for the modification time of an audio file. */
+  private val Modified = 20121018220000L
+
+  /** The test directory. */
+  private var dataDir: File = _
+
+  /** The index to be tested. */
+  private var index: AudioSourceDataIndex = _
+
+  @Before def setUp() {
+    val tempDir = new File(System.getProperty("java.io.tmpdir"))
+    dataDir = new File(tempDir, "TestAudioSourceDataIndex")
+    index = new AudioSourceDataIndex(new File(dataDir, "test.index"))
+  }
+
+  @After def tearDown() {
+    if (dataDir.isDirectory()) {
+      dataDir.listFiles() foreach (_.delete())
+      assertTrue("Could not delete data directory", dataDir.delete())
+    }
+  }
+
+  /**
+   * Creates a test data object for the audio source with the given index.
+   * @param idx the index
+   * @return the data object
+   */
+  private def createSourceData(idx: Int): AudioSourceData =
+    AudioSourceDataImpl(title = "Song " + idx, albumName = "Album",
+      artistName = "Artist", duration = 180000 + idx, inceptionYear = 1990,
+      trackNo = idx)
+
+  /**
+   * Tests a lookup in an empty index.
+   */
+  @Test def testGetEmpty() {
+    assertFalse("Got data", index.get(MediumURI, URI).isDefined)
+    assertEquals("Wrong size", 0, index.size)
+  }
+
+  /**
+   * Tests whether data added to the index can be queried.
+   */
+  @Test def testPutAndGet() {
+    val data = createSourceData(1)
+    assertEquals("Wrong result", data,
+      index.put(MediumURI, URI, Size, Modified, data))
+    assertEquals("Wrong data", data, index.get(MediumURI, URI).get)
+    assertFalse("Got data for other medium",
+      index.get("file:///other", URI).isDefined)
+  }
+
+  /**
+   * Tests whether data objects are copied when they are added to the index.
+   */
+  @Test def testPutCopiesData() {
+    val data = new AudioSourceData {
+      val title = "Title"
+      val albumName = "Album"
+      val artistName = null
+      val duration = 1000L
+      val inceptionYear = 2000
+      val trackNo = 7
+    }
+    index.put(MediumURI, URI, Size, Modified, data)
+    assertEquals("Wrong data", AudioSourceDataImpl(title = "Title",
+      albumName = "Album", artistName = null, duration = 1000L,
+      inceptionYear = 2000, trackNo = 7), index.get(MediumURI, URI).get)
+  }
+
+  /**
+   * Tests whether getIfCurrent() checks size and modification time.
+   */
+  @Test def testGetIfCurrent() {
+    val data = createSourceData(1)
+    index.put(MediumURI, URI, Size, Modified, data)
+    assertEquals("Wrong data", data,
+      index.getIfCurrent(MediumURI, URI, Size, Modified).get)
+    assertFalse("Got data for other size",
+      index.getIfCurrent(MediumURI, URI, Size + 1, Modified).isDefined)
+    assertFalse("Got data for other time",
+      index.getIfCurrent(MediumURI, URI, Size, Modified + 1).isDefined)
+  }
+
+  /**
+   * Tests that save() does not write a file if the index was not changed.
+   */
+  @Test def testSaveNotModified() {
+    index.save()
+    assertFalse("File was written", index.indexFile.exists())
+  }
+
+  /**
+   * Tests whether the index can be saved and loaded again.
+   */
+  @Test def testSaveAndLoad() {
+    val count = 8
+    for (i <- 1 to count) {
+      index.put(MediumURI, URI + i, Size + i, Modified, createSourceData(i))
+    }
+    index.put(MediumURI, "noMetaData", Size, Modified,
+      AudioSourceDataImpl(title = null, albumName = null, artistName = null,
+        duration = 0, inceptionYear = 0, trackNo = 0))
+    index.save()
+    assertTrue("No file written", index.indexFile.isFile)
+
+    val index2 = new AudioSourceDataIndex(index.indexFile)
+    assertEquals("Wrong size", count + 1, index2.size)
+    for (i <- 1 to count) {
+      assertEquals("Wrong data " + i, createSourceData(i),
+        index2.getIfCurrent(MediumURI, URI + i, Size + i, Modified).get)
+    }
+    val noData = index2.get(MediumURI, "noMetaData").get
+    assertEquals("Wrong title", null, noData.title)
+    assertEquals("Wrong artist", null, noData.artistName)
+  }
+
+  /**
+   * Tests that changes made after a save operation are written by the next
+   * one.
+   */
+  @Test def testSaveAfterFurtherChanges() {
+    index.put(MediumURI, URI + 1, Size, Modified, createSourceData(1))
+    index.save()
+    index.put(MediumURI, URI + 2, Size, Modified, createSourceData(2))
+    index.save()
+    assertEquals("Wrong size", 2,
+      new AudioSourceDataIndex(index.indexFile).size)
+  }
+
+  /**
+   * Tests whether the index can be restricted to specific source media.
+   */
+  @Test def testRestrictTo() {
+    val otherMedium = "file:///other"
+    assertTrue("Medium not indexed", index.isIndexed(otherMedium))
+    index.restrictTo(List(MediumURI))
+    assertTrue("Root not indexed", index.isIndexed(MediumURI))
+    assertFalse("Other medium indexed", index.isIndexed(otherMedium))
+    val data = createSourceData(1)
+    assertEquals("Wrong result", data,
+      index.put(otherMedium, URI, Size, Modified, data))
+    index.put(MediumURI, URI, Size, Modified, data)
+    assertEquals("Wrong size", 1, index.size)
+    assertFalse("Got data for other medium",
+      index.get(otherMedium, URI).isDefined)
+  }
+
+  /**
+   * Tests that nothing is stored if the index is restricted to no media.
+   */
+  @Test def testRestrictToNoMedia() {
+    index.restrictTo(Nil)
+    index.put(MediumURI, URI, Size, Modified, createSourceData(1))
+    assertEquals("Wrong size", 0, index.size)
+    index.save()
+    assertFalse("File was written", index.indexFile.exists())
+  }
+
+  /**
+   * Tests that invalid entries in the index file are ignored.
+   */
+  @Test def testLoadInvalidEntries() {
+    assertTrue("Could not create directory", dataDir.mkdirs())
+    val out = new PrintWriter(index.indexFile, XMLEncoding)
+    out.println("<index>")
+    out.println("<source medium=\"" + MediumURI + "\" uri=\"" + URI +
+      "\" size=\"" + Size + "\" modified=\"" + Modified + "\">")
+    out.println("<title>Test</title><duration>100</duration></source>")
+    out.println("<source medium=\"" + MediumURI + "\" uri=\"invalid\" " +
+      "size=\"large\" modified=\"now\"/>")
+    out.println("</index>")
+    out.close()
+
+    assertEquals("Wrong size", 1, index.size)
+    val data = index.get(MediumURI, URI).get
+    assertEquals("Wrong title", "Test", data.title)
+    assertEquals("Wrong duration", 100, data.duration)
+    assertEquals("Wrong track", 0, data.trackNo)
+  }
+
+  /**
+   * Tests whether a corrupt index file is handled.
+   */
+  @Test def testLoadCorruptFile() {
+    assertTrue("Could not create directory", dataDir.mkdirs())
+    val out = new PrintWriter(index.indexFile, XMLEncoding)
+    out.println("<index><source medium=")
+    out.close()
+    assertEquals("Wrong size", 0, index.size)
+  }
+}
@@ -0,0 +1,195 @@
+package de.oliver_heger.splaya.playlist.impl
+
+import java.io.File
+import java.io.IOException
+
+import org.easymock.EasyMock
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+import org.scalatest.mock.EasyMockSugar
+
+import de.oliver_heger.splaya.fs.FSService
+import de.oliver_heger.splaya.osgiutil.ServiceWrapper
+import de.oliver_heger.tsthlp.QueuingActor
+import de.oliver_heger.tsthlp.TestActorSupport
+
+/**
+ * Test class for ''AudioSourceDataIndexActor''.
+ */
+class TestAudioSourceDataIndexActor extends JUnitSuite with EasyMockSugar
+  with TestActorSupport {
+  /** The actor type to be tested. */
+  type ActorUnderTest = AudioSourceDataIndexActor
+
+  /** Constant for the URI of a source medium. */
+  private val MediumURI = "file:///music"
+
+  /** Constant for the URI of another source medium. */
+  private val MediumURI2 = "file:///audiobooks"
+
+  /** Constant for the supported file extensions. */
+  private val Extensions = Set("mp3")
+
+  /** The mock for the file system service. */
+  private var fsService: FSService = _
+
+  /** The wrapper for the file system service. */
+  private var fsWrapper: ServiceWrapper[FSService] = _
+
+  /** The file in which the index is stored. */
+  private var indexFile: File = _
+
+  /** The index. */
+  private var index: AudioSourceDataIndex = _
+
+  /** The mock extractor actor. */
+  private var extractor: QueuingActor = _
+
+  /** The actor to be tested. */
+  protected var actor: ActorUnderTest = _
+
+  @Before def setUp() {
+    fsService = mock[FSService]
+    fsWrapper = new ServiceWrapper[FSService]
+    fsWrapper bind fsService
+    indexFile = File.createTempFile("TestIndex", ".index")
+    indexFile.delete()
+    index = new AudioSourceDataIndex(indexFile)
+    extractor = new QueuingActor
+    extractor.start()
+  }
+
+  @After override def tearDown() {
+    super.tearDown()
+    extractor.shutdown()
+    indexFile.delete()
+  }
+
+  /**
+   * Creates and starts the test actor.
+   * @param saveInterval the save interval
+   */
+  private def setUpActor(saveInterval: Long = 60000) {
+    actor = new AudioSourceDataIndexActor(extractor, fsWrapper, index,
+      saveInterval)
+    actor.start()
+  }
+
+  /**
+   * Creates a request message for the given audio source.
+   * @param mediumURI the URI of the source medium
+   * @param uri the URI of the audio source
+   * @return the request message
+   */
+  private def request(mediumURI: String, uri: String) =
+    IndexSourceDataRequest(mediumURI, uri, actor)
+
+  /**
+   * Simulates the extraction of meta data for the given audio source. Data is
+   * added to the index, and a result is sent to the test actor.
+   * @param mediumURI the URI of the source medium
+   * @param uri the URI of the audio source
+   */
+  private def sendResult(mediumURI: String, uri: String) {
+    val data = AudioSourceDataImpl(title = uri, albumName = null,
+      artistName = null, duration = 0, inceptionYear = 0, trackNo = 0)
+    index.put(mediumURI, uri, 1, 1, data)
+    actor ! IndexSourceDataResult(mediumURI, uri, Some(data))
+  }
+
+  /**
+   * Tests whether all audio files on the source media are requested one by
+   * one.
+   */
+  @Test def testIndexMedia() {
+    EasyMock.expect(fsService.scan(MediumURI, Extensions))
+      .andReturn(List("song1.mp3", "song2.mp3"))
+    EasyMock.expect(fsService.scan(MediumURI2, Extensions))
+      .andReturn(List("book.mp3"))
+    whenExecuting(fsService) {
+      setUpActor()
+      actor ! IndexMedia(List(MediumURI, MediumURI2), Extensions)
+      extractor.expectMessage(request(MediumURI, "song1.mp3"))
+      extractor.ensureNoMessages()
+      sendResult(MediumURI, "song1.mp3")
+      extractor.expectMessage(request(MediumURI, "song2.mp3"))
+      sendResult(MediumURI, "song2.mp3")
+      extractor.expectMessage(request(MediumURI2, "book.mp3"))
+      assertFalse("Index already saved", indexFile.exists())
+      sendResult(MediumURI2, "book.mp3")
+      shutdownActor()
+    }
+    extractor.ensureNoMessages()
+    assertTrue("Index not saved", indexFile.isFile)
+  }
+
+  /**
+   * Tests whether the index is saved when the save interval has passed.
+   */
+  @Test def testSaveInterval() {
+    EasyMock.expect(fsService.scan(MediumURI, Extensions))
+      .andReturn(List("song1.mp3", "song2.mp3"))
+    whenExecuting(fsService) {
+      setUpActor(saveInterval = 0)
+      actor ! IndexMedia(List(MediumURI), Extensions)
+      extractor.expectMessage(request(MediumURI, "song1.mp3"))
+      assertFalse("Index already saved", indexFile.exists())
+      sendResult(MediumURI, "song1.mp3")
+      extractor.expectMessage(request(MediumURI, "song2.mp3"))
+      assertTrue("Index not saved", indexFile.isFile)
+      shutdownActor()
+    }
+  }
+
+  /**
+   * Tests that the index is not saved before the save interval has passed.
+   */
+  @Test def testNoSaveBeforeInterval() {
+    EasyMock.expect(fsService.scan(MediumURI, Extensions))
+      .andReturn(List("song1.mp3", "song2.mp3", "song3.mp3"))
+    whenExecuting(fsService) {
+      setUpActor()
+      actor ! IndexMedia(List(MediumURI), Extensions)
+      extractor.expectMessage(request(MediumURI, "song1.mp3"))
+      sendResult(MediumURI, "song1.mp3")
+      extractor.expectMessage(request(MediumURI, "song2.mp3"))
+      sendResult(MediumURI, "song2.mp3")
+      extractor.expectMessage(request(MediumURI, "song3.mp3"))
+      assertFalse("Index already saved", indexFile.exists())
+      shutdownActor()
+    }
+    assertTrue("Index not saved on shutdown", indexFile.isFile)
+  }
+
+  /**
+   * Tests that a failed scan of a source medium does not affect other media.
+   */
+  @Test def testScanException() {
+    EasyMock.expect(fsService.scan(MediumURI, Extensions))
+      .andThrow(new IOException("Test exception"))
+    EasyMock.expect(fsService.scan(MediumURI2, Extensions))
+      .andReturn(List("book.mp3"))
+    whenExecuting(fsService) {
+      setUpActor()
+      actor ! IndexMedia(List(MediumURI, MediumURI2), Extensions)
+      extractor.expectMessage(request(MediumURI2, "book.mp3"))
+      shutdownActor()
+    }
+  }
+
+  /**
+   * Tests that nothing is done if no file system service is available.
+   */
+  @Test def testNoFSService() {
+    fsWrapper unbind fsService
+    setUpActor()
+    actor ! IndexMedia(List(MediumURI), Extensions)
+    shutdownActor()
+    extractor.ensureNoMessages()
+    assertFalse("Index saved", indexFile.exists())
+  }
+}
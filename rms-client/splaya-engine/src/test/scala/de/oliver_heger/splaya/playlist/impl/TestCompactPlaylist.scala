@@ -0,0 +1,83 @@
+package de.oliver_heger.splaya.playlist.impl
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+
+/**
+ * Test class for ''CompactPlaylist''.
+ */
+class TestCompactPlaylist extends JUnitSuite {
+  /** A list with test URIs. */
+  private val URIs = List("music/rock/artist1/album1/01 - song.mp3",
+    "music/rock/artist1/album1/02 - another song.mp3",
+    "music/pop/artist2/song.mp3", "song without directory.mp3",
+    "music/rock/artist1/album1/03 - \u00e4\u00f6\u00fc.mp3",
+    "music/pop/artist2/", "")
+
+  /**
+   * Tests whether the playlist contains the original URIs.
+   */
+  @Test def testContent() {
+    val pl = CompactPlaylist(URIs)
+    assertEquals("Wrong size", URIs.size, pl.size)
+    for (i <- 0 until URIs.size) {
+      assertEquals("Wrong URI at " + i, URIs(i), pl(i))
+    }
+  }
+
+  /**
+   * Tests whether the playlist can be compared with other sequences.
+   */
+  @Test def testEquals() {
+    val pl = CompactPlaylist(URIs)
+    assertTrue("Not equal to list", pl == URIs)
+    assertTrue("List not equal", URIs == pl)
+    assertEquals("Different hash code", URIs.hashCode, pl.hashCode)
+  }
+
+  /**
+   * Tests that each directory is stored only once.
+   */
+  @Test def testDirectoryCount() {
+    assertEquals("Wrong number of directories", 3,
+      CompactPlaylist(URIs).directoryCount)
+  }
+
+  /**
+   * Tests that an existing compact playlist is not converted again.
+   */
+  @Test def testApplyCompactPlaylist() {
+    val pl = CompactPlaylist(URIs)
+    assertSame("Not same instance", pl, CompactPlaylist(pl))
+  }
+
+  /**
+   * Tests the empty playlist.
+   */
+  @Test def testEmpty() {
+    assertTrue("Not empty", CompactPlaylist.Empty.isEmpty)
+    assertEquals("Wrong directories", 0, CompactPlaylist.Empty.directoryCount)
+  }
+
+  /**
+   * Tests whether a playlist can be created using a builder.
+   */
+  @Test def testBuilder() {
+    val builder = CompactPlaylist.newBuilder
+    builder += "test1"
+    builder.clear()
+    URIs foreach (builder += _)
+    assertEquals("Wrong content", URIs, builder.result().toList)
+  }
+
+  /**
+   * Tests an invalid index.
+   */
+  @Test(expected = classOf[IndexOutOfBoundsException])
+  def testApplyInvalidIndex() {
+    CompactPlaylist(URIs)(URIs.size)
+  }
+}
@@ -0,0 +1,84 @@
+package de.oliver_heger.splaya.playlist.impl
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+
+/**
+ * Test class for ''ExtractionConcurrency''.
+ */
+class TestExtractionConcurrency extends JUnitSuite {
+  /**
+   * Tests the default instance.
+   */
+  @Test def testDefault() {
+    assertEquals("Wrong limit", 1,
+      ExtractionConcurrency.Default.limitFor("file:///music"))
+  }
+
+  /**
+   * Tests whether a null medium URI is handled.
+   */
+  @Test def testLimitForNullURI() {
+    val conc = new ExtractionConcurrency(Map("file:" -> 4), 2)
+    assertEquals("Wrong limit", 2, conc.limitFor(null))
+  }
+
+  /**
+   * Tests that the longest matching prefix is selected.
+   */
+  @Test def testLimitForLongestPrefix() {
+    val conc = new ExtractionConcurrency(Map("file:" -> 2,
+      "file:///home/music" -> 8, "file:///media" -> 1))
+    assertEquals("Wrong limit (1)", 8,
+      conc.limitFor("file:///home/music/rock"))
+    assertEquals("Wrong limit (2)", 1, conc.limitFor("file:///media/cdrom"))
+    assertEquals("Wrong limit (3)", 2, conc.limitFor("file:///tmp"))
+    assertEquals("Wrong limit (4)", 1, conc.limitFor("smb://nas/music"))
+  }
+
+  /**
+   * Tests whether a string with limits can be parsed.
+   */
+  @Test def testParse() {
+    val conc = ExtractionConcurrency.parse(
+      " file:///home/music = 4 ;file:///media/nas=2, 3 ")
+    assertEquals("Wrong limits",
+      Map("file:///home/music" -> 4, "file:///media/nas" -> 2), conc.limits)
+    assertEquals("Wrong default limit", 3, conc.defaultLimit)
+  }
+
+  /**
+   * Tests whether a string with only a default limit can be parsed.
+   */
+  @Test def testParseDefaultOnly() {
+    val conc = ExtractionConcurrency.parse("5")
+    assertEquals("Wrong default limit", 5, conc.defaultLimit)
+    assertEquals("Got limits", 0, conc.limits.size)
+  }
+
+  /**
+   * Tests parse() for an empty string.
+   */
+  @Test def testParseEmpty() {
+    val conc = ExtractionConcurrency.parse("")
+    assertEquals("Wrong default limit", 1, conc.defaultLimit)
+    assertEquals("Got limits", 0, conc.limits.size)
+  }
+
+  /**
+   * Tests parse() for an invalid entry.
+   */
+  @Test(expected = classOf[IllegalArgumentException])
+  def testParseInvalid() {
+    ExtractionConcurrency.parse("file:///music=many")
+  }
+
+  /**
+   * Tests that a limit of 0 is rejected.
+   */
+  @Test(expected = classOf[IllegalArgumentException])
+  def testParseZeroLimit() {
+    ExtractionConcurrency.parse("file:///music=0")
+  }
+}
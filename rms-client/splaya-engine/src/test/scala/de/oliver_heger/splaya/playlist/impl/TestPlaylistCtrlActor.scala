@@ -7,6 +7,7 @@ import java.io.StringWriter
 import scala.xml.Elem
 
 import org.easymock.EasyMock
+import org.easymock.IAnswer
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertNull
 import org.junit.Assert.assertSame
@@ -19,6 +20,7 @@ import org.scalatest.mock.EasyMockSugar
 
 import de.oliver_heger.splaya.engine.msg.ActorExited
 import de.oliver_heger.splaya.engine.msg.AddSourceStream
+import de.oliver_heger.splaya.engine.msg.FlushPlayer
 import de.oliver_heger.splaya.engine.msg.Gateway
 import de.oliver_heger.splaya.fs.FSService
 import de.oliver_heger.splaya.fs.StreamSource
@@ -164,11 +166,33 @@ class TestPlaylistCtrlActor extends JUnitSuite with EasyMockSugar
    * @param prepareFSService if set to '''true''' and no settings data is
    * provided, the mock for the FS service is prepared to expect a resolve
    * operation for the medium playlist settings and throw an exception
+   * @param batch an optional batch of songs to be passed to the listener of
+   * the scan operation
+   * @param knownMedium a flag whether the store already knows the playlist ID
+   * of the test medium; if '''false''', it is expected that the ID is recorded
    */
   private def expectPlaylistProcessing(list: Seq[String],
     playlistData: Option[Elem], settingsData: Option[Elem],
-    prepareFSService: Boolean = true) {
-    EasyMock.expect(scanner.scan(RootURI, Extensions)).andReturn(list)
+    prepareFSService: Boolean = true, batch: Seq[String] = Nil,
+    knownMedium: Boolean = false) {
+    if (knownMedium) {
+      EasyMock.expect(store.loadMediumPlaylistID(RootURI))
+        .andReturn(Some(PlaylistID))
+    } else {
+      EasyMock.expect(store.loadMediumPlaylistID(RootURI)).andReturn(None)
+      store.saveMediumPlaylistID(RootURI, PlaylistID)
+    }
+    EasyMock.expect(scanner.scan(EasyMock.eq(RootURI),
+      EasyMock.eq(Extensions), EasyMock.anyObject[Seq[String] => Unit]()))
+      .andAnswer(new IAnswer[Seq[String]] {
+        def answer(): Seq[String] = {
+          if (!batch.isEmpty) {
+            EasyMock.getCurrentArguments()(2)
+              .asInstanceOf[Seq[String] => Unit](batch)
+          }
+          list
+        }
+      })
     EasyMock.expect(store.calculatePlaylistID(list)).andReturn(PlaylistID)
     EasyMock.expect(store.loadPlaylist(PlaylistID)).andReturn(playlistData)
     EasyMock.expect(store.loadSettings(PlaylistID)).andReturn(settingsData)
@@ -409,6 +433,72 @@ class TestPlaylistCtrlActor extends JUnitSuite with EasyMockSugar
     }
   }
 
+  /**
+   * Tests whether playback is started with the first song found while the
+   * medium is scanned and whether this song remains the current song when
+   * the ordered playlist arrives.
+   */
+  @Test def testReadMediumProvisionalPlayback() {
+    val scannedPL = createPlaylist().reverse
+    val firstSong = playlistURI(PlaylistSize - 1)
+    expectPlaylistProcessing(scannedPL, None, Some(createSettings()),
+      batch = scannedPL.take(2))
+    whenExecuting(scanner, store) {
+      actor ! ReadMedium(RootURI)
+      sourceActor.expectMessage(AddSourceStream(RootURI, firstSong, 0, 0, 0))
+      checkGeneratePlaylistRequest(scannedPL, OrderMode, createOrderParams())
+      actor ! PlaylistGenerated(createPlaylist(), createPlaylistSettings())
+      for (i <- 0 until PlaylistSize - 1) {
+        sourceActor.expectMessage(AddSourceStream(RootURI, playlistURI(i),
+          i + 1, 0, 0))
+      }
+      sourceActor.expectMessage(PlaylistEnd)
+      sourceActor.ensureNoMessages()
+    }
+  }
+
+  /**
+   * Tests that no provisional playback is started if a persistent playlist is
+   * known for the medium before the scan.
+   */
+  @Test def testReadMediumKnownPlaylistNoProvisionalPlayback() {
+    val currentIndex = 8
+    val pl = createPlaylist()
+    val playlistData = createPersistentPlaylist(pl, currentIndex)
+    expectPlaylistProcessing(pl, Some(playlistData), None, batch = pl.take(1),
+      knownMedium = true)
+    whenExecuting(scanner, store) {
+      actor ! ReadMedium(RootURI)
+      checkSentPlaylist(currentIndex, CurrentPos, CurrentTime)
+      shutdownActor()
+    }
+    playlistCreationActor.ensureNoMessages()
+  }
+
+  /**
+   * Tests whether a persistent playlist is restored if playback has already
+   * been started with a provisional song.
+   */
+  @Test def testReadMediumProvisionalPlaybackExistingPlaylist() {
+    val currentIndex = 8
+    val pl = createPlaylist()
+    val playlistData = createPersistentPlaylist(pl, currentIndex)
+    expectPlaylistProcessing(pl, Some(playlistData), None, batch = pl.take(1))
+    whenExecuting(scanner, store) {
+      actor ! ReadMedium(RootURI)
+      sourceActor.expectMessage(AddSourceStream(RootURI, playlistURI(0), 0,
+        0, 0))
+      sourceActor.nextMessage() match {
+        case fp: FlushPlayer =>
+          fp.executeFollowAction()
+        case msg => fail("Unexpected message: " + msg)
+      }
+      checkSentPlaylist(currentIndex, CurrentPos, CurrentTime)
+      shutdownActor()
+    }
+    playlistCreationActor.ensureNoMessages()
+  }
+
   /**
    * Tests whether a response for a newly created playlist can be processed.
    */
@@ -537,6 +627,47 @@ class TestPlaylistCtrlActor extends JUnitSuite with EasyMockSugar
     }
   }
 
+  /**
+   * Tests that only the position is saved if the playlist has already been
+   * stored.
+   */
+  @Test def testSavePlaylistPositionOnly() {
+    val pl = createPlaylist()
+    store.savePlaylist(PlaylistID, createPersistentPlaylist(pl, 0, 0, 0))
+    store.savePlaylistPosition(PlaylistID, 4, CurrentPos, CurrentTime)
+    val source = createSource(4)
+    expectPlaylistProcessing(pl, None, None)
+    whenExecuting(scanner, store) {
+      actor ! ReadMedium(RootURI)
+      prepareTestWithPlaylist()
+      actor ! SavePlaylist
+      actor ! PlaybackSourceStart(source)
+      actor ! PlaybackPositionChanged(CurrentPos, 2000, 500, source)
+      actor ! PlaybackTimeChanged(CurrentTime)
+      actor ! SavePlaylist
+      shutdownActor()
+    }
+  }
+
+  /**
+   * Tests that only the position is saved for a playlist which was loaded
+   * from the store.
+   */
+  @Test def testSaveExistingPlaylistPosition() {
+    val pl = createPlaylist()
+    val playlistData = createPersistentPlaylist(pl, 8)
+    expectPlaylistProcessing(pl, Some(playlistData), None)
+    store.savePlaylistPosition(PlaylistID, 8, CurrentPos, CurrentTime)
+    whenExecuting(scanner, store) {
+      actor ! ReadMedium(RootURI)
+      actor ! PlaybackPositionChanged(CurrentPos, 2000, 500,
+        createSource(8))
+      actor ! PlaybackTimeChanged(CurrentTime)
+      actor ! SavePlaylist
+      shutdownActor()
+    }
+  }
+
   /**
    * Tests whether playlist items are encoded correctly, so that special
    * characters in file names do not cause problems.
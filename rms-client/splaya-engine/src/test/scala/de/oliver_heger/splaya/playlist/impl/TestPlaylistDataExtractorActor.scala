@@ -1,5 +1,7 @@
 package de.oliver_heger.splaya.playlist.impl
 
+import java.io.File
+
 import scala.actors.Actor
 import org.junit.Assert.assertEquals
 import org.junit.After
@@ -10,7 +12,9 @@ import org.scalatest.mock.EasyMockSugar
 import de.oliver_heger.splaya.engine.msg.AccessSourceMedium
 import de.oliver_heger.splaya.engine.msg.Exit
 import de.oliver_heger.splaya.engine.msg.Gateway
+import de.oliver_heger.splaya.AudioSource
 import de.oliver_heger.splaya.AudioSourceData
+import de.oliver_heger.splaya.PlaybackSourceStart
 import de.oliver_heger.splaya.PlayerShutdown
 import de.oliver_heger.splaya.PlaylistData
 import de.oliver_heger.splaya.PlaylistSettings
@@ -79,10 +83,12 @@ class TestPlaylistDataExtractorActor extends JUnitSuite with EasyMockSugar
    * Creates and starts a test actor instance which uses the specified extractor
    * actor.
    * @param extractor the actor to be used as extractor
+   * @param concurrency the object defining the extraction concurrency
    * @return the test actor instance
    */
-  private def setUpActor(extractor: Actor): PlaylistDataExtractorActor = {
-    actor = new PlaylistDataExtractorActor(gateway, extractor)
+  private def setUpActor(extractor: Actor,
+    concurrency: ExtractionConcurrency = ExtractionConcurrency.Default): PlaylistDataExtractorActor = {
+    actor = new PlaylistDataExtractorActor(gateway, extractor, concurrency)
     actor.start()
     actor
   }
@@ -116,16 +122,20 @@ class TestPlaylistDataExtractorActor extends JUnitSuite with EasyMockSugar
 
   /**
    * Generates the test playlist data object.
+   * @param size the size of the playlist
+   * @param startIndex the start index of the playlist
+   * @param mediumURI the URI of the source medium of the playlist
    * @return the playlist data used by the tests
    */
-  private def createPlaylistData(): PlaylistData = {
+  private def createPlaylistData(size: Int = PlaylistSize,
+    startIndex: Int = 1, mediumURI: String = RootURI): PlaylistData = {
     val items =
-      for (i <- 0 until PlaylistSize) yield playlistURI(i)
+      for (i <- 0 until size) yield playlistURI(i)
     val settings = mock[PlaylistSettings]
-    EasyMock.expect(settings.mediumURI).andReturn(RootURI).anyTimes()
+    EasyMock.expect(settings.mediumURI).andReturn(mediumURI).anyTimes()
     EasyMock.replay(settings)
     PlaylistDataImpl(playlist = items, settings = settings,
-      startIndex = 1)
+      startIndex = startIndex)
   }
 
   /**
@@ -265,11 +275,231 @@ class TestPlaylistDataExtractorActor extends JUnitSuite with EasyMockSugar
     extractor.start()
     setUpActor(extractor)
     actor ! createPlaylistData()
+    extractor.expectMessage(ExtractSourceDataRequest(1, RootURI, playlistURI(1),
+      1, actor))
+    actor ! ExtractSourceDataResult(1, 1, None)
+    extractor.expectMessage(ExtractSourceDataRequest(1, RootURI, playlistURI(2),
+      2, actor))
+    actor ! ExtractSourceDataResult(1, 2, None)
+    extractor.expectMessage(ExtractSourceDataRequest(1, RootURI, playlistURI(0),
+      0, actor))
+    actor ! ExtractSourceDataResult(1, 0, None)
+    actor ! createPlaylistData()
+    extractor.expectMessage(ExtractSourceDataRequest(2, RootURI, playlistURI(1),
+      1, actor))
+    extractor.shutdown()
+  }
+
+  /**
+   * Tests that requests of a former playlist which are still pending count
+   * against the limit of their medium.
+   */
+  @Test def testNewPlaylistWaitsForPendingRequestsOfMedium() {
+    val extractor = new QueuingActor
+    extractor.start()
+    setUpActor(extractor)
+    actor ! createPlaylistData()
+    extractor.expectMessage(ExtractSourceDataRequest(1, RootURI, playlistURI(1),
+      1, actor))
+    actor ! createPlaylistData()
+    shutdownActor()
+    extractor.ensureNoMessages()
+    extractor.shutdown()
+  }
+
+  /**
+   * Tests that the result of a request of a former playlist releases its
+   * slot of the medium.
+   */
+  @Test def testFormerPlaylistResultReleasesMedium() {
+    val extractor = new QueuingActor
+    extractor.start()
+    val listener = installListener()
+    setUpActor(extractor)
+    actor ! createPlaylistData()
     extractor.expectMessage(ExtractSourceDataRequest(1, RootURI, playlistURI(1),
       1, actor))
     actor ! createPlaylistData()
+    actor ! ExtractSourceDataResult(1, 1, Some(createSourceData(1)))
     extractor.expectMessage(ExtractSourceDataRequest(2, RootURI, playlistURI(1),
       1, actor))
+    shutdownActor()
+    extractor.ensureNoMessages()
+    listener.ensureNoMessages()
+    deregister(listener)
+    extractor.shutdown()
+  }
+
+  /**
+   * Tests that pending requests for another medium do not block a new
+   * playlist.
+   */
+  @Test def testNewPlaylistOtherMediumNotBlocked() {
+    val otherMedium = "file:///cdrom"
+    val extractor = new QueuingActor
+    extractor.start()
+    setUpActor(extractor)
+    actor ! createPlaylistData()
+    extractor.expectMessage(ExtractSourceDataRequest(1, RootURI, playlistURI(1),
+      1, actor))
+    actor ! createPlaylistData(mediumURI = otherMedium)
+    extractor.expectMessage(ExtractSourceDataRequest(2, otherMedium,
+      playlistURI(1), 1, actor))
+    extractor.shutdown()
+  }
+
+  /**
+   * Creates an ''ExtractionConcurrency'' object which allows the given number
+   * of parallel requests for the test medium.
+   * @param limit the limit for the test medium
+   * @return the concurrency object
+   */
+  private def concurrency(limit: Int) =
+    new ExtractionConcurrency(Map(RootURI -> limit))
+
+  /**
+   * Creates a request message for the specified playlist item.
+   * @param idx the index of the playlist item
+   * @return the request message
+   */
+  private def request(idx: Int) =
+    ExtractSourceDataRequest(1, RootURI, playlistURI(idx), idx, actor)
+
+  /**
+   * Tests whether multiple requests are sent in parallel if allowed.
+   */
+  @Test def testParallelRequests() {
+    val extractor = new QueuingActor
+    extractor.start()
+    setUpActor(extractor, concurrency(2))
+    actor ! createPlaylistData()
+    extractor.expectMessage(request(1))
+    extractor.expectMessage(request(2))
+    extractor.ensureNoMessages()
+    actor ! ExtractSourceDataResult(1, 2, None)
+    extractor.expectMessage(request(0))
+    extractor.shutdown()
+  }
+
+  /**
+   * Tests that the number of parallel requests is reduced if the source
+   * medium is locked.
+   */
+  @Test def testParallelRequestsMediumLocked() {
+    val extractor = new QueuingActor
+    extractor.start()
+    setUpActor(extractor, concurrency(2))
+    actor ! AccessSourceMedium(true)
+    actor ! createPlaylistData()
+    extractor.expectMessage(request(1))
+    extractor.ensureNoMessages()
+    actor ! AccessSourceMedium(false)
+    extractor.expectMessage(request(2))
+    extractor.shutdown()
+  }
+
+  /**
+   * Tests that items around the current index are processed first.
+   */
+  @Test def testProcessingOrderAroundIndex() {
+    val extractor = new QueuingActor
+    extractor.start()
+    setUpActor(extractor)
+    actor ! createPlaylistData(size = 10, startIndex = 4)
+    extractor.expectMessage(request(4))
+    actor ! ExtractSourceDataResult(1, 4, None)
+    extractor.expectMessage(request(5))
+    actor ! ExtractSourceDataResult(1, 5, None)
+    extractor.expectMessage(request(3))
+    actor ! ExtractSourceDataResult(1, 3, None)
+    extractor.expectMessage(request(6))
+    extractor.shutdown()
+  }
+
+  /**
+   * Tests whether the processing order is adapted when playback of another
+   * audio source starts.
+   */
+  @Test def testPlaybackSourceStartChangesOrder() {
+    val extractor = new QueuingActor
+    extractor.start()
+    setUpActor(extractor)
+    actor ! createPlaylistData(size = 10, startIndex = 0)
+    extractor.expectMessage(request(0))
+    actor ! PlaybackSourceStart(AudioSource(playlistURI(7), 7, 1000, 0, 0))
+    actor ! ExtractSourceDataResult(1, 0, None)
+    extractor.expectMessage(request(7))
+    actor ! ExtractSourceDataResult(1, 7, None)
+    extractor.expectMessage(request(8))
+    actor ! ExtractSourceDataResult(1, 8, None)
+    extractor.expectMessage(request(6))
+    extractor.shutdown()
+  }
+
+  /**
+   * Creates a test actor which uses an index containing data for the
+   * playlist items 1 and 2.
+   * @param extractor the actor to be used as extractor
+   * @return the test actor instance
+   */
+  private def setUpActorWithIndex(
+    extractor: Actor): PlaylistDataExtractorActor = {
+    val index = new AudioSourceDataIndex(new File(
+      System.getProperty("java.io.tmpdir"), "nonExistingIndex" + System.nanoTime()))
+    index.put(RootURI, playlistURI(1), 1, 1, createSourceData(1))
+    index.put(RootURI, playlistURI(2), 1, 1, createSourceData(2))
+    actor = new PlaylistDataExtractorActor(gateway, extractor,
+      ExtractionConcurrency.Default, Some(index))
+    actor.start()
+    actor
+  }
+
+  /**
+   * Tests whether data contained in the index is used before extraction
+   * requests are answered.
+   */
+  @Test def testDataFromIndex() {
+    val extractor = new QueuingActor
+    extractor.start()
+    val listener = installListener()
+    setUpActorWithIndex(extractor)
+    actor ! createPlaylistData()
+    val upd1 = nextUpdateMsg(listener)
+    assertEquals("Wrong update index (1)", 1, upd1.updatedSourceDataIdx)
+    assertEquals("Wrong source data (1)", createSourceData(1),
+      upd1.playlistData.getAudioSourceData(1))
+    val upd2 = nextUpdateMsg(listener)
+    assertEquals("Wrong update index (2)", 2, upd2.updatedSourceDataIdx)
+    extractor.expectMessage(request(1))
+    extractor.ensureNoMessages()
+    deregister(listener)
+    extractor.shutdown()
+  }
+
+  /**
+   * Tests whether the data obtained from the index is validated by
+   * extraction requests. Only changed data causes another update.
+   */
+  @Test def testDataFromIndexValidated() {
+    val extractor = new QueuingActor
+    extractor.start()
+    val listener = installListener()
+    setUpActorWithIndex(extractor)
+    actor ! createPlaylistData()
+    listener.skipMessages(2)
+    extractor.expectMessage(request(1))
+    actor ! ExtractSourceDataResult(1, 1, Some(createSourceData(1)))
+    extractor.expectMessage(request(2))
+    val changedData = createSourceData(42)
+    actor ! ExtractSourceDataResult(1, 2, Some(changedData))
+    extractor.expectMessage(request(0))
+    val upd = nextUpdateMsg(listener)
+    assertEquals("Wrong update index", 2, upd.updatedSourceDataIdx)
+    assertEquals("Wrong source data", changedData,
+      upd.playlistData.getAudioSourceData(2))
+    shutdownActor()
+    listener.ensureNoMessages()
+    deregister(listener)
     extractor.shutdown()
   }
 
@@ -1,6 +1,7 @@
 package de.oliver_heger.splaya.playlist.impl
 
 import java.io.File
+import java.io.FileOutputStream
 import java.io.FileWriter
 import java.io.PrintWriter
 
@@ -10,6 +11,8 @@ import scala.xml.Elem
 
 import org.apache.commons.lang3.text.translate.NumericEntityEscaper
 import org.apache.commons.lang3.StringEscapeUtils
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertNotNull
 import org.junit.Assert.assertNotSame
 import org.junit.Assert.assertTrue
@@ -202,4 +205,168 @@ class TestPlaylistFileStoreImpl extends JUnitSuite {
     assert(sourceName ===
       StringEscapeUtils.unescapeXml((elem \\ "file" \\ "@name").text))
   }
+
+  /**
+   * Tests that no temporary file remains after a save operation.
+   */
+  @Test def testSavePlaylistNoTempFile() {
+    store.savePlaylist(TestID, createXML())
+    assertFalse("Temporary file found",
+      new File(dataDir, TestID + ".plist.tmp").exists())
+  }
+
+  /**
+   * Creates an XML document for a playlist with a current section.
+   * @return the XML document
+   */
+  private def createPlaylistXML(): Elem =
+    <configuration>
+      <current>
+        <index>0</index>
+        <position>0</position>
+        <time>0</time>
+      </current>
+      <list>
+        <file name="song1.mp3"/>
+        <file name="song2.mp3"/>
+      </list>
+    </configuration>
+
+  /**
+   * Checks the current section of a loaded playlist document.
+   * @param elem the loaded document
+   * @param index the expected index
+   * @param pos the expected position
+   * @param time the expected time
+   */
+  private def checkCurrent(elem: Elem, index: Int, pos: Long, time: Long) {
+    val current = elem \ "current"
+    assertEquals("Wrong index", index.toString, (current \ "index").text)
+    assertEquals("Wrong position", pos.toString, (current \ "position").text)
+    assertEquals("Wrong time", time.toString, (current \ "time").text)
+    assertEquals("Wrong number of files", 2, (elem \ "list" \ "file").size)
+  }
+
+  /**
+   * Tests whether the latest saved position is applied when loading a
+   * playlist.
+   */
+  @Test def testSavePlaylistPosition() {
+    store.savePlaylist(TestID, createPlaylistXML())
+    store.savePlaylistPosition(TestID, 1, 100, 200)
+    store.savePlaylistPosition(TestID, 1, 1000, 2000)
+    checkCurrent(store.loadPlaylist(TestID).get, 1, 1000, 2000)
+    assertTrue("No journal", new File(dataDir, TestID + ".journal").isFile())
+  }
+
+  /**
+   * Tests a query for the playlist ID of an unknown medium.
+   */
+  @Test def testLoadMediumPlaylistIDUnknown() {
+    assertTrue("Got an ID",
+      store.loadMediumPlaylistID("file:///unknown").isEmpty)
+  }
+
+  /**
+   * Tests whether the playlist IDs of media can be stored and are available
+   * for a new store instance.
+   */
+  @Test def testSaveMediumPlaylistID() {
+    val medium1 = "file:///media/music"
+    val medium2 = "file:///media/other music"
+    store.saveMediumPlaylistID(medium1, TestID)
+    store.saveMediumPlaylistID(medium2, "otherID")
+    store.saveMediumPlaylistID(medium1, "newID")
+    assertEquals("Wrong ID", "newID", store.loadMediumPlaylistID(medium1).get)
+    val store2 = new PlaylistFileStoreImpl(dataDir.getAbsolutePath)
+    assertEquals("Wrong ID 1", "newID",
+      store2.loadMediumPlaylistID(medium1).get)
+    assertEquals("Wrong ID 2", "otherID",
+      store2.loadMediumPlaylistID(medium2).get)
+  }
+
+  /**
+   * Tests that the journal is replayed by a new store instance.
+   */
+  @Test def testSavePlaylistPositionNewStore() {
+    store.savePlaylist(TestID, createPlaylistXML())
+    store.savePlaylistPosition(TestID, 1, 500, 600)
+    val store2 = new PlaylistFileStoreImpl(dataDir.getAbsolutePath)
+    checkCurrent(store2.loadPlaylist(TestID).get, 1, 500, 600)
+  }
+
+  /**
+   * Tests that saving a playlist discards the journal.
+   */
+  @Test def testSavePlaylistResetsJournal() {
+    store.savePlaylist(TestID, createPlaylistXML())
+    store.savePlaylistPosition(TestID, 1, 500, 600)
+    store.savePlaylist(TestID, createPlaylistXML())
+    checkCurrent(store.loadPlaylist(TestID).get, 0, 0, 0)
+  }
+
+  /**
+   * Tests that an incomplete journal entry is ignored.
+   */
+  @Test def testSavePlaylistPositionIncompleteEntry() {
+    store.savePlaylist(TestID, createPlaylistXML())
+    store.savePlaylistPosition(TestID, 1, 500, 600)
+    val out = new FileOutputStream(new File(dataDir, TestID + ".journal"),
+      true)
+    try {
+      out.write("\n1;700;80".getBytes)
+    } finally {
+      out.close()
+    }
+    checkCurrent(store.loadPlaylist(TestID).get, 1, 500, 600)
+    store.savePlaylistPosition(TestID, 0, 800, 900)
+    checkCurrent(store.loadPlaylist(TestID).get, 0, 800, 900)
+  }
+
+  /**
+   * Tests that a journal entry with a wrong checksum is ignored.
+   */
+  @Test def testSavePlaylistPositionInvalidChecksum() {
+    store.savePlaylist(TestID, createPlaylistXML())
+    store.savePlaylistPosition(TestID, 1, 500, 600)
+    val out = new FileOutputStream(new File(dataDir, TestID + ".journal"),
+      true)
+    try {
+      out.write("\n1;700;800;12345".getBytes)
+    } finally {
+      out.close()
+    }
+    checkCurrent(store.loadPlaylist(TestID).get, 1, 500, 600)
+  }
+
+  /**
+   * Tests whether the journal is compacted if it becomes too large.
+   */
+  @Test def testCompaction() {
+    store = new PlaylistFileStoreImpl(dataDir.getAbsolutePath, 4)
+    store.savePlaylist(TestID, createPlaylistXML())
+    for (i <- 1 to 4) {
+      store.savePlaylistPosition(TestID, 1, i * 100, i * 1000)
+    }
+    store.awaitCompactions()
+    assertFalse("Journal still exists",
+      new File(dataDir, TestID + ".journal").exists())
+    val elem = store.loadPlaylist(TestID).get
+    checkCurrent(elem, 1, 400, 4000)
+    assertEquals("Wrong number of current sections", 1,
+      (elem \ "current").size)
+  }
+
+  /**
+   * Tests that journal entries written after a compaction are applied.
+   */
+  @Test def testSavePlaylistPositionAfterCompaction() {
+    store = new PlaylistFileStoreImpl(dataDir.getAbsolutePath, 2)
+    store.savePlaylist(TestID, createPlaylistXML())
+    store.savePlaylistPosition(TestID, 1, 100, 1000)
+    store.savePlaylistPosition(TestID, 1, 200, 2000)
+    store.awaitCompactions()
+    store.savePlaylistPosition(TestID, 0, 300, 3000)
+    checkCurrent(store.loadPlaylist(TestID).get, 0, 300, 3000)
+  }
 }
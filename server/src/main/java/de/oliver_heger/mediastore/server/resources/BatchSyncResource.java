@@ -0,0 +1,166 @@
+package de.oliver_heger.mediastore.server.resources;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import de.oliver_heger.mediastore.server.NotLoggedInException;
+import de.oliver_heger.mediastore.server.sync.MediaSyncService;
+import de.oliver_heger.mediastore.server.sync.MediaSyncServiceImpl;
+import de.oliver_heger.mediastore.service.AlbumData;
+import de.oliver_heger.mediastore.service.ArtistData;
+import de.oliver_heger.mediastore.service.ObjectFactory;
+import de.oliver_heger.mediastore.service.SongData;
+import de.oliver_heger.mediastore.service.SyncBatchData;
+import de.oliver_heger.mediastore.service.SyncBatchResultData;
+
+/**
+ * <p>
+ * A resource implementation for synchronizing multiple songs at once.
+ * </p>
+ * <p>
+ * The single resources for artists, albums, and songs require a separate
+ * request for each object to be synchronized. This resource accepts a batch
+ * with an arbitrary number of songs and their artists and albums. The objects
+ * are passed to the {@link MediaSyncService} in the order artists, albums,
+ * songs. The response contains a flag for each object whether it was newly
+ * created.
+ * </p>
+ * <p>
+ * Each object is stored independently. If an object cannot be synchronized,
+ * the error is logged, and processing continues with the next object; the
+ * result for the failed object is <b>null</b> (which is transferred as a nil
+ * element). So the client can find out exactly which objects have been
+ * stored on the server. Only a missing login causes the whole batch to be
+ * rejected.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+@Path("batch")
+public class BatchSyncResource
+{
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(BatchSyncResource.class
+            .getName());
+
+    /**
+     * Processes a PUT request for a batch. All objects contained in the batch
+     * are synchronized. If no user is logged in, an UNAUTHORIZED response is
+     * returned.
+     *
+     * @param batch the batch data object
+     * @return a response with the results of the operation
+     */
+    @PUT
+    @Consumes(MediaType.APPLICATION_XML)
+    @Produces(MediaType.APPLICATION_XML)
+    public Response putBatch(SyncBatchData batch)
+    {
+        try
+        {
+            return Response.ok(syncBatch(fetchSyncService(), batch)).build();
+        }
+        catch (NotLoggedInException nlex)
+        {
+            LOG.log(Level.WARNING,
+                    "Synchronization attempt without a logged in user!", nlex);
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+    }
+
+    /**
+     * Obtains the {@link MediaSyncService}. This implementation creates the
+     * service in the same way as {@link AbstractSyncResource}.
+     *
+     * @return the {@link MediaSyncService} instance
+     */
+    protected MediaSyncService fetchSyncService()
+    {
+        return new MediaSyncServiceImpl();
+    }
+
+    /**
+     * Synchronizes all objects contained in the given batch using the
+     * specified service and collects the results.
+     *
+     * @param service the {@link MediaSyncService}
+     * @param batch the batch data object
+     * @return the object with the results of the operation
+     * @throws NotLoggedInException if no user is logged in
+     */
+    SyncBatchResultData syncBatch(MediaSyncService service,
+            SyncBatchData batch) throws NotLoggedInException
+    {
+        SyncBatchResultData result =
+                new ObjectFactory().createSyncBatchResultData();
+
+        for (ArtistData artist : batch.getArtists())
+        {
+            Boolean imported = null;
+            try
+            {
+                imported = service.syncArtist(artist).imported();
+            }
+            catch (RuntimeException rex)
+            {
+                logFailure(artist.getName(), rex);
+            }
+            result.getArtistResults().add(imported);
+        }
+        for (AlbumData album : batch.getAlbums())
+        {
+            Boolean imported = null;
+            try
+            {
+                imported = service.syncAlbum(album).imported();
+            }
+            catch (RuntimeException rex)
+            {
+                logFailure(album.getName(), rex);
+            }
+            result.getAlbumResults().add(imported);
+        }
+        for (SongData song : batch.getSongs())
+        {
+            Boolean imported = null;
+            try
+            {
+                imported = service.syncSong(song).imported();
+            }
+            catch (RuntimeException rex)
+            {
+                logFailure(song.getName(), rex);
+            }
+            result.getSongResults().add(imported);
+        }
+
+        if (LOG.isLoggable(Level.INFO))
+        {
+            LOG.info("Synchronized batch with " + batch.getSongs().size()
+                    + " songs.");
+        }
+        return result;
+    }
+
+    /**
+     * Logs an exception which occurred when synchronizing a single object of
+     * a batch.
+     *
+     * @param name the name of the object affected
+     * @param ex the exception
+     */
+    private static void logFailure(String name, Exception ex)
+    {
+        LOG.log(Level.WARNING, "Could not synchronize object of batch: "
+                + name, ex);
+    }
+}
@@ -0,0 +1,258 @@
+package de.oliver_heger.mediastore.server.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response.Status;
+
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ContainerResponseWriter;
+
+import de.oliver_heger.mediastore.service.utils.ThresholdOutputStream;
+
+/**
+ * <p>
+ * A Jersey container filter which supports gzip content encoding for the
+ * resources of the sync interface.
+ * </p>
+ * <p>
+ * This class is registered both as request and as response filter. Request
+ * entities with gzip content encoding are decompressed. Response entities are
+ * compressed if the client accepts the gzip encoding and if their size
+ * exceeds a threshold. Because the size of an entity is typically not known
+ * before it has been serialized, the data is buffered in memory by a
+ * {@link ThresholdOutputStream} until either the threshold is exceeded or the
+ * entity is complete. Only then the status and the headers of the response
+ * are written.
+ * </p>
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class CompressionFilter implements ContainerRequestFilter,
+        ContainerResponseFilter
+{
+    /**
+     * Constant for the default size in bytes a response entity must exceed in
+     * order to be compressed.
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    /** Constant for the gzip encoding. */
+    static final String GZIP = "gzip";
+
+    /** The threshold for the compression of response entities. */
+    private final int threshold;
+
+    /**
+     * Creates a new instance of {@code CompressionFilter} with the default
+     * threshold. This constructor is called by Jersey.
+     */
+    public CompressionFilter()
+    {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Creates a new instance of {@code CompressionFilter} and sets the
+     * threshold for the compression of response entities.
+     *
+     * @param compressionThreshold the compression threshold
+     */
+    public CompressionFilter(int compressionThreshold)
+    {
+        threshold = compressionThreshold;
+    }
+
+    /**
+     * Returns the threshold for the compression of response entities.
+     *
+     * @return the compression threshold
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Filters a request. If the request entity is compressed, a stream for
+     * decompressing it is installed.
+     *
+     * @param request the request
+     * @return the request to be processed
+     */
+    @Override
+    public ContainerRequest filter(ContainerRequest request)
+    {
+        if (GZIP.equals(request.getHeaderValue(HttpHeaders.CONTENT_ENCODING)))
+        {
+            try
+            {
+                request.setEntityInputStream(new GZIPInputStream(request
+                        .getEntityInputStream()));
+            }
+            catch (IOException ioex)
+            {
+                throw new WebApplicationException(ioex, Status.BAD_REQUEST);
+            }
+            request.getRequestHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+        }
+        return request;
+    }
+
+    /**
+     * Filters a response. If the client accepts compressed data, a writer is
+     * installed which compresses entities larger than the threshold.
+     *
+     * @param request the request
+     * @param response the response
+     * @return the response to be sent
+     */
+    @Override
+    public ContainerResponse filter(ContainerRequest request,
+            ContainerResponse response)
+    {
+        if (response.getEntity() != null
+                && acceptsGzip(request)
+                && !response.getHttpHeaders().containsKey(
+                        HttpHeaders.CONTENT_ENCODING))
+        {
+            response.getHttpHeaders().add(HttpHeaders.VARY,
+                    HttpHeaders.ACCEPT_ENCODING);
+            response.setContainerResponseWriter(new CompressionWriter(
+                    response.getContainerResponseWriter(), getThreshold()));
+        }
+        return response;
+    }
+
+    /**
+     * Checks whether the client sending the specified request accepts
+     * compressed responses.
+     *
+     * @param request the request
+     * @return a flag whether gzip encoding is accepted
+     */
+    private static boolean acceptsGzip(ContainerRequest request)
+    {
+        String accept = request.getHeaderValue(HttpHeaders.ACCEPT_ENCODING);
+        return accept != null && accept.contains(GZIP);
+    }
+
+    /**
+     * A response writer which decides based on the size of the entity whether
+     * it is compressed. Status and headers are passed to the wrapped writer
+     * when this decision has been made.
+     */
+    static class CompressionWriter implements ContainerResponseWriter
+    {
+        /** The wrapped writer. */
+        private final ContainerResponseWriter writer;
+
+        /** The compression threshold. */
+        private final int threshold;
+
+        /** The stream for the current entity. */
+        private ThresholdOutputStream stream;
+
+        /**
+         * Creates a new instance of {@code CompressionWriter}.
+         *
+         * @param w the wrapped writer
+         * @param t the compression threshold
+         */
+        public CompressionWriter(ContainerResponseWriter w, int t)
+        {
+            writer = w;
+            threshold = t;
+        }
+
+        /**
+         * {@inheritDoc} If the size of the entity is known and below the
+         * threshold, this implementation directly delegates to the wrapped
+         * writer. Otherwise, a stream is returned which buffers the entity.
+         */
+        @Override
+        public OutputStream writeStatusAndHeaders(long contentLength,
+                ContainerResponse response) throws IOException
+        {
+            if (contentLength >= 0 && contentLength <= threshold)
+            {
+                return writer.writeStatusAndHeaders(contentLength, response);
+            }
+            stream = new ResponseStream(writer, response, threshold);
+            return stream;
+        }
+
+        /**
+         * {@inheritDoc} This implementation completes the current entity
+         * stream before it delegates to the wrapped writer.
+         */
+        @Override
+        public void finish() throws IOException
+        {
+            if (stream != null)
+            {
+                stream.close();
+            }
+            writer.finish();
+        }
+    }
+
+    /**
+     * A stream class for response entities. The decision whether the entity
+     * is compressed is made by the base class. Status and headers of the
+     * response are written when the target stream is requested.
+     */
+    private static class ResponseStream extends ThresholdOutputStream
+    {
+        /** The writer for the response. */
+        private final ContainerResponseWriter writer;
+
+        /** The current response. */
+        private final ContainerResponse response;
+
+        /**
+         * Creates a new instance of {@code ResponseStream}.
+         *
+         * @param w the writer for the response
+         * @param resp the current response
+         * @param t the compression threshold
+         */
+        public ResponseStream(ContainerResponseWriter w,
+                ContainerResponse resp, int t)
+        {
+            super(t);
+            writer = w;
+            response = resp;
+        }
+
+        /**
+         * {@inheritDoc} This implementation writes status and headers with
+         * the known content length.
+         */
+        @Override
+        protected OutputStream openUncompressedStream(int size)
+                throws IOException
+        {
+            return writer.writeStatusAndHeaders(size, response);
+        }
+
+        /**
+         * {@inheritDoc} This implementation sets the content encoding header
+         * and writes status and headers with an unknown content length.
+         */
+        @Override
+        protected OutputStream openCompressedStream() throws IOException
+        {
+            response.getHttpHeaders().putSingle(HttpHeaders.CONTENT_ENCODING,
+                    GZIP);
+            return writer.writeStatusAndHeaders(-1, response);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package de.oliver_heger.mediastore.server.resources;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.oliver_heger.mediastore.server.NotLoggedInException;
+import de.oliver_heger.mediastore.server.sync.MediaSyncService;
+import de.oliver_heger.mediastore.server.sync.MediaSyncServiceImpl;
+import de.oliver_heger.mediastore.server.sync.SyncResult;
+import de.oliver_heger.mediastore.service.AlbumData;
+import de.oliver_heger.mediastore.service.ArtistData;
+import de.oliver_heger.mediastore.service.ObjectFactory;
+import de.oliver_heger.mediastore.service.SongData;
+import de.oliver_heger.mediastore.service.SyncBatchData;
+import de.oliver_heger.mediastore.service.SyncBatchResultData;
+
+/**
+ * Test class for {@code BatchSyncResource}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestBatchSyncResource
+{
+    /** The object factory. */
+    private static ObjectFactory factory;
+
+    /** A mock for the sync service. */
+    private MediaSyncService service;
+
+    /** The resource to be tested. */
+    private BatchSyncResourceTestImpl resource;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        factory = new ObjectFactory();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        service = EasyMock.createMock(MediaSyncService.class);
+        resource = new BatchSyncResourceTestImpl(service);
+    }
+
+    /**
+     * Creates a test batch with the given number of songs. All songs belong to
+     * the same artist and album.
+     *
+     * @param songCount the number of songs
+     * @return the batch
+     */
+    private static SyncBatchData createBatch(int songCount)
+    {
+        SyncBatchData batch = factory.createSyncBatchData();
+        ArtistData artist = factory.createArtistData();
+        artist.setName("Marillion");
+        batch.getArtists().add(artist);
+        AlbumData album = factory.createAlbumData();
+        album.setName("Misplaced Childhood");
+        album.setInceptionYear(1985);
+        batch.getAlbums().add(album);
+        for (int i = 0; i < songCount; i++)
+        {
+            SongData song = factory.createSongData();
+            song.setName("Song " + i);
+            song.setArtistName(artist.getName());
+            song.setAlbumName(album.getName());
+            batch.getSongs().add(song);
+        }
+        return batch;
+    }
+
+    /**
+     * Creates a mock sync result object with the given imported flag.
+     *
+     * @param <K> the type of the key
+     * @param imported the imported flag
+     * @return the mock result
+     */
+    private static <K> SyncResult<K> createResult(boolean imported)
+    {
+        @SuppressWarnings("unchecked")
+        SyncResult<K> res = EasyMock.createMock(SyncResult.class);
+        EasyMock.expect(res.imported()).andReturn(imported);
+        EasyMock.replay(res);
+        return res;
+    }
+
+    /**
+     * Tests whether a sync service can be obtained.
+     */
+    @Test
+    public void testFetchSyncService()
+    {
+        assertEquals("Wrong service class", MediaSyncServiceImpl.class,
+                new BatchSyncResource().fetchSyncService().getClass());
+    }
+
+    /**
+     * Tests whether all objects of a batch are synchronized.
+     */
+    @Test
+    public void testPutBatch() throws NotLoggedInException
+    {
+        SyncBatchData batch = createBatch(2);
+        EasyMock.expect(service.syncArtist(batch.getArtists().get(0)))
+                .andReturn(TestBatchSyncResource.<Long> createResult(true));
+        EasyMock.expect(service.syncAlbum(batch.getAlbums().get(0)))
+                .andReturn(TestBatchSyncResource.<Long> createResult(false));
+        EasyMock.expect(service.syncSong(batch.getSongs().get(0))).andReturn(
+                TestBatchSyncResource.<String> createResult(false));
+        EasyMock.expect(service.syncSong(batch.getSongs().get(1))).andReturn(
+                TestBatchSyncResource.<String> createResult(true));
+        EasyMock.replay(service);
+        Response resp = resource.putBatch(batch);
+        assertEquals("Wrong status", Status.OK.getStatusCode(),
+                resp.getStatus());
+        SyncBatchResultData result = (SyncBatchResultData) resp.getEntity();
+        assertEquals("Wrong artist results", Arrays.asList(Boolean.TRUE),
+                result.getArtistResults());
+        assertEquals("Wrong album results", Arrays.asList(Boolean.FALSE),
+                result.getAlbumResults());
+        assertEquals("Wrong song results",
+                Arrays.asList(Boolean.FALSE, Boolean.TRUE),
+                result.getSongResults());
+        EasyMock.verify(service);
+    }
+
+    /**
+     * Tests that a failure for a single object does not abort the batch. The
+     * failed object is marked by a null result.
+     */
+    @Test
+    public void testPutBatchItemFailure() throws NotLoggedInException
+    {
+        SyncBatchData batch = createBatch(3);
+        EasyMock.expect(service.syncArtist(batch.getArtists().get(0)))
+                .andThrow(new IllegalStateException("Test exception"));
+        EasyMock.expect(service.syncAlbum(batch.getAlbums().get(0)))
+                .andReturn(TestBatchSyncResource.<Long> createResult(true));
+        EasyMock.expect(service.syncSong(batch.getSongs().get(0))).andReturn(
+                TestBatchSyncResource.<String> createResult(true));
+        EasyMock.expect(service.syncSong(batch.getSongs().get(1))).andThrow(
+                new IllegalStateException("Test exception"));
+        EasyMock.expect(service.syncSong(batch.getSongs().get(2))).andReturn(
+                TestBatchSyncResource.<String> createResult(false));
+        EasyMock.replay(service);
+        Response resp = resource.putBatch(batch);
+        assertEquals("Wrong status", Status.OK.getStatusCode(),
+                resp.getStatus());
+        SyncBatchResultData result = (SyncBatchResultData) resp.getEntity();
+        assertEquals("Wrong artist results",
+                Arrays.asList((Boolean) null), result.getArtistResults());
+        assertEquals("Wrong album results", Arrays.asList(Boolean.TRUE),
+                result.getAlbumResults());
+        assertEquals("Wrong song results",
+                Arrays.asList(Boolean.TRUE, null, Boolean.FALSE),
+                result.getSongResults());
+        EasyMock.verify(service);
+    }
+
+    /**
+     * Tests whether an empty batch can be processed.
+     */
+    @Test
+    public void testPutBatchEmpty()
+    {
+        EasyMock.replay(service);
+        Response resp = resource.putBatch(factory.createSyncBatchData());
+        SyncBatchResultData result = (SyncBatchResultData) resp.getEntity();
+        assertEquals("Got song results", 0, result.getSongResults().size());
+        EasyMock.verify(service);
+    }
+
+    /**
+     * Tests putBatch() if no user is logged in.
+     */
+    @Test
+    public void testPutBatchNotLoggedIn() throws NotLoggedInException
+    {
+        SyncBatchData batch = createBatch(1);
+        EasyMock.expect(service.syncArtist(batch.getArtists().get(0)))
+                .andThrow(new NotLoggedInException());
+        EasyMock.replay(service);
+        Response resp = resource.putBatch(batch);
+        assertEquals("Wrong status", Status.UNAUTHORIZED.getStatusCode(),
+                resp.getStatus());
+        EasyMock.verify(service);
+    }
+
+    /**
+     * A test implementation which returns a mock sync service.
+     */
+    private static class BatchSyncResourceTestImpl extends BatchSyncResource
+    {
+        /** The mock service. */
+        private final MediaSyncService mockService;
+
+        public BatchSyncResourceTestImpl(MediaSyncService svc)
+        {
+            mockService = svc;
+        }
+
+        /**
+         * Returns the mock service.
+         */
+        @Override
+        protected MediaSyncService fetchSyncService()
+        {
+            return mockService;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package de.oliver_heger.mediastore.server.resources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.core.header.OutBoundHeaders;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseWriter;
+
+import de.oliver_heger.mediastore.service.utils.ThresholdOutputStream;
+
+/**
+ * Test class for {@code CompressionFilter}.
+ *
+ * @author Oliver Heger
+ * @version $Id: $
+ */
+public class TestCompressionFilter
+{
+    /** Constant for the threshold. */
+    private static final int THRESHOLD = 16;
+
+    /** Constant for the encoding of test data. */
+    private static final String ENCODING = "UTF-8";
+
+    /** Constant for test data. */
+    private static final String DATA = "Some test data which is compressed.";
+
+    /** A mock for the current request. */
+    private ContainerRequest request;
+
+    /** A mock for the current response. */
+    private ContainerResponse response;
+
+    /** A mock for the original response writer. */
+    private ContainerResponseWriter writer;
+
+    /** The filter to be tested. */
+    private CompressionFilter filter;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        request = EasyMock.createMock(ContainerRequest.class);
+        response = EasyMock.createMock(ContainerResponse.class);
+        writer = EasyMock.createMock(ContainerResponseWriter.class);
+        filter = new CompressionFilter(THRESHOLD);
+    }
+
+    /**
+     * Replays the specified mock objects.
+     *
+     * @param mocks the mocks
+     */
+    private static void replay(Object... mocks)
+    {
+        EasyMock.replay(mocks);
+    }
+
+    /**
+     * Verifies the specified mock objects.
+     *
+     * @param mocks the mocks
+     */
+    private static void verify(Object... mocks)
+    {
+        EasyMock.verify(mocks);
+    }
+
+    /**
+     * Compresses the given data.
+     *
+     * @param data the data
+     * @return the compressed data
+     * @throws IOException if an error occurs
+     */
+    private static byte[] compress(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bos);
+        out.write(data);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads the content of the given stream.
+     *
+     * @param in the stream
+     * @return the content of the stream
+     * @throws IOException if an error occurs
+     */
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        int c;
+        while ((c = in.read(buf)) != -1)
+        {
+            bos.write(buf, 0, c);
+        }
+        in.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Tests a filter created with the default constructor.
+     */
+    @Test
+    public void testInitDefault()
+    {
+        assertEquals("Wrong threshold", CompressionFilter.DEFAULT_THRESHOLD,
+                new CompressionFilter().getThreshold());
+    }
+
+    /**
+     * Tests that an uncompressed request is not changed.
+     */
+    @Test
+    public void testFilterRequestUncompressed()
+    {
+        EasyMock.expect(request.getHeaderValue(HttpHeaders.CONTENT_ENCODING))
+                .andReturn(null);
+        replay(request);
+        assertSame("Wrong request", request, filter.filter(request));
+        verify(request);
+    }
+
+    /**
+     * Tests whether a compressed request entity is decompressed.
+     */
+    @Test
+    public void testFilterRequestCompressed() throws IOException
+    {
+        InBoundHeaders headers = new InBoundHeaders();
+        headers.putSingle(HttpHeaders.CONTENT_ENCODING, CompressionFilter.GZIP);
+        EasyMock.expect(request.getHeaderValue(HttpHeaders.CONTENT_ENCODING))
+                .andReturn(CompressionFilter.GZIP);
+        EasyMock.expect(request.getEntityInputStream()).andReturn(
+                new ByteArrayInputStream(compress(DATA.getBytes(ENCODING))));
+        EasyMock.expect(request.getRequestHeaders()).andReturn(headers);
+        Capture<InputStream> stream = new Capture<InputStream>();
+        request.setEntityInputStream(EasyMock.capture(stream));
+        replay(request);
+        assertSame("Wrong request", request, filter.filter(request));
+        assertEquals("Wrong data", DATA,
+                new String(read(stream.getValue()), ENCODING));
+        assertFalse("Content encoding not removed",
+                headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+        verify(request);
+    }
+
+    /**
+     * Tests that the response is not changed if the client does not accept
+     * compressed data.
+     */
+    @Test
+    public void testFilterResponseNotAccepted()
+    {
+        EasyMock.expect(response.getEntity()).andReturn(DATA);
+        EasyMock.expect(request.getHeaderValue(HttpHeaders.ACCEPT_ENCODING))
+                .andReturn(null);
+        replay(request, response);
+        assertSame("Wrong response", response,
+                filter.filter(request, response));
+        verify(request, response);
+    }
+
+    /**
+     * Tests that a response without an entity is not changed.
+     */
+    @Test
+    public void testFilterResponseNoEntity()
+    {
+        EasyMock.expect(response.getEntity()).andReturn(null);
+        replay(request, response);
+        assertSame("Wrong response", response,
+                filter.filter(request, response));
+        verify(request, response);
+    }
+
+    /**
+     * Tests whether a compressing writer is installed for a response.
+     */
+    @Test
+    public void testFilterResponseWriterInstalled()
+    {
+        OutBoundHeaders headers = new OutBoundHeaders();
+        EasyMock.expect(response.getEntity()).andReturn(DATA);
+        EasyMock.expect(request.getHeaderValue(HttpHeaders.ACCEPT_ENCODING))
+                .andReturn("gzip, deflate");
+        EasyMock.expect(response.getHttpHeaders()).andReturn(headers)
+                .anyTimes();
+        EasyMock.expect(response.getContainerResponseWriter()).andReturn(
+                writer);
+        Capture<ContainerResponseWriter> capture =
+                new Capture<ContainerResponseWriter>();
+        response.setContainerResponseWriter(EasyMock.capture(capture));
+        replay(request, response, writer);
+        assertSame("Wrong response", response,
+                filter.filter(request, response));
+        assertEquals("Wrong writer class",
+                CompressionFilter.CompressionWriter.class, capture.getValue()
+                        .getClass());
+        assertEquals("Wrong vary header", HttpHeaders.ACCEPT_ENCODING,
+                headers.getFirst(HttpHeaders.VARY));
+        verify(request, response, writer);
+    }
+
+    /**
+     * Tests the writer if the content length is known and below the threshold.
+     */
+    @Test
+    public void testWriterKnownLengthBelowThreshold() throws IOException
+    {
+        OutputStream out = new ByteArrayOutputStream();
+        EasyMock.expect(writer.writeStatusAndHeaders(THRESHOLD, response))
+                .andReturn(out);
+        writer.finish();
+        replay(request, response, writer);
+        CompressionFilter.CompressionWriter cw =
+                new CompressionFilter.CompressionWriter(writer, THRESHOLD);
+        assertSame("Wrong stream", out,
+                cw.writeStatusAndHeaders(THRESHOLD, response));
+        cw.finish();
+        verify(request, response, writer);
+    }
+
+    /**
+     * Tests the writer for a small entity of unknown length.
+     */
+    @Test
+    public void testWriterSmallEntity() throws IOException
+    {
+        OutBoundHeaders headers = new OutBoundHeaders();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] data = DATA.getBytes(ENCODING);
+        EasyMock.expect(response.getHttpHeaders()).andReturn(headers)
+                .anyTimes();
+        EasyMock.expect(writer.writeStatusAndHeaders(data.length, response))
+                .andReturn(out);
+        writer.finish();
+        replay(request, response, writer);
+        CompressionFilter.CompressionWriter cw =
+                new CompressionFilter.CompressionWriter(writer, data.length);
+        OutputStream stream = cw.writeStatusAndHeaders(-1, response);
+        stream.write(data[0]);
+        stream.write(data, 1, data.length - 1);
+        stream.flush();
+        assertEquals("Data already written", 0, out.size());
+        stream.close();
+        cw.finish();
+        assertArrayEquals("Wrong data", data, out.toByteArray());
+        assertFalse("Content encoding set",
+                headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+        verify(request, response, writer);
+    }
+
+    /**
+     * Tests the writer for an entity exceeding the threshold.
+     */
+    @Test
+    public void testWriterCompressed() throws IOException
+    {
+        OutBoundHeaders headers = new OutBoundHeaders();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] data = DATA.getBytes(ENCODING);
+        EasyMock.expect(response.getHttpHeaders()).andReturn(headers)
+                .anyTimes();
+        EasyMock.expect(writer.writeStatusAndHeaders(-1, response)).andReturn(
+                out);
+        writer.finish();
+        replay(request, response, writer);
+        CompressionFilter.CompressionWriter cw =
+                new CompressionFilter.CompressionWriter(writer, THRESHOLD);
+        OutputStream stream = cw.writeStatusAndHeaders(data.length, response);
+        stream.write(data, 0, THRESHOLD);
+        assertFalse("Already compressed",
+                ((ThresholdOutputStream) stream).isCompressed());
+        stream.write(data, THRESHOLD, data.length - THRESHOLD);
+        assertEquals("Wrong content encoding", CompressionFilter.GZIP,
+                headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+        cw.finish();
+        assertArrayEquals("Wrong data", data, read(new GZIPInputStream(
+                new ByteArrayInputStream(out.toByteArray()))));
+        verify(request, response, writer);
+    }
+}